@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DataSeries} that keeps the data its delegate returned, so that a range it was already asked for is not requested again.
+ *
+ * The cached data covers a single interval. A request that overlaps it only asks the delegate for the parts that are missing on either
+ * side, and a request that does not replaces it. As data near the newest end might not have been available when it was first requested,
+ * the last {@code refetchMargin} of the interval is requested again whenever it is extended to the right. The interval is kept within
+ * {@code maxCachedLength} by dropping the data furthest from the latest request, never the data in it.
+ *
+ * Requests longer than {@code maxCachedLength} are passed to the delegate as they are, and leave the cache untouched. Besides not fitting
+ * in it, the delegate may downsample such ranges, e.g. the datastore returns rollup samples for long ranges of memory data, which must not
+ * be served for the shorter ranges inside them.
+ *
+ * The delegate is expected to return its data sorted by x. A fresh list of fresh {@link SeriesData} is returned for every request, as
+ * callers are free to modify them. The points returned are the cached ones in the range, with the one right before and the one right
+ * after it.
+ */
+public class CachingDataSeries<E> implements DataSeries<E> {
+  @NotNull private final DataSeries<E> myDelegate;
+  private final long myRefetchMargin;
+  private final long myMaxCachedLength;
+
+  @NotNull private final TLongArrayList myX = new TLongArrayList();
+  @NotNull private final List<E> myY = new ArrayList<>();
+  /**
+   * The interval the cached data covers, only valid when {@link #myHasData} is true. There can be a data point on either side of it, as
+   * delegates usually return one more point than asked for so that lines can be drawn to the edges of the range.
+   */
+  private long myCachedMin;
+  private long myCachedMax;
+  private boolean myHasData;
+
+  public CachingDataSeries(@NotNull DataSeries<E> delegate, long refetchMargin, long maxCachedLength) {
+    myDelegate = delegate;
+    myRefetchMargin = refetchMargin;
+    myMaxCachedLength = maxCachedLength;
+  }
+
+  @Override
+  public List<SeriesData<E>> getDataForXRange(Range xRange) {
+    List<SeriesData<E>> data = new ArrayList<>();
+    forEachPoint(xRange, (x, value) -> data.add(new SeriesData<>(x, value)));
+    return data;
+  }
+
+  /**
+   * Brings the cache up to date for {@code xRange}, then passes {@code consumer} the points {@link #getDataForXRange(Range)} returns.
+   */
+  protected synchronized void forEachPoint(@NotNull Range xRange, @NotNull PointConsumer<E> consumer) {
+    if (xRange.isEmpty()) {
+      return;
+    }
+
+    long min = (long)Math.floor(xRange.getMin());
+    long max = (long)Math.ceil(xRange.getMax());
+    if (max - min > myMaxCachedLength) {
+      for (SeriesData<E> point : myDelegate.getDataForXRange(new Range(min, max))) {
+        consumer.accept(point.x, point.value);
+      }
+      return;
+    }
+
+    if (!myHasData || max < myCachedMin || min > myCachedMax) {
+      myX.clear();
+      myY.clear();
+      append(myDelegate.getDataForXRange(new Range(min, max)), Long.MIN_VALUE);
+      myCachedMin = min;
+      myCachedMax = max;
+      myHasData = true;
+    }
+    else {
+      if (min < myCachedMin) {
+        prepend(myDelegate.getDataForXRange(new Range(min, myCachedMin)), myCachedMin);
+        myCachedMin = min;
+      }
+      if (max > myCachedMax) {
+        long refetchFrom = Math.max(myCachedMin, myCachedMax - myRefetchMargin);
+        removeAfter(refetchFrom);
+        append(myDelegate.getDataForXRange(new Range(refetchFrom, max)), refetchFrom);
+        myCachedMax = max;
+      }
+      evict(min, max);
+    }
+
+    int from = Math.max(0, countAtMost(min - 1) - 1);
+    int to = Math.min(myX.size(), countAtMost(max) + 1);
+    for (int i = from; i < to; i++) {
+      consumer.accept(myX.get(i), myY.get(i));
+    }
+  }
+
+  /**
+   * Drops all the cached data.
+   */
+  public synchronized void clear() {
+    myX.clear();
+    myY.clear();
+    myHasData = false;
+  }
+
+  /**
+   * Adds the points of {@code data} after {@code after} to the end of the cache.
+   */
+  private void append(@NotNull List<SeriesData<E>> data, long after) {
+    for (SeriesData<E> point : data) {
+      if (point.x > after) {
+        myX.add(point.x);
+        myY.add(point.value);
+      }
+    }
+  }
+
+  /**
+   * Replaces the points of the cache before {@code before} with those of {@code data}.
+   */
+  private void prepend(@NotNull List<SeriesData<E>> data, long before) {
+    removeRange(0, countAtMost(before - 1));
+
+    TLongArrayList x = new TLongArrayList();
+    List<E> y = new ArrayList<>();
+    for (SeriesData<E> point : data) {
+      if (point.x < before) {
+        x.add(point.x);
+        y.add(point.value);
+      }
+    }
+    myX.insert(0, x.toNativeArray());
+    myY.addAll(0, y);
+  }
+
+  private void removeAfter(long after) {
+    removeRange(countAtMost(after), myX.size());
+  }
+
+  private void removeRange(int from, int to) {
+    if (from < to) {
+      myX.remove(from, to - from);
+      myY.subList(from, to).clear();
+    }
+  }
+
+  /**
+   * Shrinks the cached interval down to {@link #myMaxCachedLength}, only dropping data outside of {@code [min, max]}, which is never longer
+   * than that.
+   */
+  private void evict(long min, long max) {
+    if (myCachedMax - myCachedMin <= myMaxCachedLength) {
+      return;
+    }
+    long newMin = Math.max(myCachedMin, Math.min(min, myCachedMax - myMaxCachedLength));
+    long newMax = Math.min(myCachedMax, Math.max(max, newMin + myMaxCachedLength));
+
+    // Keep the point right before the interval and the one right after it.
+    int from = Math.max(0, countAtMost(newMin - 1) - 1);
+    int to = Math.min(myX.size(), countAtMost(newMax) + 1);
+    removeRange(to, myX.size());
+    removeRange(0, from);
+    myCachedMin = newMin;
+    myCachedMax = newMax;
+  }
+
+  /**
+   * @return the number of cached points with an x lower than or equal to {@code x}.
+   */
+  private int countAtMost(long x) {
+    int low = 0;
+    int high = myX.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myX.get(mid) <= x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  protected interface PointConsumer<E> {
+    void accept(long x, E value);
+  }
+}
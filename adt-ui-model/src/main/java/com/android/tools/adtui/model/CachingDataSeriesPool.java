@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hands out one {@link CachingDataSeries} per key, so that the different views of the same data, e.g. a monitor and the stage it
+ * expands into, share the data already fetched.
+ */
+public class CachingDataSeriesPool {
+  private final long myRefetchMargin;
+  private final long myMaxCachedLength;
+  @NotNull private final Map<Object, CachingDataSeries<?>> mySeries = new HashMap<>();
+
+  /**
+   * @param refetchMargin   see {@link CachingDataSeries}.
+   * @param maxCachedLength see {@link CachingDataSeries}.
+   */
+  public CachingDataSeriesPool(long refetchMargin, long maxCachedLength) {
+    myRefetchMargin = refetchMargin;
+    myMaxCachedLength = maxCachedLength;
+  }
+
+  /**
+   * @return the series cached for {@code key}, creating it around the series from {@code delegate} the first time. Keys must identify
+   * the data a series returns, as callers asking for the same key share the same data.
+   */
+  @NotNull
+  @SuppressWarnings("unchecked")
+  public synchronized <E> CachingDataSeries<E> get(@NotNull Object key, @NotNull Supplier<DataSeries<E>> delegate) {
+    return (CachingDataSeries<E>)mySeries
+      .computeIfAbsent(key, k -> new CachingDataSeries<>(delegate.get(), myRefetchMargin, myMaxCachedLength));
+  }
+
+  /**
+   * Same as {@link #get(Object, Supplier)}, for a series of {@code long} values that can also be read without boxing them. A key must
+   * always be asked for through the same method.
+   */
+  @NotNull
+  public synchronized CachingLongDataSeries getLong(@NotNull Object key, @NotNull Supplier<DataSeries<Long>> delegate) {
+    return (CachingLongDataSeries)mySeries
+      .computeIfAbsent(key, k -> new CachingLongDataSeries(delegate.get(), myRefetchMargin, myMaxCachedLength));
+  }
+
+  /**
+   * Drops all the series, e.g. when the data they are for is no longer shown.
+   */
+  public synchronized void clear() {
+    mySeries.clear();
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link CachingDataSeries} of {@code long} values, which can copy its cached data straight into a {@link LongSeriesBuffer}.
+ */
+public class CachingLongDataSeries extends CachingDataSeries<Long> implements PrimitiveDataSeries {
+  public CachingLongDataSeries(@NotNull DataSeries<Long> delegate, long refetchMargin, long maxCachedLength) {
+    super(delegate, refetchMargin, maxCachedLength);
+  }
+
+  @Override
+  public void getDataForXRange(@NotNull Range xRange, @NotNull LongSeriesBuffer buffer) {
+    buffer.clear();
+    forEachPoint(xRange, buffer::add);
+  }
+}
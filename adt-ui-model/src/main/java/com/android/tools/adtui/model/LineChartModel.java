@@ -38,6 +38,12 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
    */
   private boolean myFirstUpdate = true;
 
+  /**
+   * Reused by every update to read the data of the series.
+   */
+  @NotNull
+  private final LongSeriesBuffer myData = new LongSeriesBuffer();
+
   @Override
   public void update(long elapsedNs) {
     Map<Range, Double> max = new HashMap<>();
@@ -46,9 +52,9 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
       Range range = ranged.getYRange();
       double yMax = Double.MIN_VALUE;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
-      for (int i = 0; i < seriesList.size(); i++) {
-        double value = seriesList.get(i).value;
+      ranged.getSeries(myData);
+      for (int i = 0; i < myData.size(); i++) {
+        double value = myData.getY(i);
         if (yMax < value) {
           yMax = value;
         }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data points of a series of {@code long} values, kept in parallel primitive arrays instead of one {@link SeriesData} and one boxed
+ * value per point. A buffer is meant to be filled again for every frame, so its arrays are only grown and never shrunk.
+ */
+public final class LongSeriesBuffer {
+  private static final int INITIAL_CAPACITY = 16;
+
+  @NotNull private long[] myX = new long[INITIAL_CAPACITY];
+  @NotNull private long[] myY = new long[INITIAL_CAPACITY];
+  private int mySize;
+
+  public int size() {
+    return mySize;
+  }
+
+  public long getX(int index) {
+    assert index < mySize;
+    return myX[index];
+  }
+
+  public long getY(int index) {
+    assert index < mySize;
+    return myY[index];
+  }
+
+  public void setY(int index, long y) {
+    assert index < mySize;
+    myY[index] = y;
+  }
+
+  public void add(long x, long y) {
+    if (mySize == myX.length) {
+      myX = Arrays.copyOf(myX, mySize * 2);
+      myY = Arrays.copyOf(myY, mySize * 2);
+    }
+    myX[mySize] = x;
+    myY[mySize] = y;
+    mySize++;
+  }
+
+  public void addAll(@NotNull List<SeriesData<Long>> data) {
+    for (SeriesData<Long> point : data) {
+      add(point.x, point.value);
+    }
+  }
+
+  public void removeLast() {
+    assert mySize > 0;
+    mySize--;
+  }
+
+  public void clear() {
+    mySize = 0;
+  }
+
+  /**
+   * Replaces the points of this buffer with the ones of {@code other}.
+   */
+  public void set(@NotNull LongSeriesBuffer other) {
+    clear();
+    for (int i = 0; i < other.mySize; i++) {
+      add(other.myX[i], other.myY[i]);
+    }
+  }
+
+  /**
+   * @return the points of this buffer as {@link SeriesData}, for code that has no primitive path.
+   */
+  @NotNull
+  public List<SeriesData<Long>> toList() {
+    List<SeriesData<Long>> data = new ArrayList<>(mySize);
+    for (int i = 0; i < mySize; i++) {
+      data.add(new SeriesData<>(myX[i], myY[i]));
+    }
+    return data;
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} of {@code long} values that can also hand out its data without creating objects for every point.
+ */
+public interface PrimitiveDataSeries extends DataSeries<Long> {
+  /**
+   * Replaces the content of {@code buffer} with the same points {@link #getDataForXRange(Range)} would return.
+   */
+  void getDataForXRange(@NotNull Range xRange, @NotNull LongSeriesBuffer buffer);
+}
@@ -36,6 +36,20 @@ public class RangedContinuousSeries extends RangedSeries<Long> {
     myName = name;
   }
 
+  /**
+   * Same as {@link #getSeries()}, but copies the data into {@code buffer}, which only creates objects for every point if the underlying
+   * series is not a {@link PrimitiveDataSeries}.
+   */
+  public void getSeries(@NotNull LongSeriesBuffer buffer) {
+    if (mSeries instanceof PrimitiveDataSeries) {
+      ((PrimitiveDataSeries)mSeries).getDataForXRange(mXRange, buffer);
+    }
+    else {
+      buffer.clear();
+      buffer.addAll(getSeries());
+    }
+  }
+
   @NotNull
   public Range getYRange() {
     return mYRange;
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CachingDataSeriesTest {
+  private static final long REFETCH_MARGIN = 20;
+
+  private final List<String> myRequests = new ArrayList<>();
+  private DataSeries<Long> myDelegate;
+
+  @Before
+  public void setUp() {
+    LongDataSeries data = new LongDataSeries();
+    for (long x = 0; x <= 1000; x += 10) {
+      data.add(x, x * 2);
+    }
+    myDelegate = range -> {
+      myRequests.add(describe(range.getMin(), range.getMax()));
+      return data.getDataForXRange(range);
+    };
+  }
+
+  @Test
+  public void rangeInsideTheCacheIsNotRequestedAgain() {
+    CachingDataSeries<Long> series = new CachingDataSeries<>(myDelegate, REFETCH_MARGIN, Long.MAX_VALUE);
+    assertThat(getX(series.getDataForXRange(new Range(100, 200)))).containsExactly(100L, 110L, 120L, 130L, 140L, 150L, 160L, 170L,
+                                                                                   180L, 190L, 200L).inOrder();
+    assertThat(getX(series.getDataForXRange(new Range(125, 155)))).containsExactly(120L, 130L, 140L, 150L, 160L).inOrder();
+    assertThat(myRequests).containsExactly(describe(100, 200));
+  }
+
+  @Test
+  public void onlyTheMissingEdgesAreRequested() {
+    CachingDataSeries<Long> series = new CachingDataSeries<>(myDelegate, REFETCH_MARGIN, Long.MAX_VALUE);
+    series.getDataForXRange(new Range(100, 200));
+
+    // The end of the cached range is requested again, in case data was added to it since.
+    List<SeriesData<Long>> data = series.getDataForXRange(new Range(150, 300));
+    assertThat(myRequests).containsExactly(describe(100, 200), describe(180, 300)).inOrder();
+    assertThat(data.get(0).x).isEqualTo(140L);
+    assertThat(data.get(data.size() - 1).x).isEqualTo(300L);
+    assertThat(data).hasSize(17);
+
+    data = series.getDataForXRange(new Range(50, 300));
+    assertThat(myRequests).containsExactly(describe(100, 200), describe(180, 300), describe(50, 100)).inOrder();
+    assertThat(data).hasSize(26);
+    for (int i = 0; i < data.size(); i++) {
+      assertThat(data.get(i).x).isEqualTo(50L + i * 10);
+      assertThat(data.get(i).value).isEqualTo(data.get(i).x * 2);
+    }
+  }
+
+  @Test
+  public void cacheIsKeptWithinItsMaximumLength() {
+    CachingDataSeries<Long> series = new CachingDataSeries<>(myDelegate, REFETCH_MARGIN, 100);
+    series.getDataForXRange(new Range(0, 100));
+    series.getDataForXRange(new Range(100, 200));
+    myRequests.clear();
+
+    // [0, 100) was dropped as the range moved forward.
+    series.getDataForXRange(new Range(0, 50));
+    assertThat(myRequests).containsExactly(describe(0, 50));
+  }
+
+  @Test
+  public void rangesLongerThanTheCacheReturnAllTheirPoints() {
+    CachingDataSeries<Long> series = new CachingDataSeries<>(myDelegate, REFETCH_MARGIN, 100);
+    series.getDataForXRange(new Range(400, 450));
+
+    for (int i = 0; i < 2; i++) {
+      List<SeriesData<Long>> data = series.getDataForXRange(new Range(0, 1000));
+      assertThat(data).hasSize(101);
+      for (int j = 0; j < data.size(); j++) {
+        assertThat(data.get(j).x).isEqualTo(j * 10L);
+        assertThat(data.get(j).value).isEqualTo(j * 20L);
+      }
+    }
+    assertThat(myRequests).containsExactly(describe(400, 450), describe(0, 1000), describe(0, 1000)).inOrder();
+
+    // The cache was left as it was, while the long ranges, which a delegate could have downsampled, were not cached.
+    series.getDataForXRange(new Range(410, 440));
+    series.getDataForXRange(new Range(600, 650));
+    assertThat(myRequests).containsExactly(describe(400, 450), describe(0, 1000), describe(0, 1000), describe(600, 650)).inOrder();
+  }
+
+  @Test
+  public void returnedDataCanBeModified() {
+    CachingDataSeries<Long> series = new CachingDataSeries<>(myDelegate, REFETCH_MARGIN, Long.MAX_VALUE);
+    series.getDataForXRange(new Range(0, 100)).forEach(point -> point.value = -1L);
+    assertThat(series.getDataForXRange(new Range(0, 100)).get(5).value).isEqualTo(100L);
+  }
+
+  @Test
+  public void bufferedDataMatchesTheReturnedData() {
+    CachingLongDataSeries series = new CachingLongDataSeries(myDelegate, REFETCH_MARGIN, Long.MAX_VALUE);
+    LongSeriesBuffer buffer = new LongSeriesBuffer();
+    series.getDataForXRange(new Range(125, 300), buffer);
+
+    List<SeriesData<Long>> data = series.getDataForXRange(new Range(125, 300));
+    assertThat(buffer.size()).isEqualTo(data.size());
+    for (int i = 0; i < data.size(); i++) {
+      assertThat(buffer.getX(i)).isEqualTo(data.get(i).x);
+      assertThat(buffer.getY(i)).isEqualTo(data.get(i).value);
+    }
+    assertThat(myRequests).containsExactly(describe(125, 300));
+  }
+
+  @Test
+  public void poolSharesSeriesByKey() {
+    CachingDataSeriesPool pool = new CachingDataSeriesPool(REFETCH_MARGIN, Long.MAX_VALUE);
+    CachingDataSeries<Long> series = pool.get("key", () -> myDelegate);
+    assertThat(pool.<Long>get("key", () -> myDelegate)).isSameAs(series);
+    assertThat(pool.<Long>get("other key", () -> myDelegate)).isNotSameAs(series);
+
+    pool.clear();
+    assertThat(pool.<Long>get("key", () -> myDelegate)).isNotSameAs(series);
+  }
+
+  private static String describe(double min, double max) {
+    return String.format("[%.0f, %.0f]", min, max);
+  }
+
+  private static List<Long> getX(List<SeriesData<Long>> data) {
+    return data.stream().map(point -> point.x).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Rasterizes the images of a component on a background thread, so that content that is expensive to draw does not block the EDT, and
+ * keeps the most recently used ones.
+ *
+ * An image is identified by a key, which must be equal for images that would look the same, and must hold everything needed to
+ * rasterize it: the rasterizing function runs on the background thread, and should not read anything the EDT might be modifying. All
+ * the rasterizers share a single thread, so their rasterizing functions never run concurrently.
+ *
+ * @param <K> the type of the keys identifying the images.
+ */
+public final class BackgroundRasterizer<K> {
+  private static final Executor SHARED_EXECUTOR =
+    Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("adtui-rasterizer").setDaemon(true).build());
+
+  @NotNull private final Function<K, Image> myRasterizer;
+  @NotNull private final Runnable myImageReadyListener;
+  @NotNull private final Executor myExecutor;
+  @NotNull private final Executor myEdtExecutor;
+  @NotNull private final Map<K, Image> myImages;
+
+  /**
+   * The key last asked for that is not rasterized yet. Requests for other keys still waiting to run are dropped, so that the
+   * background thread does not fall behind when the key changes every frame.
+   */
+  @Nullable private volatile K myPendingKey;
+
+  /**
+   * Incremented by {@link #clear()}, so that images still being rasterized when it is called are dropped once ready. Only used on the
+   * EDT.
+   */
+  private int myGeneration;
+
+  /**
+   * @param rasterizer          creates the image of a key, called on the background thread.
+   * @param imageReadyListener  called on the EDT when an image is ready, usually to repaint the component.
+   * @param maxImages           the number of images kept.
+   */
+  public BackgroundRasterizer(@NotNull Function<K, Image> rasterizer, @NotNull Runnable imageReadyListener, int maxImages) {
+    this(rasterizer, imageReadyListener, maxImages, SHARED_EXECUTOR, SwingUtilities::invokeLater);
+  }
+
+  @VisibleForTesting
+  public BackgroundRasterizer(@NotNull Function<K, Image> rasterizer,
+                              @NotNull Runnable imageReadyListener,
+                              int maxImages,
+                              @NotNull Executor executor,
+                              @NotNull Executor edtExecutor) {
+    myRasterizer = rasterizer;
+    myImageReadyListener = imageReadyListener;
+    myExecutor = executor;
+    myEdtExecutor = edtExecutor;
+    myImages = new LinkedHashMap<K, Image>(maxImages + 1, 1f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Image> eldest) {
+        return size() > maxImages;
+      }
+    };
+  }
+
+  /**
+   * Must be called on the EDT.
+   *
+   * @return the image of {@code key} if it is ready. Otherwise, schedules it to be rasterized and returns null, in which case the image
+   * ready listener is called once it can be returned.
+   */
+  @Nullable
+  public Image get(@NotNull K key) {
+    Image image = myImages.get(key);
+    if (image == null && !key.equals(myPendingKey)) {
+      myPendingKey = key;
+      int generation = myGeneration;
+      myExecutor.execute(() -> rasterize(key, generation));
+      // The executors might have run synchronously.
+      image = myImages.get(key);
+    }
+    return image;
+  }
+
+  /**
+   * Drops all the images, e.g. when their keys can no longer be asked for.
+   */
+  public void clear() {
+    myImages.clear();
+    myPendingKey = null;
+    myGeneration++;
+  }
+
+  private void rasterize(@NotNull K key, int generation) {
+    if (!key.equals(myPendingKey)) {
+      // Another image was asked for since.
+      return;
+    }
+
+    Image image = myRasterizer.apply(key);
+    myEdtExecutor.execute(() -> {
+      if (generation != myGeneration) {
+        // The images were cleared while this one was rasterized, its key might not look the same anymore.
+        return;
+      }
+      if (key.equals(myPendingKey)) {
+        myPendingKey = null;
+      }
+      myImages.put(key, image);
+      myImageReadyListener.run();
+    });
+  }
+}
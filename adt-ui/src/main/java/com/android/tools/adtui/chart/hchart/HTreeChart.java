@@ -18,10 +18,11 @@ package com.android.tools.adtui.chart.hchart;
 
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.adtui.AnimatedComponent;
+import com.android.tools.adtui.BackgroundRasterizer;
 import com.android.tools.adtui.common.AdtUiUtils;
 import com.android.tools.adtui.model.HNode;
 import com.android.tools.adtui.model.Range;
-import com.intellij.util.ui.ImageUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -32,9 +33,10 @@ import java.awt.event.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * A chart which renders nodes using a horizontal flow. That is, while normal trees are vertical,
@@ -54,6 +56,9 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   private static final int ACTION_MOVEMENT_FACTOR = 5;
   private static final int BORDER_PLUS_PADDING = 2;
   private static final int INITIAL_Y_POSITION = 0;
+  private static final int MAX_CACHED_CANVASES = 3;
+  private static final Executor INDEX_EXECUTOR =
+    Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("adtui-htree-index").setDaemon(true).build());
 
   private final Orientation myOrientation;
 
@@ -63,6 +68,26 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @Nullable
   private N myRoot;
 
+  /**
+   * Index of the nodes of {@link #myRoot}, built once per tree so that range changes do not need to visit all of its nodes. It is built
+   * off the EDT, and is null until then.
+   */
+  @Nullable
+  private HTreeChartIndex<N> myIndex;
+
+  /**
+   * The root the index is being built for. Builds still waiting to run for another root are dropped, so that selecting nodes quickly
+   * does not queue up an index per selection.
+   */
+  @Nullable
+  private volatile N myPendingIndexRoot;
+
+  @NotNull
+  private Executor myIndexExecutor = INDEX_EXECUTOR;
+
+  @NotNull
+  private Executor myIndexEdtExecutor = SwingUtilities::invokeLater;
+
   @NotNull
   private final Range myXRange;
 
@@ -95,9 +120,32 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   @NotNull
   private final HTreeChartReducer<N> myReducer;
 
+  /**
+   * The canvas last drawn, which keeps being drawn until the one for {@link #myCanvasKey} is rasterized.
+   */
   @Nullable
   private Image myCanvas;
 
+  @Nullable
+  private CanvasKey<N> myDrawnCanvasKey;
+
+  /**
+   * What the canvas should currently show, null if the drawn nodes need to be computed again.
+   */
+  @Nullable
+  private CanvasKey<N> myCanvasKey;
+
+  /**
+   * Rasterizes the canvas off the EDT, and keeps the last few ones, e.g. for when the focused node goes back and forth.
+   */
+  @NotNull
+  private BackgroundRasterizer<CanvasKey<N>> myRasterizer;
+
+  /**
+   * Incremented whenever the nodes may look different for the same range, so that canvases rasterized before are not used anymore.
+   */
+  private int myTreeVersion;
+
   /**
    * If true, the next render pass will forcefully rebuild this chart's canvas (an expensive
    * operation which doesn't have to be done too often as usually the contents are static)
@@ -124,6 +172,7 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     myYRange = new Range(INITIAL_Y_POSITION, INITIAL_Y_POSITION);
     myOrientation = orientation;
     myRootVisible = true;
+    myRasterizer = new BackgroundRasterizer<>(HTreeChart::rasterize, this::opaqueRepaint, MAX_CACHED_CANVASES);
 
     setFocusable(true);
     initializeInputMap();
@@ -140,9 +189,28 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
 
   public void setRootVisible(boolean rootVisible) {
     myRootVisible = rootVisible;
+    myTreeVersion++;
     changed();
   }
 
+  /**
+   * Rasterizes the canvas with the given executors instead of on a background thread, e.g. to draw synchronously in tests.
+   */
+  @VisibleForTesting
+  public void setRasterizerExecutors(@NotNull Executor executor, @NotNull Executor edtExecutor) {
+    myRasterizer = new BackgroundRasterizer<>(HTreeChart::rasterize, this::opaqueRepaint, MAX_CACHED_CANVASES, executor, edtExecutor);
+  }
+
+  /**
+   * Indexes the trees with the given executors instead of on a background thread, e.g. to have the index ready once
+   * {@link #setHTree(HNode)} returns in tests.
+   */
+  @VisibleForTesting
+  public void setIndexExecutors(@NotNull Executor executor, @NotNull Executor edtExecutor) {
+    myIndexExecutor = executor;
+    myIndexEdtExecutor = edtExecutor;
+  }
+
   /**
    * Normally, the focused node is set by mouse hover. However, for tests, it can be a huge
    * convenience to set this directly.
@@ -165,8 +233,8 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   protected void draw(Graphics2D g, Dimension dim) {
     long startTime = System.nanoTime();
     if (myDataUpdated) {
-      // Nulling out the canvas will trigger a render pass, below
-      updateNodesAndClearCanvas();
+      // Clearing the canvas key will trigger a render pass, below
+      updateNodesAndClearCanvas(dim);
       myDataUpdated = false;
     }
     g.setFont(getFont());
@@ -184,26 +252,43 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
       return;
     }
 
-    if (myCanvas == null || ImageUtil.getUserHeight(myCanvas) != dim.height || ImageUtil.getUserWidth(myCanvas) != dim.width) {
-      redrawToCanvas(dim);
+    if (dim.width <= 0 || dim.height <= 0) {
+      return;
+    }
+
+    if (myIndex == null) {
+      // The tree is still being indexed. Keep showing the last canvas until the new one is ready, instead of blanking the chart every
+      // time a tree is set, e.g. on each selection change.
+      if (myCanvas != null) {
+        UIUtil.drawImage(g, myCanvas, 0, 0, null);
+      }
+      return;
+    }
+
+    if (myCanvasKey == null || !myCanvasKey.mySize.equals(dim)) {
+      reduceNodes(dim);
+    }
+    assert myCanvasKey != null;
+    Image canvas = myRasterizer.get(myCanvasKey);
+    if (canvas != null) {
+      myCanvas = canvas;
+      myDrawnCanvasKey = myCanvasKey;
+    }
+    // Until the canvas is ready, keep showing the last one, which may be of the previous tree.
+    if (myCanvas != null && myDrawnCanvasKey != null) {
+      UIUtil.drawImage(g, myCanvas, getCanvasOffset(myDrawnCanvasKey, myCanvasKey), 0, null);
     }
-    UIUtil.drawImage(g, myCanvas, 0, 0, null);
     addDebugInfo("Draw time %.2fms", (System.nanoTime() - startTime) / 1e6);
-    addDebugInfo("# of nodes %d", myNodes.size());
+    addDebugInfo("# of nodes %d", myIndex.getNodeCount());
+    addDebugInfo("# of spans in range %d", myNodes.size());
     addDebugInfo("# of reduced nodes %d", myDrawnNodes.size());
   }
 
-  private void redrawToCanvas(@NotNull Dimension dim) {
-    final Graphics2D g;
-    if (myCanvas != null && ImageUtil.getUserWidth(myCanvas) >= dim.width && ImageUtil.getUserHeight(myCanvas) >= dim.height) {
-      g = (Graphics2D)myCanvas.getGraphics();
-      g.setColor(getBackground());
-      g.fillRect(0, 0, dim.width, dim.height);
-    } else {
-      myCanvas = UIUtil.createImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB);
-      g = (Graphics2D)myCanvas.getGraphics();
-    }
-    g.setFont(getFont());
+  /**
+   * Transforms and reduces the nodes in range for the given dimension. They are kept to find nodes at a point, and handed over to the
+   * background thread to be rasterized.
+   */
+  private void reduceNodes(@NotNull Dimension dim) {
     myDrawnNodes.clear();
     myDrawnNodes.addAll(myNodes);
 
@@ -227,53 +312,60 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
 
     assert myDrawnRectangles.size() == myDrawnNodes.size();
     assert myRenderer != null;
-    for (int i = 0; i < myDrawnNodes.size(); ++i) {
-      N node = myDrawnNodes.get(i);
-      myRenderer.render(g, node, myDrawnRectangles.get(i), node == myFocusedNode);
-    }
+    myCanvasKey = new CanvasKey<>(myTreeVersion, myXRange.getMin(), myXRange.getMax(), myYRange.getMin(), new Dimension(dim),
+                                  myFocusedNode, getFont(), myRenderer,
+                                  new ArrayList<>(myDrawnNodes), new ArrayList<>(myDrawnRectangles));
+  }
 
+  /**
+   * Called on the background thread. The rectangles of the key are not modified by the EDT once the key is created.
+   */
+  @NotNull
+  private static <N extends HNode<N>> Image rasterize(@NotNull CanvasKey<N> key) {
+    Image canvas = UIUtil.createImage(key.mySize.width, key.mySize.height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = (Graphics2D)canvas.getGraphics();
+    g.setFont(key.myFont);
+    for (int i = 0; i < key.myNodes.size(); ++i) {
+      N node = key.myNodes.get(i);
+      key.myRenderer.render(g, node, key.myRectangles.get(i), node == key.myFocusedNode);
+    }
     g.dispose();
+    return canvas;
+  }
+
+  /**
+   * @return where to draw a canvas rasterized for {@code drawn} so that it lines up with {@code current}, which only differs from 0 if
+   * the range of the same tree was panned since. That way, panning does not look like it lags while the canvas is rasterized.
+   */
+  private static int getCanvasOffset(@NotNull CanvasKey<?> drawn, @NotNull CanvasKey<?> current) {
+    double length = current.myXMax - current.myXMin;
+    if (drawn.myTreeVersion != current.myTreeVersion || drawn.myXMax - drawn.myXMin != length || !drawn.mySize.equals(current.mySize) ||
+        length == 0) {
+      return 0;
+    }
+    return (int)Math.round((drawn.myXMin - current.myXMin) / length * current.mySize.width);
   }
 
-  private void updateNodesAndClearCanvas() {
+  private void updateNodesAndClearCanvas(@NotNull Dimension dim) {
     myNodes.clear();
     myRectangles.clear();
-    myCanvas = null;
-    if (myRoot == null) {
+    myCanvasKey = null;
+    if (myIndex == null) {
       return;
     }
 
-    if (inRange(myRoot)) {
-      myNodes.add(myRoot);
-      myRectangles.add(createRectangle(myRoot));
-    }
-
-    int head = 0;
-    while (head < myNodes.size()) {
-      N curNode = myNodes.get(head++);
-
-      for (int i = 0; i < curNode.getChildCount(); ++i) {
-        N child = curNode.getChildAt(i);
-        if (inRange(child)) {
-          myNodes.add(child);
-          myRectangles.add(createRectangle(child));
-        }
-      }
-    }
-    if (!myRootVisible && !myNodes.isEmpty()) {
-      myNodes.remove(0);
-      myRectangles.remove(0);
-    }
-  }
-
-  private boolean inRange(@NotNull N node) {
-    return node.getStart() <= myXRange.getMax() && node.getEnd() >= myXRange.getMin();
+    // Spans shorter than a pixel can come already merged from the index, the reducer combines the rest.
+    double resolution = dim.width > 0 ? myXRange.getLength() / dim.width : 0;
+    myIndex.query(myXRange.getMin(), myXRange.getMax(), resolution, myRootVisible, (node, start, end) -> {
+      myNodes.add(node);
+      myRectangles.add(createRectangle(node, start, end));
+    });
   }
 
   @NotNull
-  private Rectangle2D.Float createRectangle(@NotNull N node) {
-    float left = (float)Math.max(0, (node.getStart() - myXRange.getMin()) / myXRange.getLength());
-    float right = (float)Math.min(1, (node.getEnd() - myXRange.getMin()) / myXRange.getLength());
+  private Rectangle2D.Float createRectangle(@NotNull N node, long start, long end) {
+    float left = (float)Math.max(0, (start - myXRange.getMin()) / myXRange.getLength());
+    float right = (float)Math.min(1, (end - myXRange.getMin()) / myXRange.getLength());
     Rectangle2D.Float rect = new Rectangle2D.Float();
     rect.x = left;
     rect.y = (float)((mDefaultFontMetrics.getHeight() + BORDER_PLUS_PADDING) * node.getDepth()
@@ -291,11 +383,44 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
     this.myRenderer = r;
   }
 
+  /**
+   * Sets the tree to show, which is indexed off the EDT and drawn once its index is ready, the previous tree being shown until then. The
+   * tree must not be modified afterwards.
+   */
   public void setHTree(@Nullable N root) {
     this.myRoot = root;
+    if (root == null) {
+      // There is nothing to show anymore, the next tree should not start off with the canvas of this one.
+      myCanvas = null;
+      myDrawnCanvasKey = null;
+    }
+    myIndex = null;
+    myPendingIndexRoot = root;
+    myTreeVersion++;
+    myRasterizer.clear();
+    if (root != null) {
+      myIndexExecutor.execute(() -> buildIndex(root));
+    }
     changed();
   }
 
+  /**
+   * Called on the background thread.
+   */
+  private void buildIndex(@NotNull N root) {
+    if (myPendingIndexRoot != root) {
+      // Another tree was set since, there is no need to index this one.
+      return;
+    }
+    HTreeChartIndex<N> index = new HTreeChartIndex<>(root);
+    myIndexEdtExecutor.execute(() -> {
+      if (myRoot == root && myIndex == null) {
+        myIndex = index;
+        changed();
+      }
+    });
+  }
+
   @Nullable
   public N getNodeAt(Point point) {
     if (point != null) {
@@ -444,27 +569,71 @@ public class HTreeChart<N extends HNode<N>> extends AnimatedComponent {
   }
 
   private int calculateMaximumHeight() {
-    if (myRoot == null) {
+    if (myIndex == null) {
       return 0;
     }
+    return (mDefaultFontMetrics.getHeight() + BORDER_PLUS_PADDING) * (myIndex.getMaxDepth() + 1);
+  }
 
-    int maxDepth = -1;
-    Queue<N> queue = new LinkedList<>();
-    queue.add(myRoot);
+  public enum Orientation {TOP_DOWN, BOTTOM_UP}
 
-    while (!queue.isEmpty()) {
-      N n = queue.poll();
-      if (n.getDepth() > maxDepth) {
-        maxDepth = n.getDepth();
-      }
+  /**
+   * Identifies what a canvas shows, and holds the nodes to draw on it.
+   */
+  private static final class CanvasKey<N extends HNode<N>> {
+    private final int myTreeVersion;
+    private final double myXMin;
+    private final double myXMax;
+    private final double myYMin;
+    @NotNull private final Dimension mySize;
+    @Nullable private final N myFocusedNode;
+    @NotNull private final Font myFont;
+
+    @NotNull private final HRenderer<N> myRenderer;
+    @NotNull private final List<N> myNodes;
+    @NotNull private final List<Rectangle2D.Float> myRectangles;
+
+    private CanvasKey(int treeVersion, double xMin, double xMax, double yMin, @NotNull Dimension size, @Nullable N focusedNode,
+                      @NotNull Font font, @NotNull HRenderer<N> renderer, @NotNull List<N> nodes,
+                      @NotNull List<Rectangle2D.Float> rectangles) {
+      myTreeVersion = treeVersion;
+      myXMin = xMin;
+      myXMax = xMax;
+      myYMin = yMin;
+      mySize = size;
+      myFocusedNode = focusedNode;
+      myFont = font;
+      myRenderer = renderer;
+      myNodes = nodes;
+      myRectangles = rectangles;
+    }
 
-      for (int i = 0; i < n.getChildCount(); ++i) {
-        queue.add(n.getChildAt(i));
+    /**
+     * The nodes and their rectangles are not compared, as they follow from the other fields.
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
       }
+      if (!(o instanceof CanvasKey)) {
+        return false;
+      }
+      CanvasKey<?> other = (CanvasKey<?>)o;
+      return myTreeVersion == other.myTreeVersion &&
+             myXMin == other.myXMin &&
+             myXMax == other.myXMax &&
+             myYMin == other.myYMin &&
+             mySize.equals(other.mySize) &&
+             myFocusedNode == other.myFocusedNode &&
+             myFont.equals(other.myFont) &&
+             myRenderer == other.myRenderer;
     }
-    maxDepth += 1;
-    return (mDefaultFontMetrics.getHeight() + BORDER_PLUS_PADDING) * maxDepth;
-  }
 
-  public enum Orientation {TOP_DOWN, BOTTOM_UP}
+    @Override
+    public int hashCode() {
+      return Objects.hash(myTreeVersion, myXMin, myXMax, myYMin, mySize, System.identityHashCode(myFocusedNode), myFont,
+                          System.identityHashCode(myRenderer));
+    }
+  }
 }
\ No newline at end of file
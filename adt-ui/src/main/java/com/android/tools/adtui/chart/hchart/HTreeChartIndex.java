@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart;
+
+import com.android.tools.adtui.model.HNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Level of detail index over the nodes of an {@link HTreeChart}, so that the chart does not need to visit the whole tree every time its
+ * range changes.
+ *
+ * The nodes are kept per level of the tree, sorted by start, so that the ones in a range are found with a binary search. On top of them,
+ * coarser levels of detail merge runs of consecutive short nodes into a single span, shown as the first node of the run, the same way
+ * {@link DefaultHTreeChartReducer} combines the rectangles inside a pixel. A level of detail is only used when all of its merged spans
+ * are shorter than a pixel, so that it looks the same as drawing every node.
+ */
+final class HTreeChartIndex<N extends HNode<N>> {
+  /**
+   * Each level of detail merges spans up to this many times longer than the previous one.
+   */
+  private static final int GRANULARITY_FACTOR = 4;
+
+  /**
+   * A level of detail is only kept if it has at most this fraction of the spans of the previous one, which bounds the memory used by
+   * the index to a few times the number of nodes.
+   */
+  private static final double MAX_SPAN_RATIO = 0.75;
+
+  @NotNull private final N myRoot;
+  private final int myMaxDepth;
+  private final int myNodeCount;
+
+  /**
+   * From the finest to the coarsest. The first one holds the nodes themselves.
+   */
+  @NotNull private final List<LevelOfDetail<N>> myLevels = new ArrayList<>();
+
+  HTreeChartIndex(@NotNull N root) {
+    myRoot = root;
+
+    List<Spans<N>> rows = new ArrayList<>();
+    int maxDepth = -1;
+    int nodeCount = 0;
+    List<N> row = new ArrayList<>();
+    row.add(root);
+    while (!row.isEmpty()) {
+      List<N> nextRow = new ArrayList<>();
+      for (N node : row) {
+        maxDepth = Math.max(maxDepth, node.getDepth());
+        for (int i = 0; i < node.getChildCount(); ++i) {
+          nextRow.add(node.getChildAt(i));
+        }
+      }
+      nodeCount += row.size();
+      rows.add(Spans.of(row));
+      row = nextRow;
+    }
+    myMaxDepth = maxDepth;
+    myNodeCount = nodeCount;
+
+    LevelOfDetail<N> level = new LevelOfDetail<>(0, rows);
+    myLevels.add(level);
+    long rootDuration = root.getDuration();
+    for (long granularity = GRANULARITY_FACTOR; granularity > 0 && granularity / GRANULARITY_FACTOR <= rootDuration;
+         granularity *= GRANULARITY_FACTOR) {
+      // Count the spans first, so that the levels that would not merge enough of them are skipped without allocating them.
+      int maxSpanCount = (int)(level.getSpanCount() * MAX_SPAN_RATIO);
+      if (level.countMergedSpans(granularity, maxSpanCount) <= maxSpanCount) {
+        level = level.merge(granularity);
+        myLevels.add(level);
+      }
+    }
+  }
+
+  @NotNull
+  N getRoot() {
+    return myRoot;
+  }
+
+  /**
+   * @return the highest {@link HNode#getDepth()} of the tree.
+   */
+  int getMaxDepth() {
+    return myMaxDepth;
+  }
+
+  int getNodeCount() {
+    return myNodeCount;
+  }
+
+  /**
+   * Passes {@code consumer} the spans to draw for {@code [min, max]}, level of the tree by level of the tree, each of them sorted by start,
+   * which is the order {@link HTreeChartReducer} expects them in.
+   *
+   * @param resolution  the length a pixel stands for. Spans shorter than it may be merged.
+   * @param includeRoot whether the root is passed to the consumer.
+   */
+  void query(double min, double max, double resolution, boolean includeRoot, @NotNull SpanConsumer<N> consumer) {
+    LevelOfDetail<N> level = myLevels.get(0);
+    for (LevelOfDetail<N> coarser : myLevels) {
+      if (coarser.myGranularity > resolution) {
+        break;
+      }
+      level = coarser;
+    }
+
+    for (int i = includeRoot ? 0 : 1; i < level.myRows.size(); ++i) {
+      level.myRows.get(i).query(min, max, consumer);
+    }
+  }
+
+  interface SpanConsumer<N> {
+    void accept(@NotNull N node, long start, long end);
+  }
+
+  private static final class LevelOfDetail<N extends HNode<N>> {
+    /**
+     * Every merged span of this level is shorter than this.
+     */
+    private final long myGranularity;
+
+    /**
+     * The spans of each level of the tree, from the root down.
+     */
+    @NotNull private final List<Spans<N>> myRows;
+
+    private LevelOfDetail(long granularity, @NotNull List<Spans<N>> rows) {
+      myGranularity = granularity;
+      myRows = rows;
+    }
+
+    @NotNull
+    private LevelOfDetail<N> merge(long granularity) {
+      List<Spans<N>> rows = new ArrayList<>(myRows.size());
+      for (Spans<N> row : myRows) {
+        rows.add(row.merge(granularity));
+      }
+      return new LevelOfDetail<>(granularity, rows);
+    }
+
+    /**
+     * @return the number of spans {@link #merge(long)} would create, or any number above {@code limit} once it is reached.
+     */
+    private int countMergedSpans(long granularity, int limit) {
+      int count = 0;
+      for (Spans<N> row : myRows) {
+        count += row.merge(granularity, limit - count, null, null, null);
+        if (count > limit) {
+          break;
+        }
+      }
+      return count;
+    }
+
+    private int getSpanCount() {
+      int count = 0;
+      for (Spans<N> row : myRows) {
+        count += row.mySize;
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Spans of one level of the tree, sorted by start, in parallel arrays.
+   */
+  private static final class Spans<N> {
+    @NotNull private final long[] myStarts;
+    @NotNull private final long[] myEnds;
+    /**
+     * The highest end of the spans up to each index, so that the first span ending in a range can be found with a binary search even
+     * if spans overlap.
+     */
+    @NotNull private final long[] myMaxEnds;
+    @NotNull private final Object[] myNodes;
+    private final int mySize;
+
+    private Spans(@NotNull long[] starts, @NotNull long[] ends, @NotNull Object[] nodes, int size) {
+      myStarts = starts;
+      myEnds = ends;
+      myNodes = nodes;
+      mySize = size;
+      myMaxEnds = new long[size];
+      for (int i = 0; i < size; ++i) {
+        myMaxEnds[i] = i == 0 ? ends[i] : Math.max(myMaxEnds[i - 1], ends[i]);
+      }
+    }
+
+    @NotNull
+    private static <N extends HNode<N>> Spans<N> of(@NotNull List<N> nodes) {
+      boolean sorted = true;
+      for (int i = 1; i < nodes.size() && sorted; ++i) {
+        sorted = nodes.get(i - 1).getStart() <= nodes.get(i).getStart();
+      }
+      if (!sorted) {
+        nodes = new ArrayList<>(nodes);
+        nodes.sort(Comparator.comparingLong(HNode::getStart));
+      }
+
+      int size = nodes.size();
+      long[] starts = new long[size];
+      long[] ends = new long[size];
+      Object[] values = new Object[size];
+      for (int i = 0; i < size; ++i) {
+        N node = nodes.get(i);
+        starts[i] = node.getStart();
+        ends[i] = node.getEnd();
+        values[i] = node;
+      }
+      return new Spans<>(starts, ends, values, size);
+    }
+
+    /**
+     * @return these spans, with the runs of consecutive spans that fit within {@code granularity} merged into one.
+     */
+    @NotNull
+    private Spans<N> merge(long granularity) {
+      int size = merge(granularity, mySize, null, null, null);
+      if (size == mySize) {
+        return this;
+      }
+      long[] starts = new long[size];
+      long[] ends = new long[size];
+      Object[] nodes = new Object[size];
+      merge(granularity, size, starts, ends, nodes);
+      return new Spans<>(starts, ends, nodes, size);
+    }
+
+    /**
+     * Writes the merged spans into the given arrays, if they are not null.
+     *
+     * @param limit stops merging once there are more than this many merged spans.
+     * @return the number of merged spans, or {@code limit + 1} if there are more than {@code limit}.
+     */
+    private int merge(long granularity, int limit, @Nullable long[] starts, @Nullable long[] ends, @Nullable Object[] nodes) {
+      int size = 0;
+      int i = 0;
+      while (i < mySize && size <= limit) {
+        int first = i;
+        long start = myStarts[i];
+        long end = myEnds[i];
+        ++i;
+        if (end - start < granularity) {
+          while (i < mySize && Math.max(end, myEnds[i]) - start < granularity) {
+            end = Math.max(end, myEnds[i]);
+            ++i;
+          }
+        }
+        if (starts != null && ends != null && nodes != null) {
+          starts[size] = start;
+          ends[size] = end;
+          nodes[size] = myNodes[first];
+        }
+        ++size;
+      }
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(double min, double max, @NotNull SpanConsumer<N> consumer) {
+      // Find the first span whose highest end so far reaches min.
+      int low = 0;
+      int high = mySize;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (myMaxEnds[mid] < min) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+
+      for (int i = low; i < mySize && myStarts[i] <= max; ++i) {
+        if (myEnds[i] >= min) {
+          consumer.accept((N)myNodes[i], myStarts[i], myEnds[i]);
+        }
+      }
+    }
+  }
+}
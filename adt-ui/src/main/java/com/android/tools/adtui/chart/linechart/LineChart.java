@@ -19,8 +19,8 @@ package com.android.tools.adtui.chart.linechart;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.adtui.AnimatedComponent;
 import com.android.tools.adtui.model.LineChartModel;
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.RangedContinuousSeries;
-import com.android.tools.adtui.model.SeriesData;
 import org.jetbrains.annotations.NotNull;
 
 import java.awt.*;
@@ -100,6 +100,17 @@ public class LineChart extends AnimatedComponent {
   @NotNull
   private final LineChartReducer myReducer;
 
+  /**
+   * Buffers reused by every redraw, so that it does not create objects for every data point: the data of the current series, the sum
+   * of the stacked series so far and the reduced data the line is drawn from.
+   */
+  @NotNull
+  private final LongSeriesBuffer mySeriesData = new LongSeriesBuffer();
+  @NotNull
+  private final LongSeriesBuffer myStackedData = new LongSeriesBuffer();
+  @NotNull
+  private final LongSeriesBuffer myReducedData = new LongSeriesBuffer();
+
   // Debug draw counters. TODO: Move to a framework object
   private long myRedraws;
   private long myDraws;
@@ -164,9 +175,9 @@ public class LineChart extends AnimatedComponent {
   private void redraw(@NotNull Dimension dim) {
     long duration = System.nanoTime();
 
-    // Store the last stacked series to use them to increment the Y values
+    // Whether myStackedData holds the sum of the stacked series so far, to use it to increment the Y values
     // of the current stacked series.
-    List<SeriesData<Long>> lastStackedSeries = null;
+    boolean hasStackedData = false;
 
     Deque<Path2D> orderedPaths = new ArrayDeque<>(myLinesConfig.size());
     Deque<RangedContinuousSeries> orderedSeries = new ArrayDeque<>(myLinesConfig.size());
@@ -178,10 +189,12 @@ public class LineChart extends AnimatedComponent {
       }
       final LineConfig config = getLineConfig(ranged);
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      ranged.getSeries(mySeriesData);
+      LongSeriesBuffer data = mySeriesData;
       if (config.isStacked()) {
-        if (lastStackedSeries == null) {
-          lastStackedSeries = new ArrayList<>(seriesList);
+        if (!hasStackedData) {
+          myStackedData.set(mySeriesData);
+          hasStackedData = true;
         }
         else {
           // If the current series is stacked, increment its value by the value of the last stacked
@@ -189,12 +202,12 @@ public class LineChart extends AnimatedComponent {
           // points than the last stacked series (meaning that the last one was populated in a
           // prior iteration). In this case, ignore the new points (i.e. we take only the intersection
           // across all series).
-          for (int i = 0; i < seriesList.size() && i < lastStackedSeries.size(); ++i) {
+          for (int i = 0; i < mySeriesData.size() && i < myStackedData.size(); ++i) {
             // An assumption is made here that the x values across series are aligned.
-            lastStackedSeries.get(i).value += seriesList.get(i).value;
+            myStackedData.setY(i, myStackedData.getY(i) + mySeriesData.getY(i));
           }
-          seriesList = lastStackedSeries;
         }
+        data = myStackedData;
       }
 
       Path2D path = new Path2D.Float();
@@ -207,17 +220,17 @@ public class LineChart extends AnimatedComponent {
       double firstXd = 0f;
       // Actual value of first point
       double firstX = 0;
-      seriesList = myReducer.reduceData(seriesList, config);
-      for (SeriesData<Long> data : seriesList) {
+      myReducer.reduceData(data, config, myReducedData);
+      for (int i = 0; i < myReducedData.size(); i++) {
         // TODO: refactor to allow different types (e.g. double)
-        double xd = (data.x - xMin) / xLength;
+        double xd = (myReducedData.getX(i) - xMin) / xLength;
         // Swing's (0, 0) coordinate is in top-left. As we use bottom-left (0, 0), we need to adjust the y coordinate.
-        double yd = 1 - (data.value - yMin) / yLength;
+        double yd = 1 - (myReducedData.getY(i) - yMin) / yLength;
 
         if (path.getCurrentPoint() == null) {
           path.moveTo(xd, yd);
           firstXd = xd;
-          firstX = data.x;
+          firstX = myReducedData.getX(i);
         }
         else {
           // If the chart is stepped, a horizontal line should be drawn from the current
@@ -15,7 +15,9 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.SeriesData;
+import org.jetbrains.annotations.NotNull;
 
 import java.awt.geom.Path2D;
 import java.util.List;
@@ -31,6 +33,15 @@ public interface LineChartReducer {
    */
   List<SeriesData<Long>> reduceData(List<SeriesData<Long>> data, LineConfig config);
 
+  /**
+   * Same as {@link #reduceData(List, LineConfig)}, for data kept in a {@link LongSeriesBuffer}. The content of {@code reduced} is
+   * replaced by the result, {@code data} is left unchanged.
+   */
+  default void reduceData(@NotNull LongSeriesBuffer data, @NotNull LineConfig config, @NotNull LongSeriesBuffer reduced) {
+    reduced.clear();
+    reduced.addAll(reduceData(data.toList(), config));
+  }
+
   /**
    * Reduces the given path in a pixel level, i.e when dimensions are available.
    * The result shouldn't affect the looking of the line when it's drawn.
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BackgroundRasterizerTest {
+  private final List<String> myRasterized = new ArrayList<>();
+  private final Queue<Runnable> myBackgroundTasks = new ArrayDeque<>();
+  private int myImagesReady;
+
+  @Before
+  public void setUp() {
+    myRasterized.clear();
+    myBackgroundTasks.clear();
+    myImagesReady = 0;
+  }
+
+  @Test
+  public void imageIsReturnedOnceRasterized() {
+    BackgroundRasterizer<String> rasterizer = createRasterizer(2);
+
+    assertThat(rasterizer.get("a")).isNull();
+    // Asking again while the image is pending does not rasterize it twice.
+    assertThat(rasterizer.get("a")).isNull();
+    assertThat(myBackgroundTasks).hasSize(1);
+
+    runBackgroundTasks();
+    assertThat(myRasterized).containsExactly("a");
+    assertThat(myImagesReady).isEqualTo(1);
+
+    Image image = rasterizer.get("a");
+    assertThat(image).isNotNull();
+    assertThat(rasterizer.get("a")).isSameAs(image);
+    assertThat(myBackgroundTasks).isEmpty();
+  }
+
+  @Test
+  public void staleRequestsAreSkipped() {
+    BackgroundRasterizer<String> rasterizer = createRasterizer(2);
+
+    assertThat(rasterizer.get("a")).isNull();
+    assertThat(rasterizer.get("b")).isNull();
+    assertThat(rasterizer.get("c")).isNull();
+    runBackgroundTasks();
+
+    assertThat(myRasterized).containsExactly("c");
+    assertThat(myImagesReady).isEqualTo(1);
+    assertThat(rasterizer.get("c")).isNotNull();
+  }
+
+  @Test
+  public void onlyTheMostRecentlyUsedImagesAreKept() {
+    BackgroundRasterizer<String> rasterizer =
+      new BackgroundRasterizer<>(this::rasterize, () -> myImagesReady++, 2, Runnable::run, Runnable::run);
+
+    Image a = rasterizer.get("a");
+    assertThat(a).isNotNull();
+    assertThat(rasterizer.get("b")).isNotNull();
+    // Using "a" makes "b" the least recently used image.
+    assertThat(rasterizer.get("a")).isSameAs(a);
+    assertThat(rasterizer.get("c")).isNotNull();
+    assertThat(myRasterized).containsExactly("a", "b", "c").inOrder();
+
+    assertThat(rasterizer.get("a")).isSameAs(a);
+    assertThat(rasterizer.get("b")).isNotNull();
+    assertThat(myRasterized).containsExactly("a", "b", "c", "b").inOrder();
+  }
+
+  @Test
+  public void clearDropsImages() {
+    BackgroundRasterizer<String> rasterizer =
+      new BackgroundRasterizer<>(this::rasterize, () -> myImagesReady++, 2, Runnable::run, Runnable::run);
+
+    Image a = rasterizer.get("a");
+    rasterizer.clear();
+    Image newA = rasterizer.get("a");
+    assertThat(newA).isNotNull();
+    assertThat(newA).isNotSameAs(a);
+    assertThat(myRasterized).containsExactly("a", "a");
+  }
+
+  @Test
+  public void imagesRasterizedWhileClearingAreDropped() {
+    Queue<Runnable> edtTasks = new ArrayDeque<>();
+    BackgroundRasterizer<String> rasterizer =
+      new BackgroundRasterizer<>(this::rasterize, () -> myImagesReady++, 2, myBackgroundTasks::add, edtTasks::add);
+
+    assertThat(rasterizer.get("a")).isNull();
+    runBackgroundTasks();
+    rasterizer.clear();
+    // Asked for again after clearing, "a" is rasterized anew rather than coming from before.
+    assertThat(rasterizer.get("a")).isNull();
+    edtTasks.remove().run();
+    assertThat(myImagesReady).isEqualTo(0);
+    assertThat(rasterizer.get("a")).isNull();
+    assertThat(myBackgroundTasks).hasSize(1);
+
+    runBackgroundTasks();
+    edtTasks.remove().run();
+    assertThat(myImagesReady).isEqualTo(1);
+    assertThat(rasterizer.get("a")).isNotNull();
+    assertThat(myRasterized).containsExactly("a", "a");
+  }
+
+  private BackgroundRasterizer<String> createRasterizer(int maxImages) {
+    return new BackgroundRasterizer<>(this::rasterize, () -> myImagesReady++, maxImages, myBackgroundTasks::add, Runnable::run);
+  }
+
+  private Image rasterize(String key) {
+    myRasterized.add(key);
+    return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  private void runBackgroundTasks() {
+    while (!myBackgroundTasks.isEmpty()) {
+      myBackgroundTasks.remove().run();
+    }
+  }
+}
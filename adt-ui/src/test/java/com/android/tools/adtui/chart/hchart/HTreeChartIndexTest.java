@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart;
+
+import com.android.tools.adtui.model.DefaultHNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HTreeChartIndexTest {
+  private HTreeChartIndex<DefaultHNode<String>> myIndex;
+
+  /**
+   * The structure of the tree:
+   *   0     400 500     1000
+   *   A++++++++++++++++++++
+   *   B++++++++   C++++++++
+   *   40 nodes, 5 long and 5 apart, under B
+   */
+  @Before
+  public void setUp() {
+    DefaultHNode<String> root = createNode("A", 0, 1000, 0);
+    DefaultHNode<String> b = createNode("B", 0, 400, 1);
+    root.addChild(b);
+    root.addChild(createNode("C", 500, 1000, 1));
+    for (int i = 0; i < 40; ++i) {
+      b.addChild(createNode("D" + i, i * 10, i * 10 + 5, 2));
+    }
+    myIndex = new HTreeChartIndex<>(root);
+  }
+
+  @Test
+  public void nodesInRange() {
+    assertEquals(2, myIndex.getMaxDepth());
+    assertEquals(43, myIndex.getNodeCount());
+    assertEquals(43, query(0, 1000, 0, true).size());
+    assertEquals(42, query(0, 1000, 0, false).size());
+
+    List<Span> spans = query(12, 31, 0, true);
+    assertEquals(5, spans.size());
+    assertEquals("A", spans.get(0).myNode.getData());
+    assertEquals("B", spans.get(1).myNode.getData());
+    assertEquals("D1", spans.get(2).myNode.getData());
+    assertEquals("D3", spans.get(4).myNode.getData());
+
+    spans = query(450, 460, 0, true);
+    assertEquals(1, spans.size());
+    assertEquals("A", spans.get(0).myNode.getData());
+  }
+
+  @Test
+  public void shortNodesAreMergedAtLowResolution() {
+    List<Span> spans = query(0, 1000, 100, true);
+    List<Span> merged = new ArrayList<>();
+    for (Span span : spans) {
+      if (span.myNode.getDepth() == 2) {
+        merged.add(span);
+        assertTrue(span.myEnd - span.myStart < 100);
+      }
+    }
+    // The nodes are merged three pairs at a time, as each pair fits within 16 and each three pairs within 64.
+    assertEquals(10, spans.size());
+    assertEquals(7, merged.size());
+    assertEquals("D0", merged.get(0).myNode.getData());
+    assertEquals(0, merged.get(0).myStart);
+    assertEquals(55, merged.get(0).myEnd);
+    assertEquals("D6", merged.get(1).myNode.getData());
+    assertEquals(395, merged.get(merged.size() - 1).myEnd);
+  }
+
+  @Test
+  public void longNodesAreNotMerged() {
+    List<Span> spans = query(0, 1000, 1000, false);
+    assertEquals("B", spans.get(0).myNode.getData());
+    assertEquals(400, spans.get(0).myEnd);
+    assertEquals("C", spans.get(1).myNode.getData());
+    assertEquals(500, spans.get(1).myStart);
+  }
+
+  private List<Span> query(double min, double max, double resolution, boolean includeRoot) {
+    List<Span> spans = new ArrayList<>();
+    myIndex.query(min, max, resolution, includeRoot, (node, start, end) -> spans.add(new Span(node, start, end)));
+    return spans;
+  }
+
+  private static DefaultHNode<String> createNode(String id, long start, long end, int depth) {
+    DefaultHNode<String> node = new DefaultHNode<>(id, start, end);
+    node.setDepth(depth);
+    return node;
+  }
+
+  private static class Span {
+    private final DefaultHNode<String> myNode;
+    private final long myStart;
+    private final long myEnd;
+
+    private Span(DefaultHNode<String> node, long start, long end) {
+      myNode = node;
+      myStart = start;
+      myEnd = end;
+    }
+  }
+}
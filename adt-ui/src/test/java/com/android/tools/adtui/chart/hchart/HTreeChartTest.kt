@@ -22,6 +22,8 @@ import com.google.common.truth.Truth.assertThat
 import org.junit.Before
 import org.junit.Test
 import java.awt.Dimension
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
 
 class HTreeChartTest {
   private lateinit var myUi: FakeUi
@@ -44,6 +46,7 @@ class HTreeChartTest {
     myChart = HTreeChart(Range(0.0, 100.0), myRange, orientation)
     myChart.size = Dimension(100, myViewHeight)
     myUi = FakeUi(myChart)
+    myChart.setIndexExecutors(Executor { it.run() }, Executor { it.run() })
     myChart.yRange.set(10.0, 10.0)
     // Set a root pointing to a tree with more than one nodes, to perform some meaningful drags.
     myChart.setHTree(HNodeTree(0,5,2))
@@ -300,6 +303,43 @@ class HTreeChartTest {
     assertThat(myRange.max).isWithin(EPSILON).of(100.0)
   }
 
+  @Test
+  fun testTreeIsIndexedOffTheEdt() {
+    val indexTasks = ArrayDeque<Runnable>()
+    myChart.setIndexExecutors(Executor { indexTasks.add(it) }, Executor { it.run() })
+
+    myChart.setHTree(HNodeTree(0, 3, 2))
+    assertThat(indexTasks).hasSize(1)
+    // Nothing is known about the tree until its index is ready.
+    assertThat(myChart.maximumHeight).isEqualTo(0)
+
+    indexTasks.remove().run()
+    assertThat(myChart.maximumHeight).isEqualTo(myContentHeight * 3 / 5)
+  }
+
+  @Test
+  fun testOnlyTheLastTreeIsIndexed() {
+    val indexTasks = ArrayDeque<Runnable>()
+    myChart.setIndexExecutors(Executor { indexTasks.add(it) }, Executor { it.run() })
+
+    myChart.setHTree(HNodeTree(0, 3, 2))
+    myChart.setHTree(HNodeTree(0, 4, 2))
+    myChart.setHTree(HNodeTree(0, 2, 2))
+    assertThat(indexTasks).hasSize(3)
+    while (indexTasks.isNotEmpty()) {
+      indexTasks.remove().run()
+    }
+    assertThat(myChart.maximumHeight).isEqualTo(myContentHeight * 2 / 5)
+
+    // An index finishing after its tree was replaced is dropped.
+    val edtTasks = ArrayDeque<Runnable>()
+    myChart.setIndexExecutors(Executor { it.run() }, Executor { edtTasks.add(it) })
+    myChart.setHTree(HNodeTree(0, 4, 2))
+    myChart.setHTree(null)
+    edtTasks.remove().run()
+    assertThat(myChart.maximumHeight).isEqualTo(0)
+  }
+
   companion object {
     private const val EPSILON = 1e-3
   }
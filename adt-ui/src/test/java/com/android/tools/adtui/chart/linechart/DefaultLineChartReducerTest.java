@@ -15,6 +15,7 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesBuffer;
 import com.android.tools.adtui.model.SeriesData;
 import com.google.common.collect.ImmutableList;
 import org.junit.Before;
@@ -89,6 +90,24 @@ public class DefaultLineChartReducerTest {
     assertSeriesEquals(expected, result);
   }
 
+  @Test
+  public void reduceBufferedData() {
+    long[] values = {10, 10, 13, 13, 13, 13, 5, 5};
+    LongSeriesBuffer data = new LongSeriesBuffer();
+    for (int i = 0; i < values.length; i++) {
+      data.add(i, values[i]);
+    }
+    LongSeriesBuffer reduced = new LongSeriesBuffer();
+
+    myReducer.reduceData(data, myConfig, reduced);
+    assertSeriesEquals(myReducer.reduceData(data.toList(), myConfig), reduced.toList());
+    assertThat(data.size()).isEqualTo(values.length);
+
+    myConfig.setStepped(true);
+    myReducer.reduceData(data, myConfig, reduced);
+    assertSeriesEquals(myReducer.reduceData(data.toList(), myConfig), reduced.toList());
+  }
+
   @Test
   public void simpleReducePath() {
     float[][] given = {{0, 0}, {0.1f, 1}, {0.2f, 6}, {0.3f, 4}, {1, 2}, {1.1f, 5}};
@@ -23,6 +23,7 @@ import java.awt.Color
 import java.awt.Dimension
 import java.awt.FontMetrics
 import java.awt.geom.Rectangle2D
+import java.util.concurrent.Executor
 
 private const val RANGE_MIN = 0.0
 private const val RANGE_MAX = 100.0
@@ -117,6 +118,9 @@ private class HTreeChartEntriesRegistrar : ImageDiffEntriesRegistrar() {
       val nextFillColor = { fillColors[(colorIndex++) % fillColors.size] }
 
       chart = HTreeChart(null, Range(RANGE_MIN, RANGE_MAX), orientation)
+      // Index and rasterize synchronously, so that the canvas is ready when the image is taken
+      chart.setRasterizerExecutors(Executor { it.run() }, Executor { it.run() })
+      chart.setIndexExecutors(Executor { it.run() }, Executor { it.run() })
       chart.setHRenderer(object : DefaultHRenderer<HTreeModel>({ _ -> Color.YELLOW }) {
         // Don't draw any text because it doesn't compare well across platforms
         override fun generateFittingText(nodeData: HTreeModel, rect: Rectangle2D, fontMetrics: FontMetrics) = ""
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed files holding the large payloads of a {@link DataStoreDatabase} (heap dumps, traces, allocation dumps, network
+ * payloads), so they do not bloat the SQLite file and can be read back without going through its page cache or a single byte array.
+ * Tables keep the SHA-256 of a payload, as returned by {@link #put(BlobWriter)}, instead of the payload itself. Identical payloads are
+ * stored once. Payloads smaller than {@link #MIN_SIZE} are not worth a file, and are kept inline by the tables.
+ *
+ * Payloads are reclaimed by {@link #sweep()}, which deletes the ones that none of the hash columns registered through
+ * {@link #addReferenceSource(ReferenceSource)} refer to anymore, e.g. after a row was replaced. Writing a payload that a table refers to
+ * takes two steps: {@link #stage(BlobWriter)} copies it to a temporary file, which sweeps leave alone, without holding any lock, and
+ * {@link #publish(StagedBlob)} cheaply moves it into place in the same database unit that writes the reference to it. Sweeps run while
+ * no unit is being written, so they either see both the payload and its reference, or neither.
+ *
+ * The store of a database file lives in the {@link #DIRECTORY_SUFFIX} directory next to it, and is moved along with it when it is
+ * archived, see {@link SessionArchive}.
+ */
+public final class BlobStore {
+  public static final String DIRECTORY_SUFFIX = ".blobs";
+  /**
+   * Smallest payload worth a file of its own. Below it, a temporary file, a hash and a rename cost more than storing the payload inline.
+   */
+  public static final int MIN_SIZE = 64 * 1024;
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String TEMP_FILE_PREFIX = "write-";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static Logger getLogger() {
+    return Logger.getInstance(BlobStore.class);
+  }
+
+  /**
+   * Writes a payload, e.g. {@link ByteString#writeTo(OutputStream)} or {@code MessageLite#writeTo(OutputStream)}, so payloads are
+   * streamed to disk without first being copied into an array.
+   */
+  public interface BlobWriter {
+    void writeTo(@NotNull OutputStream output) throws IOException;
+  }
+
+  /**
+   * Adds the hashes a table refers to, e.g. all the values of one of its hash columns.
+   */
+  public interface ReferenceSource {
+    void addReferencedHashes(@NotNull Set<String> hashes) throws SQLException;
+  }
+
+  @NotNull private final File myDirectory;
+  private final List<ReferenceSource> myReferenceSources = new CopyOnWriteArrayList<>();
+  private volatile boolean myNeedsSweep;
+
+  public BlobStore(@NotNull File directory) {
+    myDirectory = directory;
+  }
+
+  @NotNull
+  public static File getDirectory(@NotNull File dbFile) {
+    return new File(dbFile.getPath() + DIRECTORY_SUFFIX);
+  }
+
+  @NotNull
+  public File getDirectory() {
+    return myDirectory;
+  }
+
+  /**
+   * Stores a payload, unless an identical one is stored already. A sweep may delete it as soon as this returns, so payloads that a table
+   * refers to go through {@link #stage(BlobWriter)} and {@link #publish(StagedBlob)} instead.
+   *
+   * @return the hash by which the payload can be read back.
+   */
+  @NotNull
+  public String put(@NotNull BlobWriter writer) throws IOException {
+    try (StagedBlob blob = stage(writer)) {
+      return publish(blob);
+    }
+  }
+
+  @NotNull
+  public String put(@NotNull ByteString data) throws IOException {
+    return put(data::writeTo);
+  }
+
+  /**
+   * Writes a payload to a temporary file and hashes it, which may take a while for large payloads. Sweeps do not touch the file, and it
+   * is deleted when the returned blob is closed unless it was published.
+   */
+  @NotNull
+  public StagedBlob stage(@NotNull BlobWriter writer) throws IOException {
+    Files.createDirectories(myDirectory.toPath());
+    MessageDigest digest = createDigest();
+    Path tempFile = Files.createTempFile(myDirectory.toPath(), TEMP_FILE_PREFIX, null);
+    try (OutputStream output = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE), digest)) {
+      writer.writeTo(output);
+    }
+    catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    return new StagedBlob(tempFile, toHex(digest.digest()));
+  }
+
+  /**
+   * Moves a staged payload into place, unless an identical one is stored already. This only renames a file, and is meant to be called
+   * in the database unit that writes the reference to the payload, so that no sweep runs in between.
+   *
+   * @return the hash by which the payload can be read back.
+   */
+  @NotNull
+  public String publish(@NotNull StagedBlob blob) throws IOException {
+    Path blobFile = getFile(blob.myHash).toPath();
+    if (!Files.exists(blobFile)) {
+      moveIntoPlace(blob.myTempFile, blobFile);
+    }
+    return blob.myHash;
+  }
+
+  public void addReferenceSource(@NotNull ReferenceSource source) {
+    myReferenceSources.add(source);
+  }
+
+  /**
+   * Notes that a reference to a payload may have been overwritten or removed, so the next {@link #sweepIfNeeded()} runs a sweep.
+   */
+  public void markForSweep() {
+    myNeedsSweep = true;
+  }
+
+  public boolean needsSweep() {
+    return myNeedsSweep;
+  }
+
+  /**
+   * Runs {@link #sweep()} if a reference may have gone away since the last one.
+   */
+  public int sweepIfNeeded() {
+    return myNeedsSweep ? sweep() : 0;
+  }
+
+  /**
+   * Deletes the payloads that no reference source refers to. The caller keeps references from changing while it runs, e.g. by running
+   * it through {@link GroupCommitWriter#read(GroupCommitWriter.Query)}, as payloads are published along with their references.
+   *
+   * @return the number of payloads deleted.
+   */
+  public synchronized int sweep() {
+    myNeedsSweep = false;
+    Set<String> referencedHashes = new HashSet<>();
+    try {
+      for (ReferenceSource source : myReferenceSources) {
+        source.addReferencedHashes(referencedHashes);
+      }
+    }
+    catch (SQLException e) {
+      getLogger().warn("Unable to list the referenced payloads", e);
+      myNeedsSweep = true;
+      return 0;
+    }
+
+    File[] files = myDirectory.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int deletedCount = 0;
+    for (File file : files) {
+      // Temporary files belong to payloads that are being written or are staged.
+      String name = file.getName();
+      if (name.startsWith(TEMP_FILE_PREFIX) || referencedHashes.contains(name)) {
+        continue;
+      }
+      if (file.delete()) {
+        deletedCount++;
+      }
+      else {
+        getLogger().warn("Unable to delete payload " + name);
+      }
+    }
+    return deletedCount;
+  }
+
+  public boolean contains(@NotNull String hash) {
+    return getFile(hash).isFile();
+  }
+
+  @NotNull
+  public InputStream openStream(@NotNull String hash) throws IOException {
+    return new BufferedInputStream(Files.newInputStream(getFile(hash).toPath()), BUFFER_SIZE);
+  }
+
+  /**
+   * Reads a payload into a {@link ByteString} made of small chunks, so even a very large payload never needs a single array of its size.
+   */
+  @NotNull
+  public ByteString read(@NotNull String hash) throws IOException {
+    try (InputStream input = openStream(hash)) {
+      return ByteString.readFrom(input);
+    }
+  }
+
+  /**
+   * Deletes a store's directory along with all its payloads.
+   */
+  public static void delete(@NotNull File directory) {
+    if (!directory.exists()) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+        try {
+          Files.delete(path);
+        }
+        catch (IOException e) {
+          getLogger().warn("Unable to delete " + path.getFileName(), e);
+        }
+      });
+    }
+    catch (IOException e) {
+      getLogger().warn("Unable to delete " + directory.getName(), e);
+    }
+  }
+
+  /**
+   * A payload written by {@link #stage(BlobWriter)}, waiting to be published.
+   */
+  public static final class StagedBlob implements AutoCloseable {
+    @NotNull private final Path myTempFile;
+    @NotNull private final String myHash;
+
+    private StagedBlob(@NotNull Path tempFile, @NotNull String hash) {
+      myTempFile = tempFile;
+      myHash = hash;
+    }
+
+    @NotNull
+    public String getHash() {
+      return myHash;
+    }
+
+    /**
+     * Deletes the temporary file, if the payload was not published or was stored already.
+     */
+    @Override
+    public void close() throws IOException {
+      Files.deleteIfExists(myTempFile);
+    }
+  }
+
+  @NotNull
+  private File getFile(@NotNull String hash) {
+    return new File(myDirectory, hash);
+  }
+
+  private static void moveIntoPlace(@NotNull Path source, @NotNull Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      try {
+        Files.move(source, target);
+      }
+      catch (FileAlreadyExistsException ignored) {
+        // Another writer stored the same payload in the meantime.
+      }
+    }
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @NotNull
+  private static String toHex(@NotNull byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+}
@@ -15,13 +15,19 @@
  */
 package com.android.tools.datastore;
 
+import com.android.annotations.VisibleForTesting;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.sqlite.SQLiteConfig;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 public class DataStoreDatabase {
@@ -35,7 +41,23 @@ public class DataStoreDatabase {
     return Logger.getInstance(DataStoreDatabase.class);
   }
 
+  private static final long MAX_MMAP_SIZE = 1L << 40;
+
+  /**
+   * Runs the {@link BlobStore} sweeps of all databases, so deleting payloads never holds up a commit.
+   */
+  private static final Executor SWEEP_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "DataStoreBlobSweep");
+    thread.setDaemon(true);
+    return thread;
+  });
+
   private final Connection myConnection;
+  @Nullable private final GroupCommitWriter myCommitWriter;
+  @Nullable private final BlobStore myBlobStore;
+  @Nullable private IngestionPipeline myIngestionPipeline;
+  @NotNull private Executor mySweepExecutor = SWEEP_EXECUTOR;
+  private final boolean myIsReadOnly;
 
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
@@ -49,6 +71,7 @@ public class DataStoreDatabase {
                            @NotNull Characteristic characteristic,
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
     Connection connection = null;
+    BlobStore blobStore = null;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
       // the JDBC driver with the java DriverMangaer.
@@ -60,12 +83,13 @@ public class DataStoreDatabase {
           break;
         case DURABLE:
           File dbFile = new File(dbPath);
-          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio.
-          // As a intermediate measure we delete the file until we support loading existing databases.
-          // TODO: Investigate removing this when we add a feature to restore sessions from prior Studio runs.
+          // The sessions of the previous run are moved aside so they can be reopened later, see SessionArchive. Files from versions of
+          // studio that predate the schema version table use an incompatible SQLite format and are deleted.
           if (dbFile.exists()) {
-            dbFile.delete();
+            SessionArchive.archive(dbFile);
           }
+          // Payloads left behind by a run whose database file is gone are not referenced by anything.
+          BlobStore.delete(BlobStore.getDirectory(dbFile));
 
           File parent = dbFile.getParentFile();
           if (parent != null) {
@@ -74,13 +98,14 @@ public class DataStoreDatabase {
             }
           }
           connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          blobStore = new BlobStore(BlobStore.getDirectory(dbFile));
+          DataStoreSchema.writeVersion(connection, DataStoreSchema.CURRENT_VERSION);
           break;
         default:
           throw new RuntimeException("Characteristic not handled!");
       }
 
-      // Performance optimization.
-      // TODO: Create a timer and commit the database transaction every X seconds.
+      // Performance optimization. Writes are grouped into bounded transactions by the GroupCommitWriter below.
       connection.setAutoCommit(false);
     }
     catch (ClassNotFoundException e) {
@@ -93,11 +118,87 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+    myCommitWriter = connection != null ? new GroupCommitWriter(connection) : null;
+    myBlobStore = blobStore;
+    myIsReadOnly = false;
+    if (myCommitWriter != null && myBlobStore != null) {
+      // Payloads whose last reference was overwritten are deleted once the change is committed.
+      myCommitWriter.addCommitListener(() -> {
+        if (myBlobStore.needsSweep()) {
+          mySweepExecutor.execute(this::sweepBlobs);
+        }
+      });
+    }
+  }
+
+  /**
+   * Sweeps the blob store while no unit is being written, so it sees every payload along with its reference, see
+   * {@link BlobStore#publish(BlobStore.StagedBlob)}. Only units are held up meanwhile, and only for as long as the sweep takes.
+   */
+  private void sweepBlobs() {
+    assert myCommitWriter != null && myBlobStore != null;
+    try {
+      myCommitWriter.read(myBlobStore::sweepIfNeeded);
+    }
+    catch (SQLException e) {
+      getLogger().warn(e);
+    }
+  }
+
+  private DataStoreDatabase(@NotNull Connection readOnlyConnection, @NotNull BlobStore blobStore) {
+    myConnection = readOnlyConnection;
+    myCommitWriter = null;
+    myBlobStore = blobStore;
+    myIsReadOnly = true;
+  }
+
+  /**
+   * Opens an existing database file for queries only, e.g. to look at the sessions of a previous run. The file is memory-mapped, so
+   * large files do not have to be read up front. Tables can be initialized on it as usual, they skip creating their schema.
+   */
+  @NotNull
+  public static DataStoreDatabase openReadOnly(@NotNull File dbFile) throws SQLException {
+    try {
+      Class.forName("org.sqlite.JDBC");
+    }
+    catch (ClassNotFoundException e) {
+      throw new SQLException(e);
+    }
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()), config.toProperties());
+    try (Statement statement = connection.createStatement()) {
+      // SQLite clamps this to its compile time maximum.
+      statement.execute("PRAGMA mmap_size = " + MAX_MMAP_SIZE);
+    }
+    return new DataStoreDatabase(connection, new BlobStore(BlobStore.getDirectory(dbFile)));
+  }
+
+  public boolean isReadOnly() {
+    return myIsReadOnly;
+  }
+
+  /**
+   * Sets the pipeline through which pollers writing to this database should hand over their data, see
+   * {@link com.android.tools.datastore.database.DataStoreTable#submitWrite(Runnable)}.
+   */
+  public void setIngestionPipeline(@Nullable IngestionPipeline pipeline) {
+    myIngestionPipeline = pipeline;
+  }
+
+  @Nullable
+  public IngestionPipeline getIngestionPipeline() {
+    return myIngestionPipeline;
   }
 
   public void disconnect() {
+    if (myCommitWriter != null) {
+      myCommitWriter.shutdown();
+    }
     try {
-      myConnection.commit();
+      if (!myIsReadOnly) {
+        myConnection.commit();
+      }
     }
     catch (SQLException e) {
       getLogger().error(e);
@@ -117,4 +218,29 @@ public class DataStoreDatabase {
   public Connection getConnection() {
     return myConnection;
   }
+
+  /**
+   * @return the store holding the large payloads of this database, or null if they are kept in the database itself, as they are for
+   * {@link Characteristic#PERFORMANT} databases.
+   */
+  @Nullable
+  public BlobStore getBlobStore() {
+    return myBlobStore;
+  }
+
+  /**
+   * @return the writer that commits this database's transactions, or null if the connection could not be opened.
+   */
+  @Nullable
+  public GroupCommitWriter getCommitWriter() {
+    return myCommitWriter;
+  }
+
+  /**
+   * Sweeps the blob store with the given executor instead of on a background thread, e.g. to sweep synchronously in tests.
+   */
+  @VisibleForTesting
+  public void setSweepExecutor(@NotNull Executor executor) {
+    mySweepExecutor = executor;
+  }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.datastore.database.MemoryLiveAllocationTable;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Version of the on-disk layout of the datastore tables, recorded in the Schema_Version table of every {@link DataStoreDatabase} so that
+ * databases written by an older Studio can be upgraded in place when they are reopened.
+ *
+ * Whenever a table changes in a way that is not compatible with existing files, bump {@link #CURRENT_VERSION} and append the statements
+ * upgrading the previous version to {@link #MIGRATIONS}. Each namespace only holds the tables of its services, so the statements of a table
+ * only run on the databases that have it. The others create it with its latest schema if they ever need it.
+ */
+public final class DataStoreSchema {
+  public static final int CURRENT_VERSION = 4;
+
+  /**
+   * Version reported for files that predate the Schema_Version table. Those use an incompatible SQLite format and cannot be migrated.
+   */
+  public static final int UNVERSIONED = 0;
+
+  /**
+   * {@code MIGRATIONS.get(i)} holds the changes upgrading a database from version {@code i + 1} to {@code i + 2}.
+   */
+  private static final List<TableMigration[]> MIGRATIONS = Arrays.asList(
+    // 1 -> 2: memory sample rollups, see MemoryStatsTable. Older sessions keep being served from their raw samples.
+    new TableMigration[]{
+      new TableMigration("Memory_Samples",
+                         "CREATE TABLE IF NOT EXISTS Memory_SamplesRollup (Session INTEGER NOT NULL, Resolution INTEGER, Bucket INTEGER, " +
+                         "MinValue INTEGER, MinData BLOB, MaxValue INTEGER, MaxData BLOB, PRIMARY KEY(Session, Resolution, Bucket))")},
+    // 2 -> 3: references to payloads in the BlobStore. Older rows keep their payloads inline.
+    new TableMigration[]{
+      new TableMigration("Memory_HeapDump", "ALTER TABLE Memory_HeapDump ADD COLUMN DumpBlob TEXT"),
+      new TableMigration("Memory_AllocationInfo", "ALTER TABLE Memory_AllocationInfo ADD COLUMN LegacyDumpBlob TEXT"),
+      new TableMigration("Cpu_Trace", "ALTER TABLE Cpu_Trace ADD COLUMN DataBlob TEXT"),
+      new TableMigration("Profiler_Bytes", "ALTER TABLE Profiler_Bytes ADD COLUMN DataBlob TEXT")},
+    // 3 -> 4: lifetime classes of the freed allocations, see MemoryLiveAllocationTable#getLifetimeClassExpression.
+    new TableMigration[]{
+      new TableMigration("Memory_AllocationEvents",
+                         "ALTER TABLE Memory_AllocationEvents ADD COLUMN LifetimeClass INTEGER",
+                         "UPDATE Memory_AllocationEvents SET LifetimeClass = " +
+                         MemoryLiveAllocationTable.getLifetimeClassExpression("FreeTime - AllocTime") +
+                         " WHERE FreeTime < " + Long.MAX_VALUE,
+                         "CREATE INDEX IF NOT EXISTS idx_Memory_AllocationEvents_2_pk " +
+                         "ON Memory_AllocationEvents (Session, LifetimeClass, FreeTime)")});
+
+  private DataStoreSchema() {
+  }
+
+  public static int readVersion(@NotNull Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      ResultSet tables =
+        statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'Schema_Version'");
+      if (!tables.next() || tables.getInt(1) == 0) {
+        return UNVERSIONED;
+      }
+      ResultSet version = statement.executeQuery("SELECT MAX(Version) FROM Schema_Version");
+      return version.next() ? version.getInt(1) : UNVERSIONED;
+    }
+  }
+
+  public static void writeVersion(@NotNull Connection connection, int version) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE IF NOT EXISTS Schema_Version (Version INTEGER NOT NULL)");
+      statement.execute("DELETE FROM Schema_Version");
+      statement.execute("INSERT INTO Schema_Version (Version) VALUES (" + version + ")");
+    }
+  }
+
+  /**
+   * @return whether a database at {@code version} can be brought up to {@link #CURRENT_VERSION}.
+   */
+  public static boolean canMigrate(int version) {
+    return version != UNVERSIONED && version <= CURRENT_VERSION;
+  }
+
+  /**
+   * Upgrades a database from {@code fromVersion} to {@link #CURRENT_VERSION}. The caller commits.
+   */
+  public static void migrate(@NotNull Connection connection, int fromVersion) throws SQLException {
+    assert canMigrate(fromVersion);
+    try (Statement statement = connection.createStatement()) {
+      for (int version = fromVersion; version < CURRENT_VERSION; version++) {
+        for (TableMigration migration : MIGRATIONS.get(version - 1)) {
+          if (!hasTable(statement, migration.myTable)) {
+            continue;
+          }
+          for (String sql : migration.myStatements) {
+            statement.execute(sql);
+          }
+        }
+      }
+    }
+    writeVersion(connection, CURRENT_VERSION);
+  }
+
+  private static boolean hasTable(@NotNull Statement statement, @NotNull String table) throws SQLException {
+    try (ResultSet tables = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+      return tables.next() && tables.getInt(1) > 0;
+    }
+  }
+
+  /**
+   * Statements upgrading one table, only run on databases that have it.
+   */
+  private static final class TableMigration {
+    @NotNull private final String myTable;
+    @NotNull private final String[] myStatements;
+
+    private TableMigration(@NotNull String table, @NotNull String... statements) {
+      myTable = table;
+      myStatements = statements;
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.android.tools.datastore;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.analytics.UsageTracker;
 import com.android.tools.datastore.database.DataStoreTable;
+import com.android.tools.datastore.poller.PollRunner;
+import com.android.tools.datastore.poller.PollScheduler;
 import com.android.tools.datastore.service.*;
 import com.android.tools.profiler.proto.*;
 import com.google.wireless.android.sdk.stats.AndroidProfilerDbStats;
@@ -85,6 +87,8 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
 
   private final String myDatastoreDirectory;
   private final Map<BackingNamespace, DataStoreDatabase> myDatabases = new HashMap<>();
+  private final IngestionPipeline myIngestionPipeline = new IngestionPipeline();
+  private final PollScheduler myPollScheduler = new PollScheduler();
   private final ServerBuilder myServerBuilder;
   private final Server myServer;
   private final List<ServicePassThrough> myServices = new ArrayList<>();
@@ -99,9 +103,9 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   private final Timer myReportTimer;
 
   /**
-   * @param fetchExecutor A callback which is given a {@link Runnable} for each datastore service.
-   *                      The runnable, when run, begins polling the target service. You probably
-   *                      want to run it on a background thread.
+   * @param fetchExecutor A callback which is given the {@link Runnable}s that fetch data off the device outside of the regular
+   *                      polling, e.g. heap dumps. You probably want to run them on a background thread. The {@link PollRunner}s
+   *                      themselves are multiplexed on a shared {@link PollScheduler}.
    */
   public DataStoreService(@NotNull String serviceName,
                           @NotNull String datastoreDirectory,
@@ -113,7 +117,14 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
                           @NotNull String datastoreDirectory,
                           @NotNull Consumer<Runnable> fetchExecutor,
                           ServerInterceptor interceptor) {
-    myFetchExecutor = fetchExecutor;
+    myFetchExecutor = runnable -> {
+      if (runnable instanceof PollRunner) {
+        myPollScheduler.start((PollRunner)runnable);
+      }
+      else {
+        fetchExecutor.accept(runnable);
+      }
+    };
     myInterceptor = interceptor;
     myDatastoreDirectory = datastoreDirectory;
     myServerBuilder = InProcessServerBuilder.forName(serviceName).directExecutor();
@@ -169,9 +180,13 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     List<BackingNamespace> namespaces = service.getBackingNamespaces();
     namespaces.forEach(namespace -> {
       assert !namespace.myNamespace.isEmpty();
-      DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> createDatabase(
-        myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHanlder));
-      service.setBackingStore(namespace, db.getConnection());
+      DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> {
+        DataStoreDatabase database = createDatabase(
+          myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHanlder);
+        database.setIngestionPipeline(myIngestionPipeline);
+        return database;
+      });
+      service.setBackingStore(namespace, db);
     });
 
     // Build server and start listening for RPC calls for the registered service
@@ -210,10 +225,22 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
       client.shutdownNow();
     }
     myConnectedClients.clear();
+    myPollScheduler.shutdown();
+    // Pollers may still be handing over data, which has to land before the databases go away.
+    myIngestionPipeline.shutdown();
     myDatabases.forEach((name, db) -> db.disconnect());
     DataStoreTable.removeDataStoreErrorCallback(this);
   }
 
+  /**
+   * @return the sessions recorded by previous runs, most recent first. They can be reopened and exported without a device through
+   * {@link SessionArchive#open()} and {@link SessionArchive#exportTo(File)}.
+   */
+  @NotNull
+  public List<SessionArchive> getArchivedSessions() {
+    return SessionArchive.list(new File(myDatastoreDirectory + DEFAULT_SHARED_NAMESPACE.myNamespace));
+  }
+
   @VisibleForTesting
   List<ServicePassThrough> getRegisteredServices() {
     return myServices;
@@ -323,6 +350,19 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
         .setAndroidProfilerDbStats(dbStats);
 
       UsageTracker.getInstance().log(event);
+      logPollStats();
+    }
+
+    /**
+     * The usage event has no room for how the pollers keep up with their periods, so that goes to the log next to it.
+     */
+    private void logPollStats() {
+      getLogger().info(String.format("%d active pollers, %d polls: average %d us, max %d us, %d took longer than their period",
+                                     myPollScheduler.getActiveRunnerCount(),
+                                     myPollScheduler.getPollCount(),
+                                     TimeUnit.NANOSECONDS.toMicros(myPollScheduler.getAveragePollDurationNs()),
+                                     TimeUnit.NANOSECONDS.toMicros(myPollScheduler.getMaxPollDurationNs()),
+                                     myPollScheduler.getOverrunCount()));
     }
 
     private void collectReport(AndroidProfilerDbStats.Builder dbStats) {
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Groups the writes of all pollers sharing a {@link Connection} into bounded transactions. Each call to {@link #write(Runnable)} is
+ * applied atomically with respect to commits (a commit never lands in the middle of a unit), and the open transaction is committed
+ * once either {@link #getMaxBatchSize()} units have been written or {@link #getMaxCommitDelayMs()} has elapsed since the last commit.
+ *
+ * The connection sees the writes of its open transaction, so queries on it go through {@link #read(Query)}, which keeps them from
+ * seeing a unit half applied.
+ */
+public class GroupCommitWriter {
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+  public static final long DEFAULT_MAX_COMMIT_DELAY_MS = 1000;
+
+  private static Logger getLogger() {
+    return Logger.getInstance(GroupCommitWriter.class);
+  }
+
+  @NotNull private final Connection myConnection;
+  private final int myMaxBatchSize;
+  private final long myMaxCommitDelayMs;
+  private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+  private final ReentrantReadWriteLock.WriteLock myWriteLock = myLock.writeLock();
+  private final ReentrantReadWriteLock.ReadLock myReadLock = myLock.readLock();
+  @NotNull private final ScheduledExecutorService myCommitTimer;
+  private final List<Runnable> myCommitListeners = new CopyOnWriteArrayList<>();
+
+  // The following fields are guarded by myWriteLock.
+  private int myPendingUnits;
+  private long myCommitCount;
+  private long myLastCommitLatencyNs;
+  private long myMaxCommitLatencyNs;
+  private long myTotalCommitLatencyNs;
+  private boolean myIsShutdown;
+
+  public GroupCommitWriter(@NotNull Connection connection) {
+    this(connection, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_COMMIT_DELAY_MS);
+  }
+
+  public GroupCommitWriter(@NotNull Connection connection, int maxBatchSize, long maxCommitDelayMs) {
+    assert maxBatchSize > 0 && maxCommitDelayMs > 0;
+    myConnection = connection;
+    myMaxBatchSize = maxBatchSize;
+    myMaxCommitDelayMs = maxCommitDelayMs;
+    myCommitTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "DataStoreGroupCommit");
+      thread.setDaemon(true);
+      return thread;
+    });
+    myCommitTimer.scheduleWithFixedDelay(this::commitIfPending, maxCommitDelayMs, maxCommitDelayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs {@code unit} as part of the currently open transaction. Writers from other threads queue up behind it, and the transaction
+   * is committed right after it if the batch size limit has been reached. Units may nest, in which case only the outermost one counts.
+   */
+  public void write(@NotNull Runnable unit) {
+    myWriteLock.lock();
+    try {
+      unit.run();
+      // Units nested in another unit are part of the outer one and must not trigger a commit half way through it.
+      if (myIsShutdown || myLock.getWriteHoldCount() > 1) {
+        return;
+      }
+      myPendingUnits++;
+      if (myPendingUnits >= myMaxBatchSize) {
+        commit();
+      }
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  /**
+   * Runs {@code query} while no unit is being written, so that it only sees whole units. Queries may run concurrently with each other,
+   * and within a unit. The query must be done with its results when it returns, as units may be written as soon as it does.
+   */
+  public <R> R read(@NotNull Query<R> query) throws SQLException {
+    myReadLock.lock();
+    try {
+      return query.run();
+    }
+    finally {
+      myReadLock.unlock();
+    }
+  }
+
+  /**
+   * Commits all pending units and stops the commit timer. Subsequent writes are still applied but are left to the caller to commit.
+   */
+  public void shutdown() {
+    myCommitTimer.shutdownNow();
+    myWriteLock.lock();
+    try {
+      commit();
+      myIsShutdown = true;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  /**
+   * Adds a listener that runs after each successful commit, on the committing thread and while no unit is being written, so it can
+   * query the connection and see exactly what was committed.
+   */
+  public void addCommitListener(@NotNull Runnable listener) {
+    myCommitListeners.add(listener);
+  }
+
+  public int getMaxBatchSize() {
+    return myMaxBatchSize;
+  }
+
+  public long getMaxCommitDelayMs() {
+    return myMaxCommitDelayMs;
+  }
+
+  /**
+   * @return the number of writers and readers currently blocked waiting for their turn.
+   */
+  public int getQueueDepth() {
+    return myLock.getQueueLength();
+  }
+
+  /**
+   * @return the number of units written since the last commit.
+   */
+  public int getPendingUnitCount() {
+    myWriteLock.lock();
+    try {
+      return myPendingUnits;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  public long getCommitCount() {
+    myWriteLock.lock();
+    try {
+      return myCommitCount;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  public long getLastCommitLatencyNs() {
+    myWriteLock.lock();
+    try {
+      return myLastCommitLatencyNs;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  public long getMaxCommitLatencyNs() {
+    myWriteLock.lock();
+    try {
+      return myMaxCommitLatencyNs;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  public long getAverageCommitLatencyNs() {
+    myWriteLock.lock();
+    try {
+      return myCommitCount == 0 ? 0 : myTotalCommitLatencyNs / myCommitCount;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  private void commitIfPending() {
+    myWriteLock.lock();
+    try {
+      if (myPendingUnits > 0) {
+        commit();
+      }
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  private void commit() {
+    assert myWriteLock.isHeldByCurrentThread();
+    if (myIsShutdown) {
+      return;
+    }
+    long startNs = System.nanoTime();
+    try {
+      if (myConnection.isClosed()) {
+        return;
+      }
+      myConnection.commit();
+    }
+    catch (SQLException e) {
+      getLogger().warn(e);
+      return;
+    }
+    finally {
+      myPendingUnits = 0;
+    }
+    long latencyNs = System.nanoTime() - startNs;
+    myCommitCount++;
+    myLastCommitLatencyNs = latencyNs;
+    myMaxCommitLatencyNs = Math.max(myMaxCommitLatencyNs, latencyNs);
+    myTotalCommitLatencyNs += latencyNs;
+    myCommitListeners.forEach(Runnable::run);
+  }
+
+  public interface Query<R> {
+    R run() throws SQLException;
+  }
+}
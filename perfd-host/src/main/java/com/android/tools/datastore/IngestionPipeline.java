@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer thread through which the data received from all connected devices is written to the datastore. Producers (the pollers,
+ * through {@link com.android.tools.datastore.database.DataStoreTable#submitWrite(Runnable)}) hand over their writes and go back to
+ * fetching right away. The queue is bounded, so when writing falls behind the producers block instead of buffering an unbounded amount
+ * of samples.
+ *
+ * Units are applied in submission order.
+ */
+public class IngestionPipeline {
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private static Logger getLogger() {
+    return Logger.getInstance(IngestionPipeline.class);
+  }
+
+  private static final Runnable STOP = () -> {};
+
+  @NotNull private final BlockingQueue<Runnable> myQueue;
+  @NotNull private final Thread myWriterThread;
+  private final AtomicLong mySubmittedCount = new AtomicLong();
+  private final AtomicLong myAppliedCount = new AtomicLong();
+  private final AtomicLong myBlockedSubmitCount = new AtomicLong();
+  private volatile boolean myIsShutdown;
+
+  public IngestionPipeline() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public IngestionPipeline(int capacity) {
+    myQueue = new ArrayBlockingQueue<>(capacity);
+    myWriterThread = new Thread(this::drain, "DataStoreIngestion");
+    myWriterThread.setDaemon(true);
+    myWriterThread.start();
+  }
+
+  /**
+   * Queues {@code unit} to be run on the writer thread, blocking while the queue is full. Once the pipeline is shut down, and for units
+   * submitted from the writer thread itself, {@code unit} is run directly on the calling thread.
+   */
+  public void submit(@NotNull Runnable unit) {
+    if (myIsShutdown || Thread.currentThread() == myWriterThread) {
+      unit.run();
+      return;
+    }
+    mySubmittedCount.incrementAndGet();
+    if (!myQueue.offer(unit)) {
+      myBlockedSubmitCount.incrementAndGet();
+      try {
+        myQueue.put(unit);
+      }
+      catch (InterruptedException e) {
+        // The producer is being stopped, don't lose the data it already fetched.
+        Thread.currentThread().interrupt();
+        mySubmittedCount.decrementAndGet();
+        unit.run();
+      }
+    }
+  }
+
+  /**
+   * Blocks until every unit submitted before this call has been applied.
+   */
+  public void flush() throws InterruptedException {
+    if (myIsShutdown || Thread.currentThread() == myWriterThread) {
+      return;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    submit(latch::countDown);
+    latch.await();
+  }
+
+  /**
+   * Applies the units still in the queue and stops the writer thread. Later submissions are run on the submitting thread.
+   */
+  public void shutdown() {
+    if (myIsShutdown) {
+      return;
+    }
+    try {
+      myQueue.put(STOP);
+      myWriterThread.join();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    myIsShutdown = true;
+    // Units racing with the shutdown may have been queued behind STOP.
+    Runnable unit;
+    while ((unit = myQueue.poll()) != null) {
+      unit.run();
+    }
+  }
+
+  /**
+   * @return the number of units waiting to be applied.
+   */
+  public int getQueueDepth() {
+    return myQueue.size();
+  }
+
+  public long getSubmittedCount() {
+    return mySubmittedCount.get();
+  }
+
+  public long getAppliedCount() {
+    return myAppliedCount.get();
+  }
+
+  /**
+   * @return how many submissions had to wait for room in the queue, i.e. how often writing could not keep up with the producers.
+   */
+  public long getBlockedSubmitCount() {
+    return myBlockedSubmitCount.get();
+  }
+
+  private void drain() {
+    while (true) {
+      Runnable unit;
+      try {
+        unit = myQueue.take();
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+      if (unit == STOP) {
+        return;
+      }
+      try {
+        unit.run();
+      }
+      catch (RuntimeException e) {
+        // A single bad sample should not stop ingestion for every device.
+        getLogger().warn(e);
+      }
+      myAppliedCount.incrementAndGet();
+    }
+  }
+}
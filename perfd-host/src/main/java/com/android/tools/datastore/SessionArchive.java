@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.proto.Common;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A durable database file from a previous run, kept with all its sessions so they can be listed, reopened and exported without the
+ * device. When a {@link DataStoreDatabase.Characteristic#DURABLE} database is opened over an existing file, the file is upgraded to the
+ * current {@link DataStoreSchema} and moved into the {@link #ARCHIVE_DIRECTORY_NAME} directory next to it, and the live database starts
+ * out empty. Archives written before a later schema change are upgraded again when they are listed or opened.
+ */
+public final class SessionArchive {
+  public static final String ARCHIVE_DIRECTORY_NAME = "archive";
+  /**
+   * Older archives are deleted beyond this count, so disk usage stays bounded.
+   */
+  public static final int MAX_ARCHIVE_COUNT = 10;
+
+  private static final String ARCHIVE_EXTENSION = ".sql";
+
+  private static Logger getLogger() {
+    return Logger.getInstance(SessionArchive.class);
+  }
+
+  @NotNull private final File myFile;
+  @NotNull private final List<Common.Session> mySessions;
+
+  private SessionArchive(@NotNull File file, @NotNull List<Common.Session> sessions) {
+    myFile = file;
+    mySessions = sessions;
+  }
+
+  @NotNull
+  public File getFile() {
+    return myFile;
+  }
+
+  @NotNull
+  public List<Common.Session> getSessions() {
+    return mySessions;
+  }
+
+  /**
+   * Opens the archive for queries, see {@link DataStoreDatabase#openReadOnly(File)}, upgrading it to the current schema first if needed.
+   * The caller disconnects it.
+   */
+  @NotNull
+  public DataStoreDatabase open() throws SQLException {
+    upgrade(myFile);
+    return DataStoreDatabase.openReadOnly(myFile);
+  }
+
+  /**
+   * Copies the archive to {@code destination}, which can be reopened with {@link DataStoreDatabase#openReadOnly(File)}. The payloads the
+   * archive references are copied to the {@link BlobStore} directory next to {@code destination}.
+   */
+  public void exportTo(@NotNull File destination) throws IOException {
+    Files.copy(myFile.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    File blobDirectory = BlobStore.getDirectory(myFile);
+    File[] blobs = blobDirectory.listFiles();
+    if (blobs != null) {
+      File destinationBlobDirectory = BlobStore.getDirectory(destination);
+      Files.createDirectories(destinationBlobDirectory.toPath());
+      for (File blob : blobs) {
+        Files.copy(blob.toPath(), new File(destinationBlobDirectory, blob.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+
+  @NotNull
+  public static File getArchiveDirectory(@NotNull File dbFile) {
+    return new File(dbFile.getAbsoluteFile().getParentFile(), ARCHIVE_DIRECTORY_NAME);
+  }
+
+  /**
+   * @return the archives next to {@code dbFile}, most recent first.
+   */
+  @NotNull
+  public static List<SessionArchive> list(@NotNull File dbFile) {
+    List<SessionArchive> archives = new ArrayList<>();
+    for (File file : listArchiveFiles(getArchiveDirectory(dbFile))) {
+      try {
+        upgrade(file);
+        DataStoreDatabase database = DataStoreDatabase.openReadOnly(file);
+        try {
+          archives.add(new SessionArchive(file, readSessions(database.getConnection())));
+        }
+        finally {
+          database.disconnect();
+        }
+      }
+      catch (SQLException e) {
+        getLogger().warn("Skipping unreadable session archive " + file.getName(), e);
+      }
+    }
+    return archives;
+  }
+
+  /**
+   * Moves the existing {@code dbFile} into the archive directory, upgrading it to the current schema first. Files that cannot be
+   * upgraded, or that hold no session, are deleted instead.
+   */
+  static void archive(@NotNull File dbFile) {
+    boolean keep = false;
+    try (Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()))) {
+      if (DataStoreSchema.canMigrate(DataStoreSchema.readVersion(connection)) && !readSessions(connection).isEmpty()) {
+        upgrade(connection);
+        keep = true;
+      }
+    }
+    catch (SQLException e) {
+      getLogger().warn("Unable to archive the sessions of " + dbFile.getName(), e);
+    }
+
+    if (keep) {
+      File archiveDirectory = getArchiveDirectory(dbFile);
+      String name = dbFile.getName();
+      if (name.endsWith(ARCHIVE_EXTENSION)) {
+        name = name.substring(0, name.length() - ARCHIVE_EXTENSION.length());
+      }
+      File archiveFile = new File(archiveDirectory, name + "-" + dbFile.lastModified() + ARCHIVE_EXTENSION);
+      try {
+        Files.createDirectories(archiveDirectory.toPath());
+        Files.move(dbFile.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        File blobDirectory = BlobStore.getDirectory(dbFile);
+        if (blobDirectory.exists()) {
+          File archiveBlobDirectory = BlobStore.getDirectory(archiveFile);
+          BlobStore.delete(archiveBlobDirectory);
+          Files.move(blobDirectory.toPath(), archiveBlobDirectory.toPath());
+        }
+      }
+      catch (IOException e) {
+        getLogger().warn("Unable to archive the sessions of " + dbFile.getName(), e);
+      }
+      deleteOldArchives(archiveDirectory);
+    }
+
+    if (dbFile.exists() && !dbFile.delete()) {
+      getLogger().error("Unable to delete " + dbFile.getName());
+    }
+  }
+
+  /**
+   * Brings {@code file} up to the current schema, in case it was archived before a later version.
+   *
+   * @throws SQLException if the file cannot be upgraded, e.g. as it was written by a newer version.
+   */
+  private static void upgrade(@NotNull File file) throws SQLException {
+    try {
+      Class.forName("org.sqlite.JDBC");
+    }
+    catch (ClassNotFoundException e) {
+      throw new SQLException(e);
+    }
+    try (Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", file.getPath()))) {
+      upgrade(connection);
+    }
+  }
+
+  private static void upgrade(@NotNull Connection connection) throws SQLException {
+    int version = DataStoreSchema.readVersion(connection);
+    if (!DataStoreSchema.canMigrate(version)) {
+      throw new SQLException("Unsupported schema version " + version);
+    }
+    if (version < DataStoreSchema.CURRENT_VERSION) {
+      connection.setAutoCommit(false);
+      DataStoreSchema.migrate(connection, version);
+      connection.commit();
+    }
+  }
+
+  @NotNull
+  private static List<Common.Session> readSessions(@NotNull Connection connection) throws SQLException {
+    List<Common.Session> sessions = new ArrayList<>();
+    try (Statement statement = connection.createStatement()) {
+      ResultSet tables =
+        statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'Profiler_Sessions'");
+      if (!tables.next() || tables.getInt(1) == 0) {
+        return sessions;
+      }
+      ResultSet results =
+        statement.executeQuery("SELECT SessionId, DeviceId, ProcessId, StartTime, EndTime FROM Profiler_Sessions ORDER BY SessionId ASC");
+      while (results.next()) {
+        sessions.add(Common.Session.newBuilder()
+                       .setSessionId(results.getLong(1))
+                       .setDeviceId(results.getLong(2))
+                       .setPid(results.getInt(3))
+                       .setStartTimestamp(results.getLong(4))
+                       .setEndTimestamp(results.getLong(5))
+                       .build());
+      }
+    }
+    return sessions;
+  }
+
+  @NotNull
+  private static List<File> listArchiveFiles(@NotNull File archiveDirectory) {
+    File[] files = archiveDirectory.listFiles((dir, name) -> name.endsWith(ARCHIVE_EXTENSION));
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    List<File> result = new ArrayList<>(Arrays.asList(files));
+    result.sort(Comparator.comparingLong(File::lastModified).reversed());
+    return result;
+  }
+
+  private static void deleteOldArchives(@NotNull File archiveDirectory) {
+    List<File> files = listArchiveFiles(archiveDirectory);
+    for (File file : files.subList(Math.min(MAX_ARCHIVE_COUNT, files.size()), files.size())) {
+      if (!file.delete()) {
+        getLogger().warn("Unable to delete old session archive " + file.getName());
+      }
+      BlobStore.delete(BlobStore.getDirectory(file));
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+/**
+ * Limits on how much live allocation tracking history a session keeps. Only freed allocations (and deleted JNI references) are ever
+ * evicted, oldest frees first, in chunks of at most {@link #PRUNE_CHUNK_SIZE} records.
+ */
+public final class AllocationRetentionPolicy {
+  // 5M ought to be enough for anybody (~300MB of data)
+  // Note - Google Search app can easily allocate 100k+ temporary objects in an relatively short amount of time (e.g. one search query)
+  public static final int DEFAULT_MAX_COUNT = 5000000;
+  public static final AllocationRetentionPolicy DEFAULT = new AllocationRetentionPolicy(DEFAULT_MAX_COUNT, Long.MAX_VALUE, Long.MAX_VALUE);
+
+  public static final int PRUNE_CHUNK_SIZE = 10000;
+
+  private final int myMaxCount;
+  private final long myMaxBytes;
+  private final long myMaxFreedAgeNs;
+
+  /**
+   * @param maxCount       the maximum number of records (alive or freed) to keep.
+   * @param maxBytes       the maximum total size of the allocations (alive or freed) to keep.
+   * @param maxFreedAgeNs  freed records whose free time is older than this, relative to the latest data, are evicted even if the other
+   *                       limits are not reached. Use {@link Long#MAX_VALUE} to keep them.
+   */
+  public AllocationRetentionPolicy(int maxCount, long maxBytes, long maxFreedAgeNs) {
+    assert maxCount >= 0 && maxBytes >= 0 && maxFreedAgeNs >= 0;
+    myMaxCount = maxCount;
+    myMaxBytes = maxBytes;
+    myMaxFreedAgeNs = maxFreedAgeNs;
+  }
+
+  public int getMaxCount() {
+    return myMaxCount;
+  }
+
+  public long getMaxBytes() {
+    return myMaxBytes;
+  }
+
+  public long getMaxFreedAgeNs() {
+    return myMaxFreedAgeNs;
+  }
+
+  /**
+   * @return the free time before which freed records are evicted, or {@link Long#MIN_VALUE} if there is no time window.
+   */
+  public long getFreedBefore(long latestTimestamp) {
+    if (myMaxFreedAgeNs == Long.MAX_VALUE || latestTimestamp < Long.MIN_VALUE + myMaxFreedAgeNs) {
+      return Long.MIN_VALUE;
+    }
+    return latestTimestamp - myMaxFreedAgeNs;
+  }
+
+  public AllocationRetentionPolicy withMaxCount(int maxCount) {
+    return new AllocationRetentionPolicy(maxCount, myMaxBytes, myMaxFreedAgeNs);
+  }
+}
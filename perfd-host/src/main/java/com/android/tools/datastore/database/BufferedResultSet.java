@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ResultSet} holding a copy of all the rows of another one, so they can be read once the query is over, see
+ * {@link DataStoreTable#executeQuery(Enum, Object...)}. Values are converted the way SQLite converts them, for the getters the tables
+ * use.
+ */
+final class BufferedResultSet extends EmptyResultSet {
+  @NotNull private final String[] myColumnLabels;
+  @NotNull private final List<Object[]> myRows = new ArrayList<>();
+  private int myRowIndex = -1;
+  private boolean myWasNull;
+  private boolean myIsClosed;
+
+  BufferedResultSet(@NotNull ResultSet results) throws SQLException {
+    ResultSetMetaData metaData = results.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    myColumnLabels = new String[columnCount];
+    for (int i = 0; i < columnCount; ++i) {
+      myColumnLabels[i] = metaData.getColumnLabel(i + 1);
+    }
+    while (results.next()) {
+      Object[] row = new Object[columnCount];
+      for (int i = 0; i < columnCount; ++i) {
+        row[i] = results.getObject(i + 1);
+      }
+      myRows.add(row);
+    }
+  }
+
+  @Override
+  public boolean next() throws SQLException {
+    if (myIsClosed) {
+      throw new SQLException("ResultSet is closed");
+    }
+    if (myRowIndex < myRows.size()) {
+      myRowIndex++;
+    }
+    return myRowIndex < myRows.size();
+  }
+
+  @Override
+  public void close() {
+    myIsClosed = true;
+    myRows.clear();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return myIsClosed;
+  }
+
+  @Override
+  public boolean wasNull() {
+    return myWasNull;
+  }
+
+  @Override
+  public Object getObject(int columnIndex) throws SQLException {
+    if (myIsClosed || myRowIndex < 0 || myRowIndex >= myRows.size()) {
+      throw new SQLException("No current row");
+    }
+    if (columnIndex < 1 || columnIndex > myColumnLabels.length) {
+      throw new SQLException("Column index out of bounds: " + columnIndex);
+    }
+    Object value = myRows.get(myRowIndex)[columnIndex - 1];
+    myWasNull = value == null;
+    return value;
+  }
+
+  @Override
+  public String getString(int columnIndex) throws SQLException {
+    Object value = getObject(columnIndex);
+    if (value instanceof byte[]) {
+      return new String((byte[])value, StandardCharsets.UTF_8);
+    }
+    return value == null ? null : value.toString();
+  }
+
+  @Override
+  public boolean getBoolean(int columnIndex) throws SQLException {
+    return getLong(columnIndex) != 0;
+  }
+
+  @Override
+  public int getInt(int columnIndex) throws SQLException {
+    return (int)getLong(columnIndex);
+  }
+
+  @Override
+  public long getLong(int columnIndex) throws SQLException {
+    Object value = getObject(columnIndex);
+    if (value instanceof Number) {
+      return ((Number)value).longValue();
+    }
+    return value == null ? 0 : (long)parseDouble(value);
+  }
+
+  @Override
+  public float getFloat(int columnIndex) throws SQLException {
+    return (float)getDouble(columnIndex);
+  }
+
+  @Override
+  public double getDouble(int columnIndex) throws SQLException {
+    Object value = getObject(columnIndex);
+    if (value instanceof Number) {
+      return ((Number)value).doubleValue();
+    }
+    return value == null ? 0 : parseDouble(value);
+  }
+
+  @Override
+  public byte[] getBytes(int columnIndex) throws SQLException {
+    Object value = getObject(columnIndex);
+    if (value == null || value instanceof byte[]) {
+      return (byte[])value;
+    }
+    return value.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public int findColumn(String columnLabel) throws SQLException {
+    for (int i = 0; i < myColumnLabels.length; ++i) {
+      if (myColumnLabels[i].equalsIgnoreCase(columnLabel)) {
+        return i + 1;
+      }
+    }
+    throw new SQLException("No such column: " + columnLabel);
+  }
+
+  @Override
+  public Object getObject(String columnLabel) throws SQLException {
+    return getObject(findColumn(columnLabel));
+  }
+
+  @Override
+  public String getString(String columnLabel) throws SQLException {
+    return getString(findColumn(columnLabel));
+  }
+
+  @Override
+  public boolean getBoolean(String columnLabel) throws SQLException {
+    return getBoolean(findColumn(columnLabel));
+  }
+
+  @Override
+  public int getInt(String columnLabel) throws SQLException {
+    return getInt(findColumn(columnLabel));
+  }
+
+  @Override
+  public long getLong(String columnLabel) throws SQLException {
+    return getLong(findColumn(columnLabel));
+  }
+
+  @Override
+  public float getFloat(String columnLabel) throws SQLException {
+    return getFloat(findColumn(columnLabel));
+  }
+
+  @Override
+  public double getDouble(String columnLabel) throws SQLException {
+    return getDouble(findColumn(columnLabel));
+  }
+
+  @Override
+  public byte[] getBytes(String columnLabel) throws SQLException {
+    return getBytes(findColumn(columnLabel));
+  }
+
+  /**
+   * Same as SQLite, text that is not a number reads as 0.
+   */
+  private static double parseDouble(@NotNull Object value) {
+    try {
+      return Double.parseDouble(value instanceof byte[] ? new String((byte[])value, StandardCharsets.UTF_8) : value.toString());
+    }
+    catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -38,6 +38,11 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
    */
   private static final int PROFILER_TYPE_COLUMN_TRACE_DATA = 2;
 
+  /**
+   * Column number of the trace's {@link com.android.tools.datastore.BlobStore} hash when querying trace data.
+   */
+  private static final int BLOB_COLUMN_TRACE_DATA = 3;
+
   public enum CpuStatements {
     INSERT_THREAD_ACTIVITY,
     QUERY_THREAD_ACTIVITIES,
@@ -46,6 +51,7 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
     QUERY_TRACE_INFO,
     FIND_TRACE_DATA,
     INSERT_TRACE_DATA,
+    INSERT_TRACE_BLOB,
     INSERT_TRACE_INFO,
   }
 
@@ -66,7 +72,8 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
                   "TraceId INTEGER NOT NULL",
                   // We need profilerType to choose parser
                   "ProfilerType TEXT",
-                  "Data BLOB");
+                  "Data BLOB",
+                  "DataBlob TEXT");
 
       createTable("Cpu_Trace_Info",
                   "Session INTEGER NOT NULL",
@@ -76,6 +83,7 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
       createUniqueIndex("Cpu_Data", "Session", "Timestamp");
       createUniqueIndex("Cpu_Trace", "Session", "TraceId");
       createUniqueIndex("Thread_Activities", "Session", "ThreadId", "Timestamp");
+      registerBlobColumn("Cpu_Trace", "DataBlob");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -93,9 +101,11 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
                       "SELECT TraceInfo from Cpu_Trace_Info WHERE " +
                       "Session = ? AND ((StartTime < ? AND ? <= EndTime) OR (StartTime > ? AND EndTime = 0));");
       createStatement(CpuTable.CpuStatements.FIND_TRACE_DATA,
-                      "SELECT Data, ProfilerType from Cpu_Trace WHERE Session = ? AND TraceId = ?");
+                      "SELECT Data, ProfilerType, DataBlob from Cpu_Trace WHERE Session = ? AND TraceId = ?");
       createStatement(CpuTable.CpuStatements.INSERT_TRACE_DATA,
                       "INSERT INTO Cpu_Trace (Session, TraceId, ProfilerType, Data) values (?, ?, ?, ?)");
+      createStatement(CpuTable.CpuStatements.INSERT_TRACE_BLOB,
+                      "INSERT INTO Cpu_Trace (Session, TraceId, ProfilerType, DataBlob) values (?, ?, ?, ?)");
       createStatement(CpuTable.CpuStatements.INSERT_TRACE_INFO,
                       "INSERT OR REPLACE INTO Cpu_Trace_Info (Session, StartTime, EndTime, TraceInfo) values (?, ?, ?, ?)");
       createStatement(CpuTable.CpuStatements.INSERT_THREAD_ACTIVITY,
@@ -229,11 +239,11 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
     try {
       ResultSet results = executeQuery(CpuStatements.FIND_TRACE_DATA, session.getSessionId(), traceId);
       if (results.next()) {
-        byte[] data = results.getBytes(DATA_COLUMN);
+        ByteString data = readBlob(results, DATA_COLUMN, BLOB_COLUMN_TRACE_DATA);
         if (data != null) {
           CpuProfilerType profilerType =
             CpuProfilerType.valueOf(results.getString(PROFILER_TYPE_COLUMN_TRACE_DATA));
-          return new TraceData(ByteString.copyFrom(data), profilerType);
+          return new TraceData(data, profilerType);
         }
       }
     }
@@ -244,7 +254,10 @@ public class CpuTable extends DataStoreTable<CpuTable.CpuStatements> {
   }
 
   public void insertTrace(Common.Session session, int traceId, CpuProfilerType profilerType, ByteString data) {
-    execute(CpuStatements.INSERT_TRACE_DATA, session.getSessionId(), traceId, profilerType.toString(), data.toByteArray());
+    if (!putBlob(data.size(), data::writeTo,
+                 hash -> execute(CpuStatements.INSERT_TRACE_BLOB, session.getSessionId(), traceId, profilerType.toString(), hash))) {
+      execute(CpuStatements.INSERT_TRACE_DATA, session.getSessionId(), traceId, profilerType.toString(), data.toByteArray());
+    }
   }
 
   public void insertTraceInfo(Common.Session session, TraceInfo trace) {
@@ -15,18 +15,27 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.BlobStore;
+import com.android.tools.datastore.DataStoreDatabase;
+import com.android.tools.datastore.GroupCommitWriter;
+import com.android.tools.datastore.IngestionPipeline;
 import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Interface a {@link com.android.tools.datastore.ServicePassThrough} object returns to indicate this object is
@@ -37,12 +46,28 @@ public abstract class DataStoreTable<T extends Enum> {
   private static final Set<DataStoreTableErrorCallback> ERROR_CALLBACKS = new HashSet();
 
   private Connection myConnection;
+  @Nullable private GroupCommitWriter myCommitWriter;
+  @Nullable private IngestionPipeline myIngestionPipeline;
+  @Nullable private BlobStore myBlobStore;
   private final ThreadLocal<Map<T, PreparedStatement>> myStatementMap = new ThreadLocal<>();
 
+  /**
+   * Maximum number of rows accumulated in a single JDBC batch before it is flushed by {@link #executeBatch(Enum, Iterable, RowBinder)}.
+   */
+  protected static final int MAX_BATCH_SIZE = 1000;
+
   public interface DataStoreTableErrorCallback {
     void onDataStoreError(Throwable t);
   }
 
+  /**
+   * Binds the parameters of a single row directly through the typed {@link PreparedStatement} setters, so batched inserts do not pay
+   * for boxing and the {@code instanceof} dispatch in {@link #applyParams(PreparedStatement, Object...)}.
+   */
+  protected interface RowBinder<R> {
+    void bind(@NotNull PreparedStatement statement, @NotNull R row) throws SQLException;
+  }
+
   /**
    * Initialization function to create tables for the Database.
    *
@@ -52,6 +77,44 @@ public abstract class DataStoreTable<T extends Enum> {
     myConnection = connection;
   }
 
+  /**
+   * Same as {@link #initialize(Connection)}, but additionally routes {@link #runInTransaction(Runnable)} through the database's
+   * {@link GroupCommitWriter}.
+   */
+  public void initialize(@NotNull DataStoreDatabase database) {
+    myCommitWriter = database.getCommitWriter();
+    myIngestionPipeline = database.getIngestionPipeline();
+    myBlobStore = database.getBlobStore();
+    initialize(database.getConnection());
+  }
+
+  /**
+   * Applies a group of writes (typically everything gathered by a single poll) as one unit, so the transaction holding it is never
+   * committed half way through. Falls back to running the writes directly if the table was initialized without a commit writer.
+   */
+  public void runInTransaction(@NotNull Runnable writes) {
+    if (myCommitWriter == null) {
+      writes.run();
+    }
+    else {
+      myCommitWriter.write(writes);
+    }
+  }
+
+  /**
+   * Same as {@link #runInTransaction(Runnable)}, but hands the writes over to the database's {@link IngestionPipeline} when there is one,
+   * in which case they are applied later on the pipeline's writer thread. Only use it for writes whose effects the caller does not need
+   * to observe right away.
+   */
+  public void submitWrite(@NotNull Runnable writes) {
+    if (myIngestionPipeline == null) {
+      runInTransaction(writes);
+    }
+    else {
+      myIngestionPipeline.submit(() -> runInTransaction(writes));
+    }
+  }
+
   /**
    * Helper function called after initialize to create {@link PreparedStatement} the implementor should cache
    * the statements for later use.
@@ -98,7 +161,14 @@ public abstract class DataStoreTable<T extends Enum> {
     return myStatementMap.get();
   }
 
+  /**
+   * Schema helpers are no-ops on read-only connections (see {@link DataStoreDatabase#openReadOnly(java.io.File)}), whose tables exist
+   * already.
+   */
   protected void createTable(@NotNull String table, String... columns) throws SQLException {
+    if (myConnection.isReadOnly()) {
+      return;
+    }
     myConnection.createStatement().execute(String.format("DROP TABLE IF EXISTS %s ", table));
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE TABLE %s", table));
@@ -106,12 +176,18 @@ public abstract class DataStoreTable<T extends Enum> {
   }
 
   protected void createUniqueIndex(@NotNull String table, String... indexList) throws SQLException {
+    if (myConnection.isReadOnly()) {
+      return;
+    }
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE UNIQUE INDEX IF NOT EXISTS idx_%s_pk ON %s", table, table));
     executeUniqueStatement(statement, indexList);
   }
 
   protected void createIndex(@NotNull String table, int indexId, String... indexList) throws SQLException {
+    if (myConnection.isReadOnly()) {
+      return;
+    }
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE INDEX IF NOT EXISTS idx_%s_%d_pk ON %s", table, indexId, table));
     executeUniqueStatement(statement, indexList);
@@ -143,13 +219,141 @@ public abstract class DataStoreTable<T extends Enum> {
     }
   }
 
+  /**
+   * Inserts all {@code rows} with a single prepared statement, using JDBC batches of at most {@link #MAX_BATCH_SIZE} rows.
+   */
+  protected <R> void executeBatch(@NotNull T statement, @NotNull Iterable<R> rows, @NotNull RowBinder<R> binder) {
+    try {
+      if (isClosed()) {
+        return;
+      }
+      PreparedStatement stmt = getStatementMap().get(statement);
+      int pendingRows = 0;
+      for (R row : rows) {
+        binder.bind(stmt, row);
+        stmt.addBatch();
+        if (++pendingRows == MAX_BATCH_SIZE) {
+          stmt.executeBatch();
+          pendingRows = 0;
+        }
+      }
+      if (pendingRows > 0) {
+        stmt.executeBatch();
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
+
+  protected boolean hasBlobStore() {
+    return myBlobStore != null;
+  }
+
+  /**
+   * Stores a payload of {@code size} bytes in the database's {@link BlobStore}, and passes its hash to {@code storeReference}, which
+   * writes the row referring to it. The payload is copied without holding any lock, then published along with its reference in a single
+   * {@link #runInTransaction(Runnable)} unit, so a long copy never holds up the other readers and writers.
+   *
+   * @return false if the payload was not stored, because the table has no blob store, the payload is smaller than
+   * {@link BlobStore#MIN_SIZE} or it could not be written, in which case the caller stores the payload inline.
+   */
+  protected boolean putBlob(long size, @NotNull BlobStore.BlobWriter writer, @NotNull Consumer<String> storeReference) {
+    if (myBlobStore == null || size < BlobStore.MIN_SIZE) {
+      return false;
+    }
+    BlobStore blobStore = myBlobStore;
+    try (BlobStore.StagedBlob blob = blobStore.stage(writer)) {
+      boolean[] published = {false};
+      runInTransaction(() -> {
+        try {
+          storeReference.accept(blobStore.publish(blob));
+          published[0] = true;
+        }
+        catch (IOException ex) {
+          onError(ex);
+        }
+      });
+      return published[0];
+    }
+    catch (IOException ex) {
+      onError(ex);
+      return false;
+    }
+  }
+
+  /**
+   * Lets the blob store know that {@code column} of {@code table} holds hashes of payloads, which must not be swept while referenced.
+   */
+  protected void registerBlobColumn(@NotNull String table, @NotNull String column) {
+    if (myBlobStore == null) {
+      return;
+    }
+    String query = String.format("SELECT DISTINCT %s FROM %s WHERE %s IS NOT NULL", column, table, column);
+    myBlobStore.addReferenceSource(hashes -> {
+      try (Statement statement = myConnection.createStatement(); ResultSet results = statement.executeQuery(query)) {
+        while (results.next()) {
+          hashes.add(results.getString(1));
+        }
+      }
+    });
+  }
+
+  /**
+   * To be called after overwriting or removing a reference to a payload, so the blob store deletes the payload after the next commit if
+   * nothing else refers to it.
+   */
+  protected void markBlobsForSweep() {
+    if (myBlobStore != null) {
+      myBlobStore.markForSweep();
+    }
+  }
+
+  /**
+   * Reads a payload written with the help of {@link #putBlob(long, BlobStore.BlobWriter, Consumer)}, from the blob store if
+   * {@code blobColumn} holds a hash and from the inline {@code dataColumn} otherwise.
+   *
+   * @return the payload, or null if there is none.
+   */
+  @Nullable
+  protected ByteString readBlob(@NotNull ResultSet results, int dataColumn, int blobColumn) throws SQLException {
+    String hash = results.getString(blobColumn);
+    if (hash == null) {
+      byte[] data = results.getBytes(dataColumn);
+      return data == null ? null : ByteString.copyFrom(data);
+    }
+    if (myBlobStore == null || !myBlobStore.contains(hash)) {
+      onError(new IOException("Missing payload " + hash));
+      return null;
+    }
+    try {
+      return myBlobStore.read(hash);
+    }
+    catch (IOException ex) {
+      onError(ex);
+      return null;
+    }
+  }
+
+  /**
+   * When the table has a {@link GroupCommitWriter}, the query runs while no unit is being written and its rows are copied, so that it
+   * never sees part of a poll's writes even though it shares the writers' connection.
+   */
   protected ResultSet executeQuery(@NotNull T statement, Object... params) throws SQLException {
     PreparedStatement stmt = getStatementMap().get(statement);
     if (isClosed() || stmt.isClosed()) {
       return new EmptyResultSet();
     }
-    applyParams(stmt, params);
-    return stmt.executeQuery();
+    if (myCommitWriter == null) {
+      applyParams(stmt, params);
+      return stmt.executeQuery();
+    }
+    return myCommitWriter.read(() -> {
+      applyParams(stmt, params);
+      try (ResultSet results = stmt.executeQuery()) {
+        return new BufferedResultSet(results);
+      }
+    });
   }
 
   protected void applyParams(@NotNull PreparedStatement statement, Object... params) throws SQLException {
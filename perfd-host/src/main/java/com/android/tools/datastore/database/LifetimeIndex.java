@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import gnu.trove.TLongLongHashMap;
+import gnu.trove.TLongProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index over object lifetimes ([alloc time, free time) intervals identified by a long key) that answers "alive at time T" queries
+ * without walking the whole history.
+ *
+ * Objects that are still alive are kept in blocks filled in the order they are added, which is close to alloc time order, and each
+ * block records the earliest alloc time it holds, so the blocks of objects allocated after T are skipped. Freeing an object moves
+ * the last object of its block into its place, and blocks left mostly empty are merged with a neighbour.
+ *
+ * Freed objects are appended to fixed-size blocks in the order their frees arrive, which is close to free time order. Each block
+ * records the bounds of its intervals and the largest free time of all the blocks up to it, so the blocks freed before T are
+ * skipped with a binary search. Once full, a block also sorts its objects by alloc time: every object of a block freed after T that
+ * was allocated before T is alive at T, so a query only visits the objects it returns plus those of the few blocks spanning T. The
+ * cost of a query is thus proportional to the number of objects alive at T rather than to the length of the session.
+ */
+public class LifetimeIndex {
+  static final int BLOCK_SIZE = 4096;
+
+  // Block id * BLOCK_SIZE + offset of each live object.
+  private final TLongLongHashMap myLiveLocations = new TLongLongHashMap();
+  private final List<LiveBlock> myLiveBlocks = new ArrayList<>();
+  private long myNextLiveBlockId;
+  private final List<FreedBlock> myFreedBlocks = new ArrayList<>();
+  private int myFreedCount;
+
+  public void add(long key, long allocTime) {
+    if (myLiveLocations.containsKey(key)) {
+      removeLive(key);
+    }
+    LiveBlock block = myLiveBlocks.isEmpty() ? null : myLiveBlocks.get(myLiveBlocks.size() - 1);
+    if (block == null || block.mySize == BLOCK_SIZE) {
+      block = new LiveBlock(myNextLiveBlockId++);
+      myLiveBlocks.add(block);
+    }
+    myLiveLocations.put(key, block.getLocation(block.append(key, allocTime)));
+  }
+
+  /**
+   * Moves a live object into the freed blocks.
+   *
+   * @return false if {@code key} was not alive.
+   */
+  public boolean free(long key, long freeTime) {
+    if (!myLiveLocations.containsKey(key)) {
+      return false;
+    }
+    long allocTime = removeLive(key);
+    FreedBlock block = myFreedBlocks.isEmpty() ? null : myFreedBlocks.get(myFreedBlocks.size() - 1);
+    if (block == null || block.myEnd == BLOCK_SIZE) {
+      block = new FreedBlock(block == null ? Long.MIN_VALUE : block.myMaxFreeTimeSoFar);
+      myFreedBlocks.add(block);
+    }
+    block.append(key, allocTime, freeTime);
+    myFreedCount++;
+    return true;
+  }
+
+  /**
+   * Visits the key of every object allocated before {@code time} and freed after it.
+   */
+  public void forEachAliveAt(long time, @NotNull TLongProcedure procedure) {
+    for (LiveBlock block : myLiveBlocks) {
+      if (block.myMinAllocTime >= time) {
+        continue;
+      }
+      for (int i = 0; i < block.mySize; i++) {
+        if (block.myAllocTimes[i] < time && !procedure.execute(block.myKeys[i])) {
+          return;
+        }
+      }
+    }
+
+    for (int i = findFirstFreedBlockAfter(time); i < myFreedBlocks.size(); i++) {
+      FreedBlock block = myFreedBlocks.get(i);
+      if (block.myMaxFreeTime <= time || block.myMinAllocTime >= time) {
+        continue;
+      }
+      if (block.myOffsetsByAllocTime == null) {
+        for (int j = block.myStart; j < block.myEnd; j++) {
+          if (block.myAllocTimes[j] < time && block.myFreeTimes[j] > time && !procedure.execute(block.myKeys[j])) {
+            return;
+          }
+        }
+        continue;
+      }
+      // Only the objects allocated before the time are visited, and they all are alive at it unless the block spans the time.
+      boolean checkFreeTime = block.myMinFreeTime <= time;
+      for (int offset : block.myOffsetsByAllocTime) {
+        if (block.myAllocTimes[offset] >= time) {
+          break;
+        }
+        boolean alive = offset >= block.myStart && (!checkFreeTime || block.myFreeTimes[offset] > time);
+        if (alive && !procedure.execute(block.myKeys[offset])) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits the key of every object freed in [startTime, endTime).
+   */
+  public void forEachFreedIn(long startTime, long endTime, @NotNull TLongProcedure procedure) {
+    for (int i = startTime == Long.MIN_VALUE ? 0 : findFirstFreedBlockAfter(startTime - 1); i < myFreedBlocks.size(); i++) {
+      FreedBlock block = myFreedBlocks.get(i);
+      if (block.myMaxFreeTime < startTime || block.myMinFreeTime >= endTime) {
+        continue;
+      }
+      for (int j = block.myStart; j < block.myEnd; j++) {
+        long freeTime = block.myFreeTimes[j];
+        if (freeTime >= startTime && freeTime < endTime && !procedure.execute(block.myKeys[j])) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets up to {@code count} freed objects, oldest frees first, passing each removed key to {@code onRemoved}.
+   *
+   * @return the number of objects removed.
+   */
+  public int removeOldestFreed(int count, @NotNull TLongProcedure onRemoved) {
+    return removeOldestFreed(count, Long.MAX_VALUE, onRemoved);
+  }
+
+  /**
+   * Same as {@link #removeOldestFreed(int, TLongProcedure)}, but stops at the first object freed at or after {@code freedBefore}.
+   */
+  public int removeOldestFreed(int count, long freedBefore, @NotNull TLongProcedure onRemoved) {
+    int removed = 0;
+    int emptiedBlocks = 0;
+    while (removed < count && emptiedBlocks < myFreedBlocks.size()) {
+      FreedBlock block = myFreedBlocks.get(emptiedBlocks);
+      while (removed < count && block.myStart < block.myEnd && block.myFreeTimes[block.myStart] < freedBefore) {
+        onRemoved.execute(block.myKeys[block.myStart++]);
+        removed++;
+      }
+      if (block.myStart < block.myEnd || (block.myEnd < BLOCK_SIZE && emptiedBlocks == myFreedBlocks.size() - 1)) {
+        // Either a limit was hit, or this is the partially filled tail block which keeps receiving frees.
+        break;
+      }
+      emptiedBlocks++;
+    }
+    myFreedBlocks.subList(0, emptiedBlocks).clear();
+    myFreedCount -= removed;
+    return removed;
+  }
+
+  /**
+   * Renames objects, live or freed, from each key of {@code newKeys} to its value. All renames apply at once, so a new key may be
+   * the old key of another renamed object.
+   */
+  public void remapKeys(@NotNull TLongLongHashMap newKeys) {
+    TLongLongHashMap movedLocations = new TLongLongHashMap();
+    newKeys.forEachEntry((oldKey, newKey) -> {
+      if (myLiveLocations.containsKey(oldKey)) {
+        movedLocations.put(newKey, myLiveLocations.remove(oldKey));
+      }
+      return true;
+    });
+    movedLocations.forEachEntry((newKey, location) -> {
+      myLiveLocations.put(newKey, location);
+      getLiveBlock(location).myKeys[(int)(location % BLOCK_SIZE)] = newKey;
+      return true;
+    });
+
+    for (FreedBlock block : myFreedBlocks) {
+      for (int i = block.myStart; i < block.myEnd; i++) {
+        if (newKeys.containsKey(block.myKeys[i])) {
+          block.myKeys[i] = newKeys.get(block.myKeys[i]);
+        }
+      }
+    }
+  }
+
+  public int getLiveCount() {
+    return myLiveLocations.size();
+  }
+
+  public int getFreedCount() {
+    return myFreedCount;
+  }
+
+  /**
+   * Removes a live object, moving the last object of its block into its place.
+   *
+   * @return the alloc time of the object.
+   */
+  private long removeLive(long key) {
+    long location = myLiveLocations.remove(key);
+    int blockIndex = getLiveBlockIndex(location / BLOCK_SIZE);
+    LiveBlock block = myLiveBlocks.get(blockIndex);
+    int offset = (int)(location % BLOCK_SIZE);
+    long allocTime = block.myAllocTimes[offset];
+    int last = --block.mySize;
+    if (offset != last) {
+      block.myKeys[offset] = block.myKeys[last];
+      block.myAllocTimes[offset] = block.myAllocTimes[last];
+      myLiveLocations.put(block.myKeys[offset], location);
+    }
+    if (blockIndex < myLiveBlocks.size() - 1 && block.mySize <= BLOCK_SIZE / 4) {
+      mergeLiveBlock(blockIndex);
+    }
+    return allocTime;
+  }
+
+  /**
+   * Merges a mostly empty block, other than the tail which still receives new objects, with a neighbour if their objects fit in a
+   * single block, so that the live blocks stay dense. Neighbours hold objects allocated around the same time, so the merged block
+   * can still be skipped by most queries.
+   */
+  private void mergeLiveBlock(int blockIndex) {
+    LiveBlock block = myLiveBlocks.get(blockIndex);
+    if (block.mySize == 0) {
+      myLiveBlocks.remove(blockIndex);
+      return;
+    }
+    if (blockIndex > 0 && myLiveBlocks.get(blockIndex - 1).mySize + block.mySize <= BLOCK_SIZE) {
+      moveLiveObjects(block, myLiveBlocks.get(blockIndex - 1));
+      myLiveBlocks.remove(blockIndex);
+    }
+    else if (blockIndex + 1 < myLiveBlocks.size() - 1 && myLiveBlocks.get(blockIndex + 1).mySize + block.mySize <= BLOCK_SIZE) {
+      moveLiveObjects(myLiveBlocks.get(blockIndex + 1), block);
+      myLiveBlocks.remove(blockIndex + 1);
+    }
+  }
+
+  private void moveLiveObjects(@NotNull LiveBlock from, @NotNull LiveBlock to) {
+    for (int i = 0; i < from.mySize; i++) {
+      myLiveLocations.put(from.myKeys[i], to.getLocation(to.append(from.myKeys[i], from.myAllocTimes[i])));
+    }
+    from.mySize = 0;
+  }
+
+  @NotNull
+  private LiveBlock getLiveBlock(long location) {
+    return myLiveBlocks.get(getLiveBlockIndex(location / BLOCK_SIZE));
+  }
+
+  /**
+   * Blocks are only ever appended with increasing ids, so they are sorted by id even once some were merged away.
+   */
+  private int getLiveBlockIndex(long blockId) {
+    int low = 0;
+    int high = myLiveBlocks.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midId = myLiveBlocks.get(mid).myId;
+      if (midId < blockId) {
+        low = mid + 1;
+      }
+      else if (midId > blockId) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    throw new IllegalStateException("No live block " + blockId);
+  }
+
+  /**
+   * @return the index of the first freed block that may hold an object freed after {@code time}. All the blocks before it were
+   * freed at or before it.
+   */
+  private int findFirstFreedBlockAfter(long time) {
+    int low = 0;
+    int high = myFreedBlocks.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myFreedBlocks.get(mid).myMaxFreeTimeSoFar <= time) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static final class LiveBlock {
+    final long myId;
+    final long[] myKeys = new long[BLOCK_SIZE];
+    final long[] myAllocTimes = new long[BLOCK_SIZE];
+    int mySize;
+    // Not raised when objects are removed, which only makes it conservative.
+    long myMinAllocTime = Long.MAX_VALUE;
+
+    LiveBlock(long id) {
+      myId = id;
+    }
+
+    int append(long key, long allocTime) {
+      myKeys[mySize] = key;
+      myAllocTimes[mySize] = allocTime;
+      myMinAllocTime = Math.min(myMinAllocTime, allocTime);
+      return mySize++;
+    }
+
+    long getLocation(int offset) {
+      return myId * BLOCK_SIZE + offset;
+    }
+  }
+
+  private static final class FreedBlock {
+    final long[] myKeys = new long[BLOCK_SIZE];
+    final long[] myAllocTimes = new long[BLOCK_SIZE];
+    final long[] myFreeTimes = new long[BLOCK_SIZE];
+    int myStart;
+    int myEnd;
+    // Bounds are not shrunk when entries are removed from the front, which only makes them conservative.
+    long myMinAllocTime = Long.MAX_VALUE;
+    long myMinFreeTime = Long.MAX_VALUE;
+    long myMaxFreeTime = Long.MIN_VALUE;
+    // The largest free time of this block and all the blocks before it, which never decreases from one block to the next.
+    long myMaxFreeTimeSoFar;
+    // Offsets of the entries sorted by alloc time, once the block is full.
+    @Nullable int[] myOffsetsByAllocTime;
+
+    FreedBlock(long previousMaxFreeTime) {
+      myMaxFreeTimeSoFar = previousMaxFreeTime;
+    }
+
+    void append(long key, long allocTime, long freeTime) {
+      myKeys[myEnd] = key;
+      myAllocTimes[myEnd] = allocTime;
+      myFreeTimes[myEnd] = freeTime;
+      myEnd++;
+      myMinAllocTime = Math.min(myMinAllocTime, allocTime);
+      myMinFreeTime = Math.min(myMinFreeTime, freeTime);
+      myMaxFreeTime = Math.max(myMaxFreeTime, freeTime);
+      myMaxFreeTimeSoFar = Math.max(myMaxFreeTimeSoFar, freeTime);
+      if (myEnd == BLOCK_SIZE) {
+        myOffsetsByAllocTime = sortOffsetsByAllocTime();
+      }
+    }
+
+    /**
+     * Bottom-up merge sort of the offsets by the alloc time of their entries, on primitive arrays so that filling a block does not box
+     * each of its offsets.
+     */
+    @NotNull
+    private int[] sortOffsetsByAllocTime() {
+      int[] offsets = new int[BLOCK_SIZE];
+      for (int i = 0; i < BLOCK_SIZE; i++) {
+        offsets[i] = i;
+      }
+      int[] merged = new int[BLOCK_SIZE];
+      for (int width = 1; width < BLOCK_SIZE; width *= 2) {
+        for (int low = 0; low < BLOCK_SIZE; low += 2 * width) {
+          int middle = Math.min(low + width, BLOCK_SIZE);
+          int high = Math.min(low + 2 * width, BLOCK_SIZE);
+          int left = low;
+          int right = middle;
+          for (int i = low; i < high; i++) {
+            if (right == high || (left < middle && myAllocTimes[offsets[left]] <= myAllocTimes[offsets[right]])) {
+              merged[i] = offsets[left++];
+            }
+            else {
+              merged[i] = offsets[right++];
+            }
+          }
+        }
+        int[] sorted = merged;
+        merged = offsets;
+        offsets = sorted;
+      }
+      return offsets;
+    }
+  }
+}
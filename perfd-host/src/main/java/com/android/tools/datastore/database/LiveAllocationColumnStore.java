@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import com.android.tools.profiler.proto.MemoryProfiler.BatchAllocationSample;
+import gnu.trove.TIntLongHashMap;
+import gnu.trove.TLongLongHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory storage for the allocation events of a single live allocation tracking session. Instead of one SQLite row per
+ * allocation, the events are kept in fixed-size chunks of parallel primitive arrays. Events are appended in arrival order, so each
+ * chunk covers a narrow window of allocation times, and per-chunk time bounds let queries skip chunks that cannot match.
+ * Frees are resolved in constant time through a tag to slot index that only holds the allocations which are still alive, and
+ * "alive at time T" snapshots are answered through a {@link LifetimeIndex} over the slots.
+ *
+ * Pruned rows are left as tombstones, and {@link #prune(int, long)} then merges runs of neighbouring chunks whose remaining rows fit
+ * in a single chunk, so memory is given back even when a few long-lived allocations are spread across old chunks. Merging moves
+ * rows to new slots, which is reflected in the tag to slot index and the {@link LifetimeIndex}.
+ */
+public class LiveAllocationColumnStore {
+  static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Chunks in increasing id order. Ids are not contiguous once chunks have been merged or dropped.
+   */
+  private final List<Chunk> myChunks = new ArrayList<>();
+  private long myNextChunkId = 0;
+  /**
+   * Maps the tag of each live allocation to its slot, where slot = chunkId * CHUNK_SIZE + offset within the chunk.
+   */
+  private final TIntLongHashMap myLiveSlots = new TIntLongHashMap();
+  private final LifetimeIndex myLifetimeIndex = new LifetimeIndex();
+  private int myRowCount;
+  private long myRetainedBytes;
+  private long myLatestPrunedFreeTime = Long.MIN_VALUE;
+  private long myLatestAllocTime = Long.MIN_VALUE;
+  private long myLatestFreeTime = Long.MIN_VALUE;
+
+  public synchronized void allocate(long timestamp, @NotNull AllocationEvent.Allocation allocation) {
+    if (myLiveSlots.containsKey(allocation.getTag())) {
+      // Matches the INSERT OR IGNORE semantics of the SQLite backend.
+      return;
+    }
+
+    Chunk chunk = myChunks.isEmpty() ? null : myChunks.get(myChunks.size() - 1);
+    if (chunk == null || chunk.mySize == CHUNK_SIZE) {
+      chunk = new Chunk(myNextChunkId++);
+      myChunks.add(chunk);
+    }
+    int offset = chunk.append(timestamp, allocation);
+    long slot = chunk.myId * CHUNK_SIZE + offset;
+    myLiveSlots.put(allocation.getTag(), slot);
+    myLifetimeIndex.add(slot, timestamp);
+    myRowCount++;
+    myRetainedBytes += allocation.getSize();
+    myLatestAllocTime = Math.max(myLatestAllocTime, timestamp);
+  }
+
+  public synchronized void free(long timestamp, int tag) {
+    if (!myLiveSlots.containsKey(tag)) {
+      return;
+    }
+    long slot = myLiveSlots.remove(tag);
+    getChunk(slot).free((int)(slot % CHUNK_SIZE), timestamp);
+    myLifetimeIndex.free(slot, timestamp);
+    myLatestFreeTime = Math.max(myLatestFreeTime, timestamp);
+  }
+
+  /**
+   * @return all allocations alive at {@code endTime}, i.e. allocated before and freed after it.
+   */
+  @NotNull
+  public synchronized BatchAllocationSample getSnapshot(long endTime) {
+    BatchAllocationSample.Builder sampleBuilder = BatchAllocationSample.newBuilder();
+    long[] timestamp = {Long.MIN_VALUE};
+    myLifetimeIndex.forEachAliveAt(endTime, slot -> {
+      Chunk chunk = getChunk(slot);
+      int offset = (int)(slot % CHUNK_SIZE);
+      long allocTime = chunk.myAllocTime[offset];
+      sampleBuilder.addEvents(AllocationEvent.newBuilder().setAllocData(chunk.toAllocation(offset)).setTimestamp(allocTime));
+      timestamp[0] = Math.max(timestamp[0], allocTime);
+      return true;
+    });
+    return sampleBuilder.setTimestamp(timestamp[0]).build();
+  }
+
+  /**
+   * @return the allocation events whose alloc time falls in [startTime, endTime), followed by the free events whose free time does.
+   */
+  @NotNull
+  public synchronized BatchAllocationSample getAllocations(long startTime, long endTime) {
+    BatchAllocationSample.Builder sampleBuilder = BatchAllocationSample.newBuilder();
+    long[] timestamp = {Long.MIN_VALUE};
+    for (Chunk chunk : myChunks) {
+      if (chunk.mySize == 0 || chunk.myMinAllocTime >= endTime || chunk.myMaxAllocTime < startTime) {
+        continue;
+      }
+      for (int i = 0; i < chunk.mySize; i++) {
+        long allocTime = chunk.myAllocTime[i];
+        if (allocTime >= startTime && allocTime < endTime) {
+          sampleBuilder.addEvents(AllocationEvent.newBuilder().setAllocData(chunk.toAllocation(i)).setTimestamp(allocTime));
+          timestamp[0] = Math.max(timestamp[0], allocTime);
+        }
+      }
+    }
+    myLifetimeIndex.forEachFreedIn(startTime, endTime, slot -> {
+      Chunk chunk = getChunk(slot);
+      int offset = (int)(slot % CHUNK_SIZE);
+      long freeTime = chunk.myFreeTime[offset];
+      sampleBuilder.addEvents(AllocationEvent.newBuilder().setFreeData(chunk.toDeallocation(offset)).setTimestamp(freeTime));
+      timestamp[0] = Math.max(timestamp[0], freeTime);
+      return true;
+    });
+    return sampleBuilder.setTimestamp(timestamp[0]).build();
+  }
+
+  /**
+   * @return the latest alloc or free time seen so far, or 0 if there is none.
+   */
+  public synchronized long getLatestDataTimestamp() {
+    return Math.max(0, Math.max(myLatestAllocTime, myLatestFreeTime));
+  }
+
+  public synchronized int getRowCount() {
+    return myRowCount;
+  }
+
+  public synchronized int getLiveCount() {
+    return myLiveSlots.size();
+  }
+
+  /**
+   * @return the total size of the allocations (alive or freed) currently stored.
+   */
+  public synchronized long getRetainedBytes() {
+    return myRetainedBytes;
+  }
+
+  /**
+   * @return the latest free time among the pruned allocations, i.e. the point before which the stored history is incomplete, or
+   * {@link Long#MIN_VALUE} if nothing was pruned.
+   */
+  public synchronized long getLatestPrunedFreeTime() {
+    return myLatestPrunedFreeTime;
+  }
+
+  /**
+   * Removes up to {@code pruneCount} freed allocations, the ones freed the longest ago first. Allocations that are still alive are
+   * kept.
+   *
+   * @return the number of allocations actually removed.
+   */
+  public synchronized int prune(int pruneCount) {
+    return prune(pruneCount, Long.MAX_VALUE);
+  }
+
+  /**
+   * Same as {@link #prune(int)}, but only removes allocations freed before {@code freedBefore}.
+   */
+  public synchronized int prune(int pruneCount, long freedBefore) {
+    int pruned = myLifetimeIndex.removeOldestFreed(pruneCount, freedBefore, slot -> {
+      Chunk chunk = getChunk(slot);
+      int offset = (int)(slot % CHUNK_SIZE);
+      myRetainedBytes -= chunk.mySizeInBytes[offset];
+      myLatestPrunedFreeTime = Math.max(myLatestPrunedFreeTime, chunk.myFreeTime[offset]);
+      chunk.remove(offset);
+      return true;
+    });
+    myRowCount -= pruned;
+    if (pruned > 0) {
+      compact();
+    }
+    return pruned;
+  }
+
+  /**
+   * Drops chunks left without rows and merges every run of neighbouring chunks whose remaining rows fit in a single chunk, except
+   * for the tail which still receives new allocations. Afterwards no two neighbouring chunks can be merged, so at least half of the
+   * stored slots hold rows.
+   */
+  private void compact() {
+    List<Chunk> compacted = new ArrayList<>(myChunks.size());
+    List<Chunk> group = new ArrayList<>();
+    TLongLongHashMap movedSlots = new TLongLongHashMap();
+    int groupRowCount = 0;
+    for (int i = 0; i < myChunks.size() - 1; i++) {
+      Chunk chunk = myChunks.get(i);
+      int rowCount = chunk.getRowCount();
+      if (rowCount == 0) {
+        continue;
+      }
+      if (groupRowCount + rowCount > CHUNK_SIZE) {
+        compacted.add(merge(group, movedSlots));
+        group.clear();
+        groupRowCount = 0;
+      }
+      group.add(chunk);
+      groupRowCount += rowCount;
+    }
+    if (!group.isEmpty()) {
+      compacted.add(merge(group, movedSlots));
+    }
+    compacted.add(myChunks.get(myChunks.size() - 1));
+
+    myChunks.clear();
+    myChunks.addAll(compacted);
+    if (!movedSlots.isEmpty()) {
+      myLifetimeIndex.remapKeys(movedSlots);
+    }
+  }
+
+  /**
+   * @return a single chunk holding the rows of {@code chunks}, recording in {@code movedSlots} the old and new slot of every row that
+   * moved.
+   */
+  @NotNull
+  private Chunk merge(@NotNull List<Chunk> chunks, @NotNull TLongLongHashMap movedSlots) {
+    if (chunks.size() == 1) {
+      // Nothing to merge with. A lone chunk keeps its tombstones until a neighbour has room for its rows.
+      return chunks.get(0);
+    }
+
+    // Reusing the id of the first chunk keeps the chunks ordered by id.
+    Chunk merged = new Chunk(chunks.get(0).myId);
+    for (Chunk chunk : chunks) {
+      for (int offset = 0; offset < chunk.mySize; offset++) {
+        if (chunk.isRemoved(offset)) {
+          continue;
+        }
+        int newOffset = merged.copy(chunk, offset);
+        long oldSlot = chunk.myId * CHUNK_SIZE + offset;
+        long newSlot = merged.myId * CHUNK_SIZE + newOffset;
+        if (oldSlot == newSlot) {
+          continue;
+        }
+        movedSlots.put(oldSlot, newSlot);
+        if (merged.myFreeTime[newOffset] == Long.MAX_VALUE) {
+          myLiveSlots.put(merged.myTag[newOffset], newSlot);
+        }
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * @return the number of chunks currently allocated, for tests.
+   */
+  synchronized int getChunkCount() {
+    return myChunks.size();
+  }
+
+  @NotNull
+  private Chunk getChunk(long slot) {
+    long chunkId = slot / CHUNK_SIZE;
+    int low = 0;
+    int high = myChunks.size() - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myChunks.get(mid).myId < chunkId) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    Chunk chunk = myChunks.get(low);
+    assert chunk.myId == chunkId;
+    return chunk;
+  }
+
+  private static final class Chunk {
+    final long myId;
+    final int[] myTag = new int[CHUNK_SIZE];
+    final int[] myClassTag = new int[CHUNK_SIZE];
+    final long[] myAllocTime = new long[CHUNK_SIZE];
+    final long[] myFreeTime = new long[CHUNK_SIZE];
+    final long[] mySizeInBytes = new long[CHUNK_SIZE];
+    final int[] myLength = new int[CHUNK_SIZE];
+    final int[] myThreadId = new int[CHUNK_SIZE];
+    final int[] myStackId = new int[CHUNK_SIZE];
+    final int[] myHeapId = new int[CHUNK_SIZE];
+
+    int mySize;
+    int myRemovedCount;
+    long myMinAllocTime = Long.MAX_VALUE;
+    long myMaxAllocTime = Long.MIN_VALUE;
+
+    Chunk(long id) {
+      myId = id;
+    }
+
+    int getRowCount() {
+      return mySize - myRemovedCount;
+    }
+
+    int append(long timestamp, @NotNull AllocationEvent.Allocation allocation) {
+      int offset = mySize++;
+      myTag[offset] = allocation.getTag();
+      myClassTag[offset] = allocation.getClassTag();
+      myAllocTime[offset] = timestamp;
+      myFreeTime[offset] = Long.MAX_VALUE;
+      mySizeInBytes[offset] = allocation.getSize();
+      myLength[offset] = allocation.getLength();
+      myThreadId[offset] = allocation.getThreadId();
+      myStackId[offset] = allocation.getStackId();
+      myHeapId[offset] = allocation.getHeapId();
+      myMinAllocTime = Math.min(myMinAllocTime, timestamp);
+      myMaxAllocTime = Math.max(myMaxAllocTime, timestamp);
+      return offset;
+    }
+
+    /**
+     * Appends a copy of row {@code offset} of {@code other}.
+     */
+    int copy(@NotNull Chunk other, int offset) {
+      int newOffset = mySize++;
+      myTag[newOffset] = other.myTag[offset];
+      myClassTag[newOffset] = other.myClassTag[offset];
+      myAllocTime[newOffset] = other.myAllocTime[offset];
+      myFreeTime[newOffset] = other.myFreeTime[offset];
+      mySizeInBytes[newOffset] = other.mySizeInBytes[offset];
+      myLength[newOffset] = other.myLength[offset];
+      myThreadId[newOffset] = other.myThreadId[offset];
+      myStackId[newOffset] = other.myStackId[offset];
+      myHeapId[newOffset] = other.myHeapId[offset];
+      myMinAllocTime = Math.min(myMinAllocTime, myAllocTime[newOffset]);
+      myMaxAllocTime = Math.max(myMaxAllocTime, myAllocTime[newOffset]);
+      return newOffset;
+    }
+
+    void free(int offset, long timestamp) {
+      myFreeTime[offset] = timestamp;
+    }
+
+    /**
+     * Turns the row into a tombstone that no query matches.
+     */
+    void remove(int offset) {
+      myAllocTime[offset] = Long.MAX_VALUE;
+      myFreeTime[offset] = Long.MIN_VALUE;
+      myRemovedCount++;
+    }
+
+    boolean isRemoved(int offset) {
+      return myFreeTime[offset] == Long.MIN_VALUE;
+    }
+
+    @NotNull
+    AllocationEvent.Allocation toAllocation(int offset) {
+      return AllocationEvent.Allocation.newBuilder().setTag(myTag[offset]).setClassTag(myClassTag[offset])
+        .setSize(mySizeInBytes[offset]).setLength(myLength[offset]).setThreadId(myThreadId[offset]).setStackId(myStackId[offset])
+        .setHeapId(myHeapId[offset]).build();
+    }
+
+    @NotNull
+    AllocationEvent.Deallocation toDeallocation(int offset) {
+      return AllocationEvent.Deallocation.newBuilder().setTag(myTag[offset]).setClassTag(myClassTag[offset])
+        .setSize(mySizeInBytes[offset]).setLength(myLength[offset]).setThreadId(myThreadId[offset]).setStackId(myStackId[offset])
+        .setHeapId(myHeapId[offset]).build();
+    }
+  }
+}
@@ -21,17 +21,39 @@ import com.android.tools.profiler.proto.MemoryProfiler;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
 import com.intellij.openapi.diagnostic.Logger;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import static com.android.tools.datastore.database.MemoryLiveAllocationTable.MemoryStatements.*;
 
 public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocationTable.MemoryStatements> {
+  /**
+   * Where allocation and free events are stored. Classes, stacks, threads and JNI references always live in SQLite.
+   */
+  public enum AllocationStorage {
+    /**
+     * One Memory_AllocationEvents row per allocation.
+     */
+    SQLITE,
+    /**
+     * Per-session {@link LiveAllocationColumnStore}, for in-memory ({@link com.android.tools.datastore.DataStoreDatabase.Characteristic#PERFORMANT})
+     * backing stores.
+     */
+    COLUMNAR
+  }
+
   public enum MemoryStatements {
     INSERT_CLASS("INSERT OR IGNORE INTO Memory_AllocatedClass (Session, Tag, AllocTime, Name) VALUES (?, ?, ?, ?)"),
     INSERT_ALLOC("INSERT OR IGNORE INTO Memory_AllocationEvents " +
@@ -40,13 +62,24 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     INSERT_METHOD("INSERT OR IGNORE INTO Memory_MethodInfos (Session, MethodId, MethodName, ClassName) VALUES (?, ?, ?, ?)"),
     INSERT_ENCODED_STACK("INSERT OR IGNORE INTO Memory_StackInfos (Session, StackId, AllocTime, StackData) VALUES (?, ?, ?, ?)"),
     INSERT_THREAD_INFO("INSERT OR IGNORE INTO Memory_ThreadInfos (Session, ThreadId, AllocTime, ThreadName) VALUES (?, ?, ?, ?)"),
-    UPDATE_ALLOC("UPDATE Memory_AllocationEvents SET FreeTime = ? WHERE Session = ? AND Tag = ?"),
+    UPDATE_ALLOC("UPDATE Memory_AllocationEvents SET FreeTime = ?1, LifetimeClass = " + getLifetimeClassExpression("?1 - AllocTime") +
+                 " WHERE Session = ?2 AND Tag = ?3"),
     QUERY_CLASS("SELECT Tag, AllocTime, Name FROM Memory_AllocatedClass where Session = ? AND AllocTime >= ? AND AllocTime < ?"),
     QUERY_LATEST_ALLOC_TIME("SELECT MAX(AllocTime) FROM Memory_AllocationEvents WHERE Session = ?"),
     QUERY_LATEST_FREE_TIME("SELECT MAX(FreeTime) FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime < ?"),
+    // The snapshot is split into the allocations that are still alive, answered from the (Session, FreeTime, AllocTime) index, and
+    // the ones freed after the snapshot time. A freed allocation of lifetime class k alive at T was freed in (T, T + 2^(k + 1)), so
+    // the second half is one range of the (Session, LifetimeClass, FreeTime) index per class, which mostly holds allocations alive at
+    // T, instead of everything freed after T. The bound of the last class overflows to a floating point value, i.e. has no limit.
     QUERY_SNAPSHOT(
+      "WITH RECURSIVE LifetimeClasses(Class) AS (SELECT 0 UNION ALL SELECT Class + 1 FROM LifetimeClasses " +
+      "WHERE Class < " + MAX_LIFETIME_CLASS + ") " +
       "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
-      "WHERE Session = ? AND AllocTime < ? AND FreeTime > ?"),
+      "WHERE Session = ? AND FreeTime = " + Long.MAX_VALUE + " AND AllocTime < ? " +
+      "UNION ALL " +
+      "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId " +
+      "FROM LifetimeClasses CROSS JOIN Memory_AllocationEvents " +
+      "WHERE Session = ? AND LifetimeClass = Class AND FreeTime > ? AND FreeTime < ? + (1 << Class) * 2 AND AllocTime < ?"),
     QUERY_ALLOC_BY_ALLOC_TIME(
       "SELECT Tag, ClassTag, AllocTime, FreeTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
       "WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
@@ -59,14 +92,15 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     QUERY_THREAD_INFO_BY_TIME(
       "Select ThreadId, ThreadName FROM Memory_ThreadInfos WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
 
-    COUNT_ALLOC("SELECT count(*) FROM Memory_AllocationEvents"),
-    PRUNE_ALLOC("DELETE FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime <= (" +
-                " SELECT MAX(FreeTime)" +
-                " FROM Memory_AllocationEvents" +
-                " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
-                " ORDER BY FreeTime" +
-                " LIMIT ?" +
-                ")"),
+    // Pruning first looks up the free time of the last record of the chunk to evict, then works on all records freed up to it.
+    QUERY_ALLOC_PRUNE_THRESHOLD("SELECT MAX(FreeTime) FROM (" +
+                                " SELECT FreeTime FROM Memory_AllocationEvents" +
+                                " WHERE Session = ? AND FreeTime < ?" +
+                                " ORDER BY FreeTime" +
+                                " LIMIT ?" +
+                                ")"),
+    QUERY_ALLOC_FREED_SIZE("SELECT COUNT(*), TOTAL(Size) FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime <= ?"),
+    PRUNE_ALLOC("DELETE FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime <= ?"),
     INSERT_JNI_REF(
       "INSERT OR IGNORE INTO Memory_JniGlobalReferences " +
       "(Session, Tag, RefValue, AllocTime, AllocThreadId, AllocStackHash, FreeThreadId, FreeStackHash, FreeTime) " +
@@ -77,14 +111,14 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       "SET FreeTime = ?, FreeStackHash = ?, FreeThreadId = ?" +
       "WHERE Session = ? AND Tag = ? AND RefValue = ?"),
 
-    COUNT_JNI_REF_RECORDS("SELECT COUNT(1) FROM Memory_JniGlobalReferences"),
-    PRUNE_JNI_REF_RECORDS("DELETE FROM Memory_JniGlobalReferences WHERE Session = ? AND FreeTime <= (" +
-                          " SELECT MAX(FreeTime)" +
-                          " FROM Memory_JniGlobalReferences" +
-                          " WHERE Session = ? AND FreeTime < " + Long.MAX_VALUE +
-                          " ORDER BY FreeTime" +
-                          " LIMIT ?" +
-                          ")"),
+    QUERY_JNI_REF_PRUNE_THRESHOLD("SELECT MAX(FreeTime) FROM (" +
+                                  " SELECT FreeTime FROM Memory_JniGlobalReferences" +
+                                  " WHERE Session = ? AND FreeTime < ?" +
+                                  " ORDER BY FreeTime" +
+                                  " LIMIT ?" +
+                                  ")"),
+    QUERY_JNI_REF_FREED_COUNT("SELECT COUNT(*) FROM Memory_JniGlobalReferences WHERE Session = ? AND FreeTime <= ?"),
+    PRUNE_JNI_REF_RECORDS("DELETE FROM Memory_JniGlobalReferences WHERE Session = ? AND FreeTime <= ?"),
 
     QUERY_JNI_REF_CREATE_EVENTS(
       "SELECT Refs.Tag, Refs.RefValue, Refs.AllocTime AS Timestamp, Refs.AllocThreadId AS ThreadId, AllockStack.Backtrace AS Backtrace " +
@@ -93,6 +127,18 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       "WHERE Refs.Session = ? AND Refs.AllocTime >= ? AND Refs.AllocTime <= ? AND Refs.FreeTime >= ? AND Refs.FreeTime <= ? " +
       "ORDER BY Refs.AllocTime"),
 
+    QUERY_JNI_REF_SNAPSHOT(
+      "SELECT Refs.Tag, Refs.RefValue, Refs.AllocTime AS Timestamp, Refs.AllocThreadId AS ThreadId, AllockStack.Backtrace AS Backtrace " +
+      "FROM Memory_JniGlobalReferences AS Refs " +
+      "LEFT JOIN Memory_NativeStackInfos AS AllockStack ON Refs.Session = AllockStack.Session AND Refs.AllocStackHash = AllockStack.StackHash " +
+      "WHERE Refs.Session = ? AND Refs.FreeTime = " + Long.MAX_VALUE + " AND Refs.AllocTime >= 0 AND Refs.AllocTime <= ? " +
+      "UNION ALL " +
+      "SELECT Refs.Tag, Refs.RefValue, Refs.AllocTime AS Timestamp, Refs.AllocThreadId AS ThreadId, AllockStack.Backtrace AS Backtrace " +
+      "FROM Memory_JniGlobalReferences AS Refs " +
+      "LEFT JOIN Memory_NativeStackInfos AS AllockStack ON Refs.Session = AllockStack.Session AND Refs.AllocStackHash = AllockStack.StackHash " +
+      "WHERE Refs.Session = ? AND Refs.FreeTime >= ? AND Refs.FreeTime < " + Long.MAX_VALUE + " AND Refs.AllocTime >= 0 AND Refs.AllocTime <= ? " +
+      "ORDER BY Timestamp"),
+
     QUERY_JNI_REF_DELETE_EVENTS(
       "SELECT Refs.Tag, Refs.RefValue, Refs.FreeTime AS Timestamp, Refs.FreeThreadId AS ThreadId, FreeStack.Backtrace AS Backtrace " +
       "FROM Memory_JniGlobalReferences AS Refs " +
@@ -115,24 +161,68 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
   }
 
-  // 5M ought to be enough for anybody (~300MB of data)
-  // Note - Google Search app can easily allocate 100k+ temporary objects in an relatively short amount of time (e.g. one search query)
-  private int myAllocationCountLimit = 5000000;
+  /**
+   * Lifetime class of the allocations that lived for 2^62 or more, see {@link #getLifetimeClassExpression(String)}.
+   */
+  private static final int MAX_LIFETIME_CLASS = 62;
+
+  @NotNull private volatile AllocationRetentionPolicy myDefaultRetentionPolicy = AllocationRetentionPolicy.DEFAULT;
+
+  @NotNull private final AllocationStorage myAllocationStorage;
+  @NotNull private final Consumer<Runnable> myPruneExecutor;
+  private final Map<Long, LiveAllocationColumnStore> myColumnStores = new HashMap<>();
+  private final Map<Long, SessionRetention> myRetentions = new HashMap<>();
+
+  public MemoryLiveAllocationTable() {
+    this(AllocationStorage.SQLITE);
+  }
+
+  public MemoryLiveAllocationTable(@NotNull AllocationStorage allocationStorage) {
+    this(allocationStorage, Runnable::run);
+  }
+
+  /**
+   * @param pruneExecutor runs the pruning of sessions that went over their {@link AllocationRetentionPolicy}, so that it does not
+   *                      hold up the thread inserting the data.
+   */
+  public MemoryLiveAllocationTable(@NotNull AllocationStorage allocationStorage, @NotNull Consumer<Runnable> pruneExecutor) {
+    myAllocationStorage = allocationStorage;
+    myPruneExecutor = pruneExecutor;
+  }
 
   private static Logger getLogger() {
     return Logger.getInstance(MemoryLiveAllocationTable.class);
   }
 
+  /**
+   * @return the SQL expression of the lifetime class of a freed allocation that lived for {@code lifetime}, i.e. the highest set bit
+   * of the lifetime, or 0 for lifetimes under 2. Allocations that are still alive have no class.
+   */
+  @NotNull
+  public static String getLifetimeClassExpression(@NotNull String lifetime) {
+    StringBuilder expression = new StringBuilder("CASE");
+    for (int lifetimeClass = 0; lifetimeClass < MAX_LIFETIME_CLASS; lifetimeClass++) {
+      expression.append(String.format(" WHEN %s < %d THEN %d", lifetime, 2L << lifetimeClass, lifetimeClass));
+    }
+    return expression.append(" ELSE ").append(MAX_LIFETIME_CLASS).append(" END").toString();
+  }
+
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
+    synchronized (myColumnStores) {
+      myColumnStores.clear();
+    }
+    synchronized (myRetentions) {
+      myRetentions.clear();
+    }
     try {
       // O+ Allocation Tracking
       createTable("Memory_AllocatedClass", "Session INTEGER NOT NULL", "Tag INTEGER",
                   "AllocTime INTEGER", "Name TEXT", "PRIMARY KEY(Session, Tag)");
       createTable("Memory_AllocationEvents", "Session INTEGER NOT NULL", "Tag INTEGER",
                   "ClassTag INTEGER", "AllocTime INTEGER", "FreeTime INTEGER", "Size INTEGER", "Length INTEGER", "ThreadId INTEGER",
-                  "StackId INTEGER", "HeapId INTEGER", "PRIMARY KEY(Session, Tag)");
+                  "StackId INTEGER", "HeapId INTEGER", "LifetimeClass INTEGER", "PRIMARY KEY(Session, Tag)");
       createTable("Memory_MethodInfos", "Session INTEGER NOT NULL", "MethodId INTEGER",
                   "MethodName TEXT", "ClassName TEXT", "PRIMARY KEY(Session, MethodId)");
       createTable("Memory_StackInfos", "Session INTEGER NOT NULL", "StackId INTEGER", "AllocTime INTEGER",
@@ -146,13 +236,14 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
                   "AllocStackHash INTEGER", "FreeStackHash INTEGER", "PRIMARY KEY(Session, Tag, RefValue)");
 
       createIndex("Memory_AllocationEvents", 0, "Session", "AllocTime");
-      createIndex("Memory_AllocationEvents", 1, "Session", "FreeTime");
+      createIndex("Memory_AllocationEvents", 1, "Session", "FreeTime", "AllocTime");
+      createIndex("Memory_AllocationEvents", 2, "Session", "LifetimeClass", "FreeTime");
       createIndex("Memory_AllocatedClass", 0, "Session", "AllocTime");
       createIndex("Memory_StackInfos", 0, "Session", "AllocTime");
       createIndex("Memory_ThreadInfos", 0, "Session", "AllocTime");
       createIndex("Memory_NativeStackInfos", 0, "Session", "StackHash");
       createIndex("Memory_JniGlobalReferences", 0, "Session", "AllocTime");
-      createIndex("Memory_JniGlobalReferences", 1, "Session", "FreeTime");
+      createIndex("Memory_JniGlobalReferences", 1, "Session", "FreeTime", "AllocTime");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -161,7 +252,17 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
 
   @VisibleForTesting
   void setAllocationCountLimit(int allocationCountLimit) {
-    myAllocationCountLimit = allocationCountLimit;
+    myDefaultRetentionPolicy = myDefaultRetentionPolicy.withMaxCount(allocationCountLimit);
+  }
+
+  /**
+   * Overrides the {@link AllocationRetentionPolicy#DEFAULT} policy for {@code session}. It takes effect on the next insert.
+   */
+  public void setRetentionPolicy(@NotNull Common.Session session, @NotNull AllocationRetentionPolicy policy) {
+    SessionRetention retention = getRetention(session);
+    synchronized (retention) {
+      retention.myPolicy = policy;
+    }
   }
 
   @Override
@@ -177,9 +278,13 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public MemoryProfiler.BatchAllocationSample getSnapshot(Common.Session session, long endTime) {
+    if (myAllocationStorage == AllocationStorage.COLUMNAR) {
+      return getColumnStore(session).getSnapshot(endTime);
+    }
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
     try {
-      ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
+      long sessionId = session.getSessionId();
+      ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, sessionId, endTime, sessionId, endTime, endTime, endTime);
       long timestamp = Long.MIN_VALUE;
       while (allocResult.next()) {
         long allocTime = allocResult.getLong(3);
@@ -202,6 +307,9 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public MemoryProfiler.BatchAllocationSample getAllocations(Common.Session session, long startTime, long endTime) {
+    if (myAllocationStorage == AllocationStorage.COLUMNAR) {
+      return getColumnStore(session).getAllocations(startTime, endTime);
+    }
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
     try {
       // Then get all allocation events that are valid for requestTime.
@@ -243,6 +351,9 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
 
   @NotNull
   public LatestAllocationTimeResponse getLatestDataTimestamp(Common.Session session) {
+    if (myAllocationStorage == AllocationStorage.COLUMNAR) {
+      return LatestAllocationTimeResponse.newBuilder().setTimestamp(getColumnStore(session).getLatestDataTimestamp()).build();
+    }
     LatestAllocationTimeResponse.Builder builder = LatestAllocationTimeResponse.newBuilder();
     try {
       long latest = 0;
@@ -346,7 +457,8 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     BatchJNIGlobalRefEvent.Builder resultBuilder = BatchJNIGlobalRefEvent.newBuilder();
     long timestamp = 0;
     try {
-      ResultSet allocResultset = executeQuery(QUERY_JNI_REF_CREATE_EVENTS, session.getSessionId(), 0, endTime, endTime, Long.MAX_VALUE);
+      ResultSet allocResultset =
+        executeQuery(QUERY_JNI_REF_SNAPSHOT, session.getSessionId(), endTime, session.getSessionId(), endTime, endTime);
       while (allocResultset.next()) {
         JNIGlobalReferenceEvent event = readJniEventFromResultSet(allocResultset, JNIGlobalReferenceEvent.Type.CREATE_GLOBAL_REF);
         timestamp = Math.max(timestamp, event.getTimestamp());
@@ -387,6 +499,8 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertJniReferenceData(@NotNull Common.Session session, @NotNull BatchJNIGlobalRefEvent batch) {
+    SessionRetention retention = getRetention(session);
+    long latestTimestamp = Long.MIN_VALUE;
     PreparedStatement insertRefStatement = null;
     PreparedStatement updateRefStatement = null;
     PreparedStatement insertStackStatement = null;
@@ -396,6 +510,7 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
         int objectTag = event.getObjectTag();
         long timestamp = event.getTimestamp();
         int threadId = event.getThreadId();
+        latestTimestamp = Math.max(latestTimestamp, timestamp);
         String stackHash = "";
         if (event.hasBacktrace()) {
           byte[] backtrace = event.getBacktrace().toByteArray();
@@ -429,14 +544,21 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       if (insertStackStatement != null) {
         insertStackStatement.executeBatch();
       }
+      int insertedRefCount = 0;
       if (insertRefStatement != null) {
-        insertRefStatement.executeBatch();
+        for (int result : insertRefStatement.executeBatch()) {
+          insertedRefCount += isRowChanged(result) ? 1 : 0;
+        }
       }
       if (updateRefStatement != null) {
         updateRefStatement.executeBatch();
       }
       if (batch.getEventsCount() > 0) {
-        pruneJniRefRecords(session);
+        synchronized (retention) {
+          retention.myJniRefCount += insertedRefCount;
+          retention.myLatestTimestamp = Math.max(retention.myLatestTimestamp, latestTimestamp);
+        }
+        schedulePruning(session, retention);
       }
     }
     catch (SQLException ex) {
@@ -445,14 +567,24 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertAllocationData(Common.Session session, MemoryProfiler.BatchAllocationSample sample) {
+    if (myAllocationStorage == AllocationStorage.COLUMNAR) {
+      insertColumnarAllocationData(session, sample);
+      return;
+    }
+
+    SessionRetention retention = getRetention(session);
     MemoryProfiler.AllocationEvent.EventCase currentCase = null;
     PreparedStatement currentStatement = null;
     int allocAndFreeCount = 0;
+    long sessionId = session.getSessionId();
+    long latestTimestamp = Long.MIN_VALUE;
+    // Sizes of the allocations in the pending INSERT_ALLOC batch, to account for the rows that actually got inserted.
+    TLongArrayList pendingAllocSizes = new TLongArrayList();
     try {
       for (MemoryProfiler.AllocationEvent event : sample.getEventsList()) {
         if (currentCase != event.getEventCase()) {
           if (currentCase != null) {
-            currentStatement.executeBatch();
+            executeAllocationBatch(currentStatement, pendingAllocSizes, retention);
           }
 
           currentCase = event.getEventCase();
@@ -471,26 +603,38 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
           }
         }
 
+        assert currentStatement != null;
         switch (currentCase) {
           case CLASS_DATA:
-            assert currentStatement != null;
             AllocatedClass klass = event.getClassData();
-            applyParams(currentStatement, session.getSessionId(), klass.getClassId(), event.getTimestamp(),
-                        jniToJavaName(klass.getClassName()));
+            currentStatement.setLong(1, sessionId);
+            currentStatement.setLong(2, klass.getClassId());
+            currentStatement.setLong(3, event.getTimestamp());
+            currentStatement.setString(4, jniToJavaName(klass.getClassName()));
             break;
           case ALLOC_DATA:
-            assert currentStatement != null;
             allocAndFreeCount++;
+            latestTimestamp = Math.max(latestTimestamp, event.getTimestamp());
             AllocationEvent.Allocation allocation = event.getAllocData();
-            applyParams(currentStatement, session.getSessionId(), allocation.getTag(), allocation.getClassTag(),
-                        event.getTimestamp(), Long.MAX_VALUE, allocation.getSize(), allocation.getLength(), allocation.getThreadId(),
-                        allocation.getStackId(), allocation.getHeapId());
+            pendingAllocSizes.add(allocation.getSize());
+            currentStatement.setLong(1, sessionId);
+            currentStatement.setLong(2, allocation.getTag());
+            currentStatement.setLong(3, allocation.getClassTag());
+            currentStatement.setLong(4, event.getTimestamp());
+            currentStatement.setLong(5, Long.MAX_VALUE);
+            currentStatement.setLong(6, allocation.getSize());
+            currentStatement.setLong(7, allocation.getLength());
+            currentStatement.setLong(8, allocation.getThreadId());
+            currentStatement.setLong(9, allocation.getStackId());
+            currentStatement.setLong(10, allocation.getHeapId());
             break;
           case FREE_DATA:
-            assert currentStatement != null;
             allocAndFreeCount++;
+            latestTimestamp = Math.max(latestTimestamp, event.getTimestamp());
             AllocationEvent.Deallocation free = event.getFreeData();
-            applyParams(currentStatement, event.getTimestamp(), session.getSessionId(), free.getTag());
+            currentStatement.setLong(1, event.getTimestamp());
+            currentStatement.setLong(2, sessionId);
+            currentStatement.setLong(3, free.getTag());
             break;
           default:
             assert false;
@@ -499,10 +643,13 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
       }
 
       // Handles last batch after exiting from for-loop.
-      currentStatement.executeBatch();
+      executeAllocationBatch(currentStatement, pendingAllocSizes, retention);
 
       if (allocAndFreeCount > 0) {
-        pruneAllocations(session);
+        synchronized (retention) {
+          retention.myLatestTimestamp = Math.max(retention.myLatestTimestamp, latestTimestamp);
+        }
+        schedulePruning(session, retention);
       }
     }
     catch (SQLException ex) {
@@ -510,21 +657,98 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
   }
 
-  public void insertMethodInfo(Common.Session session, List<AllocationStack.StackFrame> methods) {
-    try {
-      PreparedStatement statement = getStatementMap().get(INSERT_METHOD);
-      assert statement != null;
-      for (AllocationStack.StackFrame method : methods) {
-        applyParams(statement, session.getSessionId(), method.getMethodId(), method.getMethodName(), jniToJavaName(method.getClassName()));
-        statement.addBatch();
+  /**
+   * Executes the pending batch of {@code statement}, accounting for the allocations it inserted if it is an INSERT_ALLOC batch, i.e.
+   * if {@code pendingAllocSizes} is not empty.
+   */
+  private static void executeAllocationBatch(@NotNull PreparedStatement statement,
+                                             @NotNull TLongArrayList pendingAllocSizes,
+                                             @NotNull SessionRetention retention) throws SQLException {
+    int[] results = statement.executeBatch();
+    if (pendingAllocSizes.isEmpty()) {
+      return;
+    }
+    assert results.length == pendingAllocSizes.size();
+    int insertedCount = 0;
+    long insertedBytes = 0;
+    for (int i = 0; i < results.length; i++) {
+      if (isRowChanged(results[i])) {
+        insertedCount++;
+        insertedBytes += pendingAllocSizes.get(i);
       }
-      statement.executeBatch();
     }
-    catch (SQLException ex) {
-      onError(ex);
+    pendingAllocSizes.clear();
+    synchronized (retention) {
+      retention.myAllocCount += insertedCount;
+      retention.myAllocBytes += insertedBytes;
+    }
+  }
+
+  private static boolean isRowChanged(int batchResult) {
+    return batchResult > 0 || batchResult == Statement.SUCCESS_NO_INFO;
+  }
+
+  private void insertColumnarAllocationData(@NotNull Common.Session session, @NotNull MemoryProfiler.BatchAllocationSample sample) {
+    // Class data goes first, so that allocations never reference a class the UI cannot resolve yet.
+    List<AllocationEvent> classEvents = new ArrayList<>();
+    for (AllocationEvent event : sample.getEventsList()) {
+      if (event.getEventCase() == AllocationEvent.EventCase.CLASS_DATA) {
+        classEvents.add(event);
+      }
+    }
+    long sessionId = session.getSessionId();
+    executeBatch(INSERT_CLASS, classEvents, (statement, event) -> {
+      statement.setLong(1, sessionId);
+      statement.setLong(2, event.getClassData().getClassId());
+      statement.setLong(3, event.getTimestamp());
+      statement.setString(4, jniToJavaName(event.getClassData().getClassName()));
+    });
+
+    LiveAllocationColumnStore store = getColumnStore(session);
+    int allocAndFreeCount = 0;
+    for (AllocationEvent event : sample.getEventsList()) {
+      switch (event.getEventCase()) {
+        case ALLOC_DATA:
+          allocAndFreeCount++;
+          store.allocate(event.getTimestamp(), event.getAllocData());
+          break;
+        case FREE_DATA:
+          allocAndFreeCount++;
+          store.free(event.getTimestamp(), event.getFreeData().getTag());
+          break;
+        default:
+          break;
+      }
+    }
+
+    if (allocAndFreeCount > 0) {
+      SessionRetention retention = getRetention(session);
+      synchronized (retention) {
+        retention.myAllocCount = store.getRowCount();
+        retention.myAllocBytes = store.getRetainedBytes();
+        retention.myLatestTimestamp = Math.max(retention.myLatestTimestamp, store.getLatestDataTimestamp());
+      }
+      schedulePruning(session, retention);
     }
   }
 
+  @NotNull
+  private LiveAllocationColumnStore getColumnStore(@NotNull Common.Session session) {
+    synchronized (myColumnStores) {
+      return myColumnStores.computeIfAbsent(session.getSessionId(), id -> new LiveAllocationColumnStore());
+    }
+  }
+
+  public void insertMethodInfo(Common.Session session, List<AllocationStack.StackFrame> methods) {
+    long sessionId = session.getSessionId();
+    executeBatch(INSERT_METHOD, methods, (statement, method) -> {
+      statement.setLong(1, sessionId);
+      statement.setLong(2, method.getMethodId());
+      statement.setString(3, method.getMethodName());
+      statement.setString(4, jniToJavaName(method.getClassName()));
+    });
+  }
+
   @NotNull
   public StackFrameInfoResponse getStackFrameInfo(Common.Session session, long methodId) {
     StackFrameInfoResponse.Builder methodBuilder = StackFrameInfoResponse.newBuilder();
@@ -542,29 +766,61 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   public void insertStackInfo(Common.Session session, List<EncodedAllocationStack> stacks) {
-    try {
-      PreparedStatement statement = getStatementMap().get(INSERT_ENCODED_STACK);
-      assert statement != null;
-      for (EncodedAllocationStack stack : stacks) {
-        applyParams(statement, session.getSessionId(), stack.getStackId(), stack.getTimestamp(), stack.toByteArray());
-        statement.addBatch();
+    long sessionId = session.getSessionId();
+    executeBatch(INSERT_ENCODED_STACK, stacks, (statement, stack) -> {
+      statement.setLong(1, sessionId);
+      statement.setLong(2, stack.getStackId());
+      statement.setLong(3, stack.getTimestamp());
+      statement.setBytes(4, stack.toByteArray());
+    });
+  }
+
+  public void insertThreadInfo(Common.Session session, List<ThreadInfo> threads) {
+    long sessionId = session.getSessionId();
+    executeBatch(INSERT_THREAD_INFO, threads, (statement, thread) -> {
+      statement.setLong(1, sessionId);
+      statement.setLong(2, thread.getThreadId());
+      statement.setLong(3, thread.getTimestamp());
+      statement.setString(4, thread.getThreadName());
+    });
+  }
+
+  @NotNull
+  private SessionRetention getRetention(@NotNull Common.Session session) {
+    synchronized (myRetentions) {
+      SessionRetention retention = myRetentions.get(session.getSessionId());
+      if (retention != null) {
+        return retention;
       }
-      statement.executeBatch();
     }
-    catch (SQLException ex) {
-      onError(ex);
+    // Counting waits for the unit being written, whose writer may itself need myRetentions, so it is done without holding it. Writers
+    // get the retention of a session before inserting into it, so a count that loses the race below can only miss rows that the
+    // retention which won already accounts for.
+    SessionRetention counted = new SessionRetention();
+    countStoredRecords(session, counted);
+    synchronized (myRetentions) {
+      SessionRetention retention = myRetentions.putIfAbsent(session.getSessionId(), counted);
+      return retention != null ? retention : counted;
     }
   }
 
-  public void insertThreadInfo(Common.Session session, List<ThreadInfo> threads) {
+  /**
+   * Seeds the counters of a session with whatever the database already holds for it. This is the only time rows are counted, from
+   * there on the counters are maintained on insert and prune.
+   */
+  private void countStoredRecords(@NotNull Common.Session session, @NotNull SessionRetention retention) {
     try {
-      PreparedStatement statement = getStatementMap().get(INSERT_THREAD_INFO);
-      assert statement != null;
-      for (ThreadInfo thread : threads) {
-        applyParams(statement, session.getSessionId(), thread.getThreadId(), thread.getTimestamp(), thread.getThreadName());
-        statement.addBatch();
+      if (myAllocationStorage == AllocationStorage.SQLITE) {
+        ResultSet allocResult = executeQuery(QUERY_ALLOC_FREED_SIZE, session.getSessionId(), Long.MAX_VALUE);
+        if (allocResult.next()) {
+          retention.myAllocCount = allocResult.getLong(1);
+          retention.myAllocBytes = allocResult.getLong(2);
+        }
+      }
+      ResultSet jniResult = executeQuery(QUERY_JNI_REF_FREED_COUNT, session.getSessionId(), Long.MAX_VALUE);
+      if (jniResult.next()) {
+        retention.myJniRefCount = jniResult.getLong(1);
       }
-      statement.executeBatch();
     }
     catch (SQLException ex) {
       onError(ex);
@@ -572,40 +828,217 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   }
 
   /**
-   * Removes entries from the allocations table so the process (in-memory DB) doesn't run out of memory.
+   * Hands the pruning of {@code session} to the prune executor if it is over one of its limits and no pruning is already pending.
    */
-  private void pruneAllocations(@NotNull Common.Session session) {
+  private void schedulePruning(@NotNull Common.Session session, @NotNull SessionRetention retention) {
+    synchronized (retention) {
+      if (retention.myIsPrunePending || !needsPruning(retention)) {
+        return;
+      }
+      retention.myIsPrunePending = true;
+    }
+    myPruneExecutor.accept(() -> {
+      try {
+        runInTransaction(() -> prune(session, retention));
+      }
+      finally {
+        synchronized (retention) {
+          retention.myIsPrunePending = false;
+        }
+      }
+    });
+  }
+
+  private boolean needsPruning(@NotNull SessionRetention retention) {
+    assert Thread.holdsLock(retention);
+    AllocationRetentionPolicy policy = getPolicy(retention);
+    return retention.myAllocCount > policy.getMaxCount() ||
+           retention.myAllocBytes > policy.getMaxBytes() ||
+           retention.myJniRefCount > policy.getMaxCount() ||
+           policy.getFreedBefore(retention.myLatestTimestamp) > retention.myWindowPrunedBefore;
+  }
+
+  @NotNull
+  private AllocationRetentionPolicy getPolicy(@NotNull SessionRetention retention) {
+    return retention.myPolicy != null ? retention.myPolicy : myDefaultRetentionPolicy;
+  }
+
+  /**
+   * Removes freed allocations and deleted JNI references, oldest frees first and {@link AllocationRetentionPolicy#PRUNE_CHUNK_SIZE}
+   * records at a time, until the session is back within its policy. Records that are still alive are never removed, so a session with
+   * too many live objects stays over its limits.
+   */
+  private void prune(@NotNull Common.Session session, @NotNull SessionRetention retention) {
+    long allocCount;
+    long allocBytes;
+    long jniRefCount;
+    long freedBefore;
+    AllocationRetentionPolicy policy;
+    synchronized (retention) {
+      policy = getPolicy(retention);
+      allocCount = retention.myAllocCount;
+      allocBytes = retention.myAllocBytes;
+      jniRefCount = retention.myJniRefCount;
+      freedBefore = policy.getFreedBefore(retention.myLatestTimestamp);
+    }
+
+    // Over a count or size limit, any freed record goes. Otherwise only the ones that fell out of the time window do.
+    long prunedAllocCount = 0;
+    long prunedAllocBytes = 0;
+    while (allocCount > policy.getMaxCount() || allocBytes > policy.getMaxBytes() || freedBefore != Long.MIN_VALUE) {
+      boolean isOverLimit = allocCount > policy.getMaxCount() || allocBytes > policy.getMaxBytes();
+      int chunkSize = (int)Math.min(AllocationRetentionPolicy.PRUNE_CHUNK_SIZE,
+                                    allocCount > policy.getMaxCount() ? allocCount - policy.getMaxCount() : Long.MAX_VALUE);
+      PruneResult result = myAllocationStorage == AllocationStorage.COLUMNAR
+                           ? pruneColumnStore(session, chunkSize, isOverLimit ? Long.MAX_VALUE : freedBefore)
+                           : pruneAllocationRows(session, chunkSize, isOverLimit ? Long.MAX_VALUE : freedBefore);
+      if (result.myCount == 0) {
+        break;
+      }
+      allocCount -= result.myCount;
+      allocBytes -= result.myBytes;
+      prunedAllocCount += result.myCount;
+      prunedAllocBytes += result.myBytes;
+      synchronized (retention) {
+        retention.myAllocCount -= result.myCount;
+        retention.myAllocBytes -= result.myBytes;
+        retention.myPrunedAllocCount += result.myCount;
+        retention.myTruncatedBefore = Math.max(retention.myTruncatedBefore, result.myLatestFreeTime);
+      }
+    }
+
+    long prunedJniRefCount = 0;
+    while (jniRefCount > policy.getMaxCount() || freedBefore != Long.MIN_VALUE) {
+      boolean isOverLimit = jniRefCount > policy.getMaxCount();
+      int chunkSize = (int)Math.min(AllocationRetentionPolicy.PRUNE_CHUNK_SIZE,
+                                    isOverLimit ? jniRefCount - policy.getMaxCount() : Long.MAX_VALUE);
+      PruneResult result = pruneJniRefRows(session, chunkSize, isOverLimit ? Long.MAX_VALUE : freedBefore);
+      if (result.myCount == 0) {
+        break;
+      }
+      jniRefCount -= result.myCount;
+      prunedJniRefCount += result.myCount;
+      synchronized (retention) {
+        retention.myJniRefCount -= result.myCount;
+        retention.myPrunedJniRefCount += result.myCount;
+        retention.myTruncatedBefore = Math.max(retention.myTruncatedBefore, result.myLatestFreeTime);
+      }
+    }
+
+    long totalPrunedAllocCount;
+    long totalPrunedJniRefCount;
+    long truncatedBefore;
+    synchronized (retention) {
+      retention.myWindowPrunedBefore = Math.max(retention.myWindowPrunedBefore, freedBefore);
+      totalPrunedAllocCount = retention.myPrunedAllocCount;
+      totalPrunedJniRefCount = retention.myPrunedJniRefCount;
+      truncatedBefore = retention.myTruncatedBefore;
+    }
+    if (prunedAllocCount > 0 || prunedJniRefCount > 0) {
+      getLogger().info(String.format("Pruned %d allocations (%d bytes) and %d JNI ref records of session %d. %d allocations (%d bytes) " +
+                                     "and %d JNI ref records remain. %d allocations and %d JNI ref records freed up to %d were " +
+                                     "pruned since the session started.", prunedAllocCount, prunedAllocBytes, prunedJniRefCount,
+                                     session.getSessionId(), allocCount, allocBytes, jniRefCount, totalPrunedAllocCount,
+                                     totalPrunedJniRefCount, truncatedBefore));
+    }
+  }
+
+  @NotNull
+  private PruneResult pruneColumnStore(@NotNull Common.Session session, int chunkSize, long freedBefore) {
+    LiveAllocationColumnStore store = getColumnStore(session);
+    synchronized (store) {
+      long retainedBytes = store.getRetainedBytes();
+      int prunedCount = store.prune(chunkSize, freedBefore);
+      return new PruneResult(prunedCount, retainedBytes - store.getRetainedBytes(), store.getLatestPrunedFreeTime());
+    }
+  }
+
+  @NotNull
+  private PruneResult pruneAllocationRows(@NotNull Common.Session session, int chunkSize, long freedBefore) {
     try {
-      // TODO save data to disk
-      ResultSet result = executeQuery(COUNT_ALLOC);
-      result.next();
-      int rowCount = result.getInt(1);
-      if (rowCount > myAllocationCountLimit) {
-        int pruneCount = rowCount - myAllocationCountLimit;
-        execute(PRUNE_ALLOC, session.getSessionId(), session.getSessionId(), pruneCount);
-        getLogger().info(String.format("Allocations have exceed %d entries. Attempting to prune %d.", myAllocationCountLimit, pruneCount));
+      long threshold = queryPruneThreshold(QUERY_ALLOC_PRUNE_THRESHOLD, session, chunkSize, freedBefore);
+      if (threshold == Long.MIN_VALUE) {
+        return PruneResult.NONE;
+      }
+      ResultSet result = executeQuery(QUERY_ALLOC_FREED_SIZE, session.getSessionId(), threshold);
+      if (!result.next() || result.getLong(1) == 0) {
+        return PruneResult.NONE;
       }
+      PruneResult pruned = new PruneResult(result.getLong(1), result.getLong(2), threshold);
+      execute(PRUNE_ALLOC, session.getSessionId(), threshold);
+      return pruned;
     }
-    catch (SQLException e) {
-      onError(e);
+    catch (SQLException ex) {
+      onError(ex);
+      return PruneResult.NONE;
     }
   }
 
-  private void pruneJniRefRecords(@NotNull Common.Session session) {
+  @NotNull
+  private PruneResult pruneJniRefRows(@NotNull Common.Session session, int chunkSize, long freedBefore) {
     try {
-      // TODO save data to disk
-      ResultSet result = executeQuery(COUNT_JNI_REF_RECORDS);
-      result.next();
-      int rowCount = result.getInt(1);
-      if (rowCount > myAllocationCountLimit) {
-        int pruneCount = rowCount - myAllocationCountLimit;
-        execute(PRUNE_JNI_REF_RECORDS, session.getSessionId(), session.getSessionId(), pruneCount);
-        getLogger()
-          .info(String.format("JNI ref records have exceed %d entries. Attempting to prune %d.", myAllocationCountLimit, pruneCount));
-      }
-    }
-    catch (SQLException e) {
-      onError(e);
+      long threshold = queryPruneThreshold(QUERY_JNI_REF_PRUNE_THRESHOLD, session, chunkSize, freedBefore);
+      if (threshold == Long.MIN_VALUE) {
+        return PruneResult.NONE;
+      }
+      ResultSet result = executeQuery(QUERY_JNI_REF_FREED_COUNT, session.getSessionId(), threshold);
+      if (!result.next() || result.getLong(1) == 0) {
+        return PruneResult.NONE;
+      }
+      PruneResult pruned = new PruneResult(result.getLong(1), 0, threshold);
+      execute(PRUNE_JNI_REF_RECORDS, session.getSessionId(), threshold);
+      return pruned;
+    }
+    catch (SQLException ex) {
+      onError(ex);
+      return PruneResult.NONE;
+    }
+  }
+
+  /**
+   * @return the free time of the {@code chunkSize}-th oldest record freed before {@code freedBefore} (or of the latest one if there are
+   * fewer), or {@link Long#MIN_VALUE} if there is none.
+   */
+  private long queryPruneThreshold(@NotNull MemoryStatements statement, @NotNull Common.Session session, int chunkSize, long freedBefore)
+    throws SQLException {
+    ResultSet result = executeQuery(statement, session.getSessionId(), freedBefore, chunkSize);
+    if (!result.next()) {
+      return Long.MIN_VALUE;
+    }
+    long threshold = result.getLong(1);
+    return result.wasNull() ? Long.MIN_VALUE : threshold;
+  }
+
+  /**
+   * What a session currently stores and how much of it was evicted. Guarded by its own monitor.
+   */
+  private static final class SessionRetention {
+    @Nullable AllocationRetentionPolicy myPolicy;
+    long myAllocCount;
+    long myAllocBytes;
+    long myJniRefCount;
+    long myLatestTimestamp = Long.MIN_VALUE;
+    long myPrunedAllocCount;
+    long myPrunedJniRefCount;
+    long myTruncatedBefore = Long.MIN_VALUE;
+    /**
+     * The time window cutoff up to which the freed records have already been pruned.
+     */
+    long myWindowPrunedBefore = Long.MIN_VALUE;
+    boolean myIsPrunePending;
+  }
+
+  private static final class PruneResult {
+    static final PruneResult NONE = new PruneResult(0, 0, Long.MIN_VALUE);
+
+    final long myCount;
+    final long myBytes;
+    final long myLatestFreeTime;
+
+    PruneResult(long count, long bytes, long latestFreeTime) {
+      myCount = count;
+      myBytes = bytes;
+      myLatestFreeTime = latestFreeTime;
     }
   }
 
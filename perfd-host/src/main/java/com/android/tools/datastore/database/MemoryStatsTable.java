@@ -29,7 +29,9 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.android.tools.datastore.database.MemoryStatsTable.MemoryStatements.*;
 
@@ -39,6 +41,13 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     INSERT_SAMPLE("INSERT OR IGNORE INTO Memory_Samples (Session, Timestamp, Type, Data) VALUES (?, ?, ?, ?)"),
     QUERY_MEMORY(String.format("SELECT Data FROM Memory_Samples WHERE Session = ? AND Type = %d AND TimeStamp > ? AND TimeStamp <= ?",
                                MemorySamplesType.MEMORY.ordinal())),
+    // Buckets overlapping (start, end] of the given resolution, see SampleRollup.
+    QUERY_MEMORY_ROLLUP("SELECT MinData, MaxData FROM Memory_SamplesRollup WHERE Session = ? AND Resolution = ? AND Bucket > ? AND " +
+                        "Bucket <= ? ORDER BY Bucket"),
+    QUERY_MEMORY_ROLLUP_BUCKET(
+      "SELECT MinValue, MinData, MaxValue, MaxData FROM Memory_SamplesRollup WHERE Session = ? AND Resolution = ? AND Bucket = ?"),
+    INSERT_OR_REPLACE_MEMORY_ROLLUP("INSERT OR REPLACE INTO Memory_SamplesRollup (Session, Resolution, Bucket, MinValue, MinData, " +
+                                    "MaxValue, MaxData) VALUES (?, ?, ?, ?, ?, ?, ?)"),
     QUERY_ALLOC_STATS(String.format("SELECT Data FROM Memory_Samples WHERE Session = ? AND Type = %d AND TimeStamp > ? AND TimeStamp <= ?",
                                     MemorySamplesType.ALLOC_STATS.ordinal())),
 
@@ -48,21 +57,25 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
 
     INSERT_OR_REPLACE_HEAP_INFO(
       "INSERT OR REPLACE INTO Memory_HeapDump (Session, StartTime, EndTime, Status, InfoData) VALUES (?, ?, ?, ?, ?)"),
-    UPDATE_HEAP_DUMP("UPDATE Memory_HeapDump SET DumpData = ?, Status = ? WHERE Session = ? AND StartTime = ?"),
+    UPDATE_HEAP_DUMP("UPDATE Memory_HeapDump SET DumpData = ?, DumpBlob = NULL, Status = ? WHERE Session = ? AND StartTime = ?"),
+    UPDATE_HEAP_DUMP_BLOB("UPDATE Memory_HeapDump SET DumpData = NULL, DumpBlob = ?, Status = ? WHERE Session = ? AND StartTime = ?"),
     // EndTime = UNSPECIFIED_DURATION checks for the special case where we have an ongoing duration sample
     QUERY_HEAP_INFO_BY_TIME("SELECT InfoData FROM Memory_HeapDump where Session = ? AND EndTime > ? AND StartTime <= ?"),
-    QUERY_HEAP_DUMP_BY_ID("SELECT DumpData FROM Memory_HeapDump where Session = ? AND StartTime = ?"),
+    QUERY_HEAP_DUMP_BY_ID("SELECT DumpData, DumpBlob FROM Memory_HeapDump where Session = ? AND StartTime = ?"),
     QUERY_HEAP_STATUS_BY_ID("SELECT Status FROM Memory_HeapDump where Session = ? AND StartTime = ?"),
 
     INSERT_OR_REPLACE_ALLOCATIONS_INFO(
       "INSERT OR REPLACE INTO Memory_AllocationInfo (Session, StartTime, EndTime, InfoData) VALUES (?, ?, ?, ?)"),
     UPDATE_LEGACY_ALLOCATIONS_INFO_EVENTS("UPDATE Memory_AllocationInfo SET LegacyEventsData = ? WHERE Session = ? AND StartTime = ?"),
-    UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP("UPDATE Memory_AllocationInfo SET LegacyDumpData = ? WHERE Session = ? AND StartTime = ?"),
+    UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP(
+      "UPDATE Memory_AllocationInfo SET LegacyDumpData = ?, LegacyDumpBlob = NULL WHERE Session = ? AND StartTime = ?"),
+    UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP_BLOB(
+      "UPDATE Memory_AllocationInfo SET LegacyDumpData = NULL, LegacyDumpBlob = ? WHERE Session = ? AND StartTime = ?"),
     // EndTime = UNSPECIFIED_DURATION checks for the special case where we have an ongoing duration sample
     QUERY_ALLOCATION_INFO_BY_TIME("SELECT InfoData FROM Memory_AllocationInfo WHERE Session = ? AND EndTime > ? AND StartTime <= ?"),
     QUERY_ALLOCATION_INFO_BY_ID("SELECT InfoData from Memory_AllocationInfo WHERE Session = ? AND StartTime = ?"),
     QUERY_LEGACY_ALLOCATION_EVENTS_BY_ID("SELECT LegacyEventsData from Memory_AllocationInfo WHERE Session = ? AND StartTime = ?"),
-    QUERY_LEGACY_ALLOCATION_DUMP_BY_ID("SELECT LegacyDumpData from Memory_AllocationInfo WHERE Session = ? AND StartTime = ?"),
+    QUERY_LEGACY_ALLOCATION_DUMP_BY_ID("SELECT LegacyDumpData, LegacyDumpBlob from Memory_AllocationInfo WHERE Session = ? AND StartTime = ?"),
 
     INSERT_LEGACY_ALLOCATION_STACK("INSERT OR IGNORE INTO Memory_LegacyAllocationStack (Session, Id, Data) VALUES (?, ?, ?)"),
     INSERT_LEGACY_ALLOCATED_CLASS("INSERT OR IGNORE INTO Memory_LegacyAllocatedClass (Session, Id, Data) VALUES (?, ?, ?)"),
@@ -93,15 +106,20 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     try {
       createTable("Memory_Samples", "Session INTEGER NOT NULL", "Timestamp INTEGER", "Type INTEGER",
                   "Data BLOB", "PRIMARY KEY(Session, Timestamp, Type)");
+      createTable("Memory_SamplesRollup", "Session INTEGER NOT NULL", "Resolution INTEGER", "Bucket INTEGER", "MinValue INTEGER",
+                  "MinData BLOB", "MaxValue INTEGER", "MaxData BLOB", "PRIMARY KEY(Session, Resolution, Bucket)");
       createTable("Memory_AllocationInfo", "Session INTEGER NOT NULL", "StartTime INTEGER",
-                  "EndTime INTEGER", "InfoData BLOB", "LegacyEventsData BLOB", "LegacyDumpData BLOB",
+                  "EndTime INTEGER", "InfoData BLOB", "LegacyEventsData BLOB", "LegacyDumpData BLOB", "LegacyDumpBlob TEXT",
                   "PRIMARY KEY(Session, StartTime)");
       createTable("Memory_LegacyAllocationStack", "Session INTEGER NOT NULL", "Id INTEGER", "Data BLOB",
                   "PRIMARY KEY(Session, Id)");
       createTable("Memory_LegacyAllocatedClass", "Session INTEGER NOT NULL", "Id INTEGER", "Data BLOB",
                   "PRIMARY KEY(Session, Id)");
       createTable("Memory_HeapDump", "Session INTEGER NOT NULL", "StartTime INTEGER",
-                  "EndTime INTEGER", "Status INTEGER", "InfoData BLOB", "DumpData BLOB", "PRIMARY KEY(Session, StartTime)");
+                  "EndTime INTEGER", "Status INTEGER", "InfoData BLOB", "DumpData BLOB", "DumpBlob TEXT",
+                  "PRIMARY KEY(Session, StartTime)");
+      registerBlobColumn("Memory_AllocationInfo", "LegacyDumpBlob");
+      registerBlobColumn("Memory_HeapDump", "DumpBlob");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -125,8 +143,7 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     long sessionId = request.getSession().getSessionId();
     long startTime = request.getStartTime();
     long endTime = request.getEndTime();
-    List<MemoryData.MemorySample> memorySamples =
-      getResultsInfo(QUERY_MEMORY, sessionId, startTime, endTime, MemoryData.MemorySample.getDefaultInstance());
+    List<MemoryData.MemorySample> memorySamples = getMemorySamples(sessionId, startTime, endTime);
     List<MemoryData.AllocStatsSample> allocStatsSamples =
       getResultsInfo(QUERY_ALLOC_STATS, sessionId, startTime, endTime, MemoryData.AllocStatsSample.getDefaultInstance());
     List<MemoryData.GcStatsSample> gcStatsSamples =
@@ -144,11 +161,94 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
     return response.build();
   }
 
+  /**
+   * Returns the memory samples in {@code (startTime, endTime]}. Over long ranges, only the samples kept by the coarsest
+   * {@link SampleRollup} tier that still has enough buckets are decoded.
+   */
+  @NotNull
+  private List<MemoryData.MemorySample> getMemorySamples(long sessionId, long startTime, long endTime) {
+    long resolution = SampleRollup.selectResolution(startTime, endTime);
+    if (resolution > 0) {
+      List<MemoryData.MemorySample> samples = new ArrayList<>();
+      try {
+        ResultSet resultSet = executeQuery(QUERY_MEMORY_ROLLUP, sessionId, resolution,
+                                           SampleRollup.getBucketStart(startTime, resolution) - resolution, endTime);
+        while (resultSet.next()) {
+          MemoryData.MemorySample min = MemoryData.MemorySample.parseFrom(resultSet.getBytes(1));
+          MemoryData.MemorySample max = MemoryData.MemorySample.parseFrom(resultSet.getBytes(2));
+          // Keep the samples in time order, and the query's bounds, as the first and last buckets can stick out of the range.
+          MemoryData.MemorySample first = min.getTimestamp() <= max.getTimestamp() ? min : max;
+          MemoryData.MemorySample second = first == min ? max : min;
+          addIfInRange(samples, first, startTime, endTime);
+          if (second.getTimestamp() != first.getTimestamp()) {
+            addIfInRange(samples, second, startTime, endTime);
+          }
+        }
+      }
+      catch (InvalidProtocolBufferException | SQLException ex) {
+        onError(ex);
+      }
+      // Sessions recorded before the tiers existed only have raw samples.
+      if (!samples.isEmpty()) {
+        return samples;
+      }
+    }
+    return getResultsInfo(QUERY_MEMORY, sessionId, startTime, endTime, MemoryData.MemorySample.getDefaultInstance());
+  }
+
+  private static void addIfInRange(@NotNull List<MemoryData.MemorySample> samples,
+                                   @NotNull MemoryData.MemorySample sample,
+                                   long startTime,
+                                   long endTime) {
+    if (sample.getTimestamp() > startTime && sample.getTimestamp() <= endTime) {
+      samples.add(sample);
+    }
+  }
+
   public void insertMemory(Common.Session session, List<MemoryData.MemorySample> samples) {
     for (MemoryData.MemorySample sample : samples) {
       execute(INSERT_SAMPLE, session.getSessionId(), sample.getTimestamp(), MemorySamplesType.MEMORY.ordinal(),
               sample.toByteArray());
     }
+    updateMemoryRollups(session.getSessionId(), samples);
+  }
+
+  /**
+   * Merges {@code samples} into the buckets of every {@link SampleRollup} tier, ranking them by total memory. Samples arrive in batches
+   * covering a short time, so this reads and writes back a handful of buckets per batch.
+   */
+  private void updateMemoryRollups(long sessionId, @NotNull List<MemoryData.MemorySample> samples) {
+    if (samples.isEmpty()) {
+      return;
+    }
+    for (long resolution : SampleRollup.RESOLUTIONS_NS) {
+      Map<Long, SampleRollup.Bucket> buckets = new LinkedHashMap<>();
+      for (MemoryData.MemorySample sample : samples) {
+        long bucketStart = SampleRollup.getBucketStart(sample.getTimestamp(), resolution);
+        SampleRollup.Bucket bucket = buckets.computeIfAbsent(bucketStart, start -> loadMemoryRollupBucket(sessionId, resolution, start));
+        bucket.add(sample.getTotalMem(), sample.toByteArray());
+      }
+      for (SampleRollup.Bucket bucket : buckets.values()) {
+        execute(INSERT_OR_REPLACE_MEMORY_ROLLUP, sessionId, resolution, bucket.getStart(), bucket.getMinValue(), bucket.getMinData(),
+                bucket.getMaxValue(), bucket.getMaxData());
+      }
+    }
+  }
+
+  @NotNull
+  private SampleRollup.Bucket loadMemoryRollupBucket(long sessionId, long resolution, long bucketStart) {
+    SampleRollup.Bucket bucket = new SampleRollup.Bucket(bucketStart);
+    try {
+      ResultSet resultSet = executeQuery(QUERY_MEMORY_ROLLUP_BUCKET, sessionId, resolution, bucketStart);
+      if (resultSet.next()) {
+        bucket.add(resultSet.getLong(1), resultSet.getBytes(2));
+        bucket.add(resultSet.getLong(3), resultSet.getBytes(4));
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+    return bucket;
   }
 
   public void insertAllocStats(Common.Session session, List<MemoryData.AllocStatsSample> samples) {
@@ -171,6 +271,7 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
   public void insertOrReplaceHeapInfo(Common.Session session, HeapDumpInfo info) {
     execute(INSERT_OR_REPLACE_HEAP_INFO, session.getSessionId(), info.getStartTime(), info.getEndTime(),
             DumpDataResponse.Status.NOT_READY.ordinal(), info.toByteArray());
+    markBlobsForSweep();
   }
 
   /**
@@ -196,21 +297,26 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
   }
 
   /**
-   * Adds/updates the status and raw dump data associated with a dump sample's id.
+   * Adds/updates the status and raw dump data associated with a dump sample's id. Large data is streamed to the blob store when there
+   * is one.
    */
   public void insertHeapDumpData(Common.Session session, long dumpTime, DumpDataResponse.Status status, ByteString data) {
-    execute(UPDATE_HEAP_DUMP, data.toByteArray(), status.getNumber(), session.getSessionId(), dumpTime);
+    if (!putBlob(data.size(), data::writeTo,
+                 hash -> execute(UPDATE_HEAP_DUMP_BLOB, hash, status.getNumber(), session.getSessionId(), dumpTime))) {
+      execute(UPDATE_HEAP_DUMP, data.toByteArray(), status.getNumber(), session.getSessionId(), dumpTime);
+    }
+    markBlobsForSweep();
   }
 
   /**
    * @return the raw dump byte content assocaited with a dump time. Null if an entry does not exist in the database.
    */
   @Nullable
-  public byte[] getHeapDumpData(Common.Session session, long dumpTime) {
+  public ByteString getHeapDumpData(Common.Session session, long dumpTime) {
     try {
       ResultSet resultSet = executeQuery(QUERY_HEAP_DUMP_BY_ID, session.getSessionId(), dumpTime);
       if (resultSet.next()) {
-        return resultSet.getBytes(1);
+        return readBlob(resultSet, 1, 2);
       }
     }
     catch (SQLException ex) {
@@ -225,6 +331,7 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
    */
   public void insertOrReplaceAllocationsInfo(Common.Session session, AllocationsInfo info) {
     execute(INSERT_OR_REPLACE_ALLOCATIONS_INFO, session.getSessionId(), info.getStartTime(), info.getEndTime(), info.toByteArray());
+    markBlobsForSweep();
   }
 
   public void updateLegacyAllocationEvents(Common.Session session,
@@ -234,9 +341,12 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
   }
 
 
-  public void updateLegacyAllocationDump(Common.Session session, long trackingStartTime, byte[] data) {
-
-    execute(UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP, data, session.getSessionId(), trackingStartTime);
+  public void updateLegacyAllocationDump(Common.Session session, long trackingStartTime, ByteString data) {
+    if (!putBlob(data.size(), data::writeTo,
+                 hash -> execute(UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP_BLOB, hash, session.getSessionId(), trackingStartTime))) {
+      execute(UPDATE_LEGACY_ALLOCATIONS_INFO_DUMP, data.toByteArray(), session.getSessionId(), trackingStartTime);
+    }
+    markBlobsForSweep();
   }
 
   /**
@@ -286,12 +396,12 @@ public class MemoryStatsTable extends DataStoreTable<MemoryStatsTable.MemoryStat
    * @return the raw legacy allocation tracking byte data associated with the tracking start time. Null if an entry does not exist.
    */
   @Nullable
-  public byte[] getLegacyAllocationDumpData(Common.Session session, long trackingStartTime) {
+  public ByteString getLegacyAllocationDumpData(Common.Session session, long trackingStartTime) {
 
     try {
       ResultSet resultSet = executeQuery(QUERY_LEGACY_ALLOCATION_DUMP_BY_ID, session.getSessionId(), trackingStartTime);
       if (resultSet.next()) {
-        return resultSet.getBytes(1);
+        return readBlob(resultSet, 1, 2);
       }
     }
     catch (SQLException ex) {
@@ -18,6 +18,7 @@ package com.android.tools.datastore.database;
 import com.android.tools.datastore.DeviceId;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler.*;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -44,6 +45,8 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     FIND_AGENT_STATUS,
     UPDATE_AGENT_STATUS,
     INSERT_BYTES,
+    INSERT_BYTES_BLOB,
+    FIND_BYTES_BLOB,
     GET_BYTES
   }
 
@@ -56,7 +59,7 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
     try {
-      createTable("Profiler_Bytes", "Id STRING NOT NULL", "Session INTEGER", "Data BLOB");
+      createTable("Profiler_Bytes", "Id STRING NOT NULL", "Session INTEGER", "Data BLOB", "DataBlob TEXT");
       createTable("Profiler_Devices", "DeviceId INTEGER", "Data BLOB");
       createTable("Profiler_Processes", "DeviceId INTEGER", "ProcessId INTEGER", "StartTime INTEGER", "EndTime INTEGER",
                   "HasAgent INTEGER", "LastKnownAttachedTime INTEGER", "Data BLOB");
@@ -66,6 +69,7 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
       createUniqueIndex("Profiler_Devices", "DeviceId");
       createUniqueIndex("Profiler_Bytes", "Id", "Session");
       createUniqueIndex("Profiler_Sessions", "SessionId");
+      registerBlobColumn("Profiler_Bytes", "DataBlob");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -96,7 +100,11 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
       createStatement(ProfilerStatements.UPDATE_AGENT_STATUS,
                       "UPDATE Profiler_Processes SET HasAgent = ?, LastKnownAttachedTime = ? WHERE DeviceId = ? AND ProcessId = ? AND StartTime = ?");
       createStatement(ProfilerStatements.INSERT_BYTES, "INSERT OR REPLACE INTO Profiler_Bytes (Id, Session, Data) VALUES (?, ?, ?)");
-      createStatement(ProfilerStatements.GET_BYTES, "SELECT Data FROM Profiler_Bytes WHERE Id = ? AND Session = ?");
+      createStatement(ProfilerStatements.INSERT_BYTES_BLOB,
+                      "INSERT OR REPLACE INTO Profiler_Bytes (Id, Session, DataBlob) VALUES (?, ?, ?)");
+      createStatement(ProfilerStatements.FIND_BYTES_BLOB,
+                      "SELECT 1 FROM Profiler_Bytes WHERE Id = ? AND Session = ? AND DataBlob IS NOT NULL");
+      createStatement(ProfilerStatements.GET_BYTES, "SELECT Data, DataBlob FROM Profiler_Bytes WHERE Id = ? AND Session = ?");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -263,7 +271,23 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
   }
 
   public void insertOrUpdateBytes(@NotNull String id, @NotNull Common.Session session, @NotNull BytesResponse response) {
-    execute(ProfilerStatements.INSERT_BYTES, id, session, response.toByteArray());
+    // Bytes may be sent again for the same id, which leaves the payload of the previous ones unreferenced.
+    boolean replacesBlob = false;
+    if (hasBlobStore()) {
+      try {
+        replacesBlob = executeQuery(ProfilerStatements.FIND_BYTES_BLOB, id, session).next();
+      }
+      catch (SQLException ex) {
+        onError(ex);
+      }
+    }
+    if (!putBlob(response.getSerializedSize(), response::writeTo,
+                 hash -> execute(ProfilerStatements.INSERT_BYTES_BLOB, id, session, hash))) {
+      execute(ProfilerStatements.INSERT_BYTES, id, session, response.toByteArray());
+    }
+    if (replacesBlob) {
+      markBlobsForSweep();
+    }
   }
 
   @Nullable
@@ -272,7 +296,10 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
       ResultSet results =
         executeQuery(ProfilerStatements.GET_BYTES, request.getId(), request.getSession());
       if (results.next()) {
-        return BytesResponse.parseFrom(results.getBytes(1));
+        ByteString data = readBlob(results, 1, 2);
+        if (data != null) {
+          return BytesResponse.parseFrom(data);
+        }
       }
     }
     catch (InvalidProtocolBufferException | SQLException ex) {
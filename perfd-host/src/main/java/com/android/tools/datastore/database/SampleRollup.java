@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsampled tiers of a series of samples. Each tier splits time into buckets of a fixed resolution and keeps, per bucket, the samples
+ * with the lowest and the highest value. Returning those two samples per bucket keeps the peaks and troughs of a zoomed out chart, while
+ * decoding a tiny fraction of the samples.
+ */
+public final class SampleRollup {
+  /**
+   * Bucket sizes of the tiers, from the finest to the coarsest.
+   */
+  public static final long[] RESOLUTIONS_NS = {TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(60)};
+
+  /**
+   * A tier is only used when the requested range spans at least this many of its buckets. Each bucket yields up to two samples, so this
+   * is at least one point per pixel across a timeline as wide as a 4K screen.
+   */
+  public static final int MIN_BUCKETS_PER_QUERY = 2048;
+
+  private SampleRollup() {
+  }
+
+  /**
+   * @return the coarsest resolution that still gives {@link #MIN_BUCKETS_PER_QUERY} buckets over {@code (startNs, endNs]}, or 0 if the
+   * raw samples should be used.
+   */
+  public static long selectResolution(long startNs, long endNs) {
+    long rangeNs = endNs - startNs;
+    for (int i = RESOLUTIONS_NS.length - 1; i >= 0; i--) {
+      if (rangeNs / RESOLUTIONS_NS[i] >= MIN_BUCKETS_PER_QUERY) {
+        return RESOLUTIONS_NS[i];
+      }
+    }
+    return 0;
+  }
+
+  public static long getBucketStart(long timestampNs, long resolutionNs) {
+    return Math.floorDiv(timestampNs, resolutionNs) * resolutionNs;
+  }
+
+  /**
+   * The samples kept for one bucket of one tier, each with the value it was ranked by and its serialized form.
+   */
+  public static final class Bucket {
+    private final long myStart;
+    private long myMinValue;
+    @Nullable private byte[] myMinData;
+    private long myMaxValue;
+    @Nullable private byte[] myMaxData;
+
+    public Bucket(long start) {
+      myStart = start;
+    }
+
+    public long getStart() {
+      return myStart;
+    }
+
+    public boolean isEmpty() {
+      return myMinData == null;
+    }
+
+    public void add(long value, @NotNull byte[] data) {
+      if (myMinData == null || value < myMinValue) {
+        myMinValue = value;
+        myMinData = data;
+      }
+      if (myMaxData == null || value > myMaxValue) {
+        myMaxValue = value;
+        myMaxData = data;
+      }
+    }
+
+    public long getMinValue() {
+      return myMinValue;
+    }
+
+    @Nullable
+    public byte[] getMinData() {
+      return myMinData;
+    }
+
+    public long getMaxValue() {
+      return myMaxValue;
+    }
+
+    @Nullable
+    public byte[] getMaxData() {
+      return myMaxData;
+    }
+  }
+}
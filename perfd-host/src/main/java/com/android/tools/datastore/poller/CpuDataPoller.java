@@ -22,8 +22,6 @@ import com.android.tools.profiler.proto.CpuServiceGrpc;
 import io.grpc.StatusRuntimeException;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-
 /**
  * This class gathers sets up a CPUProfilerService and forward all commands to the connected channel with the exception of getData.
  * The get data command will pull data locally cached from the connected service.
@@ -58,7 +56,6 @@ public class CpuDataPoller extends PollRunner {
     CpuProfiler.CpuDataResponse response = myPollingService.getData(request.build());
     for (CpuProfiler.CpuUsageData data : response.getDataList()) {
       getDataStartNs = Math.max(getDataStartNs, data.getEndTimestamp());
-      myCpuTable.insert(mySession, data);
     }
 
     long getThreadsStartNs = myDataRequestStartTimestampNs;
@@ -68,24 +65,36 @@ public class CpuDataPoller extends PollRunner {
       .setEndTimestamp(Long.MAX_VALUE);
     CpuProfiler.GetThreadsResponse threadsResponse = myPollingService.getThreads(threadsRequest.build());
 
-    if (myDataRequestStartTimestampNs == Long.MIN_VALUE) {
-      // Store the very first snapshot in the database.
-      CpuProfiler.GetThreadsResponse.ThreadSnapshot snapshot = threadsResponse.getInitialSnapshot();
-      getThreadsStartNs = Math.max(getThreadsStartNs, snapshot.getTimestamp());
-      myCpuTable.insertSnapshot(mySession, snapshot.getTimestamp(), snapshot.getThreadsList());
+    boolean isFirstPoll = myDataRequestStartTimestampNs == Long.MIN_VALUE;
+    if (isFirstPoll) {
+      getThreadsStartNs = Math.max(getThreadsStartNs, threadsResponse.getInitialSnapshot().getTimestamp());
     }
-
-    // Store all the thread activities in the database.
     for (CpuProfiler.GetThreadsResponse.Thread thread : threadsResponse.getThreadsList()) {
-      List<CpuProfiler.GetThreadsResponse.ThreadActivity> activities = thread.getActivitiesList();
       int count = thread.getActivitiesCount();
       if (count > 0) {
-        CpuProfiler.GetThreadsResponse.ThreadActivity last = activities.get(count - 1);
-        getThreadsStartNs = Math.max(getThreadsStartNs, last.getTimestamp());
+        getThreadsStartNs = Math.max(getThreadsStartNs, thread.getActivities(count - 1).getTimestamp());
       }
-
-      myCpuTable.insertActivities(mySession, thread.getTid(), thread.getName(), activities);
     }
+
+    // All writes from a single poll are applied as one unit so the transaction is never committed with a partial poll in it. They are
+    // handed over to the ingestion pipeline, the next request only depends on the timestamps computed above.
+    myCpuTable.submitWrite(() -> {
+      for (CpuProfiler.CpuUsageData data : response.getDataList()) {
+        myCpuTable.insert(mySession, data);
+      }
+
+      if (isFirstPoll) {
+        // Store the very first snapshot in the database.
+        CpuProfiler.GetThreadsResponse.ThreadSnapshot snapshot = threadsResponse.getInitialSnapshot();
+        myCpuTable.insertSnapshot(mySession, snapshot.getTimestamp(), snapshot.getThreadsList());
+      }
+
+      // Store all the thread activities in the database.
+      for (CpuProfiler.GetThreadsResponse.Thread thread : threadsResponse.getThreadsList()) {
+        myCpuTable.insertActivities(mySession, thread.getTid(), thread.getName(), thread.getActivitiesList());
+      }
+    });
+    setReceivedData(response.getDataCount() > 0 || threadsResponse.getThreadsCount() > 0);
     myDataRequestStartTimestampNs = Math.max(Math.max(myDataRequestStartTimestampNs + 1, getDataStartNs), getThreadsStartNs);
   }
 }
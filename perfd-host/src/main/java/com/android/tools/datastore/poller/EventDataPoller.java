@@ -51,27 +51,9 @@ public class EventDataPoller extends PollRunner {
     // Query for and cache activity data that has changed since our last polling.
     ActivityDataResponse activityResponse = myEventPollingService.getActivityData(dataRequestBuilder.build());
     for (ActivityData data : activityResponse.getDataList()) {
-      long id = data.getHash();
-      ActivityData cached_data = myEventsTable.findActivityDataOrNull(mySession, id);
-      if (cached_data != null) {
-        ActivityData.Builder builder = cached_data.toBuilder();
-        // Perfd may return states that we already have cached. This checks for that and only adds unique ones.
-        for (ActivityStateData state : data.getStateChangesList()) {
-          if (!cached_data.getStateChangesList().contains(state)) {
-            builder.addStateChanges(state);
-          }
-          if (state.getTimestamp() > myDataRequestStartTimestampNs) {
-            myDataRequestStartTimestampNs = state.getTimestamp();
-          }
-        }
-        myEventsTable.insertOrReplace(id, mySession, builder.build());
-      }
-      else {
-        myEventsTable.insertOrReplace(id, mySession, data);
-        for (ActivityStateData state : data.getStateChangesList()) {
-          if (state.getTimestamp() > myDataRequestStartTimestampNs) {
-            myDataRequestStartTimestampNs = state.getTimestamp();
-          }
+      for (ActivityStateData state : data.getStateChangesList()) {
+        if (state.getTimestamp() > myDataRequestStartTimestampNs) {
+          myDataRequestStartTimestampNs = state.getTimestamp();
         }
       }
     }
@@ -79,9 +61,32 @@ public class EventDataPoller extends PollRunner {
     // Poll for system event data. If we have a duplicate event then we replace it with the incomming one.
     // we replace the event as the event information may have changed, eg now it has an uptime where previously it didn't
     SystemDataResponse systemResponse = myEventPollingService.getSystemData(dataRequestBuilder.build());
-    for (SystemData data : systemResponse.getDataList()) {
-      long id = data.getEventId();
-      myEventsTable.insertOrReplace(id, mySession, data);
-    }
+    setReceivedData(activityResponse.getDataCount() > 0 || systemResponse.getDataCount() > 0);
+
+    // Both responses are written as a single unit so a commit never lands between them. The merge with the cached activities happens on
+    // the ingestion pipeline, after every previously submitted activity was written.
+    myEventsTable.submitWrite(() -> {
+      for (ActivityData data : activityResponse.getDataList()) {
+        long id = data.getHash();
+        ActivityData cached_data = myEventsTable.findActivityDataOrNull(mySession, id);
+        if (cached_data != null) {
+          ActivityData.Builder builder = cached_data.toBuilder();
+          // Perfd may return states that we already have cached. This checks for that and only adds unique ones.
+          for (ActivityStateData state : data.getStateChangesList()) {
+            if (!cached_data.getStateChangesList().contains(state)) {
+              builder.addStateChanges(state);
+            }
+          }
+          myEventsTable.insertOrReplace(id, mySession, builder.build());
+        }
+        else {
+          myEventsTable.insertOrReplace(id, mySession, data);
+        }
+      }
+      for (SystemData data : systemResponse.getDataList()) {
+        long id = data.getEventId();
+        myEventsTable.insertOrReplace(id, mySession, data);
+      }
+    });
   }
 }
@@ -51,6 +51,12 @@ public class MemoryDataPoller extends PollRunner {
 
   @Override
   public void stop() {
+    // The pending samples are updated by the units of previous polls, so they are only looked at once those units have been applied.
+    myMemoryStatsTable.submitWrite(this::closePendingSamples);
+    super.stop();
+  }
+
+  private void closePendingSamples() {
     if (myPendingHeapDumpSample != null) {
       myMemoryStatsTable.insertOrReplaceHeapInfo(
         mySession, myPendingHeapDumpSample.toBuilder().setEndTime(myPendingHeapDumpSample.getStartTime() + 1).build());
@@ -63,8 +69,6 @@ public class MemoryDataPoller extends PollRunner {
       myMemoryStatsTable.insertOrReplaceAllocationsInfo(mySession, myPendingAllocationSample.toBuilder()
         .setEndTime(myPendingAllocationSample.getStartTime() + 1).setStatus(AllocationsInfo.Status.FAILURE_UNKNOWN).build());
     }
-
-    super.stop();
   }
 
   @Override
@@ -75,13 +79,32 @@ public class MemoryDataPoller extends PollRunner {
       .setEndTime(Long.MAX_VALUE);
     MemoryData response = myPollingService.getData(dataRequestBuilder.build());
 
-    // TODO: A UI request may come in while mid way through the poll, this can cause us to have partial data
-    // returned to the UI. This can be solved using transactions in the DB when this class is moved fully over.
+    // All writes from a single poll are applied as one unit on the ingestion pipeline, so the transaction is never committed with a
+    // partial poll in it. The dumps are only fetched once that unit has written the infos their data is stored against.
+    myMemoryStatsTable.submitWrite(() -> {
+      List<AllocationsInfo> allocDumpsToFetch = new ArrayList<>();
+      List<HeapDumpInfo> heapDumpsToFetch = new ArrayList<>();
+      insertPollData(response, allocDumpsToFetch, heapDumpsToFetch);
+
+      // O+ allocation tracking fetches data continuously and does not go through the following code path - hence we filter out those
+      // samples.
+      fetchLegacyAllocData(allocDumpsToFetch.stream().filter(AllocationsInfo::getLegacy).collect(Collectors.toList()));
+      fetchHeapDumpData(heapDumpsToFetch);
+    });
+
+    setReceivedData(response.getEndTimestamp() > myDataRequestStartTimestampNs);
+    if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
+      myDataRequestStartTimestampNs = response.getEndTimestamp();
+    }
+  }
+
+  private void insertPollData(@NotNull MemoryData response,
+                              @NotNull List<AllocationsInfo> allocDumpsToFetch,
+                              @NotNull List<HeapDumpInfo> heapDumpsToFetch) {
     myMemoryStatsTable.insertMemory(mySession, response.getMemSamplesList());
     myMemoryStatsTable.insertAllocStats(mySession, response.getAllocStatsSamplesList());
     myMemoryStatsTable.insertGcStats(mySession, response.getGcStatsSamplesList());
 
-    List<AllocationsInfo> allocDumpsToFetch = new ArrayList<>();
     for (int i = 0; i < response.getAllocationsInfoCount(); i++) {
       if (myPendingAllocationSample != null) {
         assert i == 0;
@@ -110,7 +133,6 @@ public class MemoryDataPoller extends PollRunner {
       }
     }
 
-    List<HeapDumpInfo> heapDumpsToFetch = new ArrayList<>();
     for (int i = 0; i < response.getHeapDumpInfosCount(); i++) {
       if (myPendingHeapDumpSample != null) {
         assert i == 0;
@@ -137,14 +159,6 @@ public class MemoryDataPoller extends PollRunner {
         }
       }
     }
-
-    // O+ allocation tracking fetches data continuously and does not go through the following code path - hence we filter out those samples.
-    fetchLegacyAllocData(allocDumpsToFetch.stream().filter(AllocationsInfo::getLegacy).collect(Collectors.toList()));
-    fetchHeapDumpData(heapDumpsToFetch);
-
-    if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
-      myDataRequestStartTimestampNs = response.getEndTimestamp();
-    }
   }
 
   private void fetchLegacyAllocData(@NotNull List<AllocationsInfo> dumpsToFetch) {
@@ -171,8 +185,7 @@ public class MemoryDataPoller extends PollRunner {
         // Also save out raw dump
         DumpDataResponse allocDumpResponse = myPollingService.getLegacyAllocationDump(
           DumpDataRequest.newBuilder().setSession(mySession).setDumpTime(sample.getStartTime()).build());
-        myMemoryStatsTable
-          .updateLegacyAllocationDump(mySession, sample.getStartTime(), allocDumpResponse.getData().toByteArray());
+        myMemoryStatsTable.updateLegacyAllocationDump(mySession, sample.getStartTime(), allocDumpResponse.getData());
       }
 
       // Note: the class/stack information are saved first to the table to avoid the events referencing yet-to-exist data
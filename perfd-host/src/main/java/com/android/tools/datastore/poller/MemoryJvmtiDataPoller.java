@@ -46,15 +46,18 @@ public class MemoryJvmtiDataPoller extends PollRunner {
       .setEndTime(Long.MAX_VALUE);
     MemoryData response = myPollingService.getJvmtiData(dataRequestBuilder.build());
 
-    for (BatchAllocationSample sample : response.getAllocationSamplesList()) {
-      myLiveAllocationTable.insertMethodInfo(mySession, sample.getMethodsList());
-      myLiveAllocationTable.insertStackInfo(mySession, sample.getStacksList());
-      myLiveAllocationTable.insertThreadInfo(mySession, sample.getThreadInfosList());
-      myLiveAllocationTable.insertAllocationData(mySession, sample);
-    }
-    for (MemoryProfiler.BatchJNIGlobalRefEvent batchJniEvent : response.getJniReferenceEventBatchesList()) {
-      myLiveAllocationTable.insertJniReferenceData(mySession, batchJniEvent);
-    }
+    myLiveAllocationTable.submitWrite(() -> {
+      for (BatchAllocationSample sample : response.getAllocationSamplesList()) {
+        myLiveAllocationTable.insertMethodInfo(mySession, sample.getMethodsList());
+        myLiveAllocationTable.insertStackInfo(mySession, sample.getStacksList());
+        myLiveAllocationTable.insertThreadInfo(mySession, sample.getThreadInfosList());
+        myLiveAllocationTable.insertAllocationData(mySession, sample);
+      }
+      for (MemoryProfiler.BatchJNIGlobalRefEvent batchJniEvent : response.getJniReferenceEventBatchesList()) {
+        myLiveAllocationTable.insertJniReferenceData(mySession, batchJniEvent);
+      }
+    });
+    setReceivedData(response.getEndTimestamp() > myDataRequestStartTimestampNs);
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
@@ -50,10 +50,15 @@ public class NetworkDataPoller extends PollRunner {
       .setType(NetworkDataRequest.Type.ALL);
     NetworkDataResponse response = myPollingService.getData(dataRequestBuilder.build());
 
+    setReceivedData(response.getDataCount() > 0);
     for (NetworkProfilerData data : response.getDataList()) {
       myDataRequestStartTimestampNs = Math.max(myDataRequestStartTimestampNs, data.getEndTimestamp());
-      myNetworkTable.insert(mySession, data);
     }
+    myNetworkTable.submitWrite(() -> {
+      for (NetworkProfilerData data : response.getDataList()) {
+        myNetworkTable.insert(mySession, data);
+      }
+    });
     pollHttpRange();
   }
 
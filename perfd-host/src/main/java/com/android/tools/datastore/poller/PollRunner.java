@@ -16,6 +16,7 @@
 package com.android.tools.datastore.poller;
 
 import io.grpc.StatusRuntimeException;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RunnableFuture;
@@ -24,6 +25,8 @@ import java.util.concurrent.TimeUnit;
 /**
  * A {@link RunnableFuture} which, while running, triggers a callback at a specified period
  * (which can be used to poll a target service at some frequency).
+ *
+ * Running it takes a thread for its whole lifetime. To share threads between pollers, hand it to a {@link PollScheduler} instead.
  */
 public abstract class PollRunner implements RunnableFuture<Void> {
 
@@ -31,7 +34,23 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   private long myPollPeriodNs;
 
-  private boolean myIsRunning = false;
+  private volatile boolean myIsRunning = false;
+
+  /**
+   * Whether the last poll got any new data, see {@link #setReceivedData(boolean)}.
+   */
+  private volatile boolean myReceivedData = true;
+
+  /**
+   * Invoked when the runner is cancelled, so a {@link PollScheduler} can drop its pending poll.
+   */
+  private volatile Runnable myCancelListener;
+
+  /**
+   * The thread in the middle of {@link #poll()}, if any. A poll may stop its own runner, e.g. when it finds the device gone, and must not
+   * wait for itself to finish then.
+   */
+  private volatile Thread myPollingThread;
 
   private CountDownLatch myRunning = new CountDownLatch(1);
 
@@ -58,7 +77,7 @@ public abstract class PollRunner implements RunnableFuture<Void> {
       myIsRunning = true;
       while (myRunning.getCount() > 0) {
         long startTimeNs = System.nanoTime();
-        poll();
+        pollOnCurrentThread();
         long sleepTime = Math.max(myPollPeriodNs - (System.nanoTime() - startTimeNs), 0L);
         myRunning.await(sleepTime, TimeUnit.NANOSECONDS);
       }
@@ -73,9 +92,57 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   public abstract void poll();
 
+  void pollOnCurrentThread() {
+    myPollingThread = Thread.currentThread();
+    try {
+      poll();
+    }
+    finally {
+      myPollingThread = null;
+    }
+  }
+
+  public long getPollPeriodNs() {
+    return myPollPeriodNs;
+  }
+
+  /**
+   * Lets {@link #poll()} report whether the device returned anything new, so a {@link PollScheduler} can back off from idle devices.
+   * Pollers that never call it are polled at their regular period.
+   */
+  protected void setReceivedData(boolean receivedData) {
+    myReceivedData = receivedData;
+  }
+
+  boolean hasReceivedData() {
+    return myReceivedData;
+  }
+
+  /**
+   * Called by a {@link PollScheduler} before the first poll.
+   */
+  void onScheduled(@NotNull Runnable cancelListener) {
+    myIsRunning = true;
+    myCancelListener = cancelListener;
+    if (isCancelled()) {
+      cancelListener.run();
+    }
+  }
+
+  /**
+   * Called by a {@link PollScheduler} once it will not poll this runner anymore.
+   */
+  void onUnscheduled() {
+    myIsDone.countDown();
+  }
+
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
     myRunning.countDown();
+    Runnable cancelListener = myCancelListener;
+    if (cancelListener != null) {
+      cancelListener.run();
+    }
     return true;
   }
 
@@ -91,7 +158,7 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   @Override
   public Void get() throws InterruptedException {
-    if (myIsRunning) {
+    if (myIsRunning && myPollingThread != Thread.currentThread()) {
       myIsDone.await();
     }
     myIsRunning = !isDone();
@@ -100,7 +167,7 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   @Override
   public Void get(long timeout, TimeUnit unit) throws InterruptedException {
-    if (myIsRunning) {
+    if (myIsRunning && myPollingThread != Thread.currentThread()) {
       myIsDone.await(timeout, unit);
     }
     myIsRunning = !isDone();
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import com.intellij.openapi.diagnostic.Logger;
+import io.grpc.StatusRuntimeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls any number of {@link PollRunner}s from a small shared thread pool, instead of parking one thread per runner between polls.
+ *
+ * Each runner starts at a random offset within its period, so pollers started together do not hit the device at the same time. When a
+ * runner reports that its last poll got no new data (see {@link PollRunner#setReceivedData(boolean)}), its interval doubles, up to
+ * {@link #MAX_BACKOFF_FACTOR} times its period, and it goes back to its regular period as soon as data shows up again.
+ */
+public class PollScheduler {
+  public static final int DEFAULT_THREAD_COUNT = 4;
+  public static final int MAX_BACKOFF_FACTOR = 4;
+  private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+  private static Logger getLogger() {
+    return Logger.getInstance(PollScheduler.class);
+  }
+
+  @NotNull private final ScheduledExecutorService myExecutor;
+  private final AtomicLong myPollCount = new AtomicLong();
+  private final AtomicLong myTotalPollDurationNs = new AtomicLong();
+  private final AtomicLong myMaxPollDurationNs = new AtomicLong();
+  private final AtomicLong myOverrunCount = new AtomicLong();
+  private final Set<ScheduledRunner> myActiveRunners = ConcurrentHashMap.newKeySet();
+
+  public PollScheduler() {
+    this(DEFAULT_THREAD_COUNT);
+  }
+
+  public PollScheduler(int threadCount) {
+    AtomicInteger threadIndex = new AtomicInteger();
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threadCount, r -> {
+      Thread thread = new Thread(r, "DataStorePollScheduler-" + threadIndex.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Shutting down drops the pending polls, but lets the running ones finish.
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    myExecutor = executor;
+  }
+
+  /**
+   * Starts polling {@code runner} until it is cancelled, e.g. through {@link PollRunner#stop()}.
+   */
+  public void start(@NotNull PollRunner runner) {
+    new ScheduledRunner(runner).start();
+  }
+
+  /**
+   * Stops polling every runner. Runners that are in the middle of a poll finish it first, waiting up to {@link #SHUTDOWN_TIMEOUT_MS}
+   * for them, as they may still be writing to the databases.
+   */
+  public void shutdown() {
+    myExecutor.shutdown();
+    try {
+      if (!myExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        getLogger().warn("Polls still running " + SHUTDOWN_TIMEOUT_MS + "ms after shutdown");
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // Pending polls were dropped, release whoever waits on their runners. Runners still polling release them once done.
+    myActiveRunners.forEach(ScheduledRunner::cancel);
+  }
+
+  public int getActiveRunnerCount() {
+    return myActiveRunners.size();
+  }
+
+  public long getPollCount() {
+    return myPollCount.get();
+  }
+
+  public long getAveragePollDurationNs() {
+    long count = myPollCount.get();
+    return count == 0 ? 0 : myTotalPollDurationNs.get() / count;
+  }
+
+  public long getMaxPollDurationNs() {
+    return myMaxPollDurationNs.get();
+  }
+
+  /**
+   * @return how many polls took longer than their runner's period, i.e. how often a runner fell behind.
+   */
+  public long getOverrunCount() {
+    return myOverrunCount.get();
+  }
+
+  private void recordPoll(long durationNs, long periodNs) {
+    myPollCount.incrementAndGet();
+    myTotalPollDurationNs.addAndGet(durationNs);
+    myMaxPollDurationNs.accumulateAndGet(durationNs, Math::max);
+    if (durationNs > periodNs) {
+      myOverrunCount.incrementAndGet();
+    }
+  }
+
+  private final class ScheduledRunner implements Runnable {
+    @NotNull private final PollRunner myRunner;
+    // Guarded by this.
+    private ScheduledFuture<?> myNextPoll;
+    private boolean myIsPolling;
+    private boolean myIsFinished;
+    // Only accessed from the poll itself, which never runs concurrently with itself.
+    private int myIdleStreak;
+
+    ScheduledRunner(@NotNull PollRunner runner) {
+      myRunner = runner;
+    }
+
+    void start() {
+      myActiveRunners.add(this);
+      myRunner.onScheduled(this::cancel);
+      schedule(ThreadLocalRandom.current().nextLong(Math.max(1, myRunner.getPollPeriodNs())));
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (myIsFinished) {
+          return;
+        }
+        if (myRunner.isCancelled()) {
+          finish();
+          return;
+        }
+        myIsPolling = true;
+      }
+
+      long startNs = System.nanoTime();
+      boolean deviceGone = false;
+      try {
+        myRunner.pollOnCurrentThread();
+      }
+      catch (StatusRuntimeException e) {
+        // Same as PollRunner#run, the device went away.
+        deviceGone = true;
+      }
+      catch (RuntimeException e) {
+        getLogger().warn(e);
+      }
+      long durationNs = System.nanoTime() - startNs;
+      long periodNs = myRunner.getPollPeriodNs();
+      recordPoll(durationNs, periodNs);
+
+      myIdleStreak = myRunner.hasReceivedData() ? 0 : myIdleStreak + 1;
+      long intervalNs = periodNs * Math.min(MAX_BACKOFF_FACTOR, 1L << Math.min(myIdleStreak, 30));
+      synchronized (this) {
+        myIsPolling = false;
+        if (deviceGone) {
+          finish();
+        }
+        else {
+          schedule(Math.max(intervalNs - durationNs, 0L));
+        }
+      }
+    }
+
+    private synchronized void schedule(long delayNs) {
+      if (myIsFinished) {
+        return;
+      }
+      if (myRunner.isCancelled()) {
+        finish();
+        return;
+      }
+      try {
+        myNextPoll = myExecutor.schedule(this, delayNs, TimeUnit.NANOSECONDS);
+      }
+      catch (RejectedExecutionException e) {
+        // The scheduler was shut down.
+        finish();
+      }
+    }
+
+    /**
+     * Drops the pending poll. A poll that already started sees the cancellation when it reschedules, and finishes the runner then.
+     */
+    private synchronized void cancel() {
+      if (myIsPolling) {
+        return;
+      }
+      if (myNextPoll != null) {
+        myNextPoll.cancel(false);
+      }
+      finish();
+    }
+
+    private synchronized void finish() {
+      if (myIsFinished) {
+        return;
+      }
+      myIsFinished = true;
+      myActiveRunners.remove(this);
+      myRunner.onUnscheduled();
+    }
+  }
+}
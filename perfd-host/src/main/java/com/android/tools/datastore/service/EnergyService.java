@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.profiler.proto.EnergyProfiler.EnergyDataRequest;
@@ -23,7 +24,6 @@ import com.android.tools.profiler.proto.EnergyServiceGrpc;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.Connection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -85,7 +85,7 @@ public class EnergyService extends EnergyServiceGrpc.EnergyServiceImplBase imple
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase db) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
   }
 
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.DeviceId;
 import com.android.tools.datastore.ServicePassThrough;
@@ -27,7 +28,6 @@ import com.android.tools.profiler.proto.EventServiceGrpc;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.Connection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -147,8 +147,8 @@ public class EventService extends EventServiceGrpc.EventServiceImplBase implemen
   }
 
   @Override
-  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase db) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
-    myEventsTable.initialize(connection);
+    myEventsTable.initialize(db);
   }
 }
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.DataStoreService.BackingNamespace;
 import com.android.tools.datastore.DeviceId;
@@ -31,7 +32,6 @@ import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
 
-import java.sql.Connection;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -55,7 +55,12 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     myFetchExecutor = fetchExecutor;
     myService = dataStoreService;
     myStatsTable = new MemoryStatsTable();
-    myAllocationsTable = new MemoryLiveAllocationTable();
+    // Live allocations are only kept in memory, so their events can skip SQLite altogether. Pruning runs on the fetch executor, off
+    // the threads polling the device.
+    myAllocationsTable = new MemoryLiveAllocationTable(LIVE_ALLOCATION_NAMESPACE.myCharacteristic == PERFORMANT
+                                                       ? MemoryLiveAllocationTable.AllocationStorage.COLUMNAR
+                                                       : MemoryLiveAllocationTable.AllocationStorage.SQLITE,
+                                                       fetchExecutor);
   }
 
   @Override
@@ -125,9 +130,9 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     DumpDataResponse.Status status = myStatsTable.getHeapDumpStatus(request.getSession(), request.getDumpTime());
     switch (status) {
       case SUCCESS:
-        byte[] data = myStatsTable.getHeapDumpData(request.getSession(), request.getDumpTime());
+        ByteString data = myStatsTable.getHeapDumpData(request.getSession(), request.getDumpTime());
         assert data != null;
-        responseBuilder.setData(ByteString.copyFrom(data));
+        responseBuilder.setData(data);
         responseBuilder.setStatus(status);
         break;
       case NOT_READY:
@@ -192,13 +197,13 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     }
     else {
       if (response.getLegacy()) {
-        byte[] data = myStatsTable.getLegacyAllocationDumpData(request.getSession(), request.getDumpTime());
+        ByteString data = myStatsTable.getLegacyAllocationDumpData(request.getSession(), request.getDumpTime());
         if (data == null) {
           responseBuilder.setStatus(DumpDataResponse.Status.NOT_READY);
         }
         else {
           responseBuilder.setStatus(DumpDataResponse.Status.SUCCESS);
-          responseBuilder.setData(ByteString.copyFrom(data));
+          responseBuilder.setData(data);
         }
       }
       else {
@@ -320,13 +325,13 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
   }
 
   @Override
-  public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull Connection connection) {
+  public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull DataStoreDatabase db) {
     assert getBackingNamespaces().contains(namespace);
     if (namespace.equals(BackingNamespace.DEFAULT_SHARED_NAMESPACE)) {
-      myStatsTable.initialize(connection);
+      myStatsTable.initialize(db);
     }
     else {
-      myAllocationsTable.initialize(connection);
+      myAllocationsTable.initialize(db);
     }
   }
 }
\ No newline at end of file
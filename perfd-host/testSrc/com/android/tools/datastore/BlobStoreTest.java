@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class BlobStoreTest {
+  private File myDirectory;
+  private BlobStore myStore;
+
+  @Before
+  public void setUp() throws Exception {
+    myDirectory = FileUtil.createTempDirectory("BlobStoreTest", null);
+    myStore = new BlobStore(new File(myDirectory, "blobs"));
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myDirectory);
+  }
+
+  @Test
+  public void testPayloadCanBeReadBack() throws Exception {
+    ByteString data = ByteString.copyFromUtf8("payload");
+    String hash = myStore.put(data);
+    assertThat(myStore.contains(hash)).isTrue();
+    assertThat(myStore.read(hash)).isEqualTo(data);
+
+    try (InputStream input = myStore.openStream(hash)) {
+      assertThat(ByteString.readFrom(input)).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void testIdenticalPayloadsAreStoredOnce() throws Exception {
+    String hash = myStore.put(ByteString.copyFromUtf8("payload"));
+    assertThat(myStore.put(output -> output.write("payload".getBytes("UTF-8")))).isEqualTo(hash);
+    assertThat(myStore.put(ByteString.copyFromUtf8("other payload"))).isNotEqualTo(hash);
+    // Nothing but the two payloads is left in the directory.
+    assertThat(myStore.getDirectory().list()).hasLength(2);
+  }
+
+  @Test
+  public void testSweepDeletesUnreferencedPayloads() throws Exception {
+    Set<String> references = new HashSet<>();
+    myStore.addReferenceSource(hashes -> hashes.addAll(references));
+    String kept = myStore.put(output -> output.write("kept".getBytes("UTF-8")));
+    String replaced = myStore.put(output -> output.write("replaced".getBytes("UTF-8")));
+    references.add(kept);
+    references.add(replaced);
+
+    // Nothing is swept until a reference may have gone away.
+    references.remove(replaced);
+    assertThat(myStore.sweepIfNeeded()).isEqualTo(0);
+    assertThat(myStore.contains(replaced)).isTrue();
+
+    myStore.markForSweep();
+    assertThat(myStore.sweepIfNeeded()).isEqualTo(1);
+    assertThat(myStore.contains(replaced)).isFalse();
+    assertThat(myStore.read(kept)).isEqualTo(ByteString.copyFromUtf8("kept"));
+    assertThat(myStore.sweepIfNeeded()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStagedPayloadsAreNotSwept() throws Exception {
+    myStore.addReferenceSource(hashes -> {});
+    try (BlobStore.StagedBlob blob = myStore.stage(output -> output.write("staged".getBytes("UTF-8")))) {
+      assertThat(myStore.contains(blob.getHash())).isFalse();
+      myStore.markForSweep();
+      assertThat(myStore.sweepIfNeeded()).isEqualTo(0);
+
+      assertThat(myStore.publish(blob)).isEqualTo(blob.getHash());
+      assertThat(myStore.read(blob.getHash())).isEqualTo(ByteString.copyFromUtf8("staged"));
+    }
+    // Only the published payload is left once the staged blob is closed.
+    assertThat(myStore.getDirectory().list()).hasLength(1);
+
+    // A payload that is not published leaves nothing behind.
+    myStore.stage(output -> output.write("dropped".getBytes("UTF-8"))).close();
+    assertThat(myStore.getDirectory().list()).hasLength(1);
+  }
+
+  @Test
+  public void testFailedSweepIsRetried() throws Exception {
+    boolean[] fail = {true};
+    myStore.addReferenceSource(hashes -> {
+      if (fail[0]) {
+        throw new SQLException("Table is locked");
+      }
+    });
+    String hash = myStore.put(ByteString.copyFromUtf8("payload"));
+    myStore.markForSweep();
+    assertThat(myStore.sweepIfNeeded()).isEqualTo(0);
+    assertThat(myStore.contains(hash)).isTrue();
+
+    fail[0] = false;
+    assertThat(myStore.sweepIfNeeded()).isEqualTo(1);
+    assertThat(myStore.contains(hash)).isFalse();
+  }
+
+  @Test
+  public void testDeleteRemovesAllPayloads() throws Exception {
+    myStore.put(ByteString.copyFromUtf8("payload"));
+    BlobStore.delete(myStore.getDirectory());
+    assertThat(myStore.getDirectory().exists()).isFalse();
+  }
+}
@@ -20,6 +20,7 @@ import com.android.tools.datastore.database.ProfilerTable;
 import com.android.tools.datastore.service.*;
 import com.android.tools.profiler.proto.*;
 import com.android.tools.profiler.proto.Profiler.*;
+import com.intellij.openapi.util.io.FileUtil;
 import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.ServerServiceDefinition;
@@ -35,6 +36,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runners.model.MultipleFailureException;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -48,10 +50,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class DataStoreServiceTest extends DataStorePollerTest {
-  private static final String SERVICE_PATH = "/tmp/";
   private static final String SERVICE_NAME = "DataStoreServiceTest";
   private static final String SERVER_NAME = "TestServer";
   private static final VersionResponse EXPECTED_VERSION = VersionResponse.newBuilder().setVersion("TEST").build();
+  private File myServiceDirectory;
+  private String myServicePath;
   private DataStoreService myDataStore;
   private Server myService;
 
@@ -60,7 +63,10 @@ public class DataStoreServiceTest extends DataStorePollerTest {
 
   @Before
   public void setUp() throws Exception {
-    myDataStore = new DataStoreService(SERVICE_NAME, SERVICE_PATH, getPollTicker()::run);
+    // A directory per test, as the durable database of the previous test would otherwise be archived next to it.
+    myServiceDirectory = FileUtil.createTempDirectory(SERVICE_NAME, null);
+    myServicePath = myServiceDirectory.getAbsolutePath() + File.separator;
+    myDataStore = new DataStoreService(SERVICE_NAME, myServicePath, getPollTicker()::run);
     myService = InProcessServerBuilder.forName(SERVER_NAME)
       .addService(new FakeProfilerService().bindService())
       .addService(new EventServiceStub().bindService())
@@ -75,11 +81,12 @@ public class DataStoreServiceTest extends DataStorePollerTest {
   public void tearDown() {
     myService.shutdownNow();
     myDataStore.shutdown();
+    FileUtil.delete(myServiceDirectory);
   }
 
   @Test
   public void testServiceSetupWithExpectedName() {
-    ManagedChannel channel = InProcessChannelBuilder.forName(SERVICE_PATH).build();
+    ManagedChannel channel = InProcessChannelBuilder.forName(myServicePath).build();
     ProfilerServiceGrpc.newBlockingStub(channel);
   }
 
@@ -126,7 +133,7 @@ public class DataStoreServiceTest extends DataStorePollerTest {
 
   @Test
   public void testRegisterDb() {
-    FakeDataStoreService dataStoreService = new FakeDataStoreService("DataStoreServiceTestFake", SERVICE_PATH, getPollTicker()::run);
+    FakeDataStoreService dataStoreService = new FakeDataStoreService("DataStoreServiceTestFake", myServicePath, getPollTicker()::run);
     dataStoreService.assertCorrectness();
     dataStoreService.shutdown();
   }
@@ -135,7 +142,7 @@ public class DataStoreServiceTest extends DataStorePollerTest {
   public void testSQLFailureCallsbackToExceptionHandler() throws Exception {
     // Teardown datastore created in startup to unregister callbacks.
     myDataStore.shutdown();
-    FakeDataStoreService dataStoreService = new FakeDataStoreService("testSQLFailureCallsbackToExceptionHandler", SERVICE_PATH, getPollTicker()::run);
+    FakeDataStoreService dataStoreService = new FakeDataStoreService("testSQLFailureCallsbackToExceptionHandler", myServicePath, getPollTicker()::run);
 
     // Use an array making this object mutable by the lambda.
     final Throwable[] expectedException = new Throwable[1];
@@ -263,7 +270,8 @@ public class DataStoreServiceTest extends DataStorePollerTest {
     }
 
     @Override
-    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull Connection connection) {
+    public void setBackingStore(@NotNull BackingNamespace namespace, @NotNull DataStoreDatabase db) {
+      Connection connection = db.getConnection();
       assert myNamespaces.contains(namespace) && !myReceivedBackingStores.containsKey(namespace) && !myReceivedBackingStores
         .containsValue(connection);
       myReceivedBackingStores.put(namespace, connection);
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class GroupCommitWriterTest {
+  private File myDbFile;
+  private Connection myWriteConnection;
+  private Connection myReadConnection;
+
+  @Before
+  public void setUp() throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    myDbFile = File.createTempFile("GroupCommitWriterTest", "sql");
+    myWriteConnection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", myDbFile.getPath()));
+    myWriteConnection.setAutoCommit(false);
+    try (Statement statement = myWriteConnection.createStatement()) {
+      statement.execute("CREATE TABLE Test (Value INTEGER)");
+    }
+    myWriteConnection.commit();
+    myReadConnection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", myDbFile.getPath()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    myReadConnection.close();
+    myWriteConnection.close();
+    myDbFile.delete();
+  }
+
+  @Test
+  public void commitsWhenBatchSizeIsReached() throws Exception {
+    GroupCommitWriter writer = new GroupCommitWriter(myWriteConnection, 3, Long.MAX_VALUE / 2);
+    writer.write(() -> insert(1));
+    writer.write(() -> insert(2));
+    assertThat(writer.getPendingUnitCount()).isEqualTo(2);
+    assertThat(writer.getCommitCount()).isEqualTo(0);
+    assertThat(countCommittedRows()).isEqualTo(0);
+
+    writer.write(() -> insert(3));
+    assertThat(writer.getPendingUnitCount()).isEqualTo(0);
+    assertThat(writer.getCommitCount()).isEqualTo(1);
+    assertThat(countCommittedRows()).isEqualTo(3);
+    writer.shutdown();
+  }
+
+  @Test
+  public void commitsWhenDelayElapses() throws Exception {
+    GroupCommitWriter writer = new GroupCommitWriter(myWriteConnection, Integer.MAX_VALUE, 10);
+    writer.write(() -> insert(1));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (writer.getCommitCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(writer.getCommitCount()).isEqualTo(1);
+    assertThat(writer.getMaxCommitLatencyNs()).isAtLeast(writer.getLastCommitLatencyNs());
+    assertThat(countCommittedRows()).isEqualTo(1);
+    writer.shutdown();
+  }
+
+  @Test
+  public void shutdownCommitsPendingUnits() throws Exception {
+    GroupCommitWriter writer = new GroupCommitWriter(myWriteConnection, Integer.MAX_VALUE, Long.MAX_VALUE / 2);
+    writer.write(() -> insert(1));
+    writer.write(() -> insert(2));
+    assertThat(countCommittedRows()).isEqualTo(0);
+    writer.shutdown();
+    assertThat(countCommittedRows()).isEqualTo(2);
+  }
+
+  @Test
+  public void commitListenersSeeCommittedUnits() throws Exception {
+    GroupCommitWriter writer = new GroupCommitWriter(myWriteConnection, 2, Long.MAX_VALUE / 2);
+    List<Integer> committedRowCounts = new ArrayList<>();
+    writer.addCommitListener(() -> {
+      try {
+        committedRowCounts.add(countCommittedRows());
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.write(() -> insert(1));
+    assertThat(committedRowCounts).isEmpty();
+    writer.write(() -> insert(2));
+    assertThat(committedRowCounts).containsExactly(2);
+    writer.shutdown();
+    assertThat(committedRowCounts).containsExactly(2, 2).inOrder();
+  }
+
+  private void insert(int value) {
+    try (Statement statement = myWriteConnection.createStatement()) {
+      statement.execute("INSERT INTO Test (Value) VALUES (" + value + ")");
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int countCommittedRows() throws Exception {
+    try (Statement statement = myReadConnection.createStatement(); ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM Test")) {
+      return result.getInt(1);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class IngestionPipelineTest {
+  private IngestionPipeline myPipeline;
+
+  @After
+  public void tearDown() {
+    myPipeline.shutdown();
+  }
+
+  @Test
+  public void testUnitsAreAppliedInOrder() throws Exception {
+    myPipeline = new IngestionPipeline();
+    List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 100; i++) {
+      int value = i;
+      myPipeline.submit(() -> applied.add(value));
+    }
+    myPipeline.flush();
+
+    assertThat(applied).hasSize(100);
+    for (int i = 0; i < 100; i++) {
+      assertThat(applied.get(i)).isEqualTo(i);
+    }
+    assertThat(myPipeline.getQueueDepth()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSubmitBlocksWhenFull() throws Exception {
+    myPipeline = new IngestionPipeline(1);
+    CountDownLatch writerBlocked = new CountDownLatch(1);
+    CountDownLatch releaseWriter = new CountDownLatch(1);
+    myPipeline.submit(() -> {
+      writerBlocked.countDown();
+      try {
+        releaseWriter.await();
+      }
+      catch (InterruptedException ignored) {
+      }
+    });
+    writerBlocked.await();
+    // Fills the queue while the writer is busy.
+    myPipeline.submit(() -> {});
+
+    Thread producer = new Thread(() -> myPipeline.submit(() -> {}));
+    producer.start();
+    while (myPipeline.getBlockedSubmitCount() == 0) {
+      Thread.sleep(1);
+    }
+    assertThat(producer.isAlive()).isTrue();
+
+    releaseWriter.countDown();
+    producer.join();
+    myPipeline.flush();
+    assertThat(myPipeline.getAppliedCount()).isEqualTo(myPipeline.getSubmittedCount());
+  }
+
+  @Test
+  public void testShutdownAppliesPendingUnits() throws Exception {
+    myPipeline = new IngestionPipeline();
+    List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 10; i++) {
+      int value = i;
+      myPipeline.submit(() -> applied.add(value));
+    }
+    myPipeline.shutdown();
+    assertThat(applied).hasSize(10);
+
+    // Units submitted after shutdown run right away.
+    myPipeline.submit(() -> applied.add(10));
+    assertThat(applied).hasSize(11);
+  }
+}
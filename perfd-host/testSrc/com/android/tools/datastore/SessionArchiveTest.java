@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.datastore.database.MemoryStatsTable;
+import com.android.tools.datastore.database.ProfilerTable;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.Profiler.GetSessionsRequest;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SessionArchiveTest {
+  private static final Common.Session SESSION =
+    Common.Session.newBuilder().setSessionId(1).setDeviceId(2).setPid(3).setStartTimestamp(4).setEndTimestamp(5).build();
+  private static final byte[] VERSION_1_DUMP = new byte[]{1, 2, 3, 4};
+
+  private File myDirectory;
+  private File myDbFile;
+
+  @Before
+  public void setUp() throws Exception {
+    myDirectory = FileUtil.createTempDirectory("SessionArchiveTest", null);
+    myDbFile = new File(myDirectory, "default.sql");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myDirectory);
+  }
+
+  @Test
+  public void testPreviousRunIsArchivedAndCanBeReopened() throws Exception {
+    DataStoreDatabase database = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    ProfilerTable table = new ProfilerTable();
+    table.initialize(database);
+    table.insertOrUpdateSession(SESSION);
+    database.disconnect();
+
+    // The next run starts empty, the previous sessions move to the archive.
+    database = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    table = new ProfilerTable();
+    table.initialize(database);
+    assertThat(table.getSessions(GetSessionsRequest.getDefaultInstance()).getSessionsCount()).isEqualTo(0);
+    database.disconnect();
+
+    List<SessionArchive> archives = SessionArchive.list(myDbFile);
+    assertThat(archives).hasSize(1);
+    assertThat(archives.get(0).getSessions()).containsExactly(SESSION);
+
+    DataStoreDatabase archived = archives.get(0).open();
+    assertThat(archived.isReadOnly()).isTrue();
+    ProfilerTable archivedTable = new ProfilerTable();
+    archivedTable.initialize(archived);
+    assertThat(archivedTable.getSessions(GetSessionsRequest.getDefaultInstance()).getSessionsList()).containsExactly(SESSION);
+    archived.disconnect();
+
+    File exported = new File(myDirectory, "exported.sql");
+    archives.get(0).exportTo(exported);
+    DataStoreDatabase exportedDatabase = DataStoreDatabase.openReadOnly(exported);
+    assertThat(DataStoreSchema.readVersion(exportedDatabase.getConnection())).isEqualTo(DataStoreSchema.CURRENT_VERSION);
+    exportedDatabase.disconnect();
+  }
+
+  @Test
+  public void testVersion1FileIsUpgradedAndCanBeReopened() throws Exception {
+    createVersion1File(myDbFile);
+
+    DataStoreDatabase database = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    database.disconnect();
+
+    List<SessionArchive> archives = SessionArchive.list(myDbFile);
+    assertThat(archives).hasSize(1);
+    assertThat(archives.get(0).getSessions()).containsExactly(SESSION);
+    assertVersion1DumpCanBeRead(archives.get(0));
+  }
+
+  @Test
+  public void testArchiveFromAnOlderVersionIsUpgradedWhenListed() throws Exception {
+    // An archive moved aside by a run that used the first versioned schema.
+    File archiveDirectory = SessionArchive.getArchiveDirectory(myDbFile);
+    assertThat(archiveDirectory.mkdirs()).isTrue();
+    createVersion1File(new File(archiveDirectory, "default-1.sql"));
+
+    List<SessionArchive> archives = SessionArchive.list(myDbFile);
+    assertThat(archives).hasSize(1);
+    assertThat(archives.get(0).getSessions()).containsExactly(SESSION);
+    assertVersion1DumpCanBeRead(archives.get(0));
+  }
+
+  @Test
+  public void testUnversionedFileIsDeleted() throws Exception {
+    // A file from before the schema version table.
+    Class.forName("org.sqlite.JDBC");
+    try (Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", myDbFile.getPath()))) {
+      connection.createStatement().execute("CREATE TABLE Profiler_Sessions (SessionId INTEGER)");
+    }
+    assertThat(myDbFile.exists()).isTrue();
+
+    DataStoreDatabase database = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    database.disconnect();
+    assertThat(SessionArchive.list(myDbFile)).isEmpty();
+  }
+
+  /**
+   * Writes the default namespace as the first versioned schema had it, which has none of the live allocation tables, with a session
+   * and an inline heap dump of {@link #VERSION_1_DUMP}.
+   */
+  private static void createVersion1File(@NotNull File file) throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    try (Connection connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", file.getPath()))) {
+      Statement statement = connection.createStatement();
+      statement.execute("CREATE TABLE Schema_Version (Version INTEGER NOT NULL)");
+      statement.execute("INSERT INTO Schema_Version (Version) VALUES (1)");
+      statement.execute("CREATE TABLE Profiler_Bytes (Id STRING NOT NULL, Session INTEGER, Data BLOB)");
+      statement.execute("CREATE TABLE Profiler_Sessions (SessionId INTEGER, DeviceId INTEGER, ProcessId INTEGER, StartTime INTEGER, " +
+                        "EndTime INTEGER)");
+      statement.execute("CREATE TABLE Cpu_Trace (Session INTEGER NOT NULL, TraceId INTEGER NOT NULL, ProfilerType TEXT, Data BLOB)");
+      statement.execute("CREATE TABLE Memory_Samples (Session INTEGER NOT NULL, Timestamp INTEGER, Type INTEGER, Data BLOB, " +
+                        "PRIMARY KEY(Session, Timestamp, Type))");
+      statement.execute("CREATE TABLE Memory_AllocationInfo (Session INTEGER NOT NULL, StartTime INTEGER, EndTime INTEGER, " +
+                        "InfoData BLOB, LegacyEventsData BLOB, LegacyDumpData BLOB, PRIMARY KEY(Session, StartTime))");
+      statement.execute("CREATE TABLE Memory_LegacyAllocationStack (Session INTEGER NOT NULL, Id INTEGER, Data BLOB, " +
+                        "PRIMARY KEY(Session, Id))");
+      statement.execute("CREATE TABLE Memory_LegacyAllocatedClass (Session INTEGER NOT NULL, Id INTEGER, Data BLOB, " +
+                        "PRIMARY KEY(Session, Id))");
+      statement.execute("CREATE TABLE Memory_HeapDump (Session INTEGER NOT NULL, StartTime INTEGER, EndTime INTEGER, Status INTEGER, " +
+                        "InfoData BLOB, DumpData BLOB, PRIMARY KEY(Session, StartTime))");
+      statement.execute("INSERT INTO Profiler_Sessions VALUES (1, 2, 3, 4, 5)");
+      PreparedStatement insertDump = connection.prepareStatement("INSERT INTO Memory_HeapDump VALUES (1, 10, 20, 0, NULL, ?)");
+      insertDump.setBytes(1, VERSION_1_DUMP);
+      insertDump.execute();
+    }
+  }
+
+  /**
+   * Checks that the dump kept inline by {@link #createVersion1File(File)} is read through the upgraded tables.
+   */
+  private static void assertVersion1DumpCanBeRead(@NotNull SessionArchive archive) throws Exception {
+    DataStoreDatabase archived = archive.open();
+    assertThat(DataStoreSchema.readVersion(archived.getConnection())).isEqualTo(DataStoreSchema.CURRENT_VERSION);
+    MemoryStatsTable memoryTable = new MemoryStatsTable();
+    memoryTable.initialize(archived);
+    ByteString data = memoryTable.getHeapDumpData(SESSION, 10);
+    assertThat(data).isNotNull();
+    assertThat(data.toByteArray()).isEqualTo(VERSION_1_DUMP);
+    archived.disconnect();
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore;
 
+import com.intellij.openapi.util.io.FileUtil;
 import io.grpc.*;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
@@ -40,7 +41,7 @@ public final class TestGrpcService<S extends BindableService> extends ExternalRe
   private final BindableService mySecondaryService;
   private Server myServer;
   private ServicePassThrough myDataStoreService;
-  private File myTestFile;
+  private File myTestDirectory;
   private DataStoreDatabase myDatabase;
   private TestGrpcFile myRpcFile;
   private TestName myMethodName;
@@ -73,18 +74,19 @@ public final class TestGrpcService<S extends BindableService> extends ExternalRe
     }
     myServer = builder.build();
     myServer.start();
-    // TODO: Update to work on windows. PathUtil.getTempPath() fails with bazel
-    myTestFile = new File("/tmp/datastoredb");
-    myDatabase = new DataStoreDatabase(myTestFile.getAbsolutePath(), DataStoreDatabase.Characteristic.DURABLE);
+    // A directory per test, as the database of the previous test would otherwise be archived next to it, see SessionArchive.
+    myTestDirectory = FileUtil.createTempDirectory(myTestClassName, null);
+    myDatabase = new DataStoreDatabase(new File(myTestDirectory, "datastoredb").getAbsolutePath(),
+                                       DataStoreDatabase.Characteristic.DURABLE);
     myDataStoreService.getBackingNamespaces()
-      .forEach(namespace -> myDataStoreService.setBackingStore(namespace, myDatabase.getConnection()));
+      .forEach(namespace -> myDataStoreService.setBackingStore(namespace, myDatabase));
   }
 
   @Override
   protected void after() {
     myServer.shutdownNow();
     myDatabase.disconnect();
-    myTestFile.delete();
+    FileUtil.delete(myTestDirectory);
     try {
       // Validate the gRPC call execution order in its entirety makes it easier to view diffs.
       myRpcFile.closeAndValidate();
@@ -25,7 +25,10 @@ import java.io.File;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertFalse;
@@ -72,6 +75,63 @@ public class DatabaseTableTest {
     assertThat(resultSet).isInstanceOf(EmptyResultSet.class);
   }
 
+  @Test
+  public void testExecuteBatchSpanningMultipleBatches() throws Exception {
+    int rowCount = DataStoreTable.MAX_BATCH_SIZE * 2 + 1;
+    List<Integer> rows = new ArrayList<>();
+    for (int i = 0; i < rowCount; i++) {
+      rows.add(i);
+    }
+    myTable.insertDataBatch(rows);
+
+    ResultSet resultSet = myTable.readDataRaw();
+    int count = 0;
+    while (resultSet.next()) {
+      assertThat(resultSet.getInt(1)).isEqualTo(count++);
+    }
+    assertThat(count).isEqualTo(rowCount);
+  }
+
+  @Test
+  public void testQueryDoesNotSeeHalfWrittenUnit() throws Exception {
+    ThreadTestTable table = new ThreadTestTable();
+    table.initialize(myDatabase);
+    CountDownLatch firstRowWritten = new CountDownLatch(1);
+    CountDownLatch finishUnit = new CountDownLatch(1);
+    Thread writer = new Thread(() -> table.runInTransaction(() -> {
+      table.insertData(1);
+      firstRowWritten.countDown();
+      try {
+        finishUnit.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      table.insertData(2);
+    }));
+    writer.start();
+    firstRowWritten.await();
+
+    AtomicReference<List<Integer>> rows = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      try {
+        rows.set(readData(table.readDataRaw()));
+      }
+      catch (SQLException e) {
+        rows.set(null);
+      }
+    });
+    reader.start();
+    reader.join(50);
+    // The query waits for the unit to be over, instead of seeing its first row only.
+    assertThat(reader.isAlive()).isTrue();
+
+    finishUnit.countDown();
+    writer.join();
+    reader.join();
+    assertThat(rows.get()).containsExactly(1, 2).inOrder();
+  }
+
   @Test
   public void testThreadMultiThreadExecute() throws Exception {
     // Insert some fake data
@@ -105,6 +165,15 @@ public class DatabaseTableTest {
     }
   }
 
+  @NotNull
+  private static List<Integer> readData(@NotNull ResultSet resultSet) throws SQLException {
+    List<Integer> data = new ArrayList<>();
+    while (resultSet.next()) {
+      data.add(resultSet.getInt(1));
+    }
+    return data;
+  }
+
   /**
    * Runnable class that handles querying the database as fast as possible.
    */
@@ -183,6 +252,10 @@ public class DatabaseTableTest {
       }
     }
 
+    public void insertDataBatch(@NotNull List<Integer> someData) {
+      executeBatch(ThreadTableStatement.INSERT_DATA, someData, (statement, data) -> statement.setLong(1, data));
+    }
+
     public ResultSet readDataRaw() throws SQLException {
       return executeQuery(ThreadTableStatement.READ_DATA);
     }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongLongHashMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LifetimeIndexTest {
+  @Test
+  public void testAliveAt() {
+    LifetimeIndex index = new LifetimeIndex();
+    // Object i lives in [i, i + 10), except every fifth object which is never freed.
+    int count = LifetimeIndex.BLOCK_SIZE * 3;
+    for (int i = 0; i < count; i++) {
+      index.add(i, i);
+      if (i >= 10 && (i - 10) % 5 != 0) {
+        assertThat(index.free(i - 10, i)).isTrue();
+      }
+    }
+
+    TLongArrayList alive = aliveAt(index, 100);
+    // The objects in 91..99 that get freed are still inside their lifetime, plus the never freed 0, 5, ..., 95.
+    assertThat(alive.size()).isEqualTo(8 + 20);
+    assertThat(alive.contains(95)).isTrue();
+    assertThat(alive.contains(90)).isTrue();
+    assertThat(alive.contains(89)).isFalse();
+    assertThat(alive.contains(100)).isFalse();
+  }
+
+  @Test
+  public void testFreedInAndRemoveOldest() {
+    LifetimeIndex index = new LifetimeIndex();
+    for (int i = 0; i < 10; i++) {
+      index.add(i, i);
+    }
+    for (int i = 0; i < 10; i++) {
+      index.free(i, 20 + i);
+    }
+    assertThat(index.free(3, 100)).isFalse();
+
+    TLongArrayList freed = new TLongArrayList();
+    index.forEachFreedIn(22, 25, key -> {
+      freed.add(key);
+      return true;
+    });
+    assertThat(freed.toNativeArray()).isEqualTo(new long[]{2, 3, 4});
+
+    TLongArrayList removed = new TLongArrayList();
+    assertThat(index.removeOldestFreed(3, key -> {
+      removed.add(key);
+      return true;
+    })).isEqualTo(3);
+    assertThat(removed.toNativeArray()).isEqualTo(new long[]{0, 1, 2});
+    assertThat(index.getFreedCount()).isEqualTo(7);
+    // The removed objects 0..2 no longer show up.
+    assertThat(aliveAt(index, 21).size()).isEqualTo(7);
+    assertThat(aliveAt(index, 23).size()).isEqualTo(6);
+  }
+
+  @Test
+  public void testQueriesMatchLifetimesAcrossBlocks() {
+    LifetimeIndex index = new LifetimeIndex();
+    // Alloc and free time of every object, with Long.MAX_VALUE for the live ones.
+    Map<Long, long[]> lifetimes = new HashMap<>();
+    Random random = new Random(0);
+    long time = 0;
+    long nextKey = 0;
+    // Each phase fills a few live blocks, then frees most of their objects in random order, which leaves the blocks sparse so they
+    // get merged. The survivors outlive the freed blocks of all the later phases.
+    for (int phase = 0; phase < 4; phase++) {
+      List<Long> phaseKeys = new ArrayList<>();
+      for (int i = 0; i < LifetimeIndex.BLOCK_SIZE * 3; i++) {
+        time += 1 + random.nextInt(3);
+        index.add(nextKey, time);
+        lifetimes.put(nextKey, new long[]{time, Long.MAX_VALUE});
+        phaseKeys.add(nextKey++);
+      }
+      Collections.shuffle(phaseKeys, random);
+      for (long key : phaseKeys.subList(0, phaseKeys.size() * 6 / 7)) {
+        time += 1 + random.nextInt(3);
+        assertThat(index.free(key, time)).isTrue();
+        lifetimes.get(key)[1] = time;
+      }
+    }
+    assertThat(index.getLiveCount()).isEqualTo((int)lifetimes.values().stream().filter(lifetime -> lifetime[1] == Long.MAX_VALUE).count());
+
+    // Renaming objects keeps their lifetimes, including when a new key is the old key of another object.
+    TLongLongHashMap newKeys = new TLongLongHashMap();
+    newKeys.put(0, 1);
+    newKeys.put(1, 0);
+    newKeys.put(LifetimeIndex.BLOCK_SIZE * 4, -1);
+    long[] first = lifetimes.get(0L);
+    lifetimes.put(0L, lifetimes.get(1L));
+    lifetimes.put(1L, first);
+    lifetimes.put(-1L, lifetimes.remove((long)LifetimeIndex.BLOCK_SIZE * 4));
+    index.remapKeys(newKeys);
+
+    for (long queryTime = 0; queryTime <= time + 1; queryTime += 97) {
+      long at = queryTime;
+      Set<Long> expected = lifetimes.entrySet().stream()
+        .filter(entry -> entry.getValue()[0] < at && entry.getValue()[1] > at)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toSet());
+      assertThat(toSet(aliveAt(index, at))).isEqualTo(expected);
+    }
+
+    TLongArrayList freed = new TLongArrayList();
+    index.forEachFreedIn(1000, 2000, key -> {
+      freed.add(key);
+      return true;
+    });
+    Set<Long> expectedFreed = lifetimes.entrySet().stream()
+      .filter(entry -> entry.getValue()[1] >= 1000 && entry.getValue()[1] < 2000)
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toSet());
+    assertThat(toSet(freed)).isEqualTo(expectedFreed);
+  }
+
+  private static Set<Long> toSet(TLongArrayList keys) {
+    return LongStream.of(keys.toNativeArray()).boxed().collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private static TLongArrayList aliveAt(LifetimeIndex index, long time) {
+    TLongArrayList result = new TLongArrayList();
+    index.forEachAliveAt(time, key -> {
+      result.add(key);
+      return true;
+    });
+    return result;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import com.android.tools.profiler.proto.MemoryProfiler.AllocationEvent;
+import com.android.tools.profiler.proto.MemoryProfiler.BatchAllocationSample;
+import org.junit.Test;
+
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LiveAllocationColumnStoreTest {
+  @Test
+  public void testQueriesAcrossChunks() {
+    LiveAllocationColumnStore store = new LiveAllocationColumnStore();
+    int count = LiveAllocationColumnStore.CHUNK_SIZE + 10;
+    for (int i = 0; i < count; i++) {
+      store.allocate(i, AllocationEvent.Allocation.newBuilder().setTag(i).setClassTag(1).setSize(8).build());
+    }
+    // Free every other allocation, after the last allocation.
+    for (int i = 0; i < count; i += 2) {
+      store.free(count + 1 + i, i);
+    }
+
+    assertThat(store.getRowCount()).isEqualTo(count);
+    assertThat(store.getLiveCount()).isEqualTo(count / 2);
+    assertThat(store.getLatestDataTimestamp()).isEqualTo(count + 1 + count - 2);
+
+    // Before any free, everything allocated so far is alive.
+    assertThat(store.getSnapshot(count).getEventsCount()).isEqualTo(count);
+    // After all the frees, only odd tags remain.
+    BatchAllocationSample snapshot = store.getSnapshot(Long.MAX_VALUE - 1);
+    assertThat(snapshot.getEventsCount()).isEqualTo(count / 2);
+    for (AllocationEvent event : snapshot.getEventsList()) {
+      assertThat(event.getAllocData().getTag() % 2).isEqualTo(1);
+    }
+
+    // Allocations in the second chunk, then the frees in the same window.
+    BatchAllocationSample delta = store.getAllocations(LiveAllocationColumnStore.CHUNK_SIZE, count + 4);
+    assertThat(delta.getEventsCount()).isEqualTo(10 + 2);
+    assertThat(delta.getEvents(10).getFreeData().getTag()).isEqualTo(0);
+    assertThat(delta.getEvents(11).getFreeData().getTag()).isEqualTo(2);
+  }
+
+  @Test
+  public void testPruneKeepsLiveAllocationsFreeable() {
+    LiveAllocationColumnStore store = new LiveAllocationColumnStore();
+    for (int i = 0; i < 10; i++) {
+      store.allocate(i, AllocationEvent.Allocation.newBuilder().setTag(i).build());
+    }
+    store.free(20, 0);
+    store.free(21, 1);
+    store.free(22, 5);
+
+    assertThat(store.prune(2)).isEqualTo(2);
+    assertThat(store.getRowCount()).isEqualTo(8);
+
+    // Tag 9 is still found by its tag after pruning.
+    store.free(23, 9);
+    BatchAllocationSample delta = store.getAllocations(23, 24);
+    assertThat(delta.getEventsCount()).isEqualTo(1);
+    assertThat(delta.getEvents(0).getFreeData().getTag()).isEqualTo(9);
+    assertThat(store.getSnapshot(30).getEventsCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void testPruneFreesChunksAroundLongLivedAllocations() {
+    LiveAllocationColumnStore store = new LiveAllocationColumnStore();
+    int chunkSize = LiveAllocationColumnStore.CHUNK_SIZE;
+    int count = chunkSize * 3 + 1;
+    int longLivedTag = chunkSize + 5;
+    long freeTimeBase = chunkSize * 4;
+    for (int i = 0; i < count; i++) {
+      store.allocate(i, AllocationEvent.Allocation.newBuilder().setTag(i).build());
+    }
+    // Everything is freed, except tag 0 which never dies and a long-lived allocation in the second chunk.
+    for (int i = 1; i < count; i++) {
+      if (i != longLivedTag) {
+        store.free(freeTimeBase + i, i);
+      }
+    }
+    assertThat(store.getChunkCount()).isEqualTo(4);
+
+    // Keep the last three frees, which span the third and the last chunk.
+    assertThat(store.prune(count, freeTimeBase + count - 3)).isEqualTo(count - 5);
+    assertThat(store.getRowCount()).isEqualTo(5);
+    // The rows left in the first three chunks are merged into one, next to the tail chunk.
+    assertThat(store.getChunkCount()).isEqualTo(2);
+
+    BatchAllocationSample snapshot = store.getSnapshot(Long.MAX_VALUE - 1);
+    assertThat(snapshot.getEventsList().stream().map(event -> event.getAllocData().getTag()).collect(Collectors.toList()))
+      .containsExactly(0, longLivedTag);
+
+    BatchAllocationSample frees = store.getAllocations(freeTimeBase + count - 3, Long.MAX_VALUE);
+    assertThat(frees.getEventsCount()).isEqualTo(3);
+    for (int i = 0; i < 3; i++) {
+      assertThat(frees.getEvents(i).getFreeData().getTag()).isEqualTo(count - 3 + i);
+    }
+
+    // The moved long-lived allocation can still be freed and pruned.
+    store.free(freeTimeBase + count, longLivedTag);
+    assertThat(store.getSnapshot(Long.MAX_VALUE - 1).getEventsCount()).isEqualTo(1);
+    assertThat(store.prune(count)).isEqualTo(4);
+    assertThat(store.getRowCount()).isEqualTo(1);
+    assertThat(store.getLiveCount()).isEqualTo(1);
+  }
+}
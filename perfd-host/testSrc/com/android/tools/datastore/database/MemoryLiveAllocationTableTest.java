@@ -21,17 +21,23 @@ import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack.StackFrame;
 import com.google.common.truth.Truth;
 import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
+@RunWith(Parameterized.class)
 public class MemoryLiveAllocationTableTest {
   private static final Common.Session VALID_SESSION = Common.Session.newBuilder().setSessionId(1L).setDeviceId(1234).setPid(1).build();
+  private static final int CLASS_TAG = 1000;
   private static final Common.Session INVALID_SESSION = Common.Session.newBuilder().setSessionId(-1L).setDeviceId(4321).setPid(-1).build();
 
   // Live allocation test data
@@ -82,15 +88,25 @@ public class MemoryLiveAllocationTableTest {
   private final long JNI_REF_VALUE2 = 2002;
   private final long JNI_REF_VALUE3 = 2003;
 
+  @NotNull private final MemoryLiveAllocationTable.AllocationStorage myAllocationStorage;
   private File myDbFile;
   private MemoryLiveAllocationTable myAllocationTable;
   private DataStoreDatabase myDatabase;
 
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<MemoryLiveAllocationTable.AllocationStorage> data() {
+    return Arrays.asList(MemoryLiveAllocationTable.AllocationStorage.values());
+  }
+
+  public MemoryLiveAllocationTableTest(@NotNull MemoryLiveAllocationTable.AllocationStorage allocationStorage) {
+    myAllocationStorage = allocationStorage;
+  }
+
   @Before
   public void setUp() throws Exception {
     myDbFile = FileUtil.createTempFile("MemoryStatsTable", "mysql");
     myDatabase = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.PERFORMANT);
-    myAllocationTable = new MemoryLiveAllocationTable();
+    myAllocationTable = new MemoryLiveAllocationTable(myAllocationStorage);
     myAllocationTable.initialize(myDatabase.getConnection());
   }
 
@@ -561,6 +577,112 @@ public class MemoryLiveAllocationTableTest {
     Truth.assertThat(querySample.getEvents(1)).isEqualTo(alloc4);
   }
 
+  @Test
+  public void testPruningBySize() throws Exception {
+    myAllocationTable.setRetentionPolicy(VALID_SESSION, new AllocationRetentionPolicy(Integer.MAX_VALUE, 100, Long.MAX_VALUE));
+
+    AllocationEvent alloc1 = createAllocation(KLASS1_INSTANCE1_TAG, 40, 0);
+    AllocationEvent alloc2 = createAllocation(KLASS1_INSTANCE2_TAG, 40, 1);
+    AllocationEvent alloc3 = createAllocation(KLASS2_INSTANCE1_TAG, 40, 2);
+    myAllocationTable.insertAllocationData(
+      VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(alloc1).addEvents(alloc2).addEvents(alloc3).build());
+
+    // Over the limit, but there is nothing freed to prune yet.
+    Truth.assertThat(myAllocationTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE).getEventsCount()).isEqualTo(3);
+
+    myAllocationTable.insertAllocationData(
+      VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(createFree(KLASS1_INSTANCE2_TAG, 3)).build());
+    BatchAllocationSample querySample = myAllocationTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+    Truth.assertThat(querySample.getEventsCount()).isEqualTo(2);
+    Truth.assertThat(querySample.getEvents(0)).isEqualTo(alloc1);
+    Truth.assertThat(querySample.getEvents(1)).isEqualTo(alloc3);
+  }
+
+  @Test
+  public void testPruningByTimeWindow() throws Exception {
+    myAllocationTable.setRetentionPolicy(VALID_SESSION, new AllocationRetentionPolicy(Integer.MAX_VALUE, Long.MAX_VALUE, 10));
+
+    AllocationEvent alloc1 = createAllocation(KLASS1_INSTANCE1_TAG, 8, 0);
+    AllocationEvent alloc2 = createAllocation(KLASS1_INSTANCE2_TAG, 8, 1);
+    AllocationEvent free1 = createFree(KLASS1_INSTANCE1_TAG, 5);
+    myAllocationTable.insertAllocationData(
+      VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(alloc1).addEvents(alloc2).addEvents(free1).build());
+
+    // Moves the latest data to t = 20, so everything freed before t = 10 falls out of the window.
+    AllocationEvent free2 = createFree(KLASS1_INSTANCE2_TAG, 20);
+    myAllocationTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(free2).build());
+    BatchAllocationSample querySample = myAllocationTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE);
+    Truth.assertThat(querySample.getEventsCount()).isEqualTo(2);
+    Truth.assertThat(querySample.getEvents(0)).isEqualTo(alloc2);
+    Truth.assertThat(querySample.getEvents(1).getFreeData().getTag()).isEqualTo(KLASS1_INSTANCE2_TAG);
+  }
+
+  @Test
+  public void testPruningRunsOnPruneExecutor() throws Exception {
+    List<Runnable> pendingPrunes = new ArrayList<>();
+    myAllocationTable = new MemoryLiveAllocationTable(myAllocationStorage, pendingPrunes::add);
+    myDatabase.disconnect();
+    myDatabase = new DataStoreDatabase(myDbFile.getAbsolutePath(), DataStoreDatabase.Characteristic.PERFORMANT);
+    myAllocationTable.initialize(myDatabase.getConnection());
+    myAllocationTable.setAllocationCountLimit(1);
+
+    myAllocationTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(KLASS1_INSTANCE1_TAG, 8, 0))
+      .addEvents(createAllocation(KLASS1_INSTANCE2_TAG, 8, 1))
+      .addEvents(createFree(KLASS1_INSTANCE1_TAG, 2)).build());
+    myAllocationTable.insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(KLASS2_INSTANCE1_TAG, 8, 3)).build());
+
+    // Nothing is pruned until the executor gets to it, and a session is never queued twice.
+    Truth.assertThat(pendingPrunes).hasSize(1);
+    Truth.assertThat(myAllocationTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE).getEventsCount()).isEqualTo(4);
+
+    pendingPrunes.remove(0).run();
+    Truth.assertThat(myAllocationTable.getAllocations(VALID_SESSION, 0, Long.MAX_VALUE).getEventsCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSnapshotIncludesAllocationsOfAllLifetimes() throws Exception {
+    // Tag i is allocated at t = 1000 + i and freed 4^i later, from a few ns to far beyond the session, while tag 40 is never freed.
+    BatchAllocationSample.Builder allocations = BatchAllocationSample.newBuilder();
+    BatchAllocationSample.Builder frees = BatchAllocationSample.newBuilder();
+    for (int tag = 0; tag < 32; tag++) {
+      allocations.addEvents(createAllocation(tag, 8, 1000 + tag));
+      frees.addEvents(createFree(tag, 1000 + tag + (1L << (2 * tag))));
+    }
+    allocations.addEvents(createAllocation(40, 8, 2000));
+    myAllocationTable.insertAllocationData(VALID_SESSION, allocations.build());
+    myAllocationTable.insertAllocationData(VALID_SESSION, frees.build());
+
+    for (long time : new long[]{1000, 1040, 3000, 1L << 20, 1L << 40, 1L << 62}) {
+      List<Integer> expectedTags = new ArrayList<>();
+      for (int tag = 0; tag < 32; tag++) {
+        if (1000 + tag < time && 1000 + tag + (1L << (2 * tag)) > time) {
+          expectedTags.add(tag);
+        }
+      }
+      if (time > 2000) {
+        expectedTags.add(40);
+      }
+      List<Integer> tags = new ArrayList<>();
+      for (AllocationEvent event : myAllocationTable.getSnapshot(VALID_SESSION, time).getEventsList()) {
+        tags.add(event.getAllocData().getTag());
+      }
+      Truth.assertThat(tags).containsExactlyElementsIn(expectedTags);
+    }
+  }
+
+  private static AllocationEvent createAllocation(int tag, long size, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(CLASS_TAG).setSize(size))
+      .setTimestamp(timestamp).build();
+  }
+
+  private static AllocationEvent createFree(int tag, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(tag).setClassTag(CLASS_TAG)).setTimestamp(timestamp).build();
+  }
+
   @Test
   public void testIgnoreDuplicatedAllocationContext() throws Exception {
     List<StackFrame> methodsToInsert = new ArrayList<>();
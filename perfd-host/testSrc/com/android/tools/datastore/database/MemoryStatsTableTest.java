@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.datastore.BlobStore;
 import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler;
@@ -27,8 +28,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -53,6 +57,7 @@ public class MemoryStatsTableTest {
     myDatabase.disconnect();
     //noinspection ResultOfMethodCallIgnored
     myDbFile.delete();
+    BlobStore.delete(BlobStore.getDirectory(myDbFile));
   }
 
   @Test
@@ -155,7 +160,7 @@ public class MemoryStatsTableTest {
       .insertHeapDumpData(VALID_SESSION, sample.getStartTime(), DumpDataResponse.Status.SUCCESS, ByteString.copyFrom(rawBytes));
 
     assertEquals(DumpDataResponse.Status.SUCCESS, myStatsTable.getHeapDumpStatus(VALID_SESSION, sample.getStartTime()));
-    assertTrue(Arrays.equals(rawBytes, myStatsTable.getHeapDumpData(VALID_SESSION, sample.getStartTime())));
+    assertEquals(ByteString.copyFrom(rawBytes), myStatsTable.getHeapDumpData(VALID_SESSION, sample.getStartTime()));
 
     // Test that querying for the invalid app id returns NOT FOUND
     assertEquals(DumpDataResponse.Status.NOT_FOUND, myStatsTable.getHeapDumpStatus(INVALID_SESSION, sample.getStartTime()));
@@ -184,8 +189,8 @@ public class MemoryStatsTableTest {
     assertEquals(events, myStatsTable.getLegacyAllocationData(VALID_SESSION, sample.getStartTime()));
 
     byte[] rawBytes = new byte[]{'d', 'e', 'f'};
-    myStatsTable.updateLegacyAllocationDump(VALID_SESSION, sample.getStartTime(), rawBytes);
-    assertTrue(Arrays.equals(rawBytes, myStatsTable.getLegacyAllocationDumpData(VALID_SESSION, sample.getStartTime())));
+    myStatsTable.updateLegacyAllocationDump(VALID_SESSION, sample.getStartTime(), ByteString.copyFrom(rawBytes));
+    assertEquals(ByteString.copyFrom(rawBytes), myStatsTable.getLegacyAllocationDumpData(VALID_SESSION, sample.getStartTime()));
 
     // Test that querying for the invalid app id returns null
     assertNull(myStatsTable.getAllocationsInfo(INVALID_SESSION, sample.getStartTime()));
@@ -239,6 +244,116 @@ public class MemoryStatsTableTest {
     assertEquals(0, response.getAllocationStacksCount());
   }
 
+  @Test
+  public void testLongRangesAreServedFromRollups() throws Exception {
+    long periodNs = TimeUnit.MILLISECONDS.toNanos(250);
+    long durationNs = SampleRollup.MIN_BUCKETS_PER_QUERY * SampleRollup.RESOLUTIONS_NS[0] + TimeUnit.SECONDS.toNanos(10);
+    long peakTime = durationNs / 2;
+    List<MemoryData.MemorySample> batch = new ArrayList<>();
+    int sampleCount = 0;
+    for (long time = periodNs; time <= durationNs; time += periodNs) {
+      int totalMem = time == peakTime ? 1_000_000 : 1000 + sampleCount % 7;
+      batch.add(MemoryData.MemorySample.newBuilder().setTimestamp(time).setTotalMem(totalMem).build());
+      sampleCount++;
+      if (batch.size() == 40) {
+        myStatsTable.insertMemory(VALID_SESSION, batch);
+        batch.clear();
+      }
+    }
+    myStatsTable.insertMemory(VALID_SESSION, batch);
+
+    // Short ranges still get every sample.
+    MemoryData result =
+      myStatsTable.getData(MemoryRequest.newBuilder().setSession(VALID_SESSION).setStartTime(0).setEndTime(periodNs * 10).build());
+    assertEquals(10, result.getMemSamplesCount());
+
+    // The whole range gets at most two samples per second, in time order, and keeps the peak.
+    result = myStatsTable.getData(MemoryRequest.newBuilder().setSession(VALID_SESSION).setStartTime(0).setEndTime(durationNs).build());
+    assertTrue(result.getMemSamplesCount() < sampleCount);
+    assertTrue(result.getMemSamplesCount() <= 2 * (durationNs / SampleRollup.RESOLUTIONS_NS[0] + 1));
+    assertTrue(result.getMemSamplesCount() >= SampleRollup.MIN_BUCKETS_PER_QUERY);
+    long previousTime = 0;
+    boolean foundPeak = false;
+    for (MemoryData.MemorySample sample : result.getMemSamplesList()) {
+      assertTrue(sample.getTimestamp() > previousTime);
+      previousTime = sample.getTimestamp();
+      foundPeak |= sample.getTimestamp() == peakTime && sample.getTotalMem() == 1_000_000;
+    }
+    assertTrue(foundPeak);
+  }
+
+  @Test
+  public void testHeapDumpDataIsKeptInBlobStore() throws Exception {
+    MemoryStatsTable table = new MemoryStatsTable();
+    table.initialize(myDatabase);
+    HeapDumpInfo sample = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(1).build();
+    table.insertOrReplaceHeapInfo(VALID_SESSION, sample);
+    table.insertOrReplaceHeapInfo(VALID_SESSION, sample.toBuilder().setStartTime(2).setEndTime(3).build());
+
+    ByteString data = createLargePayload("heap dump");
+    table.insertHeapDumpData(VALID_SESSION, 0, DumpDataResponse.Status.SUCCESS, data);
+    table.insertHeapDumpData(VALID_SESSION, 2, DumpDataResponse.Status.SUCCESS, data);
+
+    assertEquals(data, table.getHeapDumpData(VALID_SESSION, 0));
+    assertEquals(data, table.getHeapDumpData(VALID_SESSION, 2));
+    // Identical dumps are stored once.
+    File[] blobs = myDatabase.getBlobStore().getDirectory().listFiles();
+    assertNotNull(blobs);
+    assertEquals(1, blobs.length);
+  }
+
+  @Test
+  public void testSmallHeapDumpDataIsKeptInline() throws Exception {
+    MemoryStatsTable table = new MemoryStatsTable();
+    table.initialize(myDatabase);
+    HeapDumpInfo sample = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(1).build();
+    table.insertOrReplaceHeapInfo(VALID_SESSION, sample);
+
+    ByteString data = ByteString.copyFromUtf8("heap dump");
+    table.insertHeapDumpData(VALID_SESSION, 0, DumpDataResponse.Status.SUCCESS, data);
+    assertEquals(data, table.getHeapDumpData(VALID_SESSION, 0));
+    File[] blobs = myDatabase.getBlobStore().getDirectory().listFiles();
+    assertTrue(blobs == null || blobs.length == 0);
+  }
+
+  @Test
+  public void testReplacedHeapDumpDataIsDeletedOnCommit() throws Exception {
+    List<Runnable> sweeps = new ArrayList<>();
+    myDatabase.setSweepExecutor(sweeps::add);
+    MemoryStatsTable table = new MemoryStatsTable();
+    table.initialize(myDatabase);
+    HeapDumpInfo sample = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(1).build();
+    ByteString oldData = createLargePayload("old heap dump");
+    ByteString newData = createLargePayload("new heap dump");
+    table.runInTransaction(() -> {
+      table.insertOrReplaceHeapInfo(VALID_SESSION, sample);
+      table.insertHeapDumpData(VALID_SESSION, 0, DumpDataResponse.Status.SUCCESS, oldData);
+      table.insertHeapDumpData(VALID_SESSION, 0, DumpDataResponse.Status.SUCCESS, newData);
+    });
+    File directory = myDatabase.getBlobStore().getDirectory();
+    assertEquals(2, directory.listFiles().length);
+
+    // Shutting the writer down commits, after which a sweep, run apart from the commit, deletes the payload nothing refers to anymore.
+    myDatabase.getCommitWriter().shutdown();
+    assertEquals(2, directory.listFiles().length);
+    assertEquals(1, sweeps.size());
+    sweeps.get(0).run();
+    assertEquals(1, directory.listFiles().length);
+    assertEquals(newData, table.getHeapDumpData(VALID_SESSION, 0));
+  }
+
+  /**
+   * @return a payload large enough to be kept in the blob store.
+   */
+  @NotNull
+  private static ByteString createLargePayload(@NotNull String text) {
+    StringBuilder builder = new StringBuilder(text);
+    while (builder.length() < BlobStore.MIN_SIZE) {
+      builder.append(text);
+    }
+    return ByteString.copyFromUtf8(builder.toString());
+  }
+
   private static void verifyMemoryDataResultCounts(@NotNull MemoryProfiler.MemoryData result,
                                                    int numMemSample,
                                                    int numAllocStatsSample,
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PollSchedulerTest {
+  private static final long TEST_PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(2);
+
+  private PollScheduler myScheduler;
+
+  @Before
+  public void setUp() {
+    myScheduler = new PollScheduler(1);
+  }
+
+  @After
+  public void tearDown() {
+    myScheduler.shutdown();
+  }
+
+  @Test
+  public void testRunnersShareThreadAndStop() throws Exception {
+    CountingPollRunner runner1 = new CountingPollRunner(true);
+    CountingPollRunner runner2 = new CountingPollRunner(true);
+    myScheduler.start(runner1);
+    myScheduler.start(runner2);
+    assertThat(myScheduler.getActiveRunnerCount()).isEqualTo(2);
+
+    while (runner1.getPollCount() < 5 || runner2.getPollCount() < 5) {
+      Thread.sleep(1);
+    }
+    runner1.stop();
+    assertThat(runner1.isDone()).isTrue();
+    int pollCount = runner1.getPollCount();
+    while (runner2.getPollCount() < 10) {
+      Thread.sleep(1);
+    }
+    assertThat(runner1.getPollCount()).isEqualTo(pollCount);
+    assertThat(myScheduler.getActiveRunnerCount()).isEqualTo(1);
+    assertThat(myScheduler.getPollCount()).isAtLeast(15L);
+
+    runner2.stop();
+    assertThat(myScheduler.getActiveRunnerCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testIdleRunnerBacksOff() throws Exception {
+    CountingPollRunner busyRunner = new CountingPollRunner(true);
+    CountingPollRunner idleRunner = new CountingPollRunner(false);
+    myScheduler.start(busyRunner);
+    myScheduler.start(idleRunner);
+
+    while (busyRunner.getPollCount() < 100) {
+      Thread.sleep(1);
+    }
+    busyRunner.stop();
+    idleRunner.stop();
+    // The idle runner settles at MAX_BACKOFF_FACTOR times the period, so it is polled much less often.
+    assertThat(idleRunner.getPollCount()).isLessThan(busyRunner.getPollCount() / 2);
+  }
+
+  @Test
+  public void testShutdownReleasesRunners() throws Exception {
+    CountingPollRunner runner = new CountingPollRunner(true);
+    myScheduler.start(runner);
+    myScheduler.shutdown();
+    assertThat(runner.isDone()).isTrue();
+    runner.stop();
+  }
+
+  @Test
+  public void testStopWaitsForRunningPoll() throws Exception {
+    BlockingPollRunner runner = new BlockingPollRunner();
+    myScheduler.start(runner);
+    runner.myPollStarted.await();
+
+    Thread stopThread = new Thread(runner::stop);
+    stopThread.start();
+    stopThread.join(50);
+    // The runner is not released while its poll is still running.
+    assertThat(stopThread.isAlive()).isTrue();
+    assertThat(runner.isDone()).isFalse();
+
+    runner.myReleasePoll.countDown();
+    stopThread.join();
+    assertThat(runner.isDone()).isTrue();
+    assertThat(runner.myPollFinished).isTrue();
+    assertThat(myScheduler.getActiveRunnerCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testShutdownWaitsForRunningPoll() throws Exception {
+    BlockingPollRunner runner = new BlockingPollRunner();
+    myScheduler.start(runner);
+    runner.myPollStarted.await();
+
+    Thread shutdownThread = new Thread(myScheduler::shutdown);
+    shutdownThread.start();
+    shutdownThread.join(50);
+    assertThat(shutdownThread.isAlive()).isTrue();
+    assertThat(runner.isDone()).isFalse();
+
+    runner.myReleasePoll.countDown();
+    shutdownThread.join();
+    assertThat(runner.isDone()).isTrue();
+    assertThat(runner.myPollFinished).isTrue();
+  }
+
+  @Test
+  public void testPollCanStopItsOwnRunner() throws Exception {
+    PollRunner runner = new PollRunner(TEST_PERIOD_NS) {
+      @Override
+      public void poll() {
+        stop();
+      }
+    };
+    myScheduler.start(runner);
+    runner.get();
+    assertThat(runner.isDone()).isTrue();
+    assertThat(myScheduler.getActiveRunnerCount()).isEqualTo(0);
+  }
+
+  private static class BlockingPollRunner extends PollRunner {
+    private final CountDownLatch myPollStarted = new CountDownLatch(1);
+    private final CountDownLatch myReleasePoll = new CountDownLatch(1);
+    private volatile boolean myPollFinished;
+
+    BlockingPollRunner() {
+      super(TEST_PERIOD_NS);
+    }
+
+    @Override
+    public void poll() {
+      myPollStarted.countDown();
+      try {
+        myReleasePoll.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      myPollFinished = true;
+    }
+  }
+
+  private static class CountingPollRunner extends PollRunner {
+    private final AtomicInteger myPollCount = new AtomicInteger();
+    private final boolean myHasData;
+
+    CountingPollRunner(boolean hasData) {
+      super(TEST_PERIOD_NS);
+      myHasData = hasData;
+    }
+
+    int getPollCount() {
+      return myPollCount.get();
+    }
+
+    @Override
+    public void poll() {
+      myPollCount.incrementAndGet();
+      setReceivedData(myHasData);
+    }
+  }
+}
@@ -43,6 +43,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -96,6 +97,15 @@ public class StudioProfilers extends AspectModel<ProfilerAspect> implements Upda
 
   private boolean myConnected;
 
+  /**
+   * Series of the current session that are shown by both a monitor and a stage, see {@link #getCachedSeries(String, Supplier)}. Ranges
+   * longer than 10 minutes are not cached, which also keeps out the downsampled memory samples the datastore only returns for ranges of
+   * over half an hour.
+   */
+  @NotNull
+  private final CachingDataSeriesPool myDataSeriesPool =
+    new CachingDataSeriesPool(TimeUnit.SECONDS.toMicros(1), TimeUnit.MINUTES.toMicros(10));
+
   public StudioProfilers(ProfilerClient client, @NotNull IdeProfilerServices ideServices) {
     this(client, ideServices, new FpsTimer(PROFILERS_UPDATE_RATE));
   }
@@ -334,6 +344,7 @@ public class StudioProfilers extends AspectModel<ProfilerAspect> implements Upda
     }
 
     if (!Objects.equals(process, myProcess)) {
+      myDataSeriesPool.clear();
       if (myDevice != null && myProcess != null &&
           myDevice.getState() == Common.Device.State.ONLINE &&
           // Avoids calling endSession() on a previous process if the device has already changed.
@@ -497,6 +508,15 @@ public class StudioProfilers extends AspectModel<ProfilerAspect> implements Upda
     return mySessionData;
   }
 
+  /**
+   * @return a series of the current session that keeps the data it already fetched, shared by all callers asking for the same
+   * {@code name}, e.g. a monitor and its stage. The series is created from {@code series} the first time.
+   */
+  @NotNull
+  public DataSeries<Long> getCachedSeries(@NotNull String name, @NotNull Supplier<DataSeries<Long>> series) {
+    return myDataSeriesPool.getLong(Arrays.asList(mySessionData, name), series);
+  }
+
   public void setStage(@NotNull Stage stage) {
     myStage.exit();
     getTimeline().getSelectionRange().clear();
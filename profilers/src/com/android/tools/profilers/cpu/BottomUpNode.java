@@ -18,6 +18,7 @@ package com.android.tools.profilers.cpu;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -27,6 +28,10 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
   private final List<CaptureNode> myPathNodes = new ArrayList<>();
   private final boolean myIsRoot;
   private boolean myChildrenBuilt;
+  /**
+   * Index of {@link #getOuterNodes()}, built on the first {@link #update(Range)}.
+   */
+  private RangeSumIndex myOuterNodesIndex;
 
   private BottomUpNode(String id) {
     super(id);
@@ -38,6 +43,8 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
     super("Root");
     myIsRoot = true;
     myChildrenBuilt = true;
+    // Nodes are merged on their method ids.
+    CaptureNode.assignMethodIds(node);
 
     List<CaptureNode> allNodes = new ArrayList<>();
     // Pre-order traversal with Stack.
@@ -55,16 +62,16 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
     // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, BottomUpNode> children = new HashMap<>();
-    Map<String, BottomUpNode> unmatchedChildren = new HashMap<>();
+    TIntObjectHashMap<BottomUpNode> children = new TIntObjectHashMap<>();
+    TIntObjectHashMap<BottomUpNode> unmatchedChildren = new TIntObjectHashMap<>();
 
     for (CaptureNode curNode : allNodes) {
       assert curNode.getData() != null;
-      String curId = curNode.getData().getId();
+      int curId = curNode.getMethodId();
 
       BottomUpNode child = curNode.isUnmatched() ? unmatchedChildren.get(curId) : children.get(curId);
       if (child == null) {
-        child = new BottomUpNode(curId);
+        child = new BottomUpNode(curNode.getData().getId());
         if (curNode.isUnmatched()) {
           unmatchedChildren.put(curId, child);
         }
@@ -95,8 +102,8 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
 
     // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, BottomUpNode> children = new HashMap<>();
-    Map<String, BottomUpNode> unmatchedChildren = new HashMap<>();
+    TIntObjectHashMap<BottomUpNode> children = new TIntObjectHashMap<>();
+    TIntObjectHashMap<BottomUpNode> unmatchedChildren = new TIntObjectHashMap<>();
 
     assert myPathNodes.size() == getNodes().size();
     for (int i = 0; i < myPathNodes.size(); ++i) {
@@ -105,10 +112,10 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
         continue;
       }
       assert parent.getData() != null;
-      String parentId = parent.getData().getId();
+      int parentId = parent.getMethodId();
       BottomUpNode child = parent.isUnmatched() ? unmatchedChildren.get(parentId) : children.get(parentId);
       if (child == null) {
-        child = new BottomUpNode(parentId);
+        child = new BottomUpNode(parent.getData().getId());
         if (parent.isUnmatched()) {
           unmatchedChildren.put(parentId, child);
         }
@@ -125,41 +132,42 @@ public class BottomUpNode extends CpuTreeNode<BottomUpNode> {
     return true;
   }
 
+  @Override
+  protected void addNode(@NotNull CaptureNode node) {
+    super.addNode(node);
+    myOuterNodesIndex = null;
+  }
+
   @Override
   public void update(@NotNull Range range) {
+    if (myOuterNodesIndex == null) {
+      myOuterNodesIndex = RangeSumIndex.ofNodes(getOuterNodes());
+    }
     // how much time was spent in this call stack path, and in the functions it called
-    myTotal = 0;
+    myTotal = myOuterNodesIndex.getIntersectionSum(range);
     // how much time was spent doing work directly in this call stack path
-    double self = 0;
+    double self = getNodesIntersection(range) - getChildrenIntersection(range);
+    myChildrenTotal = myTotal - self;
+  }
 
-    // The node that is at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20],
-    // then the second method can't be outerSoFar.
-    // It's used to exclude nodes which aren't at the top of the
-    // call stack from the total time calculation.
+  /**
+   * @return the nodes that are at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20], then the second
+   * method is excluded. Only those count towards the total time, so that recursive calls aren't counted twice.
+   */
+  @NotNull
+  private List<CaptureNode> getOuterNodes() {
+    List<CaptureNode> outerNodes = new ArrayList<>();
     CaptureNode outerSoFar = null;
 
     // myNodes is sorted by CaptureNode#getStart() in increasing order,
     // if they are equal then ancestor comes first
     for (CaptureNode node : myNodes) {
       if (outerSoFar == null || node.getEnd() > outerSoFar.getEnd()) {
-        if (outerSoFar != null) {
-          // |outerSoFar| is at the top of the call stack
-          myTotal += getIntersection(range, outerSoFar);
-        }
         outerSoFar = node;
-      }
-
-      self += getIntersection(range, node);
-      for (CaptureNode child : node.getChildren()) {
-        self -= getIntersection(range, child);
+        outerNodes.add(node);
       }
     }
-
-    if (outerSoFar != null) {
-      // |outerSoFar| is at the top of the call stack
-      myTotal += getIntersection(range, outerSoFar);
-    }
-    myChildrenTotal = myTotal - self;
+    return outerNodes;
   }
 
   @NotNull
@@ -21,8 +21,15 @@ import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.regex.Pattern;
 
 import static com.android.tools.profilers.cpu.CaptureNode.FilterType.UNINITIALIZED;
@@ -30,156 +37,245 @@ import static com.android.tools.profilers.cpu.CaptureNode.FilterType.UNINITIALIZ
 public class CaptureNode implements HNode<CaptureNode> {
 
   /**
-   * Start time with GLOBAL clock.
+   * Method id of the nodes whose tree hasn't been through {@link #assignMethodIds(CaptureNode)} yet.
    */
-  private long myStartGlobal;
+  static final int NO_METHOD_ID = -1;
 
   /**
-   * End time with GLOBAL clock.
+   * Most nodes that have children only have a few of them.
    */
-  private long myEndGlobal;
+  private static final int INITIAL_CHILDREN_CAPACITY = 2;
 
   /**
-   * Start time with THREAD clock.
+   * Holds the state of this node once its tree has been compacted, see {@link #compact(CaptureNode)}. Null while the tree is being built.
    */
-  private long myStartThread;
+  @Nullable
+  private final CaptureNodeStore myStore;
 
   /**
-   * End time with THREAD clock.
+   * Slot of this node in {@link #myStore}.
    */
-  private long myEndThread;
-
-  @NotNull
-  private final List<CaptureNode> myChildren;
-
-  @NotNull
-  private ClockType myClockType;
+  private final int mySlot;
 
   /**
-   * The parent of its child is set to it when it is added {@link #addChild(CaptureNode)}
+   * Holds the state of this node while its tree is being built, null once it is compacted.
    */
-  private CaptureNode myParent;
+  @Nullable
+  private final Fields myFields;
+
+  public CaptureNode(@NotNull CaptureNodeModel model) {
+    myStore = null;
+    mySlot = 0;
+    myFields = new Fields(model);
+  }
 
   /**
-   * see {@link FilterType}.
+   * Creates a view of the node in {@code slot} of {@code store}. Views of the same slot are equal.
    */
-  @NotNull
-  private FilterType myFilterType = UNINITIALIZED;
+  CaptureNode(@NotNull CaptureNodeStore store, int slot) {
+    myStore = store;
+    mySlot = slot;
+    myFields = null;
+  }
 
   /**
-   * The shortest distance from the root.
+   * Moves the tree rooted at {@code root}, which must be complete, into a {@link CaptureNodeStore} and returns a view of its root. The
+   * views read and write the store, so the tree takes a fraction of the memory of a tree of nodes, but it can't be given new children.
    */
-  private int myDepth;
-
   @NotNull
-  private final CaptureNodeModel myData;
-
-  public CaptureNode(@NotNull CaptureNodeModel model) {
-    myChildren = new ArrayList<>();
-    myClockType = ClockType.GLOBAL;
-    myDepth = 0;
-    myData = model;
+  static CaptureNode compact(@NotNull CaptureNode root) {
+    return root.myStore != null ? root : new CaptureNodeStore(root).getRoot();
   }
 
   public void addChild(CaptureNode node) {
-    myChildren.add(node);
-    node.myParent = this;
+    if (myStore != null || node.myStore != null) {
+      throw new IllegalStateException("The tree of a compacted node can't be changed.");
+    }
+    Fields fields = getFields();
+    if (fields.myChildren == null) {
+      fields.myChildren = new ArrayList<>(INITIAL_CHILDREN_CAPACITY);
+    }
+    fields.myChildren.add(node);
+    node.getFields().myParent = this;
   }
 
   @NotNull
   public List<CaptureNode> getChildren() {
-    return myChildren;
+    if (myStore != null) {
+      return new StoredChildren(myStore, myStore.myFirstChildren[mySlot], getChildCount());
+    }
+    List<CaptureNode> children = getFields().myChildren;
+    return children == null ? Collections.emptyList() : children;
   }
 
   @NotNull
   public CaptureNodeModel getData() {
-    return myData;
+    return myStore != null ? myStore.myModels[myStore.myModelIndices[mySlot]] : getFields().myData;
   }
 
   @Override
   public int getChildCount() {
-    return myChildren.size();
+    if (myStore != null) {
+      return myStore.myFirstChildren[mySlot + 1] - myStore.myFirstChildren[mySlot];
+    }
+    List<CaptureNode> children = getFields().myChildren;
+    return children == null ? 0 : children.size();
   }
 
   @NotNull
   @Override
   public CaptureNode getChildAt(int index) {
-    return myChildren.get(index);
+    return getChildren().get(index);
   }
 
   @Nullable
   @Override
   public CaptureNode getParent() {
-    return myParent;
+    if (myStore != null) {
+      int parent = myStore.myParents[mySlot];
+      return parent == CaptureNodeStore.NO_PARENT ? null : new CaptureNode(myStore, parent);
+    }
+    return getFields().myParent;
   }
 
   @Override
   public long getStart() {
-    return myClockType == ClockType.THREAD ? myStartThread : myStartGlobal;
+    return getClockType() == ClockType.THREAD ? getStartThread() : getStartGlobal();
   }
 
   @Override
   public long getEnd() {
-    return myClockType == ClockType.THREAD ? myEndThread : myEndGlobal;
+    return getClockType() == ClockType.THREAD ? getEndThread() : getEndGlobal();
   }
 
   @Override
   public int getDepth() {
-    return myDepth;
+    return myStore != null ? myStore.myDepths[mySlot] : getFields().myDepth;
   }
 
   public void setStartGlobal(long startGlobal) {
-    myStartGlobal = startGlobal;
+    if (myStore != null) {
+      myStore.myStartGlobal[mySlot] = startGlobal;
+    }
+    else {
+      getFields().myStartGlobal = startGlobal;
+    }
   }
 
   public long getStartGlobal() {
-    return myStartGlobal;
+    return myStore != null ? myStore.myStartGlobal[mySlot] : getFields().myStartGlobal;
   }
 
   public void setEndGlobal(long endGlobal) {
-    myEndGlobal = endGlobal;
+    if (myStore != null) {
+      myStore.myEndGlobal[mySlot] = endGlobal;
+    }
+    else {
+      getFields().myEndGlobal = endGlobal;
+    }
   }
 
   public long getEndGlobal() {
-    return myEndGlobal;
+    return myStore != null ? myStore.myEndGlobal[mySlot] : getFields().myEndGlobal;
   }
 
   public void setStartThread(long startThread) {
-    myStartThread = startThread;
+    if (myStore != null) {
+      myStore.myStartThread[mySlot] = startThread;
+    }
+    else {
+      getFields().myStartThread = startThread;
+    }
   }
 
   public long getStartThread() {
-    return myStartThread;
+    return myStore != null ? myStore.myStartThread[mySlot] : getFields().myStartThread;
   }
 
   public void setEndThread(long endThread) {
-    myEndThread = endThread;
+    if (myStore != null) {
+      myStore.myEndThread[mySlot] = endThread;
+    }
+    else {
+      getFields().myEndThread = endThread;
+    }
   }
 
   public long getEndThread() {
-    return myEndThread;
+    return myStore != null ? myStore.myEndThread[mySlot] : getFields().myEndThread;
   }
 
   public void setClockType(@NotNull ClockType clockType) {
-    myClockType = clockType;
+    if (myStore != null) {
+      myStore.setClockType(mySlot, clockType);
+    }
+    else {
+      getFields().myClockType = clockType;
+    }
   }
 
   /**
    * Returns the proportion of time the method was using CPU relative to the total (wall-clock) time that passed.
    */
   public double threadGlobalRatio() {
-    long durationThread = myEndThread - myStartThread;
-    long durationGlobal = myEndGlobal - myStartGlobal;
+    long durationThread = getEndThread() - getStartThread();
+    long durationGlobal = getEndGlobal() - getStartGlobal();
     return (double)durationThread / durationGlobal;
   }
 
   @NotNull
   public ClockType getClockType() {
-    return myClockType;
+    return myStore != null ? myStore.getClockType(mySlot) : getFields().myClockType;
   }
 
   public void setDepth(int depth) {
-    myDepth = depth;
+    if (myStore != null) {
+      myStore.myDepths[mySlot] = depth;
+    }
+    else {
+      getFields().myDepth = depth;
+    }
+  }
+
+  /**
+   * @return an int identifying the method of this node, see {@link #assignMethodIds(CaptureNode)}.
+   */
+  public int getMethodId() {
+    return myStore != null ? myStore.getMethodId(mySlot) : getFields().myMethodId;
+  }
+
+  /**
+   * Gives every node of the tree containing {@code node} a method id, such that two nodes get the same id exactly when their models have
+   * the same {@link CaptureNodeModel#getId()}. Ids are dense, starting at 0. The whole tree is covered, not only the subtree of
+   * {@code node}, because bottom-up trees also merge ancestors. Does nothing if the tree was already assigned ids, so the string ids are
+   * only hashed the first time a tree is merged. The ids of compacted trees are kept by their {@link CaptureNodeStore}.
+   */
+  static void assignMethodIds(@NotNull CaptureNode node) {
+    if (node.myStore != null) {
+      return;
+    }
+    CaptureNode root = node;
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    if (root.getFields().myMethodId != NO_METHOD_ID) {
+      return;
+    }
+    Map<String, Integer> ids = new HashMap<>();
+    Deque<CaptureNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      CaptureNode current = stack.pop();
+      Integer id = ids.get(current.getData().getId());
+      if (id == null) {
+        id = ids.size();
+        ids.put(current.getData().getId(), id);
+      }
+      current.getFields().myMethodId = id;
+      for (CaptureNode child : current.getChildren()) {
+        stack.push(child);
+      }
+    }
   }
 
   /**
@@ -192,17 +288,132 @@ public class CaptureNode implements HNode<CaptureNode> {
 
   @NotNull
   public FilterType getFilterType() {
-    return myFilterType;
+    return myStore != null ? myStore.getFilterType(mySlot) : getFields().myFilterType;
   }
 
   public void setFilterType(@NotNull FilterType type) {
-    myFilterType = type;
+    if (myStore != null) {
+      myStore.setFilterType(mySlot, type);
+    }
+    else {
+      getFields().myFilterType = type;
+    }
   }
 
   public boolean isUnmatched() {
     return getFilterType() == FilterType.UNMATCH;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CaptureNode)) {
+      return false;
+    }
+    CaptureNode other = (CaptureNode)o;
+    return myStore != null && myStore == other.myStore && mySlot == other.mySlot;
+  }
+
+  @Override
+  public int hashCode() {
+    return myStore != null ? 31 * System.identityHashCode(myStore) + mySlot : System.identityHashCode(this);
+  }
+
+  @NotNull
+  private Fields getFields() {
+    assert myFields != null;
+    return myFields;
+  }
+
+  /**
+   * State of a node whose tree is being built.
+   */
+  private static final class Fields {
+    @NotNull private final CaptureNodeModel myData;
+
+    /**
+     * Start time with GLOBAL clock.
+     */
+    private long myStartGlobal;
+
+    /**
+     * End time with GLOBAL clock.
+     */
+    private long myEndGlobal;
+
+    /**
+     * Start time with THREAD clock.
+     */
+    private long myStartThread;
+
+    /**
+     * End time with THREAD clock.
+     */
+    private long myEndThread;
+
+    /**
+     * Allocated when the first child is added, leaves make up a large part of a capture and don't need a list.
+     */
+    @Nullable private ArrayList<CaptureNode> myChildren;
+
+    @NotNull private ClockType myClockType = ClockType.GLOBAL;
+
+    /**
+     * The parent of its child is set to it when it is added {@link #addChild(CaptureNode)}
+     */
+    @Nullable private CaptureNode myParent;
+
+    /**
+     * see {@link FilterType}.
+     */
+    @NotNull private FilterType myFilterType = UNINITIALIZED;
+
+    /**
+     * The shortest distance from the root.
+     */
+    private int myDepth;
+
+    /**
+     * Dense int standing for {@link CaptureNodeModel#getId()}, unique within the tree of this node. Lets the top-down and
+     * bottom-up trees merge nodes of the same method without hashing and comparing the string ids every time they are rebuilt.
+     */
+    private int myMethodId = NO_METHOD_ID;
+
+    private Fields(@NotNull CaptureNodeModel data) {
+      myData = data;
+    }
+  }
+
+  /**
+   * The children of a compacted node, which are consecutive slots of its store.
+   */
+  private static final class StoredChildren extends AbstractList<CaptureNode> implements RandomAccess {
+    @NotNull private final CaptureNodeStore myStore;
+    private final int myFirstSlot;
+    private final int mySize;
+
+    private StoredChildren(@NotNull CaptureNodeStore store, int firstSlot, int size) {
+      myStore = store;
+      myFirstSlot = firstSlot;
+      mySize = size;
+    }
+
+    @Override
+    public CaptureNode get(int index) {
+      if (index < 0 || index >= mySize) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mySize);
+      }
+      return new CaptureNode(myStore, myFirstSlot + index);
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+  }
+
   public enum FilterType {
     /**
      * Set by default, to avoid issues with a nullable value being queried as non-null. However,
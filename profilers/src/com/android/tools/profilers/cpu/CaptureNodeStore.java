@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structure-of-arrays storage of a complete {@link CaptureNode} tree. A capture can have millions of nodes, and as objects each of them
+ * carries its own header, fields and children list. Here every node is a slot in a few primitive arrays, and {@link CaptureNode}s are
+ * only created as lightweight views over a slot when they are asked for.
+ *
+ * Slots are laid out breadth first, so the children of a node are consecutive slots: a node only keeps the slot of its first child, and
+ * the next sibling of a node is the next slot.
+ */
+final class CaptureNodeStore {
+  private static final ClockType[] CLOCK_TYPES = ClockType.values();
+  private static final CaptureNode.FilterType[] FILTER_TYPES = CaptureNode.FilterType.values();
+
+  /**
+   * Slot of the parent of a root.
+   */
+  static final int NO_PARENT = -1;
+
+  @NotNull final long[] myStartGlobal;
+  @NotNull final long[] myEndGlobal;
+  @NotNull final long[] myStartThread;
+  @NotNull final long[] myEndThread;
+  @NotNull final int[] myDepths;
+  @NotNull final int[] myParents;
+
+  /**
+   * The children of the node in slot {@code i} are the slots from {@code myFirstChildren[i]} to {@code myFirstChildren[i + 1]}, excluded.
+   * Has one more element than there are nodes.
+   */
+  @NotNull final int[] myFirstChildren;
+
+  /**
+   * Index in {@link #myModels} of the model of each node. Most nodes share their model with many others.
+   */
+  @NotNull final int[] myModelIndices;
+  @NotNull final CaptureNodeModel[] myModels;
+
+  /**
+   * The {@link CaptureNode#getMethodId()} of the nodes of each model, computed the first time one is asked for. Racing threads compute
+   * the same ids, so whichever array is kept does not matter.
+   */
+  @Nullable private volatile int[] myMethodIds;
+
+  @NotNull private final byte[] myClockTypes;
+  @NotNull private final byte[] myFilterTypes;
+
+  /**
+   * Copies the tree rooted at {@code root}, which must be complete, as nodes of a store can't be given new children.
+   */
+  CaptureNodeStore(@NotNull CaptureNode root) {
+    List<CaptureNode> nodes = new ArrayList<>();
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); ++i) {
+      nodes.addAll(nodes.get(i).getChildren());
+    }
+
+    int size = nodes.size();
+    myStartGlobal = new long[size];
+    myEndGlobal = new long[size];
+    myStartThread = new long[size];
+    myEndThread = new long[size];
+    myDepths = new int[size];
+    myParents = new int[size];
+    myFirstChildren = new int[size + 1];
+    myModelIndices = new int[size];
+    myClockTypes = new byte[size];
+    myFilterTypes = new byte[size];
+
+    Map<CaptureNodeModel, Integer> modelIndices = new IdentityHashMap<>();
+    List<CaptureNodeModel> models = new ArrayList<>();
+    myParents[0] = NO_PARENT;
+    int nextChild = 1;
+    for (int i = 0; i < size; ++i) {
+      CaptureNode node = nodes.get(i);
+      myStartGlobal[i] = node.getStartGlobal();
+      myEndGlobal[i] = node.getEndGlobal();
+      myStartThread[i] = node.getStartThread();
+      myEndThread[i] = node.getEndThread();
+      myDepths[i] = node.getDepth();
+      setClockType(i, node.getClockType());
+      setFilterType(i, node.getFilterType());
+
+      Integer modelIndex = modelIndices.get(node.getData());
+      if (modelIndex == null) {
+        modelIndex = models.size();
+        modelIndices.put(node.getData(), modelIndex);
+        models.add(node.getData());
+      }
+      myModelIndices[i] = modelIndex;
+
+      myFirstChildren[i] = nextChild;
+      for (int child = nextChild; child < nextChild + node.getChildCount(); ++child) {
+        myParents[child] = i;
+      }
+      nextChild += node.getChildCount();
+    }
+    myFirstChildren[size] = nextChild;
+    myModels = models.toArray(new CaptureNodeModel[0]);
+  }
+
+  @NotNull
+  CaptureNode getRoot() {
+    return new CaptureNode(this, 0);
+  }
+
+  int getSize() {
+    return myDepths.length;
+  }
+
+  int getMethodId(int slot) {
+    int[] methodIds = myMethodIds;
+    if (methodIds == null) {
+      // Nodes get the same method id exactly when their models have the same id, see CaptureNode#assignMethodIds.
+      methodIds = new int[myModels.length];
+      Map<String, Integer> ids = new HashMap<>();
+      for (int i = 0; i < myModels.length; ++i) {
+        Integer id = ids.get(myModels[i].getId());
+        if (id == null) {
+          id = ids.size();
+          ids.put(myModels[i].getId(), id);
+        }
+        methodIds[i] = id;
+      }
+      myMethodIds = methodIds;
+    }
+    return methodIds[myModelIndices[slot]];
+  }
+
+  @NotNull
+  ClockType getClockType(int slot) {
+    return CLOCK_TYPES[myClockTypes[slot]];
+  }
+
+  void setClockType(int slot, @NotNull ClockType clockType) {
+    myClockTypes[slot] = (byte)clockType.ordinal();
+  }
+
+  @NotNull
+  CaptureNode.FilterType getFilterType(int slot) {
+    return FILTER_TYPES[myFilterTypes[slot]];
+  }
+
+  void setFilterType(int slot, @NotNull CaptureNode.FilterType filterType) {
+    myFilterTypes[slot] = (byte)filterType.ordinal();
+  }
+}
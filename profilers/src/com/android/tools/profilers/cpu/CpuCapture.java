@@ -22,6 +22,7 @@ import com.android.tools.perflib.vmtrace.ClockType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -47,14 +48,16 @@ public class CpuCapture implements ConfigurableDurationData {
 
   public CpuCapture(@NotNull Range captureRange, @NotNull Map<CpuThreadInfo, CaptureNode> captureTrees, boolean isDualClock) {
     myRange = captureRange;
-    myCaptureTrees = captureTrees;
     myDualClock = isDualClock;
+    // The trees are complete, move them into compact stores instead of keeping millions of node objects around.
+    myCaptureTrees = new LinkedHashMap<>(captureTrees.size());
+    captureTrees.forEach((thread, tree) -> myCaptureTrees.put(thread, CaptureNode.compact(tree)));
 
     // Try to find the main thread. The main thread is called "main" but if we fail
     // to find it we will fall back to the thread with the most information.
     Map.Entry<CpuThreadInfo, CaptureNode> main = null;
     boolean foundMainThread = false;
-    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : captureTrees.entrySet()) {
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : myCaptureTrees.entrySet()) {
       if (entry.getKey().getName().equals(MAIN_THREAD_NAME)) {
         main = entry;
         foundMainThread = true;
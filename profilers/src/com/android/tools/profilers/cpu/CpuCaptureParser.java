@@ -24,13 +24,10 @@ import com.android.tools.profilers.cpu.atrace.AtraceParser;
 import com.android.tools.profilers.cpu.simpleperf.SimpleperfTraceParser;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.containers.HashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.util.Map;
@@ -48,6 +45,14 @@ public class CpuCaptureParser {
   @VisibleForTesting
   static final int MAX_SUPPORTED_TRACE_SIZE = 1024 * 1024 * 100; // 100MB
 
+  /**
+   * Maximum supported size, in bytes, of simpleperf traces. {@link SimpleperfTraceParser} reads the trace in place and only keeps a
+   * compact form of its samples, so it needs much less memory per byte of trace than the other parsers, which build their whole model
+   * from a copy of the trace.
+   */
+  @VisibleForTesting
+  static final int MAX_SUPPORTED_SIMPLEPERF_TRACE_SIZE = 1024 * 1024 * 500; // 500MB
+
   /**
    * Maps a trace id to a corresponding {@link CompletableFuture<CpuCapture>}.
    */
@@ -89,7 +94,7 @@ public class CpuCaptureParser {
                                              CpuProfilerType profilerType) {
     if (!myCaptures.containsKey(traceId)) {
       // Trace is not being parsed nor is already parsed. We need to start parsing it.
-      if (traceData.size() <= MAX_SUPPORTED_TRACE_SIZE) {
+      if (traceData.size() <= getMaxSupportedTraceSize(profilerType)) {
         // Trace size is supported. Start parsing normally and create the future object corresponding to the capture.
         myCaptures.put(traceId, createCaptureFuture(session, traceData, profilerType));
       }
@@ -114,6 +119,11 @@ public class CpuCaptureParser {
     return myCaptures.get(traceId);
   }
 
+  @VisibleForTesting
+  static int getMaxSupportedTraceSize(CpuProfilerType profilerType) {
+    return profilerType == CpuProfilerType.SIMPLEPERF ? MAX_SUPPORTED_SIMPLEPERF_TRACE_SIZE : MAX_SUPPORTED_TRACE_SIZE;
+  }
+
   private CompletableFuture<CpuCapture> createCaptureFuture(@NotNull Common.Session session,
                                                             ByteString traceBytes,
                                                             CpuProfilerType profilerType) {
@@ -123,13 +133,7 @@ public class CpuCaptureParser {
   private static CpuCapture traceBytesToCapture(@NotNull Common.Session session,
                                                 @NotNull ByteString traceData,
                                                 CpuProfilerType profilerType) {
-    // TODO: Remove layers, analyze whether we can keep the whole file in memory.
     try {
-      File trace = FileUtil.createTempFile("cpu_trace", ".trace");
-      try (FileOutputStream out = new FileOutputStream(trace)) {
-        out.write(traceData.toByteArray());
-      }
-
       TraceParser parser;
       boolean isCaptureDualClock;
       if (profilerType == CpuProfilerType.ART) {
@@ -148,7 +152,8 @@ public class CpuCaptureParser {
         throw new IllegalStateException("Trace file cannot be parsed. Profiler type (ART, simpleperf, or atrace) needs to be set.");
       }
 
-      parser.parse(trace);
+      // Hand the parser a read-only view of the trace bytes, so parsers that read from memory don't need a copy of the trace.
+      parser.parse(traceData.asReadOnlyByteBuffer());
       return new CpuCapture(parser.getRange(), parser.getCaptureTrees(), isCaptureDualClock);
     }
     catch (IOException | BufferUnderflowException e) {
@@ -21,50 +21,43 @@ import com.android.tools.adtui.model.RangedSeries;
 import com.android.tools.adtui.model.StateChartModel;
 import com.android.tools.adtui.model.updater.Updatable;
 import com.android.tools.profiler.proto.Common;
-import com.android.tools.profiler.proto.CpuProfiler;
-import com.android.tools.profiler.proto.CpuServiceGrpc;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 /**
  * This class is responsible for making an RPC call to perfd/datastore and converting the resulting proto into UI data.
  */
 public class CpuThreadsModel extends DefaultListModel<CpuThreadsModel.RangedCpuThread> implements Updatable {
-  @NotNull private final CpuProfilerStage myStage;
-
-  @NotNull private final Common.Session mySession;
-
   @NotNull private final Range myRange;
 
   @NotNull private final AspectObserver myAspectObserver;
 
+  /**
+   * Thread activities of the session, shared by the list and the state series of all its threads.
+   */
+  @NotNull private final ThreadStateCache myStateCache;
+
   public CpuThreadsModel(@NotNull Range range, @NotNull CpuProfilerStage stage, @NotNull Common.Session session) {
     myRange = range;
-    myStage = stage;
-    mySession = session;
     myAspectObserver = new AspectObserver();
+    myStateCache = new ThreadStateCache(stage, session);
 
     myRange.addDependency(myAspectObserver).onChange(Range.Aspect.RANGE, this::rangeChanged);
     rangeChanged();
   }
 
   public void rangeChanged() {
-    CpuProfiler.GetThreadsRequest.Builder request = CpuProfiler.GetThreadsRequest.newBuilder()
-      .setSession(mySession)
-      .setStartTimestamp(TimeUnit.MICROSECONDS.toNanos((long)myRange.getMin()))
-      .setEndTimestamp(TimeUnit.MICROSECONDS.toNanos((long)myRange.getMax()));
-    CpuServiceGrpc.CpuServiceBlockingStub client = myStage.getStudioProfilers().getClient().getCpuClient();
-    CpuProfiler.GetThreadsResponse response = client.getThreads(request.build());
+    List<ThreadStateCache.CachedThread> threads = myStateCache.getThreads(myRange);
 
     // Merge the two lists.
     int i = 0;
     int j = 0;
-    while (i < getSize() && j < response.getThreadsCount()) {
+    while (i < getSize() && j < threads.size()) {
       RangedCpuThread oldThread = getElementAt(i);
-      CpuProfiler.GetThreadsResponse.Thread newThread = response.getThreads(j);
-      if (oldThread.getThreadId() == newThread.getTid()) {
+      ThreadStateCache.CachedThread newThread = threads.get(j);
+      if (oldThread.getThreadId() == newThread.getThreadId()) {
         i++;
         j++;
       }
@@ -76,9 +69,9 @@ public class CpuThreadsModel extends DefaultListModel<CpuThreadsModel.RangedCpuT
       removeElementAt(i);
       i++;
     }
-    while (j < response.getThreadsCount()) {
-      CpuProfiler.GetThreadsResponse.Thread newThread = response.getThreads(j);
-      addElement(new RangedCpuThread(myRange, newThread.getTid(), newThread.getName()));
+    while (j < threads.size()) {
+      ThreadStateCache.CachedThread newThread = threads.get(j);
+      addElement(new RangedCpuThread(myRange, newThread.getThreadId(), newThread.getName()));
       j++;
     }
   }
@@ -101,7 +94,7 @@ public class CpuThreadsModel extends DefaultListModel<CpuThreadsModel.RangedCpuT
       myThreadId = threadId;
       myName = name;
       myModel = new StateChartModel<>();
-      mySeries = new ThreadStateDataSeries(myStage, mySession, myThreadId);
+      mySeries = new ThreadStateDataSeries(myStateCache, myThreadId);
       myModel.addSeries(new RangedSeries<>(myRange, mySeries));
     }
 
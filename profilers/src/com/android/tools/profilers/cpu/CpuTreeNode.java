@@ -34,6 +34,14 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   protected double myTotal = 0;
   protected double myChildrenTotal = 0;
 
+  /**
+   * Built on the first {@link #update(Range)} after nodes are added, so the following updates, e.g. while the selection is dragged, don't
+   * go through all the nodes. The times of the nodes don't change during the lifetime of a tree, changing the clock type rebuilds the
+   * trees.
+   */
+  private RangeSumIndex myNodesIndex;
+  private RangeSumIndex myChildrenIndex;
+
   public CpuTreeNode(String id) {
     myId = id;
   }
@@ -44,6 +52,8 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
 
   protected void addNode(@NotNull CaptureNode node) {
     myNodes.add(node);
+    myNodesIndex = null;
+    myChildrenIndex = null;
   }
 
   protected void addNodes(@NotNull List<CaptureNode> nodes) {
@@ -76,20 +86,28 @@ public abstract class CpuTreeNode<T extends CpuTreeNode> {
   }
 
   public void update(@NotNull Range range) {
-    myTotal = 0.0;
-    myChildrenTotal = 0;
+    myTotal = getNodesIntersection(range);
+    myChildrenTotal = getChildrenIntersection(range);
+  }
 
-    for (CaptureNode node : myNodes) {
-      myTotal += getIntersection(range, node);
-      for (CaptureNode child : node.getChildren()) {
-        myChildrenTotal += getIntersection(range, child);
-      }
+  /**
+   * @return the sum of the intersections of {@code range} with {@link #myNodes}.
+   */
+  protected double getNodesIntersection(@NotNull Range range) {
+    if (myNodesIndex == null) {
+      myNodesIndex = RangeSumIndex.ofNodes(myNodes);
     }
+    return myNodesIndex.getIntersectionSum(range);
   }
 
-  protected static double getIntersection(@NotNull Range range, @NotNull CaptureNode node) {
-    Range intersection = range.getIntersection(new Range(node.getStart(), node.getEnd()));
-    return intersection.isEmpty() ? 0.0 : intersection.getLength();
+  /**
+   * @return the sum of the intersections of {@code range} with the children of {@link #myNodes}.
+   */
+  protected double getChildrenIntersection(@NotNull Range range) {
+    if (myChildrenIndex == null) {
+      myChildrenIndex = RangeSumIndex.ofChildren(myNodes);
+    }
+    return myChildrenIndex.getIntersectionSum(range);
   }
 
   public boolean inRange(Range range) {
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu;
 
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.LineChartModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
@@ -28,7 +29,8 @@ public class CpuUsage extends LineChartModel {
 
   public CpuUsage(@NotNull StudioProfilers profilers) {
     myCpuRange = new Range(0, 100);
-    CpuUsageDataSeries series = new CpuUsageDataSeries(profilers.getClient().getCpuClient(), false, profilers.getSession());
+    DataSeries<Long> series = profilers.getCachedSeries(
+      "Cpu.App", () -> new CpuUsageDataSeries(profilers.getClient().getCpuClient(), false, profilers.getSession()));
     myCpuSeries = new RangedContinuousSeries(getCpuSeriesLabel(), profilers.getTimeline().getViewRange(), myCpuRange, series);
     add(myCpuSeries);
   }
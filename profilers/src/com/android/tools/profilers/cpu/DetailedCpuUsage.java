@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu;
 
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
 import com.android.tools.profilers.StudioProfilers;
@@ -31,10 +32,12 @@ public class DetailedCpuUsage extends CpuUsage {
 
     myThreadRange = new Range(0, 8);
 
-    CpuUsageDataSeries others = new CpuUsageDataSeries(profilers.getClient().getCpuClient(), true, profilers.getSession());
+    DataSeries<Long> others = profilers.getCachedSeries(
+      "Cpu.Others", () -> new CpuUsageDataSeries(profilers.getClient().getCpuClient(), true, profilers.getSession()));
     myOtherCpuSeries = new RangedContinuousSeries("Others", profilers.getTimeline().getViewRange(), getCpuRange(), others);
 
-    CpuThreadCountDataSeries threads = new CpuThreadCountDataSeries(profilers.getClient().getCpuClient(), profilers.getSession());
+    DataSeries<Long> threads = profilers.getCachedSeries(
+      "Cpu.Threads", () -> new CpuThreadCountDataSeries(profilers.getClient().getCpuClient(), profilers.getSession()));
     myThreadsCountSeries = new RangedContinuousSeries("Threads", profilers.getTimeline().getViewRange(), myThreadRange, threads);
     add(myOtherCpuSeries);
     add(myThreadsCountSeries);
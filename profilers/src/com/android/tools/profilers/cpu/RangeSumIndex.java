@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers, for any {@link Range}, the sum of the lengths of its intersections with a fixed set of {@link CaptureNode}s, in O(log n) and
+ * without allocating.
+ *
+ * The sum over the nodes of {@code |[start, end] ∩ [min, max]|} is {@code G(max) - G(min)}, where {@code G(x)} is the time covered by the
+ * nodes before {@code x}, counted with multiplicity: the sum of {@code x - start} over the starts before {@code x}, minus the sum of
+ * {@code x - end} over the ends before {@code x}. Keeping the starts and the ends sorted, with their prefix sums, gives {@code G(x)} from
+ * two binary searches. Times are stored relative to the earliest start so the sums stay exact in double precision.
+ */
+final class RangeSumIndex {
+  private final long myBase;
+  private final long[] myStarts;
+  private final long[] myEnds;
+  /**
+   * {@code myStartSums[i]} is the sum of the first {@code i} sorted starts, so it has one more element than {@link #myStarts}.
+   */
+  private final long[] myStartSums;
+  private final long[] myEndSums;
+
+  private RangeSumIndex(@NotNull long[] starts, @NotNull long[] ends, int count) {
+    long[] sortedStarts = Arrays.copyOf(starts, count);
+    long[] sortedEnds = Arrays.copyOf(ends, count);
+    Arrays.sort(sortedStarts);
+    Arrays.sort(sortedEnds);
+    myBase = count == 0 ? 0 : sortedStarts[0];
+    myStarts = sortedStarts;
+    myEnds = sortedEnds;
+    myStartSums = new long[count + 1];
+    myEndSums = new long[count + 1];
+    for (int i = 0; i < count; i++) {
+      myStarts[i] -= myBase;
+      myEnds[i] -= myBase;
+      myStartSums[i + 1] = myStartSums[i] + myStarts[i];
+      myEndSums[i + 1] = myEndSums[i] + myEnds[i];
+    }
+  }
+
+  /**
+   * Indexes {@code nodes} themselves.
+   */
+  @NotNull
+  static RangeSumIndex ofNodes(@NotNull List<CaptureNode> nodes) {
+    long[] starts = new long[nodes.size()];
+    long[] ends = new long[nodes.size()];
+    int count = 0;
+    for (CaptureNode node : nodes) {
+      count = add(node, starts, ends, count);
+    }
+    return new RangeSumIndex(starts, ends, count);
+  }
+
+  /**
+   * Indexes the children of {@code nodes}.
+   */
+  @NotNull
+  static RangeSumIndex ofChildren(@NotNull List<CaptureNode> nodes) {
+    int childCount = 0;
+    for (CaptureNode node : nodes) {
+      childCount += node.getChildCount();
+    }
+    long[] starts = new long[childCount];
+    long[] ends = new long[childCount];
+    int count = 0;
+    for (CaptureNode node : nodes) {
+      for (CaptureNode child : node.getChildren()) {
+        count = add(child, starts, ends, count);
+      }
+    }
+    return new RangeSumIndex(starts, ends, count);
+  }
+
+  private static int add(@NotNull CaptureNode node, @NotNull long[] starts, @NotNull long[] ends, int count) {
+    // Nodes ending before they start are empty ranges, which intersect nothing.
+    if (node.getEnd() < node.getStart()) {
+      return count;
+    }
+    starts[count] = node.getStart();
+    ends[count] = node.getEnd();
+    return count + 1;
+  }
+
+  /**
+   * @return the sum of the lengths of the intersections of {@code range} with the indexed nodes.
+   */
+  double getIntersectionSum(@NotNull Range range) {
+    if (range.isEmpty() || myStarts.length == 0) {
+      return 0;
+    }
+    return Math.max(0, getCoveredBefore(range.getMax() - myBase) - getCoveredBefore(range.getMin() - myBase));
+  }
+
+  private double getCoveredBefore(double x) {
+    int startCount = countAtMost(myStarts, x);
+    int endCount = countAtMost(myEnds, x);
+    return (startCount * x - myStartSums[startCount]) - (endCount * x - myEndSums[endCount]);
+  }
+
+  /**
+   * @return the number of values of the sorted {@code values} that are lower than or equal to {@code x}.
+   */
+  private static int countAtMost(@NotNull long[] values, double x) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] <= x) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.profiler.proto.Common;
+import com.android.tools.profiler.proto.CpuProfiler.*;
+import com.android.tools.profiler.proto.CpuServiceGrpc;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread activities and traces of a session over the range the threads list last looked at, shared by all the rows of the list.
+ *
+ * Without it, every {@link ThreadStateDataSeries} would fetch the activities of all the threads and the traces for every frame, only to
+ * keep those of its own thread. Instead, a window of time is fetched once, and extended as the timeline advances by fetching only the
+ * time after it. Each thread's states are computed once per fetch and handed out as views of a shared list.
+ */
+final class ThreadStateCache {
+  /**
+   * Activities can reach the datastore a little after the time they happened at. When the window is extended, its last part is fetched
+   * again so those are not missed.
+   */
+  private static final long REFETCH_MARGIN_NS = TimeUnit.SECONDS.toNanos(1);
+
+  @NotNull private final CpuProfilerStage myStage;
+  @NotNull private final Common.Session mySession;
+
+  /**
+   * Threads by id, sorted by id like the datastore returns them.
+   */
+  @NotNull private final Map<Integer, CachedThread> myThreads = new TreeMap<>();
+  @NotNull private List<TraceInfo> myTraces = Collections.emptyList();
+  /**
+   * The fetched window, in nanoseconds. Only valid when {@link #myHasWindow} is true.
+   */
+  private long myWindowStartNs;
+  private long myWindowEndNs;
+  private boolean myHasWindow;
+
+  ThreadStateCache(@NotNull CpuProfilerStage stage, @NotNull Common.Session session) {
+    myStage = stage;
+    mySession = session;
+  }
+
+  @NotNull
+  Common.Session getSession() {
+    return mySession;
+  }
+
+  /**
+   * @return the threads that were alive during {@code rangeUs}, sorted by id.
+   */
+  @NotNull
+  synchronized List<CachedThread> getThreads(@NotNull Range rangeUs) {
+    if (rangeUs.isEmpty()) {
+      return Collections.emptyList();
+    }
+    long startNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMin());
+    long endNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMax());
+    ensureWindow(startNs, endNs);
+
+    List<CachedThread> threads = new ArrayList<>();
+    for (CachedThread thread : myThreads.values()) {
+      if (thread.isAlive(startNs, endNs)) {
+        threads.add(thread);
+      }
+    }
+    return threads;
+  }
+
+  /**
+   * @return the states of thread {@code threadId} during {@code rangeUs}, preceded by the state it was in right before the range. The list
+   * is a view of the cached states, and must not be modified.
+   */
+  @NotNull
+  synchronized List<SeriesData<CpuProfilerStage.ThreadState>> getStates(int threadId, @NotNull Range rangeUs) {
+    if (rangeUs.isEmpty()) {
+      return Collections.emptyList();
+    }
+    long startNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMin());
+    long endNs = TimeUnit.MICROSECONDS.toNanos((long)rangeUs.getMax());
+    ensureWindow(startNs, endNs);
+
+    CachedThread thread = myThreads.get(threadId);
+    if (thread == null) {
+      return Collections.emptyList();
+    }
+    List<SeriesData<CpuProfilerStage.ThreadState>> states = thread.getStates(myTraces);
+    // Keep the last state that started before the range, as the thread is in that state at the start of the range.
+    int from = Math.max(0, countBefore(states, (long)rangeUs.getMin(), false) - 1);
+    int to = countBefore(states, (long)rangeUs.getMax(), true);
+    return from < to ? states.subList(from, to) : Collections.emptyList();
+  }
+
+  /**
+   * Makes sure the window covers {@code [startNs, endNs]}, fetching as little of it as possible.
+   */
+  private void ensureWindow(long startNs, long endNs) {
+    if (!myHasWindow || startNs < myWindowStartNs || startNs > myWindowEndNs) {
+      myThreads.clear();
+      fetch(startNs, endNs);
+      myWindowStartNs = startNs;
+      myHasWindow = true;
+    }
+    else if (endNs > myWindowEndNs) {
+      fetch(Math.max(myWindowStartNs, myWindowEndNs - REFETCH_MARGIN_NS), endNs);
+      // The timeline moved forward, drop what is now out of sight.
+      for (CachedThread thread : myThreads.values()) {
+        thread.trimBefore(startNs);
+      }
+      myWindowStartNs = startNs;
+    }
+    else {
+      return;
+    }
+    myWindowEndNs = endNs;
+
+    CpuServiceGrpc.CpuServiceBlockingStub client = myStage.getStudioProfilers().getClient().getCpuClient();
+    // Traces are few, fetch all the ones in the window, so a trace that was saved late is not missed.
+    myTraces = client.getTraceInfo(GetTraceInfoRequest.newBuilder()
+                                     .setSession(mySession)
+                                     .setFromTimestamp(myWindowStartNs)
+                                     .setToTimestamp(myWindowEndNs)
+                                     .build()).getTraceInfoList();
+  }
+
+  /**
+   * Fetches the activities in {@code (startNs, endNs]}, replacing any cached ones in that interval.
+   */
+  private void fetch(long startNs, long endNs) {
+    CpuServiceGrpc.CpuServiceBlockingStub client = myStage.getStudioProfilers().getClient().getCpuClient();
+    GetThreadsResponse response = client.getThreads(GetThreadsRequest.newBuilder()
+                                                      .setSession(mySession)
+                                                      .setStartTimestamp(startNs)
+                                                      .setEndTimestamp(endNs)
+                                                      .build());
+    boolean extending = !myThreads.isEmpty();
+    for (CachedThread thread : myThreads.values()) {
+      thread.trimAfter(startNs);
+    }
+    for (GetThreadsResponse.Thread thread : response.getThreadsList()) {
+      CachedThread cachedThread = myThreads.computeIfAbsent(thread.getTid(), tid -> new CachedThread(tid, thread.getName()));
+      for (GetThreadsResponse.ThreadActivity activity : thread.getActivitiesList()) {
+        // When extending, the state a thread was in at startNs is already cached.
+        if (!extending || activity.getTimestamp() > startNs) {
+          cachedThread.add(activity);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of {@code states} that start before {@code timeUs}, or at {@code timeUs} if {@code inclusive}.
+   */
+  private static int countBefore(@NotNull List<SeriesData<CpuProfilerStage.ThreadState>> states, long timeUs, boolean inclusive) {
+    int low = 0;
+    int high = states.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      long x = states.get(mid).x;
+      if (x < timeUs || (inclusive && x == timeUs)) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  static final class CachedThread {
+    private final int myThreadId;
+    @NotNull private final String myName;
+    /**
+     * Sorted by timestamp.
+     */
+    @NotNull private final List<GetThreadsResponse.ThreadActivity> myActivities = new ArrayList<>();
+    /**
+     * The states of the thread, computed from {@link #myActivities} and the traces on first use. A new list is created whenever they
+     * change, so views handed out earlier stay valid.
+     */
+    @Nullable private List<SeriesData<CpuProfilerStage.ThreadState>> myStates;
+    @Nullable private List<TraceInfo> myStatesTraces;
+
+    private CachedThread(int threadId, @NotNull String name) {
+      myThreadId = threadId;
+      myName = name;
+    }
+
+    int getThreadId() {
+      return myThreadId;
+    }
+
+    @NotNull
+    String getName() {
+      return myName;
+    }
+
+    private void add(@NotNull GetThreadsResponse.ThreadActivity activity) {
+      myActivities.add(activity);
+      myStates = null;
+    }
+
+    /**
+     * Drops the activities after {@code timeNs}.
+     */
+    private void trimAfter(long timeNs) {
+      int count = 0;
+      while (count < myActivities.size() && myActivities.get(count).getTimestamp() <= timeNs) {
+        count++;
+      }
+      if (count < myActivities.size()) {
+        myActivities.subList(count, myActivities.size()).clear();
+        myStates = null;
+      }
+    }
+
+    /**
+     * Drops the activities before {@code timeNs}, but the one the thread is in at {@code timeNs}.
+     */
+    private void trimBefore(long timeNs) {
+      int count = 0;
+      while (count + 1 < myActivities.size() && myActivities.get(count + 1).getTimestamp() <= timeNs) {
+        count++;
+      }
+      if (count > 0) {
+        myActivities.subList(0, count).clear();
+        myStates = null;
+      }
+    }
+
+    /**
+     * Mirrors the datastore: a thread is alive during {@code [startNs, endNs]} if it changed state during it, or was in a state other
+     * than DEAD at {@code startNs}.
+     */
+    private boolean isAlive(long startNs, long endNs) {
+      GetThreadsResponse.ThreadActivity stateAtStart = null;
+      for (GetThreadsResponse.ThreadActivity activity : myActivities) {
+        if (activity.getTimestamp() <= startNs) {
+          stateAtStart = activity;
+        }
+        else {
+          return activity.getTimestamp() <= endNs || (stateAtStart != null && isNotDead(stateAtStart));
+        }
+      }
+      return stateAtStart != null && isNotDead(stateAtStart);
+    }
+
+    private static boolean isNotDead(@NotNull GetThreadsResponse.ThreadActivity activity) {
+      return activity.getNewState() != GetThreadsResponse.State.DEAD;
+    }
+
+    @NotNull
+    private List<SeriesData<CpuProfilerStage.ThreadState>> getStates(@NotNull List<TraceInfo> traces) {
+      if (myStates == null || myStatesTraces != traces) {
+        myStates = computeStates(traces);
+        myStatesTraces = traces;
+      }
+      return myStates;
+    }
+
+    /**
+     * Merges the activities of the thread with the traces that captured it.
+     */
+    @NotNull
+    private List<SeriesData<CpuProfilerStage.ThreadState>> computeStates(@NotNull List<TraceInfo> traces) {
+      List<Long> captureTimes = new ArrayList<>(traces.size() * 2);
+      for (TraceInfo traceInfo : traces) {
+        if (traceInfo.getThreadsList().stream().anyMatch(t -> t.getTid() == myThreadId)) {
+          captureTimes.add(TimeUnit.NANOSECONDS.toMicros(traceInfo.getFromTimestamp()));
+          captureTimes.add(TimeUnit.NANOSECONDS.toMicros(traceInfo.getToTimestamp()));
+        }
+      }
+
+      List<SeriesData<CpuProfilerStage.ThreadState>> data = new ArrayList<>(myActivities.size() + captureTimes.size());
+      int i = 0;
+      int j = 0;
+      boolean inCapture = false;
+      GetThreadsResponse.State state = GetThreadsResponse.State.UNSPECIFIED;
+      while (i < myActivities.size()) {
+        GetThreadsResponse.ThreadActivity activity = myActivities.get(i);
+
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(activity.getTimestamp());
+        long captureTime = j < captureTimes.size() ? captureTimes.get(j) : Long.MAX_VALUE;
+
+        long time;
+        if (captureTime < timestamp) {
+          inCapture = !inCapture;
+          time = captureTime;
+          j++;
+        }
+        else {
+          state = activity.getNewState();
+          time = timestamp;
+          i++;
+        }
+        // We shouldn't add an activity if capture has started before the first activity for the current thread.
+        if (state != GetThreadsResponse.State.UNSPECIFIED) {
+          data.add(new SeriesData<>(time, getState(state, inCapture)));
+        }
+      }
+      while (j < captureTimes.size()) {
+        inCapture = !inCapture;
+        data.add(new SeriesData<>(captureTimes.get(j), getState(state, inCapture)));
+        j++;
+      }
+      return data;
+    }
+
+    @NotNull
+    private static CpuProfilerStage.ThreadState getState(@NotNull GetThreadsResponse.State state, boolean captured) {
+      switch (state) {
+        case RUNNING:
+          return captured ? CpuProfilerStage.ThreadState.RUNNING_CAPTURED : CpuProfilerStage.ThreadState.RUNNING;
+        case DEAD:
+          return captured ? CpuProfilerStage.ThreadState.DEAD_CAPTURED : CpuProfilerStage.ThreadState.DEAD;
+        case SLEEPING:
+          return captured ? CpuProfilerStage.ThreadState.SLEEPING_CAPTURED : CpuProfilerStage.ThreadState.SLEEPING;
+        case WAITING:
+          return captured ? CpuProfilerStage.ThreadState.WAITING_CAPTURED : CpuProfilerStage.ThreadState.WAITING;
+        default:
+          // TODO: Use colors that have been agreed in design review.
+          return CpuProfilerStage.ThreadState.UNKNOWN;
+      }
+    }
+  }
+}
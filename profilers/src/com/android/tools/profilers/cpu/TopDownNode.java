@@ -16,11 +16,9 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
-import java.util.TreeMap;
-
 /**
  * A top-down CPU usage tree. This is a node on that tree and represents all the calls that share the same callstack upto a point.
  * It's created from an execution tree by merging the nodes with the same path from the root.
@@ -29,7 +27,15 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
   private static final String INVALID_ID = "";
 
   TopDownNode(@NotNull CaptureNode node) {
+    this(node, true);
+  }
+
+  private TopDownNode(@NotNull CaptureNode node, boolean isTopNode) {
     super(node.getData() == null ? INVALID_ID : node.getData().getId());
+    if (isTopNode) {
+      // Children are merged on their method ids.
+      CaptureNode.assignMethodIds(node);
+    }
     addNode(node);
 
     // We're adding unmatched children separately, because we don't want to merge unmatched with matched,
@@ -42,7 +48,7 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
    * Adds children of {@param node} whose filter type matches to the flag {@param unmatched}.
    */
   private void addChildren(@NotNull CaptureNode node, boolean unmatched) {
-    Map<String, TopDownNode> children = new TreeMap<>();
+    TIntObjectHashMap<TopDownNode> children = new TIntObjectHashMap<>();
     for (CaptureNode child : node.getChildren()) {
       assert child.getData() != null;
 
@@ -50,10 +56,10 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
         continue;
       }
 
-      TopDownNode prev = children.get(child.getData().getId());
-      TopDownNode other = new TopDownNode(child);
+      TopDownNode prev = children.get(child.getMethodId());
+      TopDownNode other = new TopDownNode(child, false);
       if (prev == null) {
-        children.put(child.getData().getId(), other);
+        children.put(child.getMethodId(), other);
         addChild(other);
       }
       else {
@@ -67,14 +73,14 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
 
     // We use a separate map for unmatched children, because we can not merge unmatched with matched,
     // i.e all merged children should have the same {@link CaptureNode.FilterType};
-    Map<String, TopDownNode> children = new TreeMap<>();
-    Map<String, TopDownNode> unmatchedChildren = new TreeMap<>();
+    TIntObjectHashMap<TopDownNode> children = new TIntObjectHashMap<>();
+    TIntObjectHashMap<TopDownNode> unmatchedChildren = new TIntObjectHashMap<>();
 
     for (TopDownNode child : getChildren()) {
       if (child.isUnmatched()) {
-        unmatchedChildren.put(child.getId(), child);
+        unmatchedChildren.put(child.getMethodId(), child);
       } else {
-        children.put(child.getId(), child);
+        children.put(child.getMethodId(), child);
       }
     }
 
@@ -82,9 +88,9 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
       TopDownNode existing;
 
       if (otherChild.isUnmatched()) {
-        existing = unmatchedChildren.get(otherChild.getId());
+        existing = unmatchedChildren.get(otherChild.getMethodId());
       } else {
-        existing = children.get(otherChild.getId());
+        existing = children.get(otherChild.getMethodId());
       }
       if (existing != null) {
         existing.merge(otherChild);
@@ -95,6 +101,13 @@ class TopDownNode extends CpuTreeNode<TopDownNode> {
     }
   }
 
+  /**
+   * @return the {@link CaptureNode#getMethodId()} shared by all the nodes merged into this one.
+   */
+  private int getMethodId() {
+    return getNodes().get(0).getMethodId();
+  }
+
   @NotNull
   @Override
   public CaptureNodeModel getMethodModel() {
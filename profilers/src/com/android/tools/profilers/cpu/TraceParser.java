@@ -16,9 +16,14 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.Range;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 
 /**
@@ -29,6 +34,29 @@ public interface TraceParser {
 
   void parse(File file) throws IOException;
 
+  /**
+   * Parses the trace held by the remaining bytes of {@code buffer}, e.g. the {@code ByteString#asReadOnlyByteBuffer()} of a trace received
+   * from the device. The buffer's position is left unchanged.
+   *
+   * Parsers that can read from memory should override this to avoid the copy. By default, the bytes are written to a temporary file that
+   * is handed to {@link #parse(File)}, which is what parsers built on file-based libraries need anyway.
+   */
+  default void parse(@NotNull ByteBuffer buffer) throws IOException {
+    File trace = FileUtil.createTempFile("cpu_trace", ".trace");
+    try {
+      try (FileChannel channel = new FileOutputStream(trace).getChannel()) {
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+          channel.write(source);
+        }
+      }
+      parse(trace);
+    }
+    finally {
+      FileUtil.delete(trace);
+    }
+  }
+
   Map<CpuThreadInfo, CaptureNode> getCaptureTrees();
 
   Range getRange();
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.simpleperf;
+
+import com.android.tools.profiler.proto.SimpleperfReport;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact storage for the samples of a simpleperf trace, filled one record at a time while the trace is read.
+ *
+ * The samples can't be turned into {@link com.android.tools.profilers.cpu.CaptureNode} trees as they are read, because simpleperf writes
+ * the file and thread records they refer to at the end of the trace. Instead of holding on to every {@link SimpleperfReport.Sample} until
+ * then, each distinct call chain entry is stored once and identified by an int, and a sample is reduced to its timestamp and the ids of
+ * its call chain, in primitive arrays per thread. Two entries get the same id exactly when they represent the same method.
+ */
+final class SampleStore {
+  /**
+   * When the name of a function (symbol) is not found in the symbol table, the symbol_id field is set to -1.
+   */
+  static final int INVALID_SYMBOL_ID = -1;
+
+  private final Map<FrameKey, Integer> myFrameIds = new HashMap<>();
+  private final List<SimpleperfReport.Sample.CallChainEntry> myFrames = new ArrayList<>();
+  private final Map<Integer, ThreadSamples> myThreadSamples = new HashMap<>();
+  private int mySampleCount;
+  private long myFirstSampleTime;
+  private long myLastSampleTime;
+
+  /**
+   * Adds a sample. Samples are expected in the order of the trace, which is chronological.
+   */
+  void add(@NotNull SimpleperfReport.Sample sample) {
+    ThreadSamples threadSamples = myThreadSamples.computeIfAbsent(sample.getThreadId(), id -> new ThreadSamples());
+    // Simpleperf orders call chains from leaf to root, store them from root to leaf, which is the order the trees are built in.
+    for (int i = sample.getCallchainCount() - 1; i >= 0; i--) {
+      threadSamples.myFrames.add(getFrameId(sample.getCallchain(i)));
+    }
+    threadSamples.myTimes.add(sample.getTime());
+    threadSamples.myCallChainEnds.add(threadSamples.myFrames.size());
+
+    if (mySampleCount == 0) {
+      myFirstSampleTime = sample.getTime();
+    }
+    myLastSampleTime = sample.getTime();
+    mySampleCount++;
+  }
+
+  int getSampleCount() {
+    return mySampleCount;
+  }
+
+  long getFirstSampleTime() {
+    return myFirstSampleTime;
+  }
+
+  long getLastSampleTime() {
+    return myLastSampleTime;
+  }
+
+  /**
+   * @return the first call chain entry that was given {@code frameId}.
+   */
+  @NotNull
+  SimpleperfReport.Sample.CallChainEntry getFrame(int frameId) {
+    return myFrames.get(frameId);
+  }
+
+  int getFrameCount() {
+    return myFrames.size();
+  }
+
+  /**
+   * @return the samples grouped by thread id.
+   */
+  @NotNull
+  Map<Integer, ThreadSamples> getThreadSamples() {
+    return myThreadSamples;
+  }
+
+  /**
+   * Releases the stored samples, once they have been turned into trees.
+   */
+  void clear() {
+    myFrameIds.clear();
+    myFrames.clear();
+    myThreadSamples.clear();
+  }
+
+  private int getFrameId(@NotNull SimpleperfReport.Sample.CallChainEntry entry) {
+    // An entry without a valid symbol is identified by its address in the file instead.
+    long vaddr = entry.getSymbolId() == INVALID_SYMBOL_ID ? entry.getVaddrInFile() : 0;
+    FrameKey key = new FrameKey(entry.getFileId(), entry.getSymbolId(), vaddr);
+    Integer id = myFrameIds.get(key);
+    if (id == null) {
+      id = myFrames.size();
+      myFrames.add(entry);
+      myFrameIds.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * Samples of a single thread, in chronological order.
+   */
+  static final class ThreadSamples {
+    private final TLongArrayList myTimes = new TLongArrayList();
+    /**
+     * The call chain of sample {@code i} is {@code myFrames[myCallChainEnds[i - 1], myCallChainEnds[i])}.
+     */
+    private final TIntArrayList myCallChainEnds = new TIntArrayList();
+    private final TIntArrayList myFrames = new TIntArrayList();
+
+    int size() {
+      return myTimes.size();
+    }
+
+    long getTime(int sample) {
+      return myTimes.get(sample);
+    }
+
+    int getCallChainStart(int sample) {
+      return sample == 0 ? 0 : myCallChainEnds.get(sample - 1);
+    }
+
+    int getCallChainEnd(int sample) {
+      return myCallChainEnds.get(sample);
+    }
+
+    /**
+     * @return the id of the frame at {@code index}, an index between the start and end of a sample's call chain.
+     */
+    int getFrameId(int index) {
+      return myFrames.get(index);
+    }
+  }
+
+  private static final class FrameKey {
+    private final int myFileId;
+    private final int mySymbolId;
+    private final long myVaddr;
+
+    FrameKey(int fileId, int symbolId, long vaddr) {
+      myFileId = fileId;
+      mySymbolId = symbolId;
+      myVaddr = vaddr;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FrameKey)) {
+        return false;
+      }
+      FrameKey other = (FrameKey)o;
+      return myFileId == other.myFileId && mySymbolId == other.mySymbolId && myVaddr == other.myVaddr;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * myFileId + mySymbolId) + Long.hashCode(myVaddr);
+    }
+  }
+}
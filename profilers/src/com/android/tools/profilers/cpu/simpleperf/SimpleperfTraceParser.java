@@ -17,23 +17,27 @@ package com.android.tools.profilers.cpu.simpleperf;
 
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.protobuf3jarjar.CodedInputStream;
 import com.android.tools.profiler.proto.SimpleperfReport;
 import com.android.tools.profilers.cpu.*;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.NoSymbolModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
-import com.google.common.collect.Lists;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -41,11 +45,6 @@ import java.util.concurrent.TimeUnit;
  */
 public class SimpleperfTraceParser implements TraceParser {
 
-  /**
-   * When the name of a function (symbol) is not found in the symbol table, the symbol_id field is set to -1.
-   */
-  private static final int INVALID_SYMBOL_ID = -1;
-
   /**
    * Maps a file id to its correspondent {@link SimpleperfReport.File}.
    */
@@ -57,10 +56,13 @@ public class SimpleperfTraceParser implements TraceParser {
   private final Map<Integer, String> myThreads;
 
   /**
-   * List of samples containing method trace data.
+   * Samples containing method trace data, kept in a compact form until the trace has been read.
    */
   @VisibleForTesting
-  final List<SimpleperfReport.Sample> mySamples;
+  final SampleStore mySamples;
+
+  @NotNull
+  private final ForkJoinPool myTreeBuilderPool;
 
   /**
    * Maps a {@link CpuThreadInfo} to its correspondent method call tree.
@@ -88,8 +90,17 @@ public class SimpleperfTraceParser implements TraceParser {
   private List<String> myEventTypes;
 
   public SimpleperfTraceParser() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param treeBuilderPool pool building the call trees of the threads in parallel.
+   */
+  @VisibleForTesting
+  SimpleperfTraceParser(@NotNull ForkJoinPool treeBuilderPool) {
+    myTreeBuilderPool = treeBuilderPool;
     myFiles = new HashMap<>();
-    mySamples = new ArrayList<>();
+    mySamples = new SampleStore();
     myCaptureTrees = new HashMap<>();
     myThreads = new HashMap<>();
   }
@@ -102,20 +113,6 @@ public class SimpleperfTraceParser implements TraceParser {
     return splitPath[splitPath.length - 1];
   }
 
-  private static boolean equals(SimpleperfReport.Sample.CallChainEntry c1, SimpleperfReport.Sample.CallChainEntry c2) {
-    boolean isSameFileAndSymbolId = c1.getFileId() == c2.getFileId() && c1.getSymbolId() == c2.getSymbolId();
-    if (!isSameFileAndSymbolId) {
-      // Call chain entries need to be obtained from the same file and have the same symbol id in order to be equal.
-      return false;
-    }
-    if (c1.getSymbolId() == -1) {
-      // Symbol is invalid, fallback to vaddress
-      return c1.getVaddrInFile() == c2.getVaddrInFile();
-    }
-    // Both file and symbol id match, and symbol is valid
-    return true;
-  }
-
   private static Logger getLog() {
     return Logger.getInstance(SimpleperfTraceParser.class);
   }
@@ -132,6 +129,17 @@ public class SimpleperfTraceParser implements TraceParser {
   public void parse(File trace) throws IOException {
     parseTraceFile(trace);
     parseSampleData();
+    mySamples.clear();
+  }
+
+  /**
+   * Parses the trace straight from {@code buffer}, without copying the records out of it.
+   */
+  @Override
+  public void parse(@NotNull ByteBuffer buffer) throws IOException {
+    parseTraceBuffer(buffer);
+    parseSampleData();
+    mySamples.clear();
   }
 
   @Override
@@ -171,20 +179,33 @@ public class SimpleperfTraceParser implements TraceParser {
    * message Record(record_N) (having record_size_N bytes)
    * LittleEndian32(0)
    *
-   * Parsed data is stored in {@link #myFiles} and {@link #mySamples}.
+   * Parsed data is stored in {@link #myFiles} and {@link #mySamples}. Records are decoded one at a time, and samples are only kept in
+   * the compact form of {@link SampleStore}, so the memory needed is a fraction of the size of the trace.
    */
   @VisibleForTesting
   void parseTraceFile(File trace) throws IOException {
-    ByteBuffer buffer = byteBufferFromFile(trace, ByteOrder.LITTLE_ENDIAN);
+    parseTraceBuffer(byteBufferFromFile(trace, ByteOrder.LITTLE_ENDIAN));
+  }
+
+  /**
+   * Same as {@link #parseTraceFile(File)}, reading the remaining bytes of {@code traceBuffer}. The buffer's position is left unchanged.
+   */
+  @VisibleForTesting
+  void parseTraceBuffer(@NotNull ByteBuffer traceBuffer) throws IOException {
+    ByteBuffer buffer = traceBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
     // Read the first record size
     int recordSize = buffer.getInt();
 
     // 0 is used to indicate the end of the trace
     while (recordSize != 0) {
-      // The next recordSize bytes should represent the record
-      byte[] recordBytes = new byte[recordSize];
-      buffer.get(recordBytes);
-      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(recordBytes);
+      // The next recordSize bytes should represent the record. Decode them in place rather than copying them to an array first.
+      if (recordSize < 0 || recordSize > buffer.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      ByteBuffer recordBuffer = buffer.slice();
+      recordBuffer.limit(recordSize);
+      buffer.position(buffer.position() + recordSize);
+      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(CodedInputStream.newInstance(recordBuffer));
 
       switch (record.getRecordDataCase()) {
         case FILE:
@@ -198,8 +219,7 @@ public class SimpleperfTraceParser implements TraceParser {
           myLostSampleCount = situation.getLostCount();
           break;
         case SAMPLE:
-          SimpleperfReport.Sample sample = record.getSample();
-          mySamples.add(sample);
+          mySamples.add(record.getSample());
           break;
         case THREAD:
           SimpleperfReport.Thread thread = record.getThread();
@@ -217,7 +237,7 @@ public class SimpleperfTraceParser implements TraceParser {
       recordSize = buffer.getInt();
     }
 
-    if (mySamples.size() != mySampleCount) {
+    if (mySamples.getSampleCount() != mySampleCount) {
       // TODO: create a trace file to test this exception is thrown when it should.
       throw new IllegalStateException("Samples count doesn't match the number of samples read.");
     }
@@ -227,36 +247,41 @@ public class SimpleperfTraceParser implements TraceParser {
    * Parses the data from {@link #mySamples} into a map of tid -> {@link CaptureNode}.
    */
   private void parseSampleData() {
-    if (mySamples.isEmpty()) {
+    if (mySamples.getSampleCount() == 0) {
       return;
     }
     // Set the capture range
-    long startTimestamp = mySamples.get(0).getTime();
-    long endTimestamp = mySamples.get(mySamples.size() - 1).getTime();
+    long startTimestamp = mySamples.getFirstSampleTime();
+    long endTimestamp = mySamples.getLastSampleTime();
     myRange = new Range(TimeUnit.NANOSECONDS.toMicros(startTimestamp), TimeUnit.NANOSECONDS.toMicros(endTimestamp));
 
-    // Split the samples per thread.
-    Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
+    for (int threadId : mySamples.getThreadSamples().keySet()) {
+      if (!myThreads.containsKey(threadId)) {
+        throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+      }
+    }
 
-    // Process the sampels for each thread
-    for (Map.Entry<Integer, List<SimpleperfReport.Sample>> threadSamplesEntry : threadSamples.entrySet()) {
-      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue());
+    // Each distinct method gets a single model, shared by all the nodes calling it. Every frame is used by some sample, so they are all
+    // resolved up front and the trees can then be built without touching any shared state.
+    CaptureNodeModel[] models = new CaptureNodeModel[mySamples.getFrameCount()];
+    for (int i = 0; i < models.length; i++) {
+      models[i] = methodModelFromCallchainEntry(mySamples.getFrame(i));
     }
-  }
 
-  /**
-   * Group the samples collected by thread.
-   */
-  private Map<Integer, List<SimpleperfReport.Sample>> splitSamplesPerThread() {
-    Map<Integer, List<SimpleperfReport.Sample>> threadSamples = new HashMap<>();
-    for (SimpleperfReport.Sample sample : mySamples) {
-      int threadId = sample.getThreadId();
-      if (!threadSamples.containsKey(threadId)) {
-        threadSamples.put(threadId, new ArrayList<>());
+    // The trees of the threads are independent of each other, so build them in parallel.
+    List<Integer> threadIds = new ArrayList<>(mySamples.getThreadSamples().keySet());
+    List<ForkJoinTask<CaptureNode>> tasks = new ArrayList<>(threadIds.size());
+    for (Integer threadId : threadIds) {
+      SampleStore.ThreadSamples threadSamples = mySamples.getThreadSamples().get(threadId);
+      tasks.add(myTreeBuilderPool.submit(() -> parseThreadSamples(threadId, threadSamples, models)));
+    }
+    for (int i = 0; i < threadIds.size(); i++) {
+      CaptureNode root = tasks.get(i).join();
+      if (root != null) {
+        int threadId = threadIds.get(i);
+        myCaptureTrees.put(new CpuThreadInfo(threadId, myThreads.get(threadId)), root);
       }
-      threadSamples.get(threadId).add(sample);
     }
-    return threadSamples;
   }
 
   // TODO: support thread time
@@ -272,46 +297,43 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the list of samples of a thread into a {@link CaptureNode} tree.
+   * Parses the samples of a thread into a {@link CaptureNode} tree, or returns null if the thread has no sample. Only reads the parser's
+   * state, so it can run concurrently for different threads.
    */
-  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
-    if (threadSamples.isEmpty()) {
+  @Nullable
+  private CaptureNode parseThreadSamples(int threadId, SampleStore.ThreadSamples threadSamples, CaptureNodeModel[] models) {
+    if (threadSamples.size() == 0) {
       getLog().warn(String.format("Warning: No samples read for thread %s (%d)", myThreads.get(threadId), threadId));
-      return;
-    }
-
-    if (!myThreads.containsKey(threadId)) {
-      throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+      return null;
     }
 
     // Add a root node to represent the thread itself.
-    long firstTimestamp = threadSamples.get(0).getTime();
+    long firstTimestamp = threadSamples.getTime(0);
     CaptureNode root = createCaptureNode(new SingleNameModel(myThreads.get(threadId)), firstTimestamp);
     root.setDepth(0);
-    myCaptureTrees.put(new CpuThreadInfo(threadId, myThreads.get(threadId)), root);
-
-    // Parse the first call chain so we have a value for lastCallchain
-    List<SimpleperfReport.Sample.CallChainEntry> previousCallChain = Lists.reverse(threadSamples.get(0).getCallchainList());
-    // Node used to traverse the tree. In the first traversal we pass an empty list as previous call chain and root as last visited node.
-    CaptureNode lastVisitedNode = parseCallChain(previousCallChain, Collections.emptyList(), threadSamples.get(0).getTime(), root);
-
-    // Now parse all the rest of the samples collected for this thread
-    for (int i = 1; i < threadSamples.size(); i++) {
-      SimpleperfReport.Sample sample = threadSamples.get(i);
-      // Reverse the call chain order because simpleperf returns the call chains ordered from leaf to root,
-      // so reversing it makes the traversal easier.
-      List<SimpleperfReport.Sample.CallChainEntry> callChain = Lists.reverse(sample.getCallchainList());
+
+    // Node used to traverse the tree. In the first traversal there is no previous call chain and root is the last visited node.
+    CaptureNode lastVisitedNode = root;
+    int previousStart = 0;
+    int previousEnd = 0;
+    for (int i = 0; i < threadSamples.size(); i++) {
+      // Call chains are stored from root to leaf, which makes the traversal easier.
+      int start = threadSamples.getCallChainStart(i);
+      int end = threadSamples.getCallChainEnd(i);
       // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
-      lastVisitedNode = parseCallChain(callChain, previousCallChain, sample.getTime(), lastVisitedNode);
-      previousCallChain = callChain;
+      lastVisitedNode =
+        parseCallChain(threadSamples, start, end, previousStart, previousEnd, threadSamples.getTime(i), lastVisitedNode, models);
+      previousStart = start;
+      previousEnd = end;
     }
 
     // Finally, update the end timestamp of the nodes in the last sample of the thread, which should be the last sample's timestamp.
     // TODO: when --trace-offcpu is supported, we need to check if the last sample has a "schedule" out event before updating the end time.
-    long lastTimestamp = mySamples.get(mySamples.size() - 1).getTime();
+    long lastTimestamp = mySamples.getLastSampleTime();
     updateAncestorsEndTime(lastTimestamp, lastVisitedNode);
     // update the root timestamp
     setNodeEndTime(root, lastTimestamp);
+    return root;
   }
 
   /**
@@ -327,33 +349,34 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Given a {@link SimpleperfReport.Sample.CallChainEntry} and the previous one, add the new method calls as nodes to the tree and set
-   * their start time to the given timestamp. Also, check which methods are not on the call chain anymore and update their end time.
-   * Receives a {@link CaptureNode} as a starting point to traverse the tree when adding new nodes or visiting existing ones. Returns the
-   * last visited node.
+   * Given a call chain and the previous one, both as ranges of frame ids in {@code threadSamples}, add the new method calls as nodes to the
+   * tree and set their start time to the given timestamp. Also, check which methods are not on the call chain anymore and update their
+   * end time. Receives a {@link CaptureNode} as a starting point to traverse the tree when adding new nodes or visiting existing ones.
+   * Returns the last visited node.
    */
-  private CaptureNode parseCallChain(List<SimpleperfReport.Sample.CallChainEntry> callChain,
-                                     List<SimpleperfReport.Sample.CallChainEntry> previousCallChain,
-                                     long sampleTimestamp, CaptureNode lastVisitedNode) {
+  private static CaptureNode parseCallChain(SampleStore.ThreadSamples threadSamples, int start, int end, int previousStart, int previousEnd,
+                                     long sampleTimestamp, CaptureNode lastVisitedNode, CaptureNodeModel[] models) {
     // Node used to traverse the tree when adding new nodes or going up to find the divergent node ancestor.
     CaptureNode traversalNode = lastVisitedNode;
+    int callChainSize = end - start;
+    int previousCallChainSize = previousEnd - previousStart;
 
-    // Find the node whre the current call chain diverge from the previous one
+    // Find the node where the current call chain diverge from the previous one. Frames representing the same method share an id.
     int divergenceIndex = 0;
-    while (divergenceIndex < callChain.size() && divergenceIndex < previousCallChain.size() &&
-           equals(previousCallChain.get(divergenceIndex), callChain.get(divergenceIndex))) {
+    while (divergenceIndex < callChainSize && divergenceIndex < previousCallChainSize &&
+           threadSamples.getFrameId(previousStart + divergenceIndex) == threadSamples.getFrameId(start + divergenceIndex)) {
       divergenceIndex ++;
     }
 
     // If there is a divergence, we update the end time of the traversal node and go up in the tree until we find the divergent node parent.
-    if (divergenceIndex < previousCallChain.size()) {
-      int divergenceCount = previousCallChain.size() - divergenceIndex;
+    if (divergenceIndex < previousCallChainSize) {
+      int divergenceCount = previousCallChainSize - divergenceIndex;
       traversalNode = findDivergenceAndUpdateEndTime(divergenceCount, sampleTimestamp, traversalNode);
     }
 
     // We add the new nodes (if any) present in the new call chain as descendants of the parent of the first divergent node.
-    if (divergenceIndex < callChain.size()) {
-      traversalNode = addNewNodes(callChain, traversalNode, divergenceIndex, sampleTimestamp);
+    if (divergenceIndex < callChainSize) {
+      traversalNode = addNewNodes(threadSamples, start + divergenceIndex, end, traversalNode, sampleTimestamp, models);
     }
 
     // Finally, return the traversal node.
@@ -375,14 +398,14 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Given a list of call chain entries and a start index, convert them to {@link CaptureNode} and add them as descendants of a given node.
+   * Given a range of frame ids, convert them to {@link CaptureNode} and add them as descendants of a given node.
    * Returns the last visited (added) node.
    */
-  private CaptureNode addNewNodes(List<SimpleperfReport.Sample.CallChainEntry> callChain,
-                                  CaptureNode node, int startIndex, long startTimestamp) {
+  private static CaptureNode addNewNodes(SampleStore.ThreadSamples threadSamples, int start, int end,
+                                  CaptureNode node, long startTimestamp, CaptureNodeModel[] models) {
     assert node != null;
-    for (int i = startIndex; i < callChain.size(); i++) {
-      CaptureNode child = createCaptureNode(methodModelFromCallchainEntry(callChain.get(i)), startTimestamp);
+    for (int i = start; i < end; i++) {
+      CaptureNode child = createCaptureNode(models[threadSamples.getFrameId(i)], startTimestamp);
       node.addChild(child);
       child.setDepth(node.getDepth() + 1);
       node = child;
@@ -395,9 +418,9 @@ public class SimpleperfTraceParser implements TraceParser {
     int symbolId = callChainEntry.getSymbolId();
     SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
     if (symbolFile == null) {
-      throw new IllegalStateException("Symbol file with id \"" + callChainEntry.getFileId() + "\" not found.");
+      throw new IllegalStateException("Malformed trace file: symbol file with id \"" + callChainEntry.getFileId() + "\" not found.");
     }
-    if (symbolId == INVALID_SYMBOL_ID) {
+    if (symbolId == SampleStore.INVALID_SYMBOL_ID) {
       // if symbol_id is -1, we report the method as fileName+vAddress (e.g. program.so+0x3039)
       String hexAddress = "0x" + Long.toHexString(callChainEntry.getVaddrInFile());
       String methodName = fileNameFromPath(symbolFile.getPath()) + "+" + hexAddress;
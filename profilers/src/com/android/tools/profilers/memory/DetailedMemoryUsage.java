@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory;
 
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.MemorySample;
@@ -41,16 +42,16 @@ public class DetailedMemoryUsage extends MemoryUsage {
     myProfilers = profilers;
     myObjectsRange = new Range(0, 0);
 
-    myJavaSeries = createRangedSeries(profilers, "Java", getMemoryRange(), MemorySample::getJavaMem);
-    myNativeSeries = createRangedSeries(profilers, "Native", getMemoryRange(), MemorySample::getNativeMem);
-    myGraphicsSeries = createRangedSeries(profilers, "Graphics", getMemoryRange(), MemorySample::getGraphicsMem);
-    myStackSeries = createRangedSeries(profilers, "Stack", getMemoryRange(), MemorySample::getStackMem);
-    myCodeSeries = createRangedSeries(profilers, "Code", getMemoryRange(), MemorySample::getCodeMem);
-    myOtherSeries = createRangedSeries(profilers, "Others", getMemoryRange(), MemorySample::getOthersMem);
+    myJavaSeries = createRangedSeries(profilers, "Java", "Memory.Java", getMemoryRange(), MemorySample::getJavaMem);
+    myNativeSeries = createRangedSeries(profilers, "Native", "Memory.Native", getMemoryRange(), MemorySample::getNativeMem);
+    myGraphicsSeries = createRangedSeries(profilers, "Graphics", "Memory.Graphics", getMemoryRange(), MemorySample::getGraphicsMem);
+    myStackSeries = createRangedSeries(profilers, "Stack", "Memory.Stack", getMemoryRange(), MemorySample::getStackMem);
+    myCodeSeries = createRangedSeries(profilers, "Code", "Memory.Code", getMemoryRange(), MemorySample::getCodeMem);
+    myOtherSeries = createRangedSeries(profilers, "Others", "Memory.Others", getMemoryRange(), MemorySample::getOthersMem);
 
     MemoryServiceGrpc.MemoryServiceBlockingStub client = profilers.getClient().getMemoryClient();
-    AllocStatsDataSeries series = new AllocStatsDataSeries(client, profilers.getSession(),
-                                                           sample -> (long)(sample.getJavaAllocationCount() - sample.getJavaFreeCount()));
+    DataSeries<Long> series = profilers.getCachedSeries("Memory.Allocated", () -> new AllocStatsDataSeries(
+      client, profilers.getSession(), sample -> (long)(sample.getJavaAllocationCount() - sample.getJavaFreeCount())));
     myObjectsSeries = new RangedContinuousSeries("Allocated", profilers.getTimeline().getViewRange(), getObjectsRange(), series);
 
     add(myJavaSeries);
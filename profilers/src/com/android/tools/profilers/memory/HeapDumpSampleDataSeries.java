@@ -31,6 +31,13 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 class HeapDumpSampleDataSeries extends CaptureDataSeries<CaptureObject> {
+  /**
+   * The capture of the most recently selected heap dump. Loading a dump parses it and computes its dominators and retained sizes, which
+   * takes a while for large dumps, so the loaded capture is kept when it is deselected and handed out again if the same dump is
+   * selected next. It is released when another dump is selected, or by {@link #releaseCapture()} once none can be selected anymore.
+   */
+  @Nullable private HeapDumpCaptureObject myLastCaptureObject;
+
   HeapDumpSampleDataSeries(@NotNull MemoryServiceGrpc.MemoryServiceBlockingStub client,
                                   @Nullable Common.Session session,
                                   @NotNull FeatureTracker featureTracker) {
@@ -52,9 +59,31 @@ class HeapDumpSampleDataSeries extends CaptureDataSeries<CaptureObject> {
           getDurationUs(info.getStartTime(), info.getEndTime()), false, false,
           new CaptureEntry<>(
             info,
-            () -> new HeapDumpCaptureObject(myClient, mySession, info, null, myFeatureTracker)))));
+            () -> getCaptureObject(info)))));
     }
 
     return seriesData;
   }
+
+  @NotNull
+  private synchronized HeapDumpCaptureObject getCaptureObject(@NotNull MemoryProfiler.HeapDumpInfo info) {
+    if (myLastCaptureObject != null) {
+      if (myLastCaptureObject.getStartTimeNs() == info.getStartTime() && myLastCaptureObject.getEndTimeNs() == info.getEndTime()) {
+        return myLastCaptureObject;
+      }
+      myLastCaptureObject.release();
+    }
+    myLastCaptureObject = new HeapDumpCaptureObject(myClient, mySession, info, null, myFeatureTracker);
+    return myLastCaptureObject;
+  }
+
+  /**
+   * Releases the capture kept for the most recently selected dump, e.g. when leaving the stage.
+   */
+  synchronized void releaseCapture() {
+    if (myLastCaptureObject != null) {
+      myLastCaptureObject.release();
+      myLastCaptureObject = null;
+    }
+  }
 }
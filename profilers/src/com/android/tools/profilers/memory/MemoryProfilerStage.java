@@ -83,6 +83,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
   @Nullable private Pattern myFilter;
 
   private final MemoryServiceBlockingStub myClient;
+  private final HeapDumpSampleDataSeries myHeapDumpSeries;
   private final DurationDataModel<CaptureDurationData<CaptureObject>> myHeapDumpDurations;
   private final DurationDataModel<CaptureDurationData<CaptureObject>> myAllocationDurations;
   private final CaptureObjectLoader myLoader;
@@ -106,7 +107,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     super(profilers);
     mySessionData = profilers.getSession();
     myClient = profilers.getClient().getMemoryClient();
-    HeapDumpSampleDataSeries heapDumpSeries =
+    myHeapDumpSeries =
       new HeapDumpSampleDataSeries(profilers.getClient().getMemoryClient(), mySessionData,
                                    getStudioProfilers().getIdeServices().getFeatureTracker());
     AllocationInfosDataSeries allocationSeries =
@@ -116,7 +117,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
 
     Range viewRange = profilers.getTimeline().getViewRange();
 
-    myHeapDumpDurations = new DurationDataModel<>(new RangedSeries<>(viewRange, heapDumpSeries));
+    myHeapDumpDurations = new DurationDataModel<>(new RangedSeries<>(viewRange, myHeapDumpSeries));
     myAllocationDurations = new DurationDataModel<>(new RangedSeries<>(viewRange, allocationSeries));
     mySelection = new MemoryProfilerSelection(this);
     myConfiguration = new MemoryProfilerConfiguration(this);
@@ -217,6 +218,7 @@ public class MemoryProfilerStage extends Stage implements CodeNavigator.Listener
     getStudioProfilers().getUpdater().unregister(myCaptureElapsedTimeUpdatable);
     selectCaptureDuration(null, null);
     myLoader.stop();
+    myHeapDumpSeries.releaseCapture();
 
     getStudioProfilers().getIdeServices().getCodeNavigator().removeListener(this);
 
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory;
 
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.LineChartModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
@@ -32,17 +33,18 @@ public class MemoryUsage extends LineChartModel {
 
   public MemoryUsage(@NotNull StudioProfilers profilers) {
     myMemoryRange = new Range(0, 0);
-    myTotalMemorySeries = createRangedSeries(profilers, getTotalSeriesLabel(), myMemoryRange, MemorySample::getTotalMem);
+    myTotalMemorySeries = createRangedSeries(profilers, getTotalSeriesLabel(), "Memory.Total", myMemoryRange, MemorySample::getTotalMem);
 
     add(myTotalMemorySeries);
   }
 
   protected RangedContinuousSeries createRangedSeries(StudioProfilers profilers,
                                                       String name,
+                                                      String seriesId,
                                                       Range range,
                                                       Function<MemorySample, Long> getter) {
     MemoryServiceGrpc.MemoryServiceBlockingStub client = profilers.getClient().getMemoryClient();
-    MemoryDataSeries series = new MemoryDataSeries(client, profilers.getSession(), getter);
+    DataSeries<Long> series = profilers.getCachedSeries(seriesId, () -> new MemoryDataSeries(client, profilers.getSession(), getter));
     return new RangedContinuousSeries(name, profilers.getTimeline().getViewRange(), range, series);
   }
 
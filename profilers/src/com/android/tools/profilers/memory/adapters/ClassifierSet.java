@@ -39,6 +39,8 @@ public abstract class ClassifierSet implements MemoryObject {
   // Note that instances here can also appear in the set of snapshot instances (e.g. when a instance is allocated before the selection
   // and deallocation within the selection).
   @NotNull protected final Set<InstanceObject> myDeltaInstances = new LinkedHashSet<>(0);
+  // Groups of delta instances that are counted in the totals but not wrapped into InstanceObjects until they are streamed.
+  @NotNull protected final List<DeferredInstanceObjects> myDeferredInstances = new ArrayList<>(0);
 
   // Lazily create the Classifier, as it is configurable and isn't necessary until nodes under this node needs to be classified.
   @Nullable protected Classifier myClassifier = null;
@@ -168,6 +170,24 @@ public abstract class ClassifierSet implements MemoryObject {
     return addDeltaInstanceInformation(instanceObject, true);
   }
 
+  /**
+   * Adds a group of delta allocations at once, without wrapping each of them into an {@link InstanceObject}. The instances are wrapped
+   * each time they are streamed, see {@link #getInstancesStream()}. Groups cannot be removed again.
+   */
+  public void addDeltaInstanceObjects(@NotNull DeferredInstanceObjects instances) {
+    if (myClassifier != null && !myClassifier.isTerminalClassifier()) {
+      myClassifier.getClassifierSet(instances.getFirstInstance(), true).addDeltaInstanceObjects(instances);
+    }
+    else {
+      myDeferredInstances.add(instances);
+    }
+
+    myDeltaAllocations += instances.getCount();
+    myTotalNativeSize += instances.getTotalNativeSize();
+    myTotalShallowSize += instances.getTotalShallowSize();
+    myTotalRetainedSize += instances.getTotalRetainedSize();
+  }
+
   // Add delta dealloc information into the ClassifierSet
   // Return true if the set did not contain the instance prior to invocation
   public boolean freeDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
@@ -267,6 +287,7 @@ public abstract class ClassifierSet implements MemoryObject {
   public void clearClassifierSets() {
     mySnapshotInstances.clear();
     myDeltaInstances.clear();
+    myDeferredInstances.clear();
     myClassifier = createSubClassifier();
     mySnapshotObjectCount = 0;
     myDeltaAllocations = 0;
@@ -279,14 +300,13 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   public int getInstancesCount() {
-    if (myClassifier == null) {
-      Set<InstanceObject> total = new HashSet<>(mySnapshotInstances);
-      total.addAll(myDeltaInstances);
-      return total.size();
-    }
-    else {
-      return (int)getInstancesStream().count();
+    Set<InstanceObject> total = new HashSet<>(mySnapshotInstances);
+    total.addAll(myDeltaInstances);
+    int count = total.size() + myDeferredInstances.stream().mapToInt(DeferredInstanceObjects::getCount).sum();
+    if (myClassifier != null) {
+      count += myClassifier.getAllClassifierSets().stream().mapToInt(ClassifierSet::getInstancesCount).sum();
     }
+    return count;
   }
 
   /**
@@ -295,6 +315,8 @@ public abstract class ClassifierSet implements MemoryObject {
   @NotNull
   public Stream<InstanceObject> getInstancesStream() {
     Stream<InstanceObject> total = Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).distinct();
+    // Deferred instances are not in any other set, so they are left out of distinct(), which would hold all of them at once.
+    total = Stream.concat(total, myDeferredInstances.stream().flatMap(DeferredInstanceObjects::createInstances));
     if (myClassifier == null) {
       return total;
     }
@@ -304,7 +326,22 @@ public abstract class ClassifierSet implements MemoryObject {
   }
 
   /**
-   * Return the stream of instance objects that contribute to the delta.
+   * Return the stream of the groups of delta instances that are not wrapped yet, see
+   * {@link #addDeltaInstanceObjects(DeferredInstanceObjects)}.
+   */
+  @NotNull
+  protected Stream<DeferredInstanceObjects> getDeferredInstanceStream() {
+    if (myClassifier == null) {
+      return myDeferredInstances.stream();
+    }
+    else {
+      return Stream.concat(myClassifier.getAllClassifierSets().stream().flatMap(ClassifierSet::getDeferredInstanceStream),
+                           myDeferredInstances.stream());
+    }
+  }
+
+  /**
+   * Return the stream of instance objects that contribute to the delta, other than the ones of {@link #getDeferredInstanceStream()}.
    * Note that there can be duplicated entries as {@link #getSnapshotInstanceStream()}.
    */
   @NotNull
@@ -354,18 +391,14 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @Nullable
   public ClassifierSet findContainingClassifierSet(@NotNull InstanceObject target) {
-    boolean instancesContainsTarget =
-      Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-        .isPresent();
+    boolean instancesContainsTarget = containsInstance(target);
     if (instancesContainsTarget && myClassifier != null) {
       return this;
     }
     else if (instancesContainsTarget || myClassifier != null) {
       List<ClassifierSet> childrenClassifierSets = getChildrenClassifierSets();
-      // mySnapshotInstances/myDeltaInstances can be updated after getChildrenClassiferSets so rebuild the stream.
-      boolean stillContainsTarget =
-        Stream.concat(mySnapshotInstances.stream(), myDeltaInstances.stream()).filter(instance -> target.equals(instance)).findAny()
-          .isPresent();
+      // mySnapshotInstances/myDeltaInstances/myDeferredInstances can be updated after getChildrenClassiferSets so check them again.
+      boolean stillContainsTarget = containsInstance(target);
       if (instancesContainsTarget && stillContainsTarget) {
         return this; // If after the partition the target still falls within the instances within this set, then return this set.
       }
@@ -380,6 +413,12 @@ public abstract class ClassifierSet implements MemoryObject {
     return null;
   }
 
+  private boolean containsInstance(@NotNull InstanceObject target) {
+    return mySnapshotInstances.contains(target) ||
+           myDeltaInstances.contains(target) ||
+           myDeferredInstances.stream().anyMatch(instances -> instances.contains(target));
+  }
+
   /**
    * Determines if {@code this} ClassifierSet's descendant children forms a superset (could be equivalent) of the given
    * {@code targetSet}'s immediate children.
@@ -401,6 +440,7 @@ public abstract class ClassifierSet implements MemoryObject {
     if (myClassifier == null) {
       myClassifier = createSubClassifier();
       myClassifier.partition(mySnapshotInstances, myDeltaInstances);
+      myClassifier.partitionDeferred(myDeferredInstances);
     }
   }
 
@@ -547,5 +587,19 @@ public abstract class ClassifierSet implements MemoryObject {
       snapshotInstances.clear();
       deltaInstances.clear();
     }
+
+    /**
+     * Same as {@link #partition(Collection, Collection)}, for groups of instances that are not wrapped yet. This will consume the groups
+     * from the input.
+     */
+    public final void partitionDeferred(@NotNull Collection<DeferredInstanceObjects> deferredInstances) {
+      if (isTerminalClassifier()) {
+        return;
+      }
+
+      deferredInstances
+        .forEach(instances -> getClassifierSet(instances.getFirstInstance(), true).addDeltaInstanceObjects(instances));
+      deferredInstances.clear();
+    }
   }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.stream.Stream;
+
+/**
+ * A group of instances of the same class that a {@link ClassifierSet} accounts for as a whole, and only wraps into
+ * {@link InstanceObject}s when its instances are streamed, e.g. once its {@link ClassSet} is expanded. The instances are delta
+ * allocations without time data or call stacks, as in a heap dump, and are not part of any other group or set.
+ */
+public interface DeferredInstanceObjects {
+  /**
+   * @return one of the instances, which classifiers use to pick the {@link ClassifierSet} of the whole group.
+   */
+  @NotNull
+  InstanceObject getFirstInstance();
+
+  int getCount();
+
+  /**
+   * @return the sum of the native sizes of the instances, leaving out the ones with an {@link MemoryObject#INVALID_VALUE} size. Same
+   * for the shallow and retained sizes below.
+   */
+  long getTotalNativeSize();
+
+  long getTotalShallowSize();
+
+  long getTotalRetainedSize();
+
+  /**
+   * @return new wrappers of the instances, equal to any other wrapper of the same instance.
+   */
+  @NotNull
+  Stream<InstanceObject> createInstances();
+
+  boolean contains(@NotNull InstanceObject instance);
+}
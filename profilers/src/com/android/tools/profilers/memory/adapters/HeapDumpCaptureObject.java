@@ -16,12 +16,12 @@
 package com.android.tools.profilers.memory.adapters;
 
 import com.android.tools.adtui.model.Range;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
 import com.android.tools.perflib.heap.ClassObj;
 import com.android.tools.perflib.heap.Heap;
 import com.android.tools.perflib.heap.Instance;
 import com.android.tools.perflib.heap.Snapshot;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
-import com.android.tools.perflib.heap.io.InMemoryBuffer;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
@@ -30,9 +30,12 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingS
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.util.io.FileUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
@@ -53,14 +56,26 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   private final FeatureTracker myFeatureTracker;
 
+  /**
+   * Loads run on the loader's threads, and the capture may be selected again while it is still loading. Loads are serialized on this
+   * lock, so the second one finds the capture loaded instead of loading it again.
+   */
+  private final Object myLoadLock = new Object();
+
+  /**
+   * Incremented by {@link #release()}, so that a load running at the time drops what it loaded instead of publishing it. Guarded by
+   * this, as are {@link #myDumpFile} and {@link #myDumpBuffer}.
+   */
+  private int myReleaseCount;
+
+  /**
+   * Published at once by {@link #load(Range, Executor)}, once everything is loaded.
+   */
   @NotNull
-  private final Map<Integer, HeapSet> myHeapSets = new HashMap<>();
+  private volatile Map<Integer, HeapSet> myHeapSets = Collections.emptyMap();
 
   @NotNull
-  private final Map<ClassObj, InstanceObject> myClassObjectIndex = new HashMap<>();
-
-  @NotNull
-  private final Map<Instance, InstanceObject> myInstanceIndex = new HashMap<>();
+  private volatile Map<ClassObj, InstanceObject> myClassObjectIndex = Collections.emptyMap();
 
   @NotNull
   private final ClassDb myClassDb = new ClassDb();
@@ -74,9 +89,19 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Nullable
   private volatile Snapshot mySnapshot;
 
+  /**
+   * The dump, spilled to disk and memory-mapped while loaded. perflib only records where each instance lives in the buffer and decodes
+   * its fields when they are accessed, so the dump is paged in on demand rather than held on the heap.
+   */
+  @Nullable
+  private File myDumpFile;
+
+  @Nullable
+  private MemoryMappedFileBuffer myDumpBuffer;
+
   private volatile boolean myIsLoadingError = false;
 
-  private boolean myHasNativeAllocations;
+  private volatile boolean myHasNativeAllocations;
 
   public HeapDumpCaptureObject(@NotNull MemoryServiceBlockingStub client,
                                @NotNull Common.Session session,
@@ -168,92 +193,143 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
-    DumpDataResponse response;
-    while (true) {
-      // TODO move this to another thread and complete before we notify
-      response = myClient.getHeapDump(DumpDataRequest.newBuilder()
-                                        .setSession(mySession)
-                                        .setDumpTime(myHeapDumpInfo.getStartTime()).build());
-      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
-        break;
+    synchronized (myLoadLock) {
+      int releaseCount;
+      synchronized (this) {
+        if (mySnapshot != null) {
+          // Still loaded from an earlier selection, see unload().
+          return true;
+        }
+        releaseCount = myReleaseCount;
       }
-      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
-        try {
-          Thread.sleep(50L);
+
+      DumpDataResponse response;
+      while (true) {
+        // TODO move this to another thread and complete before we notify
+        response = myClient.getHeapDump(DumpDataRequest.newBuilder()
+                                          .setSession(mySession)
+                                          .setDumpTime(myHeapDumpInfo.getStartTime()).build());
+        if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
+          break;
         }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          myIsLoadingError = true;
-          return false;
+        else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
+          try {
+            Thread.sleep(50L);
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            myIsLoadingError = true;
+            return false;
+          }
+          continue;
         }
-        continue;
+        myIsLoadingError = true;
+        return false;
       }
-      myIsLoadingError = true;
-      return false;
-    }
 
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
-    Snapshot snapshot;
-    NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
-    if (myProguardMap != null) {
-      snapshot = Snapshot.createSnapshot(buffer, myProguardMap, Arrays.asList(nativeRegistryPostProcessor));
-    }
-    else {
-      snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Arrays.asList(nativeRegistryPostProcessor));
-    }
-    snapshot.computeDominators();
-    myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
-    mySnapshot = snapshot;
-
-    Map<Heap, HeapSet> heapSets = new HashMap<>(snapshot.getHeaps().size());
-    InstanceObject javaLangClassObject = null;
-    for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = new HeapSet(this, heap.getName(), heap.getId());
-      heapSets.put(heap, heapSet);
-      if (javaLangClassObject == null) {
-        ClassObj javaLangClass =
-          heap.getClasses().stream().filter(classObj -> ClassDb.JAVA_LANG_CLASS.equals(classObj.getClassName())).findFirst().orElse(null);
-        if (javaLangClass != null) {
-          javaLangClassObject = createClassObjectInstance(null, javaLangClass);
+      File dumpFile = null;
+      MemoryMappedFileBuffer buffer;
+      try {
+        dumpFile = FileUtil.createTempFile("heap_dump", ".hprof", true);
+        try (FileOutputStream output = new FileOutputStream(dumpFile)) {
+          response.getData().writeTo(output);
         }
+        buffer = new MemoryMappedFileBuffer(dumpFile);
+      }
+      catch (IOException e) {
+        if (dumpFile != null) {
+          FileUtil.delete(dumpFile);
+        }
+        myIsLoadingError = true;
+        return false;
       }
-    }
 
-    InstanceObject finalJavaLangClassObject = javaLangClassObject;
-    for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = heapSets.get(heap);
-      heap.getClasses().forEach(classObj -> {
-        InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj);
-        myInstanceIndex.put(classObj, classObject);
-        heapSet.addDeltaInstanceObject(classObject);
-      });
-    }
+      boolean isPublished = false;
+      try {
+        Snapshot snapshot;
+        NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
+        if (myProguardMap != null) {
+          snapshot = Snapshot.createSnapshot(buffer, myProguardMap, Arrays.asList(nativeRegistryPostProcessor));
+        }
+        else {
+          snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Arrays.asList(nativeRegistryPostProcessor));
+        }
+        snapshot.computeDominators();
+
+        Map<ClassObj, InstanceObject> classObjectIndex = new HashMap<>();
+        Map<Heap, HeapSet> heapSets = new HashMap<>(snapshot.getHeaps().size());
+        InstanceObject javaLangClassObject = null;
+        for (Heap heap : snapshot.getHeaps()) {
+          HeapSet heapSet = new HeapSet(this, heap.getName(), heap.getId());
+          heapSets.put(heap, heapSet);
+          if (javaLangClassObject == null) {
+            ClassObj javaLangClass =
+              heap.getClasses().stream().filter(classObj -> ClassDb.JAVA_LANG_CLASS.equals(classObj.getClassName())).findFirst()
+                .orElse(null);
+            if (javaLangClass != null) {
+              javaLangClassObject = createClassObjectInstance(null, javaLangClass, classObjectIndex);
+            }
+          }
+        }
 
-    for (Heap heap : snapshot.getHeaps()) {
-      HeapSet heapSet = heapSets.get(heap);
-      heap.forEachInstance(instance -> {
-        assert !ClassDb.JAVA_LANG_CLASS.equals(getName());
-        ClassObj classObj = instance.getClassObj();
-        InstanceObject instanceObject =
-          new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
-                                     myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
-        myInstanceIndex.put(instance, instanceObject);
-        heapSet.addDeltaInstanceObject(instanceObject);
-        return true;
-      });
-    }
-    heapSets.forEach((key, value) -> {
-      if ("default".equals(key.getName())) {
-        if (heapSets.size() == 1 || key.getInstancesCount() > 0) {
-          myHeapSets.put(key.getId(), value);
+        InstanceObject finalJavaLangClassObject = javaLangClassObject;
+        Map<ClassObj, ClassDb.ClassEntry> classEntries = new LinkedHashMap<>();
+        for (Heap heap : snapshot.getHeaps()) {
+          HeapSet heapSet = heapSets.get(heap);
+          heap.getClasses().forEach(classObj -> {
+            InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj, classObjectIndex);
+            heapSet.addDeltaInstanceObject(classObject);
+            classEntries.put(classObj, myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()));
+          });
+        }
+
+        // Rather than wrapping every instance of the dump, each heap gets one group per class, backed by the instance list perflib keeps
+        // for the class, and the instances are only wrapped once their ClassSet is expanded. Each heap has its own HeapSet, and the class
+        // entries and class objects are all registered above, so the heaps can be grouped in parallel.
+        snapshot.getHeaps().parallelStream().forEach(heap -> {
+          HeapSet heapSet = heapSets.get(heap);
+          classEntries.forEach((classObj, classEntry) -> {
+            List<Instance> instances = classObj.getHeapInstances(heap.getId());
+            if (!instances.isEmpty()) {
+              heapSet.addDeltaInstanceObjects(
+                new ClassInstanceObjects(heap.getId(), classObj, classEntry, classObjectIndex.get(classObj), instances));
+            }
+          });
+        });
+        Map<Integer, HeapSet> heapSetsById = new HashMap<>();
+        heapSets.forEach((key, value) -> {
+          if ("default".equals(key.getName())) {
+            if (heapSets.size() == 1 || key.getInstancesCount() > 0) {
+              heapSetsById.put(key.getId(), value);
+            }
+          }
+          else {
+            heapSetsById.put(key.getId(), value);
+          }
+        });
+
+        synchronized (this) {
+          if (myReleaseCount != releaseCount) {
+            // Released while loading, e.g. because another dump was selected in the meantime. Nothing refers to what was loaded yet.
+            return false;
+          }
+          myDumpFile = dumpFile;
+          myDumpBuffer = buffer;
+          myClassObjectIndex = classObjectIndex;
+          myHeapSets = heapSetsById;
+          myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
+          mySnapshot = snapshot;
+          isPublished = true;
         }
+        return true;
       }
-      else {
-        myHeapSets.put(key.getId(), value);
+      finally {
+        if (!isPublished) {
+          buffer.dispose();
+          FileUtil.delete(dumpFile);
+        }
       }
-    });
-
-    return true;
+    }
   }
 
   @Override
@@ -266,9 +342,31 @@ public class HeapDumpCaptureObject implements CaptureObject {
     return myIsLoadingError;
   }
 
+  /**
+   * Keeps the loaded snapshot, so selecting the dump again does not have to parse it and compute its dominators and retained sizes
+   * again. The owner calls {@link #release()} once the capture is no longer going to be selected.
+   */
   @Override
   public void unload() {
+  }
 
+  /**
+   * Drops the loaded snapshot and the file backing it, or what a load running at the time loads. The capture can still be loaded again
+   * afterwards.
+   */
+  public synchronized void release() {
+    myReleaseCount++;
+    mySnapshot = null;
+    myHeapSets = Collections.emptyMap();
+    myClassObjectIndex = Collections.emptyMap();
+    if (myDumpBuffer != null) {
+      myDumpBuffer.dispose();
+      myDumpBuffer = null;
+    }
+    if (myDumpFile != null) {
+      FileUtil.delete(myDumpFile);
+      myDumpFile = null;
+    }
   }
 
   @NotNull
@@ -289,35 +387,139 @@ public class HeapDumpCaptureObject implements CaptureObject {
              .asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE);
   }
 
+  /**
+   * Instance objects are not indexed, as that would hold one entry per instance of the dump. Instead, a new wrapper is created each time,
+   * which is equal to any other wrapper of the same {@link Instance}, see {@link HeapDumpInstanceObject#equals(Object)}.
+   */
   @Nullable
   public InstanceObject findInstanceObject(@NotNull Instance instance) {
     if (mySnapshot == null) {
       return null;
     }
 
-    return myInstanceIndex.get(instance);
+    Map<ClassObj, InstanceObject> classObjectIndex = myClassObjectIndex;
+    if (instance instanceof ClassObj) {
+      return classObjectIndex.get(instance);
+    }
+    return createInstanceObject(instance, classObjectIndex);
+  }
+
+  @NotNull
+  private InstanceObject createInstanceObject(@NotNull Instance instance, @NotNull Map<ClassObj, InstanceObject> classObjectIndex) {
+    ClassObj classObj = instance.getClassObj();
+    ClassDb.ClassEntry classEntry;
+    synchronized (myClassDb) {
+      classEntry = myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName());
+    }
+    return new HeapDumpInstanceObject(this, classObjectIndex.get(classObj), instance, classEntry, null);
   }
 
   @NotNull
-  InstanceObject createClassObjectInstance(@Nullable InstanceObject javaLangClass, @NotNull ClassObj classObj) {
+  private InstanceObject createClassObjectInstance(@Nullable InstanceObject javaLangClass,
+                                                   @NotNull ClassObj classObj,
+                                                   @NotNull Map<ClassObj, InstanceObject> classObjectIndex) {
     if (javaLangClass == null) {
       // Deal with the root java.lang.Class object.
-      assert !myClassObjectIndex.containsKey(classObj);
+      assert !classObjectIndex.containsKey(classObj);
       InstanceObject rootInstanceObject =
         new HeapDumpInstanceObject(this, null, classObj,
                                    myClassDb.registerClass(classObj.getClassLoaderId(), "java.lang.Class"),
                                    ValueObject.ValueType.CLASS);
-      myClassObjectIndex.put(classObj, rootInstanceObject);
+      classObjectIndex.put(classObj, rootInstanceObject);
       return rootInstanceObject;
     }
     else {
       HeapDumpInstanceObject classObject = new HeapDumpInstanceObject(this, javaLangClass, classObj, myClassDb
         .registerClass(classObj.getClassLoaderId(), javaLangClass.getClassEntry().getClassName()), ValueObject.ValueType.CLASS);
-      myClassObjectIndex.put(classObj, classObject);
+      classObjectIndex.put(classObj, classObject);
       return classObject;
     }
   }
 
+  /**
+   * The instances of a class in a heap.
+   */
+  private final class ClassInstanceObjects implements DeferredInstanceObjects {
+    private final int myHeapId;
+    @NotNull private final ClassObj myClassObj;
+    @NotNull private final ClassDb.ClassEntry myClassEntry;
+    @Nullable private final InstanceObject myClassObject;
+    @NotNull private final List<Instance> myInstances;
+    private final long myTotalNativeSize;
+    private final long myTotalShallowSize;
+    private final long myTotalRetainedSize;
+
+    private ClassInstanceObjects(int heapId,
+                                 @NotNull ClassObj classObj,
+                                 @NotNull ClassDb.ClassEntry classEntry,
+                                 @Nullable InstanceObject classObject,
+                                 @NotNull List<Instance> instances) {
+      myHeapId = heapId;
+      myClassObj = classObj;
+      myClassEntry = classEntry;
+      myClassObject = classObject;
+      myInstances = instances;
+
+      long nativeSize = 0;
+      long shallowSize = 0;
+      long retainedSize = 0;
+      for (Instance instance : instances) {
+        nativeSize += instance.getNativeSize() == INVALID_VALUE ? 0 : instance.getNativeSize();
+        shallowSize += instance.getSize() == INVALID_VALUE ? 0 : instance.getSize();
+        retainedSize += instance.getTotalRetainedSize() == INVALID_VALUE ? 0 : instance.getTotalRetainedSize();
+      }
+      myTotalNativeSize = nativeSize;
+      myTotalShallowSize = shallowSize;
+      myTotalRetainedSize = retainedSize;
+    }
+
+    @NotNull
+    @Override
+    public InstanceObject getFirstInstance() {
+      return createInstance(myInstances.get(0));
+    }
+
+    @Override
+    public int getCount() {
+      return myInstances.size();
+    }
+
+    @Override
+    public long getTotalNativeSize() {
+      return myTotalNativeSize;
+    }
+
+    @Override
+    public long getTotalShallowSize() {
+      return myTotalShallowSize;
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+      return myTotalRetainedSize;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> createInstances() {
+      return myInstances.stream().map(this::createInstance);
+    }
+
+    @Override
+    public boolean contains(@NotNull InstanceObject instance) {
+      if (!(instance instanceof HeapDumpInstanceObject)) {
+        return false;
+      }
+      Instance heapDumpInstance = ((HeapDumpInstanceObject)instance).getInstance();
+      return heapDumpInstance.getClassObj() == myClassObj && heapDumpInstance.getHeap().getId() == myHeapId;
+    }
+
+    @NotNull
+    private InstanceObject createInstance(@NotNull Instance instance) {
+      return new HeapDumpInstanceObject(HeapDumpCaptureObject.this, myClassObject, instance, myClassEntry, null);
+    }
+  }
+
   @Nullable
   InstanceObject getClassObjectInstance(@NotNull Instance instance) {
     ClassObj classObj = instance.getClassObj();
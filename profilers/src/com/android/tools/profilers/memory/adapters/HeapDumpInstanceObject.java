@@ -103,6 +103,11 @@ class HeapDumpInstanceObject implements InstanceObject {
     return myInstance.hashCode();
   }
 
+  @NotNull
+  Instance getInstance() {
+    return myInstance;
+  }
+
   @NotNull
   @Override
   public String getName() {
@@ -19,7 +19,9 @@ import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGroup
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -31,6 +33,9 @@ public class HeapSet extends ClassifierSet {
   @NotNull private ClassGrouping myClassGrouping = ClassGrouping.ARRANGE_BY_CLASS;
   private final int myId;
   @Nullable private Pattern myFilter;
+  // Classifiers of the groupings that were partitioned before but are not shown now. They are kept up to date with every instance that is
+  // added or removed, so switching back to their grouping does not need to walk and re-partition all the instances.
+  @NotNull private final Map<ClassGrouping, Classifier> myInactiveClassifiers = new EnumMap<>(ClassGrouping.class);
 
   public HeapSet(@NotNull CaptureObject captureObject, @NotNull String heapName, int id) {
     super(heapName);
@@ -43,20 +48,107 @@ public class HeapSet extends ClassifierSet {
     if (myClassGrouping == classGrouping) {
       return;
     }
+    if (myClassifier != null) {
+      myInactiveClassifiers.put(myClassGrouping, myClassifier);
+    }
     myClassGrouping = classGrouping;
 
+    Classifier cachedClassifier = myInactiveClassifiers.remove(classGrouping);
+    if (cachedClassifier != null) {
+      // The cached classifier already holds every instance, including any that were added to this node since it was last shown.
+      mySnapshotInstances.clear();
+      myDeltaInstances.clear();
+      myDeferredInstances.clear();
+      myClassifier = cachedClassifier;
+      // Its sets might have been filtered with a different pattern, or not at all.
+      applyFilter(myFilter, false, true);
+      return;
+    }
+
     // Gather all the instances from the descendants and add them to the heap node.
     // Subsequent calls to getChildrenClassifierSets will re-partition them to the correct child ClassifierSet.
     List<InstanceObject> snapshotStream = getSnapshotInstanceStream().collect(Collectors.toList());
     List<InstanceObject> deltaStream = getDeltaInstanceStream().collect(Collectors.toList());
+    List<DeferredInstanceObjects> deferredStream = getDeferredInstanceStream().collect(Collectors.toList());
     myDeltaInstances.clear();
     mySnapshotInstances.clear();
+    myDeferredInstances.clear();
     myClassifier = null;
     myDeltaInstances.addAll(deltaStream);
     mySnapshotInstances.addAll(snapshotStream);
+    myDeferredInstances.addAll(deferredStream);
     myNeedsRefiltering = true;
   }
 
+  @Override
+  public void addSnapshotInstanceObject(@NotNull InstanceObject instanceObject) {
+    super.addSnapshotInstanceObject(instanceObject);
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      classifier.getClassifierSet(instanceObject, true).addSnapshotInstanceObject(instanceObject);
+    }
+  }
+
+  @Override
+  public void removeSnapshotInstanceObject(@NotNull InstanceObject instanceObject) {
+    super.removeSnapshotInstanceObject(instanceObject);
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      getInactiveClassifierSet(classifier, instanceObject).removeSnapshotInstanceObject(instanceObject);
+    }
+  }
+
+  @Override
+  public boolean addDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      classifier.getClassifierSet(instanceObject, true).addDeltaInstanceObject(instanceObject);
+    }
+    return super.addDeltaInstanceObject(instanceObject);
+  }
+
+  @Override
+  public void addDeltaInstanceObjects(@NotNull DeferredInstanceObjects instances) {
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      classifier.getClassifierSet(instances.getFirstInstance(), true).addDeltaInstanceObjects(instances);
+    }
+    super.addDeltaInstanceObjects(instances);
+  }
+
+  @Override
+  public boolean freeDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      classifier.getClassifierSet(instanceObject, true).freeDeltaInstanceObject(instanceObject);
+    }
+    return super.freeDeltaInstanceObject(instanceObject);
+  }
+
+  @Override
+  public boolean removeAddedDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      getInactiveClassifierSet(classifier, instanceObject).removeAddedDeltaInstanceObject(instanceObject);
+    }
+    return super.removeAddedDeltaInstanceObject(instanceObject);
+  }
+
+  @Override
+  public boolean removeFreedDeltaInstanceObject(@NotNull InstanceObject instanceObject) {
+    for (Classifier classifier : myInactiveClassifiers.values()) {
+      getInactiveClassifierSet(classifier, instanceObject).removeFreedDeltaInstanceObject(instanceObject);
+    }
+    return super.removeFreedDeltaInstanceObject(instanceObject);
+  }
+
+  @Override
+  public void clearClassifierSets() {
+    myInactiveClassifiers.clear();
+    super.clearClassifierSets();
+  }
+
+  @NotNull
+  private static ClassifierSet getInactiveClassifierSet(@NotNull Classifier classifier, @NotNull InstanceObject instanceObject) {
+    ClassifierSet classifierSet = classifier.getClassifierSet(instanceObject, false);
+    assert classifierSet != null;
+    return classifierSet;
+  }
+
   public int getId() {
     return myId;
   }
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.network;
 
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.LineChartModel;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
@@ -49,9 +50,10 @@ public class NetworkUsage extends LineChartModel {
   }
 
   @NotNull
-  public NetworkTrafficDataSeries createSeries(@NotNull StudioProfilers profilers, @NotNull NetworkTrafficDataSeries.Type trafficType) {
+  public DataSeries<Long> createSeries(@NotNull StudioProfilers profilers, @NotNull NetworkTrafficDataSeries.Type trafficType) {
     NetworkServiceGrpc.NetworkServiceBlockingStub client = profilers.getClient().getNetworkClient();
-    return new NetworkTrafficDataSeries(client, profilers.getSession(), trafficType);
+    return profilers.getCachedSeries("Network." + trafficType.name(),
+                                     () -> new NetworkTrafficDataSeries(client, profilers.getSession(), trafficType));
   }
 
   @NotNull
@@ -16,11 +16,18 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.perflib.vmtrace.ClockType;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
 import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class CaptureNodeTest {
 
@@ -62,4 +69,128 @@ public class CaptureNodeTest {
     assertEquals(10, node.getEnd());
     assertEquals(10, node.getDuration());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void methodIdsAreSharedByNodesOfTheSameMethod() {
+    CaptureNode root = new CaptureNode(new SingleNameModel("A"));
+    CaptureNode b1 = new CaptureNode(new SingleNameModel("B"));
+    CaptureNode b2 = new CaptureNode(new SingleNameModel("B"));
+    CaptureNode a = new CaptureNode(new SingleNameModel("A"));
+    root.addChild(b1);
+    root.addChild(b2);
+    b2.addChild(a);
+    assertEquals(CaptureNode.NO_METHOD_ID, root.getMethodId());
+
+    // Assigning from any node covers the whole tree.
+    CaptureNode.assignMethodIds(b2);
+    assertEquals(root.getMethodId(), a.getMethodId());
+    assertEquals(b1.getMethodId(), b2.getMethodId());
+    assertNotEquals(root.getMethodId(), b1.getMethodId());
+    assertTrue(root.getMethodId() >= 0 && root.getMethodId() < 2);
+    assertTrue(b1.getMethodId() >= 0 && b1.getMethodId() < 2);
+  }
+
+  @Test
+  public void childrenAreAllocatedWhenAdded() {
+    CaptureNode root = new CaptureNode(new SingleNameModel("A"));
+    assertEquals(0, root.getChildCount());
+    assertTrue(root.getChildren().isEmpty());
+
+    CaptureNode child = new CaptureNode(new SingleNameModel("B"));
+    CaptureNode grandChild = new CaptureNode(new SingleNameModel("C"));
+    root.addChild(child);
+    root.addChild(new CaptureNode(new SingleNameModel("D")));
+    root.addChild(new CaptureNode(new SingleNameModel("E")));
+    child.addChild(grandChild);
+
+    assertEquals(3, root.getChildCount());
+    assertEquals(child, root.getChildAt(0));
+    assertEquals(grandChild, child.getChildAt(0));
+    assertEquals(child, grandChild.getParent());
+    assertTrue(grandChild.getChildren().isEmpty());
+  }
+
+  @Test
+  public void compactedTreeKeepsTheNodes() {
+    SingleNameModel a = new SingleNameModel("A");
+    SingleNameModel b = new SingleNameModel("B");
+    CaptureNode root = createNode(a, 0, 100, 0);
+    CaptureNode first = createNode(b, 10, 40, 1);
+    CaptureNode second = createNode(a, 50, 90, 1);
+    root.addChild(first);
+    root.addChild(second);
+    first.addChild(createNode(b, 20, 30, 2));
+    second.addChild(createNode(b, 60, 70, 2));
+    second.addChild(createNode(a, 75, 85, 2));
+    second.setFilterType(CaptureNode.FilterType.EXACT_MATCH);
+
+    CaptureNode compacted = CaptureNode.compact(root);
+    assertSameTree(root, compacted);
+    assertNull(compacted.getParent());
+    assertSame(compacted, CaptureNode.compact(compacted));
+
+    CaptureNode compactedSecond = compacted.getChildAt(1);
+    assertEquals(compactedSecond, compacted.getChildren().get(1));
+    assertEquals(compactedSecond, compactedSecond.getChildAt(1).getParent());
+    assertEquals(compactedSecond.hashCode(), compacted.getChildAt(1).hashCode());
+    assertNotEquals(compactedSecond, compacted.getChildAt(0));
+    assertEquals(compacted.getChildAt(0).getMethodId(), compactedSecond.getChildAt(0).getMethodId());
+    assertEquals(compacted.getMethodId(), compactedSecond.getMethodId());
+    assertNotEquals(compacted.getMethodId(), compactedSecond.getChildAt(0).getMethodId());
+  }
+
+  @Test
+  public void compactedNodesWriteToTheirStore() {
+    CaptureNode root = new CaptureNode(new SingleNameModel("A"));
+    root.addChild(createNode(new SingleNameModel("B"), 10, 20, 1));
+    CaptureNode compacted = CaptureNode.compact(root);
+
+    CaptureNode child = compacted.getChildAt(0);
+    child.setFilterType(CaptureNode.FilterType.UNMATCH);
+    child.setClockType(ClockType.THREAD);
+    child.setStartThread(12);
+    child.setEndThread(18);
+    child.setDepth(3);
+
+    CaptureNode sameChild = compacted.getFirstChild();
+    assertTrue(sameChild.isUnmatched());
+    assertEquals(ClockType.THREAD, sameChild.getClockType());
+    assertEquals(12, sameChild.getStart());
+    assertEquals(18, sameChild.getEnd());
+    assertEquals(3, sameChild.getDepth());
+    assertEquals(ClockType.GLOBAL, compacted.getClockType());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void compactedTreeCannotBeGivenChildren() {
+    CaptureNode compacted = CaptureNode.compact(new CaptureNode(new SingleNameModel("A")));
+    compacted.addChild(new CaptureNode(new SingleNameModel("B")));
+  }
+
+  @NotNull
+  private static CaptureNode createNode(@NotNull CaptureNodeModel model, long start, long end, int depth) {
+    CaptureNode node = new CaptureNode(model);
+    node.setStartGlobal(start);
+    node.setEndGlobal(end);
+    node.setStartThread(start / 2);
+    node.setEndThread(end / 2);
+    node.setDepth(depth);
+    return node;
+  }
+
+  private static void assertSameTree(@NotNull CaptureNode expected, @NotNull CaptureNode actual) {
+    assertSame(expected.getData(), actual.getData());
+    assertEquals(expected.getStartGlobal(), actual.getStartGlobal());
+    assertEquals(expected.getEndGlobal(), actual.getEndGlobal());
+    assertEquals(expected.getStartThread(), actual.getStartThread());
+    assertEquals(expected.getEndThread(), actual.getEndThread());
+    assertEquals(expected.getDepth(), actual.getDepth());
+    assertEquals(expected.getClockType(), actual.getClockType());
+    assertEquals(expected.getFilterType(), actual.getFilterType());
+    assertEquals(expected.getChildCount(), actual.getChildCount());
+    for (int i = 0; i < expected.getChildCount(); ++i) {
+      assertEquals(actual, actual.getChildAt(i).getParent());
+      assertSameTree(expected.getChildAt(i), actual.getChildAt(i));
+    }
+  }
+}
@@ -62,6 +62,17 @@ class CpuCaptureParserTest {
     assertThat(parser.parse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID, largeTraceFile, CpuProfiler.CpuProfilerType.ART)).isNotNull()
   }
 
+  @Test
+  fun simpleperfTraceLargerThanDefaultLimitIsParsedWithoutAsking() {
+    val largeTraceFile = ByteString.copyFrom(ByteArray(CpuCaptureParser.MAX_SUPPORTED_TRACE_SIZE + 1))
+    val fakeServices = FakeIdeProfilerServices()
+    // Would decline parsing if asked
+    fakeServices.setShouldParseLongTraces(false)
+    val parser = CpuCaptureParser(fakeServices)
+    assertThat(CpuCaptureParser.getMaxSupportedTraceSize(CpuProfiler.CpuProfilerType.SIMPLEPERF)).isGreaterThan(largeTraceFile.size())
+    assertThat(parser.parse(ProfilersTestData.SESSION_DATA, ANY_TRACE_ID, largeTraceFile, CpuProfiler.CpuProfilerType.SIMPLEPERF)).isNotNull()
+  }
+
   @Test
   fun corruptedTraceFileThrowsException() {
     val parser = CpuCaptureParser(FakeIdeProfilerServices())
@@ -79,6 +79,8 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
 
   private CpuProfiler.CpuProfilingAppStartRequest myLastSuccessfulStartRequest;
 
+  private int myGetThreadsCallCount;
+
   @Override
   public void startProfilingApp(CpuProfiler.CpuProfilingAppStartRequest request,
                                 StreamObserver<CpuProfiler.CpuProfilingAppStartResponse> responseObserver) {
@@ -130,6 +132,10 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
     myTraceId = id;
   }
 
+  public int getGetThreadsCallCount() {
+    return myGetThreadsCallCount;
+  }
+
   @Override
   public void checkAppProfilingState(CpuProfiler.ProfilingStateRequest request,
                                      StreamObserver<CpuProfiler.ProfilingStateResponse> responseObserver) {
@@ -257,6 +263,7 @@ public class FakeCpuService extends CpuServiceGrpc.CpuServiceImplBase {
 
   @Override
   public void getThreads(CpuProfiler.GetThreadsRequest request, StreamObserver<CpuProfiler.GetThreadsResponse> responseObserver) {
+    myGetThreadsCallCount++;
     CpuProfiler.GetThreadsResponse.Builder response = CpuProfiler.GetThreadsResponse.newBuilder();
     List<CpuProfiler.GetThreadsResponse.Thread> threads;
     if (myValidTrace) {
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.Range;
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RangeSumIndexTest {
+  private static final long BASE_TIME = 1_000_000_000_000L;
+
+  @Test
+  public void sumOfIntersectionsWithNodes() {
+    List<CaptureNode> nodes = Arrays.asList(createNode(0, 10), createNode(5, 15), createNode(20, 30));
+    RangeSumIndex index = RangeSumIndex.ofNodes(nodes);
+
+    assertEquals(30, index.getIntersectionSum(new Range(BASE_TIME - 5, BASE_TIME + 40)), 0);
+    assertEquals(10, index.getIntersectionSum(new Range(BASE_TIME + 5, BASE_TIME + 10)), 0);
+    assertEquals(2, index.getIntersectionSum(new Range(BASE_TIME + 14, BASE_TIME + 21)), 0);
+    assertEquals(0, index.getIntersectionSum(new Range(BASE_TIME + 16, BASE_TIME + 19)), 0);
+    assertEquals(0, index.getIntersectionSum(new Range()), 0);
+  }
+
+  @Test
+  public void sumOfIntersectionsWithChildren() {
+    CaptureNode parent = createNode(0, 100);
+    parent.addChild(createNode(10, 20));
+    parent.addChild(createNode(30, 60));
+    RangeSumIndex index = RangeSumIndex.ofChildren(Arrays.asList(parent, createNode(200, 300)));
+
+    assertEquals(40, index.getIntersectionSum(new Range(BASE_TIME, BASE_TIME + 300)), 0);
+    assertEquals(15, index.getIntersectionSum(new Range(BASE_TIME + 15, BASE_TIME + 40)), 0);
+  }
+
+  @Test
+  public void matchesSumOfIndividualIntersections() {
+    Random random = new Random(42);
+    List<CaptureNode> nodes = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      long start = random.nextInt(100_000);
+      nodes.add(createNode(start, start + random.nextInt(1000)));
+    }
+    RangeSumIndex index = RangeSumIndex.ofNodes(nodes);
+
+    for (int i = 0; i < 100; i++) {
+      double min = BASE_TIME + random.nextInt(100_000);
+      Range range = new Range(min, min + random.nextInt(20_000));
+      double expected = 0;
+      for (CaptureNode node : nodes) {
+        Range intersection = range.getIntersection(new Range(node.getStart(), node.getEnd()));
+        expected += intersection.isEmpty() ? 0 : intersection.getLength();
+      }
+      assertEquals(expected, index.getIntersectionSum(range), 1e-6);
+    }
+  }
+
+  private static CaptureNode createNode(long start, long end) {
+    CaptureNode node = new CaptureNode(new SingleNameModel("node"));
+    node.setStartGlobal(BASE_TIME + start);
+    node.setEndGlobal(BASE_TIME + end);
+    return node;
+  }
+}
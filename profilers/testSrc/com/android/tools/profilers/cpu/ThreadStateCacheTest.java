@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu;
+
+import com.android.tools.adtui.model.FakeTimer;
+import com.android.tools.adtui.model.Range;
+import com.android.tools.adtui.model.SeriesData;
+import com.android.tools.profilers.FakeGrpcChannel;
+import com.android.tools.profilers.FakeIdeProfilerServices;
+import com.android.tools.profilers.FakeProfilerService;
+import com.android.tools.profilers.ProfilersTestData;
+import com.android.tools.profilers.StudioProfilers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThreadStateCacheTest {
+  private final FakeCpuService myService = new FakeCpuService();
+
+  @Rule
+  public FakeGrpcChannel myGrpcChannel = new FakeGrpcChannel("ThreadStateCacheTest", myService, new FakeProfilerService());
+
+  private ThreadStateCache myCache;
+
+  @Before
+  public void setUp() {
+    FakeTimer timer = new FakeTimer();
+    StudioProfilers profilers = new StudioProfilers(myGrpcChannel.getClient(), new FakeIdeProfilerServices(), timer);
+    timer.tick(FakeTimer.ONE_SECOND_IN_NS);
+    myCache = new ThreadStateCache(new CpuProfilerStage(profilers), ProfilersTestData.SESSION_DATA);
+  }
+
+  @Test
+  public void threadsShareOneFetch() {
+    Range range = secondsRange(1, 15);
+    int callCount = myService.getGetThreadsCallCount();
+
+    assertEquals(2, myCache.getThreads(range).size());
+    assertEquals(2, myCache.getStates(1, range).size());
+    assertEquals(5, myCache.getStates(2, range).size());
+    assertEquals(callCount + 1, myService.getGetThreadsCallCount());
+  }
+
+  @Test
+  public void rangeInsideTheWindowIsNotFetchedAgain() {
+    myCache.getStates(1, secondsRange(1, 10));
+    int callCount = myService.getGetThreadsCallCount();
+
+    List<SeriesData<CpuProfilerStage.ThreadState>> states = myCache.getStates(2, secondsRange(7, 9));
+    assertEquals(callCount, myService.getGetThreadsCallCount());
+    // The state the thread was in when the range starts, and the one it changed to within the range.
+    assertEquals(2, states.size());
+    assertEquals(CpuProfilerStage.ThreadState.RUNNING, states.get(0).value);
+    assertEquals(CpuProfilerStage.ThreadState.UNKNOWN, states.get(1).value);
+  }
+
+  @Test
+  public void windowIsExtendedAsTheRangeAdvances() {
+    assertEquals(1, myCache.getThreads(secondsRange(1, 5)).size());
+    int callCount = myService.getGetThreadsCallCount();
+
+    Range range = secondsRange(5, 10);
+    assertEquals(2, myCache.getThreads(range).size());
+    assertEquals(callCount + 1, myService.getGetThreadsCallCount());
+
+    List<SeriesData<CpuProfilerStage.ThreadState>> thread1 = myCache.getStates(1, range);
+    assertEquals(2, thread1.size());
+    assertEquals(CpuProfilerStage.ThreadState.RUNNING, thread1.get(0).value);
+    assertEquals(CpuProfilerStage.ThreadState.DEAD, thread1.get(1).value);
+
+    List<SeriesData<CpuProfilerStage.ThreadState>> thread2 = myCache.getStates(2, range);
+    assertEquals(3, thread2.size());
+    assertEquals(CpuProfilerStage.ThreadState.RUNNING, thread2.get(0).value);
+    assertEquals(CpuProfilerStage.ThreadState.UNKNOWN, thread2.get(1).value);
+    assertEquals(CpuProfilerStage.ThreadState.SLEEPING, thread2.get(2).value);
+
+    // Thread 1 is dead by then.
+    assertEquals(1, myCache.getThreads(secondsRange(10, 15)).size());
+    assertEquals(callCount + 2, myService.getGetThreadsCallCount());
+  }
+
+  @Test
+  public void rangeBeforeTheWindowIsFetchedAgain() {
+    myCache.getThreads(secondsRange(10, 15));
+    int callCount = myService.getGetThreadsCallCount();
+
+    assertEquals(1, myCache.getThreads(secondsRange(1, 5)).size());
+    assertEquals(callCount + 1, myService.getGetThreadsCallCount());
+    assertEquals(1, myCache.getStates(1, secondsRange(1, 5)).size());
+  }
+
+  private static Range secondsRange(long min, long max) {
+    return new Range(TimeUnit.SECONDS.toMicros(min), TimeUnit.SECONDS.toMicros(max));
+  }
+}
@@ -16,6 +16,7 @@
 package com.android.tools.profilers.cpu.simpleperf;
 
 import com.android.tools.adtui.model.Range;
+import com.android.tools.profiler.proto.SimpleperfReport;
 import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuThreadInfo;
@@ -23,10 +24,15 @@ import com.intellij.openapi.util.io.FileUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.profilers.cpu.CpuProfilerTestUtils.traceFileToByteString;
@@ -165,10 +171,94 @@ public class SimpleperfTraceParserTest {
   @Test
   public void rangeShouldBeFromFirstToLastTimestamp() throws IOException {
     myParser.parse(myTraceFile);
-    long startTimeUs = TimeUnit.NANOSECONDS.toMicros(myParser.mySamples.get(0).getTime());
-    long endTimeUs = TimeUnit.NANOSECONDS.toMicros( myParser.mySamples.get(myParser.mySamples.size() - 1).getTime());
+    long startTimeUs = TimeUnit.NANOSECONDS.toMicros(myParser.mySamples.getFirstSampleTime());
+    long endTimeUs = TimeUnit.NANOSECONDS.toMicros(myParser.mySamples.getLastSampleTime());
     Range expected = new Range(startTimeUs, endTimeUs);
     assertEquals(expected.getMin(), myParser.getRange().getMin(), 0);
     assertEquals(expected.getMax(), myParser.getRange().getMax(), 0);
   }
+
+  @Test
+  public void parsingFromBufferMatchesParsingFromFile() throws IOException {
+    myParser.parse(myTraceFile);
+
+    ByteString traceBytes = traceFileToByteString("simpleperf.trace");
+    ByteBuffer buffer = traceBytes.asReadOnlyByteBuffer();
+    SimpleperfTraceParser bufferParser = new SimpleperfTraceParser();
+    bufferParser.parse(buffer);
+
+    // The buffer is read without being consumed.
+    assertEquals(0, buffer.position());
+    assertEquals(myParser.getSampleCount(), bufferParser.getSampleCount());
+    assertEquals(myParser.getLostSampleCount(), bufferParser.getLostSampleCount());
+    assertEquals(myParser.getRange().getMin(), bufferParser.getRange().getMin(), 0);
+    assertEquals(myParser.getRange().getMax(), bufferParser.getRange().getMax(), 0);
+    assertEquals(myParser.getCaptureTrees().size(), bufferParser.getCaptureTrees().size());
+  }
+
+  @Test
+  public void treesBuiltInParallelMatchTreesBuiltSequentially() throws IOException {
+    ByteBuffer trace = createSyntheticTrace(8, 2000);
+
+    SimpleperfTraceParser sequentialParser = new SimpleperfTraceParser(new ForkJoinPool(1));
+    sequentialParser.parse(trace);
+    SimpleperfTraceParser parallelParser = new SimpleperfTraceParser(new ForkJoinPool(4));
+    parallelParser.parse(trace);
+
+    Map<Integer, CaptureNode> sequentialTrees = new HashMap<>();
+    sequentialParser.getCaptureTrees().forEach((thread, tree) -> sequentialTrees.put(thread.getId(), tree));
+    assertEquals(8, sequentialTrees.size());
+    assertEquals(8, parallelParser.getCaptureTrees().size());
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : parallelParser.getCaptureTrees().entrySet()) {
+      assertSameTree(sequentialTrees.get(entry.getKey().getId()), entry.getValue());
+    }
+  }
+
+  private static void assertSameTree(CaptureNode expected, CaptureNode actual) {
+    assertEquals(expected.getData().getFullName(), actual.getData().getFullName());
+    assertEquals(expected.getStart(), actual.getStart());
+    assertEquals(expected.getEnd(), actual.getEnd());
+    assertEquals(expected.getDepth(), actual.getDepth());
+    assertEquals(expected.getChildren().size(), actual.getChildren().size());
+    for (int i = 0; i < expected.getChildren().size(); i++) {
+      assertSameTree(expected.getChildren().get(i), actual.getChildren().get(i));
+    }
+  }
+
+  /**
+   * Creates a trace in the format read by {@link SimpleperfTraceParser#parseTraceBuffer}, where each thread cycles through call chains of
+   * varying depth over a small set of symbols.
+   */
+  private static ByteBuffer createSyntheticTrace(int threadCount, int samplesPerThread) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long time = TimeUnit.SECONDS.toNanos(1);
+    for (int i = 0; i < samplesPerThread; i++) {
+      for (int thread = 0; thread < threadCount; thread++) {
+        SimpleperfReport.Sample.Builder sample = SimpleperfReport.Sample.newBuilder().setTime(time).setThreadId(thread);
+        int depth = 1 + (i + thread) % 5;
+        for (int frame = depth - 1; frame >= 0; frame--) {
+          // Leaf first, like simpleperf. The symbol depends on the sample so that call chains diverge at different depths.
+          sample.addCallchain(SimpleperfReport.Sample.CallChainEntry.newBuilder().setFileId(0).setSymbolId((frame + i / 3) % 4));
+        }
+        writeRecord(out, SimpleperfReport.Record.newBuilder().setSample(sample).build());
+        time += TimeUnit.MICROSECONDS.toNanos(100);
+      }
+    }
+    writeRecord(out, SimpleperfReport.Record.newBuilder().setLost(
+      SimpleperfReport.LostSituation.newBuilder().setSampleCount(threadCount * samplesPerThread)).build());
+    writeRecord(out, SimpleperfReport.Record.newBuilder().setFile(
+      SimpleperfReport.File.newBuilder().setId(0).setPath("/system/lib/libsynthetic.so")
+        .addSymbol("a()").addSymbol("b()").addSymbol("c()").addSymbol("d()")).build());
+    for (int thread = 0; thread < threadCount; thread++) {
+      writeRecord(out, SimpleperfReport.Record.newBuilder().setThread(
+        SimpleperfReport.Thread.newBuilder().setThreadId(thread).setThreadName("Thread " + thread)).build());
+    }
+    out.write(new byte[4]);
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+
+  private static void writeRecord(ByteArrayOutputStream out, SimpleperfReport.Record record) throws IOException {
+    out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(record.getSerializedSize()).array());
+    record.writeTo(out);
+  }
 }
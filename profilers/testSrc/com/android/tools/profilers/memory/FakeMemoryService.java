@@ -72,6 +72,7 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
   private LegacyAllocationEventsResponse.Builder myAllocationEventsBuilder = LegacyAllocationEventsResponse.newBuilder();
   private AllocationContextsResponse.Builder myAllocationContextBuilder = AllocationContextsResponse.newBuilder();
   private int myTrackAllocationCount;
+  private volatile int myHeapDumpRequestCount;
   private Common.Session mySession;
 
   @Override
@@ -120,6 +121,7 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
 
   @Override
   public void getHeapDump(DumpDataRequest request, StreamObserver<DumpDataResponse> responseObserver) {
+    myHeapDumpRequestCount++;
     DumpDataResponse.Builder response = DumpDataResponse.newBuilder();
     if (myExplicitDumpDataStatus != null) {
       response.setStatus(myExplicitDumpDataStatus);
@@ -419,6 +421,10 @@ public class FakeMemoryService extends MemoryServiceGrpc.MemoryServiceImplBase {
     return myTrackAllocationCount;
   }
 
+  public int getHeapDumpRequestCount() {
+    return myHeapDumpRequestCount;
+  }
+
   @NotNull
   public Range getLastRequestedDataRange() {
     return myLastRequestedDataRange;
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 public class HeapDumpSampleDataSeriesTest {
 
@@ -73,4 +75,43 @@ public class HeapDumpSampleDataSeriesTest {
     assertEquals(TimeUnit.MICROSECONDS.toNanos(17), capture2.getStartTimeNs());
     assertEquals(Long.MAX_VALUE, capture2.getEndTimeNs());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testLastSelectedCaptureIsReused() {
+    HeapDumpInfo dumpInfo1 = HeapDumpInfo.newBuilder().setStartTime(TimeUnit.MICROSECONDS.toNanos(2))
+      .setEndTime(TimeUnit.MICROSECONDS.toNanos(7)).build();
+    HeapDumpInfo dumpInfo2 = HeapDumpInfo.newBuilder().setStartTime(TimeUnit.MICROSECONDS.toNanos(17))
+      .setEndTime(TimeUnit.MICROSECONDS.toNanos(20)).build();
+    myService.addExplicitHeapDumpInfo(dumpInfo1);
+    myService.addExplicitHeapDumpInfo(dumpInfo2);
+
+    HeapDumpSampleDataSeries series =
+      new HeapDumpSampleDataSeries(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA,
+                                   myIdeProfilerServices.getFeatureTracker());
+    List<SeriesData<CaptureDurationData<CaptureObject>>> dataList = series.getDataForXRange(new Range(0, Double.MAX_VALUE));
+    CaptureObject capture1 = dataList.get(0).value.getCaptureEntry().getCaptureObject();
+    // The entries are recreated on every query, the capture of the same dump is not.
+    dataList = series.getDataForXRange(new Range(0, Double.MAX_VALUE));
+    assertSame(capture1, dataList.get(0).value.getCaptureEntry().getCaptureObject());
+
+    CaptureObject capture2 = dataList.get(1).value.getCaptureEntry().getCaptureObject();
+    assertNotSame(capture1, capture2);
+    assertNotSame(capture1, dataList.get(0).value.getCaptureEntry().getCaptureObject());
+  }
+
+  @Test
+  public void testReleasedCaptureIsNotReused() {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(TimeUnit.MICROSECONDS.toNanos(2))
+      .setEndTime(TimeUnit.MICROSECONDS.toNanos(7)).build();
+    myService.addExplicitHeapDumpInfo(dumpInfo);
+
+    HeapDumpSampleDataSeries series =
+      new HeapDumpSampleDataSeries(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA,
+                                   myIdeProfilerServices.getFeatureTracker());
+    List<SeriesData<CaptureDurationData<CaptureObject>>> dataList = series.getDataForXRange(new Range(0, Double.MAX_VALUE));
+    CaptureObject capture = dataList.get(0).value.getCaptureEntry().getCaptureObject();
+    // E.g. when leaving the stage.
+    series.releaseCapture();
+    assertNotSame(capture, dataList.get(0).value.getCaptureEntry().getCaptureObject());
+  }
+}
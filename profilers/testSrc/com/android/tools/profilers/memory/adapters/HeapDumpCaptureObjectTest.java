@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory.adapters;
 
+import com.android.tools.perflib.heap.Instance;
 import com.android.tools.perflib.heap.SnapshotBuilder;
 import com.android.tools.profiler.proto.MemoryProfiler;
 import com.android.tools.profilers.FakeGrpcChannel;
@@ -31,6 +32,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.android.tools.profilers.memory.MemoryProfilerTestUtils.findChildClassSetWithName;
 import static org.junit.Assert.*;
@@ -187,6 +189,96 @@ public class HeapDumpCaptureObjectTest {
     assertEquals(0, capture.getHeapSets().size());
   }
 
+  @Test
+  public void testInstanceObjectsAreCreatedOnDemand() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker());
+
+    myService.setExplicitSnapshotBuffer(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    testHeap.getInstancesStream().forEach(instance -> {
+      Instance perflibInstance = ((HeapDumpInstanceObject)instance).getInstance();
+      InstanceObject found = capture.findInstanceObject(perflibInstance);
+      assertEquals(instance, found);
+      assertEquals(instance.getValueText(), found.getValueText());
+    });
+    capture.unload();
+  }
+
+  @Test
+  public void testInstancesAreWrappedWhenTheirClassSetIsExpanded() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker());
+
+    myService.setExplicitSnapshotBuffer(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    // Only the class objects are wrapped up front, the instances of Class0 and Class1 are held as one group per class.
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(4, testHeap.myDeltaInstances.size());
+    assertEquals(2, testHeap.myDeferredInstances.size());
+    assertEquals(6, testHeap.getInstancesCount());
+    assertEquals(6, testHeap.getDeltaAllocationCount());
+
+    ClassSet class0 = findChildClassSetWithName(testHeap, "Class0");
+    assertTrue(class0.myDeltaInstances.isEmpty());
+    assertEquals(1, class0.myDeferredInstances.size());
+    assertEquals(1, class0.getInstancesCount());
+    assertEquals(1, class0.getDeltaAllocationCount());
+
+    InstanceObject instance0 = class0.getInstancesStream().findFirst().orElse(null);
+    assertNotNull(instance0);
+    assertEquals("Class0@1 (0x1)", instance0.getValueText());
+    assertEquals(instance0.getShallowSize(), class0.getTotalShallowSize());
+    assertEquals(instance0.getRetainedSize(), class0.getTotalRetainedSize());
+    assertEquals(class0, testHeap.findContainingClassifierSet(instance0));
+    capture.release();
+  }
+
+  @Test
+  public void testReleaseWhileLoadingDropsLoadedDump() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker());
+
+    myService.setExplicitSnapshotBuffer(new SnapshotBuilder(2, 0, 0).addReferences(1, 2).addRoot(1).getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.NOT_READY);
+    AtomicBoolean loaded = new AtomicBoolean(true);
+    Thread loadThread = new Thread(() -> loaded.set(capture.load(null, null)));
+    loadThread.start();
+    while (myService.getHeapDumpRequestCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    // E.g. another dump got selected while this one was loading.
+    capture.release();
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    loadThread.join();
+    assertFalse(loaded.get());
+    assertFalse(capture.isDoneLoading());
+    assertFalse(capture.isError());
+    assertEquals(0, capture.getHeapSets().size());
+
+    // The capture can still be loaded again.
+    assertTrue(capture.load(null, null));
+    assertTrue(capture.isDoneLoading());
+    assertFalse(capture.getHeapSets().isEmpty());
+    capture.release();
+    assertFalse(capture.isDoneLoading());
+    assertEquals(0, capture.getHeapSets().size());
+  }
+
   @Test
   public void testSaveToFile() throws Exception {
     long startTimeNs = 3;
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.memory.MemoryProfilerConfiguration.ClassGrouping;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HeapSetTest {
+  private FakeCaptureObject myCaptureObject;
+  private HeapSet myHeapSet;
+
+  @Before
+  public void setUp() {
+    myCaptureObject = new FakeCaptureObject.Builder().build();
+    myHeapSet = new HeapSet(myCaptureObject, FakeCaptureObject.Builder.DEFAULT_HEAP_NAME, FakeCaptureObject.Builder.DEFAULT_HEAP_ID);
+  }
+
+  @Test
+  public void testSwitchingBackToAGroupingReusesItsClassifierSets() {
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.foo.A"));
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.foo.B"));
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.bar.C"));
+
+    List<ClassifierSet> classSets = myHeapSet.getChildrenClassifierSets();
+    assertThat(classSets).hasSize(3);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    List<ClassifierSet> packageSets = myHeapSet.getChildrenClassifierSets();
+    assertThat(packageSets).hasSize(1);
+    assertThat(packageSets.get(0).getTotalObjectCount()).isEqualTo(3);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS);
+    assertThat(myHeapSet.getChildrenClassifierSets()).containsExactlyElementsIn(classSets).inOrder();
+    assertThat(myHeapSet.getTotalObjectCount()).isEqualTo(3);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    assertThat(myHeapSet.getChildrenClassifierSets()).containsExactlyElementsIn(packageSets).inOrder();
+  }
+
+  @Test
+  public void testInactiveGroupingsAreKeptUpToDate() {
+    FakeInstanceObject instanceA = createInstance("com.foo.A");
+    FakeInstanceObject instanceB = createInstance("com.foo.B");
+    myHeapSet.addSnapshotInstanceObject(instanceA);
+    myHeapSet.addSnapshotInstanceObject(instanceB);
+    assertThat(myHeapSet.getChildrenClassifierSets()).hasSize(2);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    assertThat(myHeapSet.getChildrenClassifierSets()).hasSize(1);
+
+    // Change the instances while the class grouping is not shown.
+    FakeInstanceObject instanceC = createInstance("com.bar.C");
+    myHeapSet.addDeltaInstanceObject(instanceC);
+    myHeapSet.addDeltaInstanceObject(createInstance("com.foo.A"));
+    myHeapSet.removeSnapshotInstanceObject(instanceB);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS);
+    List<ClassifierSet> classSets = myHeapSet.getChildrenClassifierSets();
+    assertThat(classSets).hasSize(2);
+    assertThat(findSet(classSets, "A").getTotalObjectCount()).isEqualTo(2);
+    assertThat(findSet(classSets, "A").getDeltaAllocationCount()).isEqualTo(1);
+    assertThat(findSet(classSets, "C").getDeltaAllocationCount()).isEqualTo(1);
+    assertThat(myHeapSet.getTotalObjectCount()).isEqualTo(3);
+
+    // Changes made while the class grouping is shown reach the package grouping too.
+    myHeapSet.removeAddedDeltaInstanceObject(instanceC);
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    List<ClassifierSet> packageSets = myHeapSet.getChildrenClassifierSets();
+    assertThat(packageSets).hasSize(1);
+    assertThat(packageSets.get(0).getTotalObjectCount()).isEqualTo(2);
+    assertThat(myHeapSet.getTotalObjectCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testReusedGroupingIsRefiltered() {
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.foo.A"));
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.foo.B"));
+    assertThat(myHeapSet.getChildrenClassifierSets()).hasSize(2);
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    myHeapSet.selectFilter(Pattern.compile(".*A.*"));
+
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS);
+    List<ClassifierSet> classSets = myHeapSet.getChildrenClassifierSets();
+    assertThat(classSets).hasSize(1);
+    assertThat(classSets.get(0).getName()).isEqualTo("A");
+  }
+
+  @Test
+  public void testClearingDropsInactiveGroupings() {
+    myHeapSet.addSnapshotInstanceObject(createInstance("com.foo.A"));
+    List<ClassifierSet> classSets = myHeapSet.getChildrenClassifierSets();
+    // Switching to a grouping that was not shown yet gathers the group back to the heap, still unwrapped.
+    myHeapSet.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE);
+    assertThat(myHeapSet.myDeferredInstances).hasSize(1);
+    assertThat(myHeapSet.myDeltaInstances).hasSize(1);
+    ClassifierSet fooSet = findSet(findSet(myHeapSet.getChildrenClassifierSets(), "com").getChildrenClassifierSets(), "foo");
+    ClassifierSet packagedClassSetA = findSet(fooSet.getChildrenClassifierSets(), "A");
+    assertThat(packagedClassSetA.myDeferredInstances).hasSize(1);
+    assertThat(packagedClassSetA.myDeltaInstances).isEmpty();
+
+    assertThat(myHeapSet.getInstancesStream().filter(instancesOfA::contains).count()).isEqualTo(3L);
+    assertThat(myHeapSet.findContainingClassifierSet(instancesOfA.get(1))).isSameAs(packagedClassSetA);
+    assertThat(packagedClassSetA.getInstancesStream().toArray()).asList().containsExactlyElementsIn(instancesOfA).inOrder();
+  }
+
+  @NotNull
+  private FakeInstanceObject createInstance(@NotNull String className) {
+    return new FakeInstanceObject.Builder(myCaptureObject, className).setShallowSize(1).build();
+  }
+
+  @NotNull
+  private static ClassifierSet findSet(@NotNull List<ClassifierSet> sets, @NotNull String name) {
+    return sets.stream().filter(set -> name.equals(set.getName())).findFirst().orElseThrow(AssertionError::new);
+  }
+
+  private static final class ListDeferredInstanceObjects implements DeferredInstanceObjects {
+    @NotNull private final List<InstanceObject> myInstances;
+
+    private ListDeferredInstanceObjects(@NotNull List<InstanceObject> instances) {
+      myInstances = instances;
+    }
+
+    @NotNull
+    @Override
+    public InstanceObject getFirstInstance() {
+      return myInstances.get(0);
+    }
+
+    @Override
+    public int getCount() {
+      return myInstances.size();
+    }
+
+    @Override
+    public long getTotalNativeSize() {
+      return 0;
+    }
+
+    @Override
+    public long getTotalShallowSize() {
+      return myInstances.stream().mapToLong(InstanceObject::getShallowSize).sum();
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+      return 0;
+    }
+
+    @NotNull
+    @Override
+    public Stream<InstanceObject> createInstances() {
+      return myInstances.stream();
+    }
+
+    @Override
+    public boolean contains(@NotNull InstanceObject instance) {
+      return myInstances.contains(instance);
+    }
+  }
+}